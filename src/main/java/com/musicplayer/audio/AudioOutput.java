@@ -0,0 +1,60 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * 音频输出接口，接收解码后的16位PCM数据
+ * 同一个输出在多首歌曲之间复用，切歌时不关闭
+ */
+public interface AudioOutput {
+    /**
+     * 按指定格式打开输出，格式相同时保持当前输出不变
+     * @param format PCM格式
+     * @throws LineUnavailableException 如果音频设备不可用
+     */
+    void open(AudioFormat format) throws LineUnavailableException;
+
+    /**
+     * 写入交错排列的PCM采样，输出缓冲区满时阻塞
+     * @param samples 采样数据
+     * @param offset 起始位置
+     * @param length 采样个数（所有声道合计）
+     */
+    void write(short[] samples, int offset, int length);
+
+    /**
+     * 暂停输出，已写入的数据保留
+     */
+    void pause();
+
+    /**
+     * 继续输出
+     */
+    void resume();
+
+    /**
+     * 丢弃已写入但尚未播放的数据
+     */
+    void flush();
+
+    /**
+     * 等待已写入的数据全部播放完
+     */
+    void drain();
+
+    /**
+     * 获取打开后累计写入的采样帧数（每声道采样数）
+     */
+    long getFramesWritten();
+
+    /**
+     * 获取打开后已播放的采样帧数，按写入顺序计数，被清空的数据视为已播放
+     */
+    long getFramePosition();
+
+    /**
+     * 关闭输出，释放音频设备
+     */
+    void close();
+}
@@ -1,221 +1,359 @@
 package com.musicplayer.audio;
 
-import javazoom.jl.player.advanced.AdvancedPlayer;
-import javazoom.jl.player.advanced.PlaybackEvent;
-import javazoom.jl.player.advanced.PlaybackListener;
-import javax.swing.Timer;
+import javax.sound.sampled.AudioFormat;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 音频播放器类，负责MP3文件的播放控制
+ * 解码线程把PCM写入长期打开的音频输出，切换到预先打开的下一首时不关闭输出，实现无缝播放
  */
 public class AudioPlayer {
-    /** 播放器实例 */
-    private AdvancedPlayer player;
-    
-    /** 文件输入流 */
-    private FileInputStream fileInputStream;
-    
-    /** 缓冲输入流 */
-    private BufferedInputStream bufferedInputStream;
-    
+    /** 无缝播放时提前打开下一首的剩余帧数（约1秒） */
+    private static final int LOOKAHEAD_FRAMES = 40;
+
+    /** 下一首预先解码的帧数 */
+    private static final int PRIME_FRAMES = 4;
+
+    /** 当前曲目结束后淡变剩余部分每次混合的帧数 */
+    private static final int FADE_BLOCK_FRAMES = 1152;
+
+    /** 预缓冲最长等待时间（毫秒） */
+    private static final long PREBUFFER_TIMEOUT = 10000;
+
+    /** 等待旧解码线程退出的最长时间（毫秒） */
+    private static final long SESSION_JOIN_TIMEOUT = 1000;
+
+    /** 默认进度推送间隔（毫秒） */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 100;
+
+    /** 音频输出 */
+    private final AudioOutput output;
+
     /** 是否正在播放 */
-    private boolean isPlaying = false;
-    
-    /** 播放线程 */
-    private Thread playerThread;
-    
+    private volatile boolean isPlaying = false;
+
+    /** 播放执行器，所有解码会话共用一个线程 */
+    private final PlaybackExecutor executor = new PlaybackExecutor();
+
+    /** 当前播放会话 */
+    private volatile PlaybackExecutor.Session session;
+
     /** 当前播放文件路径 */
-    private String currentFilePath;
-    
-    /** 播放事件监听器 */
-    private PlaybackListener playbackListener;
-    
-    /** 进度更新定时器 */
-    private Timer progressTimer;
-    
-    /** 文件总字节数 */
-    private long totalBytes;
-    
-    /** 已读取字节数 */
-    private long bytesRead;
-    
-    /** 保存的播放位置 */
-    private long savedPosition;
-    
-    /** 播放开始时间 */
-    private long startTime;
-    
-    /** 播放暂停时的时间点 */
-    private long pausedTime;
-    
-    /** 缓存的音频数据 */
-    private byte[] audioData;
-    
-    /** 当前播放位置 */
-    private long currentPosition;
-    
+    private volatile String currentFilePath;
+
+    /** 按输出帧位置计算的播放时钟 */
+    private final PlaybackClock clock;
+
+    /** 进度事件分发器 */
+    private final ProgressDispatcher progressDispatcher;
+
+    /** 缓存的音频数据（非流式在线播放，从缓冲区池借用），只取出一次并在解码线程中归还 */
+    private final AtomicReference<ByteBuffer> audioData = new AtomicReference<>();
+
+    /** 本地文件的内存映射，跳转和继续播放时复用，不重新打开文件 */
+    private volatile ByteBuffer mappedData;
+
+    /** 读取、解码和输出环节共用的缓冲区池 */
+    private final BufferPool bufferPool = BufferPool.getDefault();
+
+    /** 最近播放曲目的已解码PCM缓存 */
+    private final PcmCache pcmCache = new PcmCache(bufferPool, PcmCache.DEFAULT_BUDGET);
+
     /** 是否是在线播放 */
     private boolean isOnlinePlayback;
-    
-    /** 播放进度（百分比）*/
-    private int currentProgress = 0;
-    
+
+    /** 当前曲目的帧索引 */
+    private volatile Mp3FrameIndex frameIndex;
+
+    /** 当前播放到的帧 */
+    private volatile int currentFrame;
+
+    /** 暂停或跳转时保存的帧位置 */
+    private int pausedFrame;
+
+    /** 流式播放的环形缓冲区 */
+    private StreamBuffer streamBuffer;
+
+    /** 是否启用流式播放 */
+    private boolean streamingEnabled = true;
+
+    /** 开始解码前需要预缓冲的帧数 */
+    private int prebufferFrames = 32;
+
+    /** 流式缓冲区容量（字节） */
+    private int streamBufferSize = 1024 * 1024;
+
+    /** 暂停时解码线程在此等待 */
+    private final Object pauseLock = new Object();
+
+    /** 是否处于暂停 */
+    private volatile boolean paused;
+
+    /** 是否启用无缝播放 */
+    private volatile boolean gaplessEnabled = true;
+
+    /** 下一首歌曲的文件路径 */
+    private volatile String nextFilePath;
+
+    /** 预先打开的下一首解码器（只在解码线程中访问） */
+    private PcmSource nextDecoder;
+
+    /** 预先打开的下一首的路径 */
+    private String nextDecoderPath;
+
+    /** 预先打开的下一首的帧索引 */
+    private Mp3FrameIndex nextIndex;
+
+    /** 预先打开的下一首的内存映射 */
+    private ByteBuffer nextMapped;
+
+    /** 淡入淡出时长（毫秒），0表示不启用 */
+    private volatile int crossfadeMillis;
+
+    /** 是否请求立即淡变到下一首 */
+    private volatile boolean crossfadeRequested;
+
+    /** 淡变混音器（只在解码线程中访问），长度和声道数不变时复用 */
+    private CrossfadeMixer mixer;
+
     /**
      * 进度监听器接口
      */
     public interface ProgressListener {
         /**
          * 进度更新回调
-         * @param current 当前进度值
-         * @param total 总进度值
+         * @param current 当前播放位置（毫秒）
+         * @param total 总时长（毫秒）
          */
         void onProgress(int current, int total);
     }
-    
-    /** 进度监听器实例 */
+
+    /**
+     * 曲目监听器接口，回调在解码线程中执行
+     */
+    public interface TrackListener {
+        /**
+         * 已无缝切换到下一首
+         * @param filePath 新曲目的文件路径
+         */
+        void onTrackChanged(String filePath);
+
+        /**
+         * 歌曲自然播放结束，且没有可以无缝衔接的下一首
+         */
+        void onTrackFinished();
+    }
+
+    /** 通过 {@link #setProgressListener} 设置的进度监听器 */
     private ProgressListener progressListener;
-    
+
+    /** 曲目监听器实例 */
+    private TrackListener trackListener;
+
     /**
-     * 构造函数，初始化播放监听器
+     * 构造函数，使用系统默认音频设备
      */
     public AudioPlayer() {
-        this.startTime = 0;
-        this.pausedTime = 0;
-        this.playbackListener = new PlaybackListener() {
-            @Override
-            public void playbackStarted(PlaybackEvent evt) {
-                startProgressTimer();
-            }
-            
-            @Override
-            public void playbackFinished(PlaybackEvent evt) {
-                isPlaying = false;
-                stopProgressTimer();
-                if (progressListener != null) {
-                    progressListener.onProgress(0, 100);
-                }
-            }
-        };
+        this(new LineAudioOutput());
     }
-    
+
+    /**
+     * 构造函数
+     * @param output 音频输出
+     */
+    public AudioPlayer(AudioOutput output) {
+        this.output = output;
+        this.clock = new PlaybackClock(output);
+        this.progressDispatcher = new ProgressDispatcher(this::getPositionMillis, this::getDurationMillis);
+    }
+
     /**
      * 设置进度监听器
      * @param listener 进度监听器
      */
     public void setProgressListener(ProgressListener listener) {
+        if (progressListener != null) {
+            progressDispatcher.removeListener(progressListener);
+        }
         this.progressListener = listener;
+        if (listener != null) {
+            progressDispatcher.addListener(listener, DEFAULT_PROGRESS_INTERVAL);
+        }
     }
-    
-    /**
-     * 开始进度更新定时器
-     */
-    private void startProgressTimer() {
-        if (progressTimer != null) {
-            progressTimer.stop();
-        }
-        
-        progressTimer = new Timer(100, e -> {
-            if (isPlaying && progressListener != null) {
-                try {
-                    if (fileInputStream != null && totalBytes > 0) {
-                        // 本地文件播放进度
-                        bytesRead = totalBytes - fileInputStream.available();
-                        currentProgress = (int) ((bytesRead * 100.0) / totalBytes);
-                        currentProgress = Math.min(currentProgress, 100);
-                        progressListener.onProgress(currentProgress, 100);
-                    } else if (isOnlinePlayback && audioData != null) {
-                        // 在线播放进度 - 使用实际数据大小计算
-                        long currentTime = System.currentTimeMillis();
-                        long elapsedTime = currentTime - startTime;
-                        
-                        // 使用音频数据大小和播放时间计算进度
-                        long totalDuration = 180000; // 3分钟 = 180000毫秒
-                        currentProgress = (int) ((elapsedTime * 100.0) / totalDuration);
-                        currentProgress = Math.min(currentProgress, 100);
-                        
-                        // 如果播放完成，重置进度
-                        if (currentProgress >= 100) {
-                            isPlaying = false;
-                            stopProgressTimer();
-                        }
-                        
-                        progressListener.onProgress(currentProgress, 100);
-                    }
-                } catch (IOException ex) {
-                    // 忽略Stream Closed异常
-                    if (!(ex.getMessage() != null && ex.getMessage().contains("Stream Closed"))) {
-                        ex.printStackTrace();
-                        stopProgressTimer();
-                    }
-                }
-            }
-        });
-        progressTimer.start();
+
+    /**
+     * 添加进度监听器，播放期间按指定间隔在事件线程中回调，暂停和停止后不再回调
+     * @param listener 进度监听器
+     * @param intervalMillis 回调间隔（毫秒）
+     */
+    public void addProgressListener(ProgressListener listener, long intervalMillis) {
+        progressDispatcher.addListener(listener, intervalMillis);
     }
-    
+
+    /**
+     * 移除进度监听器
+     * @param listener 进度监听器
+     */
+    public void removeProgressListener(ProgressListener listener) {
+        progressDispatcher.removeListener(listener);
+    }
+
     /**
-     * 停止进度更新定时器
+     * 设置曲目监听器
+     * @param listener 曲目监听器
      */
-    private void stopProgressTimer() {
-        if (progressTimer != null) {
-            progressTimer.stop();
-            progressTimer = null;
+    public void setTrackListener(TrackListener listener) {
+        this.trackListener = listener;
+    }
+
+    /**
+     * 设置是否启用无缝播放
+     * @param enabled 是否启用
+     */
+    public void setGaplessEnabled(boolean enabled) {
+        this.gaplessEnabled = enabled;
+    }
+
+    /**
+     * 设置淡入淡出时长，启用后当前曲目结束前与下一首同时解码并按等功率曲线混合
+     * @param millis 时长（毫秒），0表示不启用
+     */
+    public void setCrossfadeMillis(int millis) {
+        this.crossfadeMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * 获取淡入淡出时长
+     * @return 时长（毫秒），0表示不启用
+     */
+    public int getCrossfadeMillis() {
+        return crossfadeMillis;
+    }
+
+    /**
+     * 从当前位置淡变到指定歌曲
+     * @param filePath 歌曲文件路径
+     * @return 是否已安排淡变，未启用淡入淡出或没有正在进行的播放时返回false
+     */
+    public boolean crossfadeTo(String filePath) {
+        if (crossfadeMillis <= 0 || session == null || filePath == null) {
+            return false;
         }
+        nextFilePath = filePath;
+        crossfadeRequested = true;
+        return true;
+    }
+
+    /**
+     * 设置当前歌曲结束后无缝衔接的下一首
+     * @param filePath 下一首的文件路径，为null表示没有
+     */
+    public void setNextTrack(String filePath) {
+        this.nextFilePath = filePath;
+    }
+
+    /**
+     * 设置是否启用流式播放
+     * @param enabled 启用后在线音乐收到预缓冲的帧即开始解码，否则先读入整首歌曲
+     */
+    public void setStreamingEnabled(boolean enabled) {
+        this.streamingEnabled = enabled;
+    }
+
+    /**
+     * 设置流式播放开始解码前需要到达的帧数
+     * @param frames 帧数
+     */
+    public void setPrebufferFrames(int frames) {
+        this.prebufferFrames = Math.max(frames, 1);
+    }
+
+    /**
+     * 设置流式缓冲区容量
+     * @param bytes 容量（字节）
+     */
+    public void setStreamBufferSize(int bytes) {
+        this.streamBufferSize = bytes;
+    }
+
+    /**
+     * 获取当前流式播放的缓冲区欠载次数
+     */
+    public int getUnderrunCount() {
+        StreamBuffer buffer = streamBuffer;
+        return buffer != null ? buffer.getUnderruns() : 0;
     }
-    
+
     /**
      * 播放音乐流（在线音乐）
      */
     public void playStream(InputStream inputStream) throws Exception {
         stop();
         isOnlinePlayback = true;
-        
-        // 重置所有计数器
-        totalBytes = 0;
-        bytesRead = 0;
-        currentPosition = 0;
-        startTime = System.currentTimeMillis();
-        pausedTime = 0;
-        currentProgress = 0;
-        
-        // 读取整个流到内存
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buffer = new byte[8192];
-        int read;
-        while ((read = inputStream.read(buffer)) != -1) {
-            baos.write(buffer, 0, read);
-        }
-        
-        // 保存音频数据
-        audioData = baos.toByteArray();
-        totalBytes = audioData.length;
-        
-        // 创建新的播放流
-        ByteArrayInputStream bais = new ByteArrayInputStream(audioData);
-        bufferedInputStream = new BufferedInputStream(bais);
-        player = new AdvancedPlayer(bufferedInputStream);
-        
-        if (playbackListener != null) {
-            player.setPlayBackListener(playbackListener);
-        }
-        
-        isPlaying = true;
-        startProgressTimer();
-        
-        playerThread = new Thread(() -> {
-            try {
-                player.play();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                isPlaying = false;
-                stopProgressTimer();
+
+        if (streamingEnabled) {
+            // 网络读取线程填充环形缓冲区，到达预缓冲帧数后开始解码
+            StreamBuffer buffer = new StreamBuffer(streamBufferSize);
+            streamBuffer = buffer;
+            buffer.start(inputStream);
+            InputStream decoderInput = new ChannelInputStream(Channels.newChannel(buffer.getInputStream()));
+            launch(new TrackDecoder(decoderInput, null, 0, 0), buffer);
+            return;
+        }
+
+        // 读取整个流到内存并建立帧索引
+        ByteBuffer data = readFully(inputStream);
+        audioData.set(data);
+        frameIndex = Mp3FrameIndex.scan(data);
+
+        startPlayback(0);
+    }
+
+    /**
+     * 把整个流读入从缓冲区池借用的缓冲区，空间不足时换用更大的缓冲区
+     * @return 位置为0、界限为数据长度的缓冲区
+     */
+    private ByteBuffer readFully(InputStream inputStream) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        ByteBuffer data = bufferPool.acquire(streamBufferSize);
+        try {
+            while (channel.read(data) >= 0) {
+                if (!data.hasRemaining()) {
+                    ByteBuffer larger = bufferPool.acquire(data.capacity() * 2);
+                    data.flip();
+                    larger.put(data);
+                    bufferPool.release(data);
+                    data = larger;
+                }
             }
-        });
-        playerThread.start();
+        } catch (IOException e) {
+            bufferPool.release(data);
+            throw e;
+        }
+        data.flip();
+        return data;
     }
-    
+
+    /**
+     * 归还缓存的音频数据：解码线程和事件线程都可能调用，只有取出它的一方归还；
+     * 不在解码线程时交给解码线程，排在未及时退出的旧会话之后，旧解码器读完前不会被复用
+     */
+    private void releaseAudioData() {
+        ByteBuffer data = audioData.getAndSet(null);
+        if (data == null) {
+            return;
+        }
+        if (executor.isDecoderThread()) {
+            bufferPool.release(data);
+        } else {
+            executor.execute(() -> bufferPool.release(data));
+        }
+    }
+
     /**
      * 播放本地音乐文件
      */
@@ -224,167 +362,581 @@ public class AudioPlayer {
             stop();
             currentFilePath = filePath;
             isOnlinePlayback = false;
-            startPlayback(0);
-        } else {
-            startPlayback(0);
+            try {
+                frameIndex = Mp3FrameIndex.forFile(new File(filePath));
+            } catch (IOException e) {
+                e.printStackTrace();
+                frameIndex = null;
+            }
+            mappedData = mapQuietly(new File(filePath));
         }
+        startPlayback(0);
     }
-    
+
     /**
-     * 开始播放
+     * 从指定帧开始播放
+     * @param frame 起始帧
      */
-    private void startPlayback(long startPosition) {
+    private void startPlayback(int frame) {
+        endSession();
+        Mp3FrameIndex index = frameIndex;
+        if (index != null && index.getFrameCount() > 0 && frame >= index.getFrameCount()) {
+            return;
+        }
+
         try {
-            if (isOnlinePlayback) {
-                // 在线音乐播放
-                if (audioData != null) {
-                    ByteArrayInputStream bais = new ByteArrayInputStream(audioData);
-                    if (startPosition > 0) {
-                        bais.skip(startPosition);
-                    }
-                    bufferedInputStream = new BufferedInputStream(bais);
-                }
+            PcmSource decoder;
+            ByteBuffer data = audioData.get();
+            if (isOnlinePlayback && data != null) {
+                decoder = TrackDecoder.open(data, index, frame);
+            } else if (currentFilePath != null) {
+                decoder = openSource(new File(currentFilePath), mappedData, index, frame);
             } else {
-                // 本地音乐播放
-                File file = new File(currentFilePath);
-                totalBytes = file.length();
-                fileInputStream = new FileInputStream(currentFilePath);
-                if (startPosition > 0) {
-                    fileInputStream.skip(startPosition);
-                }
-                bufferedInputStream = new BufferedInputStream(fileInputStream);
+                return;
             }
-            
-            if (bufferedInputStream != null) {
-                player = new AdvancedPlayer(bufferedInputStream);
-                player.setPlayBackListener(playbackListener);
-                isPlaying = true;
-                startProgressTimer();
-                
-                playerThread = new Thread(() -> {
-                    try {
-                        player.play();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        isPlaying = false;
-                        stopProgressTimer();
-                    }
-                });
-                playerThread.start();
-            }
-        } catch (Exception e) {
+            currentFrame = frame;
+            launch(decoder, null);
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
-    
+
     /**
-     * 暂停播放
+     * 映射本地文件，失败时返回null，改为每次打开文件读取
      */
-    public void pause() {
-        if (player != null && isPlaying) {
-            try {
-                // 保存当前位置和进度
-                if (isOnlinePlayback) {
-                    pausedTime = System.currentTimeMillis() - startTime;
-                    currentProgress = Math.min((int)((pausedTime * 100.0) / (3 * 60 * 1000)), 100);
-                } else if (fileInputStream != null) {
-                    currentPosition = totalBytes - fileInputStream.available();
+    private static ByteBuffer mapQuietly(File file) {
+        try {
+            return MappedInputStream.map(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 打开本地文件的数据源：已缓存时直接读取PCM，从头播放时边解码边写入缓存，
+     * 第一次播放中途向后跳转时先读取已解码的部分，再接着解码写入
+     * @param file MP3文件
+     * @param mapped 文件的内存映射，为null时打开文件
+     * @param index 帧索引
+     * @param frame 起始帧
+     * @return 数据源
+     * @throws IOException 如果打开文件失败
+     */
+    private PcmSource openSource(File file, ByteBuffer mapped, Mp3FrameIndex index, int frame) throws IOException {
+        String key = PcmCache.keyOf(file);
+        if (index != null && index.getFrameCount() > 0) {
+            PcmCache.Entry entry = pcmCache.get(key);
+            if (entry != null) {
+                return new CachedPcmSource(entry, index, frame);
+            }
+            PcmCache.Capture partial = pcmCache.resume(key);
+            if (partial != null) {
+                if (PartialPcmSource.covers(partial, index, frame)) {
+                    int resume = PartialPcmSource.resumeFrame(partial, index);
+                    TrackDecoder decoder;
+                    try {
+                        decoder = mapped != null ? TrackDecoder.open(mapped, index, resume)
+                            : TrackDecoder.open(file, index, resume);
+                    } catch (IOException e) {
+                        partial.abort();
+                        throw e;
+                    }
+                    return new PartialPcmSource(pcmCache, partial, decoder, index, frame);
                 }
-                
-                // 停止播放
-                player.close();
-                isPlaying = false;
-                stopProgressTimer();
-            } catch (Exception e) {
-                e.printStackTrace();
+                // 向前跳过了已解码的部分，保留以备之后向后跳转
+                pcmCache.suspend(partial);
             }
         }
+        TrackDecoder decoder = mapped != null ? TrackDecoder.open(mapped, index, frame)
+            : TrackDecoder.open(file, index, frame);
+        PcmCache.Capture capture = frame == 0 ? pcmCache.startCapture(key, decoder.getTotalSamples()) : null;
+        return capture != null ? new CapturingPcmSource(decoder, pcmCache, capture) : decoder;
     }
-    
+
     /**
-     * 继续播放
+     * 获取已解码PCM缓存，可用于查看命中、未命中和淘汰次数或调整预算
      */
-    public void resume() {
-        if (!isPlaying) {
-            if (isOnlinePlayback && audioData != null) {
-                // 从暂停位置继续播放
-                ByteArrayInputStream bais = new ByteArrayInputStream(audioData);
-                try {
-                    // 跳过已播放的部分
-                    long skipBytes = (pausedTime * totalBytes) / (3 * 60 * 1000);
-                    bais.skip(skipBytes);
-                    
-                    bufferedInputStream = new BufferedInputStream(bais);
-                    player = new AdvancedPlayer(bufferedInputStream);
-                    
-                    if (playbackListener != null) {
-                        player.setPlayBackListener(playbackListener);
+    public PcmCache getPcmCache() {
+        return pcmCache;
+    }
+
+    /**
+     * 提交新的解码会话
+     * @param decoder 解码器
+     * @param buffer 流式播放时需要等待预缓冲的缓冲区，否则为null
+     */
+    private void launch(PcmSource decoder, StreamBuffer buffer) {
+        paused = false;
+        isPlaying = true;
+        output.resume();
+
+        session = executor.submit(token -> runSession(token, decoder, buffer));
+        progressDispatcher.start();
+    }
+
+    /**
+     * 解码循环：逐帧解码写入输出，歌曲结束时切换到预先打开的下一首
+     */
+    private void runSession(PlaybackExecutor.Session token, PcmSource decoder, StreamBuffer buffer) {
+        AudioFormat openedFormat = null;
+        boolean finished = false;
+        boolean needMark = true;
+        try {
+            if (buffer != null && token.isActive()) {
+                buffer.awaitFrames(prebufferFrames, PREBUFFER_TIMEOUT);
+            }
+            while (token.isActive()) {
+                if (!awaitResume(token)) {
+                    break;
+                }
+                if (!decoder.nextFrame()) {
+                    PcmSource next = gaplessEnabled ? takeNextDecoder() : null;
+                    if (next == null || !token.isActive()) {
+                        if (next != null) {
+                            next.close();
+                        }
+                        finished = true;
+                        break;
+                    }
+                    // 无缝切换：输出保持打开，直接接着写下一首的数据
+                    decoder.close();
+                    decoder = next;
+                    switchToNextTrack();
+                    needMark = true;
+                    continue;
+                }
+
+                if (!token.isActive()) {
+                    // 解码期间已被新会话取代：不再打开输出或写入
+                    break;
+                }
+                AudioFormat format = decoder.getFormat();
+                if (format != openedFormat) {
+                    if (openedFormat != null && !openedFormat.matches(format)) {
+                        output.drain();
                     }
-                    
-                    startTime = System.currentTimeMillis() - pausedTime;
-                    isPlaying = true;
-                    startProgressTimer();
-                    
-                    playerThread = new Thread(() -> {
-                        try {
-                            player.play();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        } finally {
-                            isPlaying = false;
-                            stopProgressTimer();
+                    output.open(format);
+                    openedFormat = format;
+                    needMark = true;
+                }
+                if (needMark) {
+                    // 写入不连续的数据前记录时钟标记
+                    clock.mark(decoder.getSamplePosition(), format.getSampleRate());
+                    needMark = false;
+                }
+                int fadeFrames = crossfadeFrames(decoder, format);
+                if (fadeFrames > 0) {
+                    boolean requested = crossfadeRequested;
+                    crossfadeRequested = false;
+                    PcmSource next = takeCrossfadeDecoder(format);
+                    if (next != null) {
+                        decoder = crossfade(token, decoder, next, fadeFrames);
+                        if (!token.isActive()) {
+                            break;
                         }
-                    });
-                    playerThread.start();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                        switchToNextTrack();
+                        currentFrame = decoder.getCurrentFrame() + 1;
+                        continue;
+                    }
+                    if (requested && (next = takeNextDecoder()) != null) {
+                        // 格式不同无法混合时直接切换
+                        decoder.close();
+                        decoder = next;
+                        switchToNextTrack();
+                        needMark = true;
+                        continue;
+                    }
+                }
+                output.write(decoder.getSamples(), decoder.getSampleOffset(), decoder.getSampleLength());
+                currentFrame = decoder.getCurrentFrame() + 1;
+                prepareNextDecoder();
+            }
+
+            if (finished && token.isActive()) {
+                output.drain();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            decoder.close();
+            if (token.isActive() && session == token) {
+                session = null;
+                isPlaying = false;
+                pausedFrame = 0;
+                onSessionEnded();
+                if (finished && trackListener != null) {
+                    trackListener.onTrackFinished();
                 }
-            } else {
-                // 本地文件播放
-                startPlayback(currentPosition);
             }
         }
     }
-    
+
     /**
-     * 停止播放
+     * 计算是否需要从当前帧开始淡变
+     * @return 淡变长度（每声道采样数），不需要淡变时返回0
      */
-    public void stop() {
-        stopProgressTimer();
-        
-        if (player != null) {
-            try {
-                player.close();
-                player = null;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    private int crossfadeFrames(PcmSource decoder, AudioFormat format) {
+        int millis = crossfadeMillis;
+        if (millis <= 0 || nextFilePath == null) {
+            return 0;
+        }
+        int fadeFrames = (int) (millis * (long) format.getSampleRate() / 1000);
+        if (crossfadeRequested) {
+            return fadeFrames;
         }
-        
-        // 清理资源
+        long total = decoder.getTotalSamples();
+        if (total < 0) {
+            return 0;
+        }
+        long remaining = total - decoder.getSamplePosition();
+        long frameEnd = decoder.getSamplePosition() + decoder.getSampleLength() / format.getChannels();
+        return frameEnd >= total - fadeFrames ? (int) Math.max(Math.min(fadeFrames, remaining), 1) : 0;
+    }
+
+    /**
+     * 取出格式相同、可以混合的下一首解码器
+     */
+    private PcmSource takeCrossfadeDecoder(AudioFormat format) {
+        String path = nextFilePath;
+        if (path == null) {
+            return null;
+        }
+        if (!path.equals(nextDecoderPath)) {
+            openNextDecoder(path);
+        }
+        PcmSource decoder = nextDecoder;
+        if (decoder == null || decoder.getFormat() == null || !decoder.getFormat().matches(format)) {
+            return null;
+        }
+        nextDecoder = null;
+        return decoder;
+    }
+
+    /**
+     * 淡变：同时解码当前曲目和下一首，混合后写入输出
+     * @param outgoing 当前曲目，已解码出淡变的第一帧
+     * @param incoming 下一首
+     * @param fadeFrames 淡变长度（每声道采样数）
+     * @return 下一首的解码器，淡变中剩余的数据已写入输出
+     */
+    private PcmSource crossfade(PlaybackExecutor.Session token, PcmSource outgoing, PcmSource incoming,
+                                   int fadeFrames) throws Exception {
+        AudioFormat format = outgoing.getFormat();
+        int channels = format.getChannels();
+        if (mixer == null || mixer.getFadeFrames() != fadeFrames || mixer.getChannels() != channels) {
+            mixer = new CrossfadeMixer(fadeFrames, channels);
+        }
+        mixer.reset();
         try {
-            if (bufferedInputStream != null) {
-                bufferedInputStream.close();
-                bufferedInputStream = null;
+            boolean outgoingActive = true;
+            while (!mixer.isFinished() && awaitResume(token)) {
+                int remaining = mixer.getFadeFrames() - mixer.getPosition();
+                int frames = Math.min(outgoingActive ? outgoing.getSampleLength() / channels : FADE_BLOCK_FRAMES,
+                    remaining);
+                while (mixer.getPendingFrames() < frames && incoming.nextFrame()) {
+                    mixer.pushIncoming(incoming.getSamples(), incoming.getSampleOffset(), incoming.getSampleLength());
+                }
+                short[] mixed = outgoingActive
+                    ? mixer.mix(outgoing.getSamples(), outgoing.getSampleOffset(), frames)
+                    : mixer.mix(null, 0, frames);
+                output.write(mixed, 0, frames * channels);
+                if (outgoingActive) {
+                    currentFrame = outgoing.getCurrentFrame() + 1;
+                }
+                if (!mixer.isFinished() && outgoingActive) {
+                    outgoingActive = outgoing.nextFrame();
+                }
             }
-            if (fileInputStream != null) {
-                fileInputStream.close();
-                fileInputStream = null;
+        } catch (Exception e) {
+            incoming.close();
+            throw e;
+        }
+        outgoing.close();
+
+        // 淡变结束后时钟改为跟随下一首
+        clock.mark(mixer.getIncomingConsumed(), format.getSampleRate());
+        if (mixer.getPendingLength() > 0 && token.isActive()) {
+            output.write(mixer.getPending(), mixer.getPendingOffset(), mixer.getPendingLength());
+        }
+        return incoming;
+    }
+
+    /**
+     * 会话结束后停止推送进度，并推送一次归零后的位置
+     */
+    private void onSessionEnded() {
+        if (session == null) {
+            progressDispatcher.stop();
+            progressDispatcher.notifyNow();
+        }
+    }
+
+    /**
+     * 暂停时阻塞解码线程
+     * @return 会话是否仍然有效
+     */
+    private boolean awaitResume(PlaybackExecutor.Session token) throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && token.isActive()) {
+                pauseLock.wait();
             }
+        }
+        return token.isActive();
+    }
+
+    /**
+     * 当前歌曲快结束时预先打开下一首并解码开头几帧
+     */
+    private void prepareNextDecoder() {
+        Mp3FrameIndex index = frameIndex;
+        String path = nextFilePath;
+        if ((!gaplessEnabled && crossfadeMillis <= 0) || path == null || index == null || index.getFrameCount() == 0) {
+            return;
+        }
+        // 淡变需要在淡变开始前就打开下一首
+        int lookahead = LOOKAHEAD_FRAMES;
+        if (crossfadeMillis > 0) {
+            lookahead += (int) (crossfadeMillis * (long) index.getSampleRate() / 1000 / index.getSamplesPerFrame()) + 1;
+        }
+        if (path.equals(nextDecoderPath) || index.getFrameCount() - currentFrame > lookahead) {
+            return;
+        }
+        openNextDecoder(path);
+    }
+
+    /**
+     * 取出下一首的解码器，尚未打开时立即打开
+     */
+    private PcmSource takeNextDecoder() {
+        String path = nextFilePath;
+        if (path == null) {
+            discardNextDecoder();
+            return null;
+        }
+        if (!path.equals(nextDecoderPath)) {
+            openNextDecoder(path);
+        } else if (nextDecoder != null && !(nextDecoder instanceof CachedPcmSource)
+            && pcmCache.contains(PcmCache.keyOf(new File(path)))) {
+            // 单曲循环时下一首在当前曲目写入缓存之前就已打开，此时改用缓存
+            openNextDecoder(path);
+        }
+        PcmSource decoder = nextDecoder;
+        nextDecoder = null;
+        return decoder;
+    }
+
+    private void openNextDecoder(String path) {
+        discardNextDecoder();
+        nextDecoderPath = path;
+        try {
+            nextIndex = Mp3FrameIndex.forFile(new File(path));
+            nextMapped = mapQuietly(new File(path));
+            nextDecoder = openSource(new File(path), nextMapped, nextIndex, 0);
+            nextDecoder.prime(PRIME_FRAMES);
         } catch (Exception e) {
             e.printStackTrace();
+            discardNextDecoder();
         }
-        
+    }
+
+    private void discardNextDecoder() {
+        if (nextDecoder != null) {
+            nextDecoder.close();
+        }
+        nextDecoder = null;
+        nextIndex = null;
+        nextMapped = null;
+    }
+
+    /**
+     * 把当前曲目信息切换为已预先打开的下一首
+     */
+    private void switchToNextTrack() {
+        String path = nextDecoderPath;
+        frameIndex = nextIndex;
+        mappedData = nextMapped;
+        currentFilePath = path;
+        currentFrame = 0;
+        isOnlinePlayback = false;
+        // 上一首的解码器已关闭，可以归还其数据
+        releaseAudioData();
+        nextDecoderPath = null;
+        nextIndex = null;
+        nextMapped = null;
+        nextFilePath = null;
+        if (trackListener != null) {
+            trackListener.onTrackChanged(path);
+        }
+    }
+
+    /**
+     * 取消当前解码会话并等待其退出，输出保持打开
+     */
+    private void endSession() {
+        PlaybackExecutor.Session oldSession = session;
+        session = null;
+        if (oldSession == null) {
+            return;
+        }
+        oldSession.cancel();
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+        // 丢弃未播放的数据，使阻塞在写入上的解码线程返回
+        output.flush();
+        if (!executor.isDecoderThread()) {
+            oldSession.awaitTermination(SESSION_JOIN_TIMEOUT);
+            output.flush();
+        }
+        clock.reset();
+    }
+
+    /**
+     * 暂停播放
+     */
+    public void pause() {
+        if (isPlaying && session != null) {
+            output.pause();
+            paused = true;
+            isPlaying = false;
+            progressDispatcher.stop();
+            pausedFrame = playedFrame();
+            progressDispatcher.notifyNow();
+        }
+    }
+
+    /**
+     * 继续播放
+     */
+    public void resume() {
+        if (isPlaying) {
+            return;
+        }
+        if (paused && session != null) {
+            // 解码器状态保留，直接继续输出
+            synchronized (pauseLock) {
+                paused = false;
+                pauseLock.notifyAll();
+            }
+            output.resume();
+            isPlaying = true;
+            progressDispatcher.start();
+        } else if (audioData.get() != null || currentFilePath != null) {
+            startPlayback(pausedFrame);
+        }
+    }
+
+    /**
+     * 跳转到指定位置
+     * @param millis 目标位置（毫秒）
+     */
+    public void seek(long millis) {
+        Mp3FrameIndex index = frameIndex;
+        if (index == null || index.getFrameCount() == 0) {
+            return;
+        }
+        int frame = index.frameAtMillis(millis);
+        if (isPlaying) {
+            startPlayback(frame);
+        } else {
+            endSession();
+            pausedFrame = frame;
+            progressDispatcher.notifyNow();
+        }
+    }
+
+    /**
+     * 停止播放
+     */
+    public void stop() {
+        progressDispatcher.stop();
+        if (streamBuffer != null) {
+            streamBuffer.close();
+            streamBuffer = null;
+        }
+        endSession();
+
         isPlaying = false;
-        currentPosition = 0;
-        totalBytes = 0;
-        bytesRead = 0;
-        audioData = null;
+        releaseAudioData();
+        frameIndex = null;
+        mappedData = null;
         currentFilePath = null;
-        currentProgress = 0;  // 重置进度
+        pausedFrame = 0;
+        currentFrame = 0;
     }
-    
+
+    /**
+     * 获取当前播放位置
+     * @return 播放位置（毫秒）
+     */
+    public long getPositionMillis() {
+        if (session != null) {
+            long position = clock.getPositionMillis();
+            if (position >= 0) {
+                return position;
+            }
+        }
+        int frame = isPlaying ? currentFrame : pausedFrame;
+        Mp3FrameIndex index = frameIndex;
+        if (index == null) {
+            StreamBuffer buffer = streamBuffer;
+            if (buffer != null && buffer.getSampleRate() > 0) {
+                return (long) frame * buffer.getSamplesPerFrame() * 1000L / buffer.getSampleRate();
+            }
+            return 0;
+        }
+        return index.millisAtFrame(frame);
+    }
+
+    /**
+     * 根据播放时钟计算已经听到的帧，用于暂停后重新开始会话
+     */
+    private int playedFrame() {
+        Mp3FrameIndex index = frameIndex;
+        long position = clock.getPositionMillis();
+        if (index == null || index.getFrameCount() == 0 || position < 0) {
+            return currentFrame;
+        }
+        return Math.min(index.frameAtMillis(position), currentFrame);
+    }
+
+    /**
+     * 获取当前曲目总时长
+     * @return 总时长（毫秒），未知时返回0
+     */
+    public long getDurationMillis() {
+        Mp3FrameIndex index = frameIndex;
+        StreamBuffer buffer = streamBuffer;
+        if (index == null && buffer != null && buffer.isComplete() && buffer.getSampleRate() > 0) {
+            // 流式播放在数据全部到达后才能得到时长
+            return (long) buffer.getFramesArrived() * buffer.getSamplesPerFrame() * 1000L / buffer.getSampleRate();
+        }
+        return index != null ? index.getDurationMillis() : 0;
+    }
+
+    /**
+     * 获取当前播放文件路径
+     * @return 文件路径，流式播放时为null
+     */
+    public String getCurrentFilePath() {
+        return currentFilePath;
+    }
+
+    /**
+     * 获取正在运行的解码器数量
+     */
+    public int getLiveDecoderCount() {
+        return executor.getLiveDecoderCount();
+    }
+
+    /**
+     * 获取同时运行的解码器数量峰值
+     */
+    public int getPeakLiveDecoderCount() {
+        return executor.getPeakLiveDecoderCount();
+    }
+
     /**
      * 获取播放状态
      * @return 是否正在播放
@@ -392,17 +944,4 @@ public class AudioPlayer {
     public boolean isPlaying() {
         return isPlaying;
     }
-    
-    @Override
-    protected void finalize() throws Throwable {
-        stopProgressTimer();
-        if (fileInputStream != null) {
-            try {
-                fileInputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        super.finalize();
-    }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,190 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接内存缓冲区池，读取、解码和输出环节共用
+ * 容量按2的幂分级，释放的缓冲区放回对应级别供下次复用，池中保留的总量有上限
+ */
+public class BufferPool {
+    /** 最小容量级别（字节） */
+    private static final int MIN_CAPACITY = 4096;
+
+    /** 最大容量级别（2的幂指数），更大的请求直接分配且不回收 */
+    private static final int MAX_SHIFT = 26;
+
+    /** 默认池中最多保留的字节数 */
+    private static final long DEFAULT_MAX_POOLED = 64L * 1024 * 1024;
+
+    /** 默认缓冲区池 */
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_POOLED);
+
+    /** 各容量级别的空闲缓冲区 */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedDeque<ByteBuffer>[] free = new ConcurrentLinkedDeque[MAX_SHIFT + 1];
+
+    /** 池中最多保留的字节数 */
+    private final long maxPooledBytes;
+
+    /** 池中保留的字节数 */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /** 获取次数 */
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    /** 复用次数 */
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    /** 新分配次数 */
+    private final AtomicLong allocationCount = new AtomicLong();
+
+    /** 新分配的字节数 */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /** 已借出尚未归还的缓冲区数 */
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param maxPooledBytes 池中最多保留的字节数
+     */
+    public BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    /**
+     * 获取默认缓冲区池
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取至少指定容量的直接缓冲区，位置为0，界限为请求的容量，字节序为大端
+     * @param capacity 容量（字节）
+     * @return 缓冲区，用完后通过 {@link #release(ByteBuffer)} 归还
+     */
+    public ByteBuffer acquire(int capacity) {
+        acquireCount.incrementAndGet();
+        outstanding.incrementAndGet();
+        int shift = shiftFor(capacity);
+        ByteBuffer buffer = shift <= MAX_SHIFT ? free[shift].pollFirst() : null;
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            reuseCount.incrementAndGet();
+        } else {
+            int size = shift <= MAX_SHIFT ? 1 << shift : capacity;
+            buffer = ByteBuffer.allocateDirect(size);
+            allocationCount.incrementAndGet();
+            allocatedBytes.addAndGet(size);
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * 按PCM格式获取能容纳指定时长的缓冲区，容量为整数帧
+     * @param format PCM格式
+     * @param millis 时长（毫秒）
+     * @return 缓冲区
+     */
+    public ByteBuffer acquirePcm(AudioFormat format, int millis) {
+        return acquire(pcmBytes(format, millis));
+    }
+
+    /**
+     * 计算PCM格式下指定时长的字节数（整数帧）
+     * @param format PCM格式
+     * @param millis 时长（毫秒）
+     * @return 字节数
+     */
+    public static int pcmBytes(AudioFormat format, int millis) {
+        int frames = (int) Math.ceil(format.getFrameRate() * millis / 1000);
+        return Math.max(frames, 1) * format.getFrameSize();
+    }
+
+    /**
+     * 归还缓冲区，每个缓冲区只能归还一次，由持有者保证
+     * @param buffer 通过 {@link #acquire(int)} 获取的缓冲区
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        outstanding.decrementAndGet();
+        int capacity = buffer.capacity();
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (!buffer.isDirect() || capacity != 1 << shift || shift > MAX_SHIFT || capacity < MIN_CAPACITY) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            // 超出上限的缓冲区交给垃圾回收
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        free[shift].offerFirst(buffer);
+    }
+
+    private static int shiftFor(int capacity) {
+        int size = Math.max(capacity, MIN_CAPACITY);
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * 获取获取次数
+     */
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * 获取复用次数
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * 获取新分配次数
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     * 获取新分配的字节数
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * 获取池中保留的字节数
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * 获取已借出尚未归还的缓冲区数
+     */
+    public long getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool[获取=%d, 复用=%d, 分配=%d (%d 字节), 池中=%d 字节, 借出=%d]",
+            getAcquireCount(), getReuseCount(), getAllocationCount(), getAllocatedBytes(),
+            getPooledBytes(), getOutstandingCount());
+    }
+}
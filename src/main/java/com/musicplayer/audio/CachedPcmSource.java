@@ -0,0 +1,110 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 从已解码PCM缓存读取的数据源，不需要解码器，可以从任意采样开始
+ */
+public class CachedPcmSource implements PcmSource {
+    /** 缓存项 */
+    private final PcmCache.Entry entry;
+
+    /** 声道数 */
+    private final int channels;
+
+    /** 每次读取的帧数（与MP3帧大小一致） */
+    private final int blockFrames;
+
+    /** 开头裁掉的采样数，用于换算MP3帧序号 */
+    private final long trimStart;
+
+    /** 当前帧的采样数据 */
+    private final short[] samples;
+
+    /** 下一次读取的位置（每声道采样数） */
+    private long position;
+
+    /** 当前帧的位置 */
+    private long samplePosition;
+
+    /** 当前帧的采样个数 */
+    private int sampleLength;
+
+    /** 是否已关闭 */
+    private boolean closed;
+
+    /**
+     * 构造函数
+     * @param entry 缓存项，关闭时释放其引用
+     * @param index 帧索引
+     * @param startFrame 起始MP3帧
+     */
+    public CachedPcmSource(PcmCache.Entry entry, Mp3FrameIndex index, int startFrame) {
+        this.entry = entry;
+        this.channels = entry.getFormat().getChannels();
+        this.blockFrames = index.getSamplesPerFrame();
+        this.trimStart = TrackDecoder.trimStart(index);
+        this.samples = new short[blockFrames * channels];
+        this.position = Math.min(Math.max((long) startFrame * blockFrames - trimStart, 0), entry.getFrames());
+    }
+
+    @Override
+    public void prime(int frames) {
+        // 数据已在内存中，不需要预先准备
+    }
+
+    @Override
+    public boolean nextFrame() {
+        if (closed || position >= entry.getFrames()) {
+            return false;
+        }
+        int count = entry.read(position * channels, samples, 0, samples.length);
+        samplePosition = position;
+        sampleLength = count;
+        position += count / channels;
+        return count > 0;
+    }
+
+    @Override
+    public short[] getSamples() {
+        return samples;
+    }
+
+    @Override
+    public int getSampleOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getSampleLength() {
+        return sampleLength;
+    }
+
+    @Override
+    public int getCurrentFrame() {
+        return (int) ((samplePosition + trimStart) / blockFrames);
+    }
+
+    @Override
+    public long getSamplePosition() {
+        return samplePosition;
+    }
+
+    @Override
+    public long getTotalSamples() {
+        return entry.getFrames();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return entry.getFormat();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            entry.release();
+        }
+    }
+}
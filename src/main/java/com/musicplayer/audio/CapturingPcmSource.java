@@ -0,0 +1,103 @@
+package com.musicplayer.audio;
+
+import javazoom.jl.decoder.JavaLayerException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 边解码边写入PCM缓存的数据源，从头解码到结尾后整首歌曲加入缓存，
+ * 中途关闭时已解码的部分保留在缓存中，供向后跳转读取
+ */
+public class CapturingPcmSource implements PcmSource {
+    /** 被包装的解码器，必须从写入器已写入部分的结尾开始解码 */
+    private final PcmSource source;
+
+    /** PCM缓存 */
+    private final PcmCache cache;
+
+    /** 缓存写入器 */
+    private final PcmCache.Capture capture;
+
+    /** 是否已处理完写入器 */
+    private boolean finished;
+
+    /**
+     * 构造函数
+     * @param source 从写入器已写入部分的结尾（新的写入器为曲目开头）开始解码的数据源
+     * @param cache PCM缓存
+     * @param capture 缓存写入器
+     */
+    public CapturingPcmSource(PcmSource source, PcmCache cache, PcmCache.Capture capture) {
+        this.source = source;
+        this.cache = cache;
+        this.capture = capture;
+    }
+
+    @Override
+    public void prime(int frames) throws JavaLayerException {
+        source.prime(frames);
+    }
+
+    @Override
+    public boolean nextFrame() throws JavaLayerException {
+        boolean more = source.nextFrame();
+        if (finished) {
+            return more;
+        }
+        if (more) {
+            if (source.getSamplePosition() != capture.getFrames()) {
+                // 数据不连续，无法拼成整首歌曲
+                capture.abort();
+            }
+            capture.append(source.getFormat(), source.getSamples(), source.getSampleOffset(), source.getSampleLength());
+        } else {
+            finished = true;
+            cache.commit(capture);
+        }
+        return more;
+    }
+
+    @Override
+    public short[] getSamples() {
+        return source.getSamples();
+    }
+
+    @Override
+    public int getSampleOffset() {
+        return source.getSampleOffset();
+    }
+
+    @Override
+    public int getSampleLength() {
+        return source.getSampleLength();
+    }
+
+    @Override
+    public int getCurrentFrame() {
+        return source.getCurrentFrame();
+    }
+
+    @Override
+    public long getSamplePosition() {
+        return source.getSamplePosition();
+    }
+
+    @Override
+    public long getTotalSamples() {
+        return source.getTotalSamples();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            cache.suspend(capture);
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.musicplayer.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * 带缓冲的通道输入流，缓冲区从缓冲区池借用，关闭时归还
+ * 用来代替每次打开文件都新分配缓冲数组的 BufferedInputStream
+ */
+public class ChannelInputStream extends InputStream {
+    /** 默认缓冲区大小（字节） */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /** 数据通道 */
+    private final ReadableByteChannel channel;
+
+    /** 缓冲区池 */
+    private final BufferPool pool;
+
+    /** 缓冲区，处于读取模式 */
+    private ByteBuffer buffer;
+
+    /** 通道是否已读完 */
+    private boolean endOfStream;
+
+    /**
+     * 构造函数，使用默认缓冲区池
+     * @param channel 数据通道
+     */
+    public ChannelInputStream(ReadableByteChannel channel) {
+        this(channel, BufferPool.getDefault(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 构造函数
+     * @param channel 数据通道
+     * @param pool 缓冲区池
+     * @param bufferSize 缓冲区大小（字节）
+     */
+    public ChannelInputStream(ReadableByteChannel channel, BufferPool pool, int bufferSize) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * 缓冲区为空时从通道读取
+     * @return 是否有数据
+     */
+    private boolean fill() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+        while (!buffer.hasRemaining() && !endOfStream) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                endOfStream = true;
+            }
+        }
+        return buffer.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            int count = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer != null ? buffer.remaining() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        channel.close();
+    }
+}
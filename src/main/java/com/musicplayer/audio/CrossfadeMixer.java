@@ -0,0 +1,183 @@
+package com.musicplayer.audio;
+
+/**
+ * 等功率淡入淡出混音器
+ * 增益按 cos/sin 曲线预先计算，下一首的采样先放入内部队列，再与当前曲目逐帧混合，
+ * 混合过程中不分配任何对象
+ */
+public class CrossfadeMixer {
+    /** 单帧最多的采样个数（MPEG1 Layer III 立体声） */
+    private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+
+    /** 淡变长度（每声道采样数） */
+    private final int fadeFrames;
+
+    /** 声道数 */
+    private final int channels;
+
+    /** 当前曲目的增益 */
+    private final float[] fadeOutGain;
+
+    /** 下一首的增益 */
+    private final float[] fadeInGain;
+
+    /** 混合结果 */
+    private short[] mixed = new short[MAX_FRAME_SAMPLES];
+
+    /** 下一首尚未混合的采样 */
+    private short[] pending = new short[MAX_FRAME_SAMPLES * 2];
+
+    /** 队列起始位置 */
+    private int pendingOffset;
+
+    /** 队列中的采样个数 */
+    private int pendingLength;
+
+    /** 已混合的帧数 */
+    private int position;
+
+    /** 已从队列中取出的下一首帧数 */
+    private long incomingConsumed;
+
+    /**
+     * 构造函数
+     * @param fadeFrames 淡变长度（每声道采样数）
+     * @param channels 声道数
+     */
+    public CrossfadeMixer(int fadeFrames, int channels) {
+        this.fadeFrames = Math.max(fadeFrames, 1);
+        this.channels = channels;
+        this.fadeOutGain = new float[this.fadeFrames];
+        this.fadeInGain = new float[this.fadeFrames];
+        for (int i = 0; i < this.fadeFrames; i++) {
+            double theta = Math.PI / 2 * i / this.fadeFrames;
+            fadeOutGain[i] = (float) Math.cos(theta);
+            fadeInGain[i] = (float) Math.sin(theta);
+        }
+    }
+
+    /**
+     * 开始新的一次淡变
+     */
+    public void reset() {
+        pendingOffset = 0;
+        pendingLength = 0;
+        position = 0;
+        incomingConsumed = 0;
+    }
+
+    /**
+     * 放入下一首的采样
+     * @param samples 采样数据
+     * @param offset 起始位置
+     * @param length 采样个数
+     */
+    public void pushIncoming(short[] samples, int offset, int length) {
+        if (pendingOffset + pendingLength + length > pending.length) {
+            System.arraycopy(pending, pendingOffset, pending, 0, pendingLength);
+            pendingOffset = 0;
+            if (pendingLength + length > pending.length) {
+                short[] larger = new short[Math.max(pending.length * 2, pendingLength + length)];
+                System.arraycopy(pending, 0, larger, 0, pendingLength);
+                pending = larger;
+            }
+        }
+        System.arraycopy(samples, offset, pending, pendingOffset + pendingLength, length);
+        pendingLength += length;
+    }
+
+    /**
+     * 混合若干帧，下一首的采样不足时按静音处理
+     * @param outgoing 当前曲目的采样，为null表示当前曲目已结束
+     * @param offset 起始位置
+     * @param frames 帧数（每声道采样数）
+     * @return 混合结果，有效数据为开头的 frames × 声道数 个采样
+     */
+    public short[] mix(short[] outgoing, int offset, int frames) {
+        int length = frames * channels;
+        if (mixed.length < length) {
+            mixed = new short[length];
+        }
+        int available = Math.min(pendingLength, length);
+        for (int frame = 0, i = 0; frame < frames; frame++) {
+            int gainIndex = Math.min(position + frame, fadeFrames - 1);
+            float outGain = fadeOutGain[gainIndex];
+            float inGain = fadeInGain[gainIndex];
+            for (int c = 0; c < channels; c++, i++) {
+                float a = outgoing != null ? outgoing[offset + i] * outGain : 0;
+                float b = i < available ? pending[pendingOffset + i] * inGain : 0;
+                int sample = (int) (a + b);
+                mixed[i] = (short) (sample > Short.MAX_VALUE ? Short.MAX_VALUE
+                    : sample < Short.MIN_VALUE ? Short.MIN_VALUE : sample);
+            }
+        }
+        pendingOffset += available;
+        pendingLength -= available;
+        position += frames;
+        incomingConsumed += available / channels;
+        return mixed;
+    }
+
+    /**
+     * 获取队列中下一首的帧数
+     */
+    public int getPendingFrames() {
+        return pendingLength / channels;
+    }
+
+    /**
+     * 获取队列中剩余的采样，淡变结束后直接输出
+     */
+    public short[] getPending() {
+        return pending;
+    }
+
+    /**
+     * 获取队列起始位置
+     */
+    public int getPendingOffset() {
+        return pendingOffset;
+    }
+
+    /**
+     * 获取队列中的采样个数
+     */
+    public int getPendingLength() {
+        return pendingLength;
+    }
+
+    /**
+     * 获取已混合的帧数
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * 获取已混合的下一首帧数
+     */
+    public long getIncomingConsumed() {
+        return incomingConsumed;
+    }
+
+    /**
+     * 获取淡变长度（每声道采样数）
+     */
+    public int getFadeFrames() {
+        return fadeFrames;
+    }
+
+    /**
+     * 获取声道数
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * 淡变是否已完成
+     */
+    public boolean isFinished() {
+        return position >= fadeFrames;
+    }
+}
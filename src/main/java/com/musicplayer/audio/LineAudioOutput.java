@@ -0,0 +1,235 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * 基于Java Sound SourceDataLine的音频输出
+ * 解码线程把PCM写入环形缓冲区，专门的写入线程把数据送入容量很小的线路，
+ * 暂停和继续只是停止和启动线路，解码器状态和缓冲的数据都保留
+ */
+public class LineAudioOutput implements AudioOutput {
+    /** 写入线程名称 */
+    public static final String THREAD_NAME = "audio-writer";
+
+    /** PCM环形缓冲区时长（毫秒） */
+    private static final int RING_MILLIS = 200;
+
+    /** 线路缓冲区时长（毫秒），越小暂停越及时 */
+    private static final int LINE_BUFFER_MILLIS = 40;
+
+    /** 写入线程每次送入线路的数据时长（毫秒） */
+    private static final int CHUNK_MILLIS = 10;
+
+    /** 线路工厂 */
+    private final LineFactory lineFactory;
+
+    /** 输出线路 */
+    private volatile SourceDataLine line;
+
+    /** 当前线路格式 */
+    private AudioFormat format;
+
+    /** PCM环形缓冲区 */
+    private volatile PcmRingBuffer ring;
+
+    /** 写入线程 */
+    private Thread writerThread;
+
+    /** 清空次数，写入线程据此丢弃清空前取出的数据 */
+    private volatile long flushCount;
+
+    /** 已送入线路或丢弃的字节数 */
+    private long consumed;
+
+    /** 当前格式的声道数 */
+    private volatile int channels = 1;
+
+    /** 累计写入的采样帧数 */
+    private volatile long framesWritten;
+
+    /** 线路帧位置与写入帧数之间的偏移，清空后重新计算 */
+    private volatile long positionOffset;
+
+    /** 等待数据送入线路时使用的锁 */
+    private final Object drainLock = new Object();
+
+    /** 写入线程检查清空次数并写入线路时持有，清空时据此保证清空前取出的数据不会在清空后写入 */
+    private final Object lineLock = new Object();
+
+    /**
+     * 线路工厂接口
+     */
+    interface LineFactory {
+        /**
+         * 获取指定格式的线路（尚未打开）
+         * @param format PCM格式
+         * @return 线路
+         * @throws LineUnavailableException 如果音频设备不可用
+         */
+        SourceDataLine getLine(AudioFormat format) throws LineUnavailableException;
+    }
+
+    /**
+     * 构造函数，使用系统默认音频设备
+     */
+    public LineAudioOutput() {
+        this(AudioSystem::getSourceDataLine);
+    }
+
+    /**
+     * 构造函数
+     * @param lineFactory 线路工厂
+     */
+    LineAudioOutput(LineFactory lineFactory) {
+        this.lineFactory = lineFactory;
+    }
+
+    @Override
+    public synchronized void open(AudioFormat newFormat) throws LineUnavailableException {
+        if (line != null && line.isOpen() && format.matches(newFormat)) {
+            return;
+        }
+        close();
+
+        int frameSize = newFormat.getFrameSize();
+        int bytesPerMilli = (int) Math.ceil(newFormat.getFrameRate() / 1000) * frameSize;
+        SourceDataLine newLine = lineFactory.getLine(newFormat);
+        newLine.open(newFormat, LINE_BUFFER_MILLIS * bytesPerMilli);
+        newLine.start();
+        PcmRingBuffer newRing = new PcmRingBuffer(BufferPool.getDefault(), BufferPool.pcmBytes(newFormat, RING_MILLIS));
+        synchronized (drainLock) {
+            consumed = 0;
+        }
+
+        framesWritten = 0;
+        positionOffset = -newLine.getLongFramePosition();
+        channels = newFormat.getChannels();
+        line = newLine;
+        ring = newRing;
+        format = newFormat;
+        writerThread = new Thread(() -> writeLoop(newLine, newRing, CHUNK_MILLIS * bytesPerMilli), THREAD_NAME);
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MAX_PRIORITY);
+        writerThread.start();
+    }
+
+    /**
+     * 写入线程：从环形缓冲区取出数据送入线路，线路停止时阻塞在写入上
+     */
+    private void writeLoop(SourceDataLine target, PcmRingBuffer source, int chunkSize) {
+        byte[] chunk = new byte[chunkSize];
+        while (true) {
+            long epoch = flushCount;
+            int read = source.read(chunk, 0, chunk.length);
+            if (read < 0) {
+                break;
+            }
+            synchronized (lineLock) {
+                if (epoch == flushCount) {
+                    target.write(chunk, 0, read);
+                }
+            }
+            synchronized (drainLock) {
+                consumed += read;
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int length) {
+        PcmRingBuffer current = ring;
+        if (current != null) {
+            framesWritten += length / channels;
+            current.write(samples, offset, length);
+        }
+    }
+
+    @Override
+    public synchronized void pause() {
+        if (line != null) {
+            line.stop();
+        }
+    }
+
+    @Override
+    public synchronized void resume() {
+        if (line != null) {
+            line.start();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (line != null) {
+            flushCount++;
+            int discarded = ring.clear();
+            synchronized (drainLock) {
+                consumed += discarded;
+                drainLock.notifyAll();
+            }
+            // 同时使阻塞在线路写入上的写入线程返回
+            line.flush();
+            // 写入线程可能在清空前通过了检查：等它写完这一块后再清空一次，之后不会再写入旧数据
+            synchronized (lineLock) {
+                line.flush();
+            }
+            positionOffset = framesWritten - line.getLongFramePosition();
+        }
+    }
+
+    @Override
+    public void drain() {
+        SourceDataLine current = line;
+        PcmRingBuffer currentRing = ring;
+        if (current == null || currentRing == null) {
+            return;
+        }
+        long target = currentRing.getWritePosition();
+        synchronized (drainLock) {
+            while (consumed < target && line == current) {
+                try {
+                    drainLock.wait(CHUNK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        current.drain();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (line != null) {
+            ring.close();
+            line.close();
+            try {
+                writerThread.join(LINE_BUFFER_MILLIS * 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            line = null;
+            ring = null;
+            writerThread = null;
+            format = null;
+        }
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    @Override
+    public long getFramePosition() {
+        SourceDataLine current = line;
+        if (current == null) {
+            return 0;
+        }
+        return Math.min(current.getLongFramePosition() + positionOffset, framesWritten);
+    }
+}
@@ -0,0 +1,115 @@
+package com.musicplayer.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 读取内存映射文件（或任意缓冲区）的输入流，可以按绝对位置跳转
+ * 数据直接从页缓存读出，不复制到堆中；同一个映射可以同时打开多个流，各自维护位置，
+ * 跳转和继续播放时不需要重新打开文件，读取位置就是文件中的字节偏移
+ */
+public class MappedInputStream extends InputStream {
+    /** 数据视图，位置即读取位置 */
+    private final ByteBuffer data;
+
+    /** mark 记录的位置 */
+    private int markPosition;
+
+    /**
+     * 以只读方式映射整个文件，映射在关闭文件后仍然有效
+     * @param file 文件
+     * @return 映射的缓冲区
+     * @throws IOException 如果打开失败或文件超过2GB
+     */
+    public static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * 构造函数，从缓冲区的0到界限读取，不改变缓冲区的位置
+     * @param data 数据，通常是 {@link #map(File)} 的结果
+     */
+    public MappedInputStream(ByteBuffer data) {
+        this.data = data.duplicate();
+        this.data.position(0);
+    }
+
+    /**
+     * 当前读取位置（字节偏移）
+     */
+    public long position() {
+        return data.position();
+    }
+
+    /**
+     * 跳转到绝对位置，超出长度时停在末尾
+     * @param position 字节偏移
+     */
+    public void position(long position) {
+        data.position((int) Math.max(Math.min(position, data.limit()), 0));
+    }
+
+    /**
+     * 数据总长度
+     */
+    public long length() {
+        return data.limit();
+    }
+
+    @Override
+    public int read() {
+        return data.hasRemaining() ? data.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!data.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, data.remaining());
+        data.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(Math.min(n, data.remaining()), 0);
+        data.position(data.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return data.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        markPosition = data.position();
+    }
+
+    @Override
+    public void reset() {
+        data.position(markPosition);
+    }
+}
@@ -0,0 +1,461 @@
+package com.musicplayer.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MP3帧索引，一次扫描帧头得到每帧的字节偏移和采样位置，
+ * 用于暂停/继续和进度条拖动时按帧精确定位
+ */
+public class Mp3FrameIndex {
+    /** 缓存的索引数量上限 */
+    private static final int MAX_CACHED_INDEXES = 32;
+
+    /** 最短的有效帧长度（MPEG2 Layer III，8kbps，24kHz） */
+    private static final int MIN_FRAME_BYTES = 24;
+
+    /** 按文件缓存的索引（LRU） */
+    private static final Map<String, Mp3FrameIndex> indexCache =
+        new LinkedHashMap<String, Mp3FrameIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mp3FrameIndex> eldest) {
+                return size() > MAX_CACHED_INDEXES;
+            }
+        };
+
+    /** 比特率表（kbps），[版本][层][索引]，版本0为MPEG1，1为MPEG2/2.5 */
+    private static final int[][][] BITRATES = {
+        {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+        },
+        {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+        }
+    };
+
+    /** 采样率表，[版本位][索引] */
+    private static final int[][] SAMPLE_RATES = {
+        {11025, 12000, 8000},   // MPEG2.5
+        {0, 0, 0},              // 保留
+        {22050, 24000, 16000},  // MPEG2
+        {44100, 48000, 32000}   // MPEG1
+    };
+
+    /** 每帧字节偏移 */
+    private final long[] offsets;
+
+    /** 帧数量 */
+    private final int frameCount;
+
+    /** 采样率 */
+    private final int sampleRate;
+
+    /** 声道数 */
+    private final int channels;
+
+    /** 每帧采样数 */
+    private final int samplesPerFrame;
+
+    /** Xing/Info头中的TOC（100项，文件百分比），没有时为null */
+    private final byte[] xingToc;
+
+    /** VBRI头中的TOC换算得到的字节偏移，没有时为null */
+    private final long[] vbriToc;
+
+    /** VBRI每个TOC项覆盖的帧数 */
+    private final int vbriFramesPerEntry;
+
+    /** 头信息中声明的总帧数，没有时为0 */
+    private final int declaredFrames;
+
+    /** 音频数据的起始偏移，含头信息帧（Xing TOC的基准） */
+    private final long dataStart;
+
+    /** 音频数据的字节数（用于Xing TOC换算） */
+    private final long dataLength;
+
+    /** LAME头记录的编码器延迟（每声道采样数） */
+    private final int encoderDelay;
+
+    /** LAME头记录的末尾填充（每声道采样数） */
+    private final int encoderPadding;
+
+    private Mp3FrameIndex(long[] offsets, int frameCount, int sampleRate, int channels,
+                          int samplesPerFrame, byte[] xingToc, long[] vbriToc,
+                          int vbriFramesPerEntry, int declaredFrames, long dataStart, long dataLength,
+                          int encoderDelay, int encoderPadding) {
+        this.offsets = offsets;
+        this.frameCount = frameCount;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.samplesPerFrame = samplesPerFrame;
+        this.xingToc = xingToc;
+        this.vbriToc = vbriToc;
+        this.vbriFramesPerEntry = vbriFramesPerEntry;
+        this.declaredFrames = declaredFrames;
+        this.dataStart = dataStart;
+        this.dataLength = dataLength;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+    }
+
+    /**
+     * 获取文件的帧索引，文件未修改时直接返回缓存的索引
+     * @param file MP3文件
+     * @return 帧索引
+     * @throws IOException 如果读取文件失败
+     */
+    public static Mp3FrameIndex forFile(File file) throws IOException {
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (indexCache) {
+            Mp3FrameIndex cached = indexCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Mp3FrameIndex index;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            index = scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+
+        synchronized (indexCache) {
+            indexCache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * 扫描内存中的MP3数据建立帧索引
+     * @param data MP3数据
+     * @return 帧索引
+     */
+    public static Mp3FrameIndex scan(byte[] data) {
+        return scan(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * 扫描MP3数据建立帧索引，只读取帧头，不解码
+     * @param data MP3数据（使用绝对位置读取，不改变缓冲区位置）
+     * @return 帧索引
+     */
+    public static Mp3FrameIndex scan(ByteBuffer data) {
+        int limit = data.limit();
+        int pos = skipId3v2(data);
+
+        // 寻找第一个可信的帧头（后面紧跟另一个兼容的帧头）
+        int header = 0;
+        while (pos + 4 <= limit) {
+            header = readHeader(data, pos);
+            int length = frameLength(header);
+            if (length > 0) {
+                int next = pos + length;
+                if (next + 4 > limit || isCompatible(header, readHeader(data, next))) {
+                    break;
+                }
+            }
+            pos++;
+        }
+        if (pos + 4 > limit) {
+            return new Mp3FrameIndex(new long[0], 0, 0, 0, 0, null, null, 0, 0, 0, 0, 0, 0);
+        }
+
+        int sampleRate = sampleRate(header);
+        int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+        int samplesPerFrame = samplesPerFrame(header);
+
+        // 解析第一帧中的Xing/Info或VBRI头，这一帧不含音频
+        byte[] xingToc = null;
+        long[] vbriToc = null;
+        int vbriFramesPerEntry = 0;
+        int declaredFrames = 0;
+        int encoderDelay = 0;
+        int encoderPadding = 0;
+        long dataStart = pos;
+        long declaredBytes = 0;
+
+        int xing = pos + xingOffset(header);
+        int vbri = pos + 36;
+        if ((matches(data, xing, "Xing") || matches(data, xing, "Info")) && xing + 8 <= limit) {
+            // 数据可能在第一帧中间截断，每个字段读取前检查边界
+            int flags = data.getInt(xing + 4);
+            int p = xing + 8;
+            if ((flags & 1) != 0 && p + 4 <= limit) {
+                declaredFrames = Math.max(data.getInt(p), 0);
+                p += 4;
+            }
+            if ((flags & 2) != 0 && p + 4 <= limit) {
+                declaredBytes = data.getInt(p) & 0xFFFFFFFFL;
+                p += 4;
+            }
+            if ((flags & 4) != 0 && p + 100 <= limit) {
+                xingToc = new byte[100];
+                for (int i = 0; i < 100; i++) {
+                    xingToc[i] = data.get(p + i);
+                }
+                p += 100;
+            }
+            if ((flags & 8) != 0) {
+                p += 4;
+            }
+            // LAME扩展头：第21~23字节为12位编码器延迟和12位末尾填充
+            if (p + 24 <= limit && data.get(p) == 'L') {
+                int b0 = data.get(p + 21) & 0xFF;
+                int b1 = data.get(p + 22) & 0xFF;
+                int b2 = data.get(p + 23) & 0xFF;
+                encoderDelay = (b0 << 4) | (b1 >>> 4);
+                encoderPadding = ((b1 & 0x0F) << 8) | b2;
+            }
+            pos += frameLength(header);
+        } else if (matches(data, vbri, "VBRI") && vbri + 26 <= limit) {
+            declaredBytes = data.getInt(vbri + 10) & 0xFFFFFFFFL;
+            declaredFrames = Math.max(data.getInt(vbri + 14), 0);
+            int entries = data.getShort(vbri + 18) & 0xFFFF;
+            int scale = data.getShort(vbri + 20) & 0xFFFF;
+            int entrySize = data.getShort(vbri + 22) & 0xFFFF;
+            vbriFramesPerEntry = data.getShort(vbri + 24) & 0xFFFF;
+            int p = vbri + 26;
+            if (entrySize >= 1 && entrySize <= 4 && p + entries * entrySize <= limit) {
+                vbriToc = new long[entries + 1];
+                long offset = pos + frameLength(header);
+                vbriToc[0] = offset;
+                for (int i = 0; i < entries; i++) {
+                    long delta = 0;
+                    for (int b = 0; b < entrySize; b++) {
+                        delta = (delta << 8) | (data.get(p++) & 0xFF);
+                    }
+                    offset += delta * scale;
+                    vbriToc[i + 1] = offset;
+                }
+            }
+            pos += frameLength(header);
+        }
+
+        // 顺序跳帧记录偏移，遇到损坏数据时重新同步
+        // 声明的帧数可能损坏，初始容量不超过剩余数据最多能容纳的帧数
+        int capacity = Math.min(Math.max(declaredFrames, 1024), Math.max(limit - pos, 0) / MIN_FRAME_BYTES + 1);
+        long[] offsets = new long[capacity];
+        int count = 0;
+        while (pos + 4 <= limit) {
+            int h = readHeader(data, pos);
+            int length = isCompatible(header, h) ? frameLength(h) : 0;
+            if (length <= 0) {
+                if (matches(data, pos, "TAG")) {
+                    break;
+                }
+                pos++;
+                continue;
+            }
+            if (pos + length > limit) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = pos;
+            pos += length;
+        }
+
+        long dataLength = declaredBytes > 0 ? declaredBytes : pos - dataStart;
+        return new Mp3FrameIndex(offsets, count, sampleRate, channels, samplesPerFrame,
+            xingToc, vbriToc, vbriFramesPerEntry, declaredFrames, dataStart, dataLength,
+            encoderDelay, encoderPadding);
+    }
+
+    /**
+     * 获取帧的字节偏移
+     * @param frame 帧序号
+     * @return 字节偏移
+     */
+    public long getOffset(int frame) {
+        if (frame < frameCount) {
+            return offsets[Math.max(frame, 0)];
+        }
+        return estimateOffset(frame);
+    }
+
+    /**
+     * 获取帧的起始采样位置
+     * @param frame 帧序号
+     * @return 采样位置
+     */
+    public long getSamplePosition(int frame) {
+        return (long) frame * samplesPerFrame;
+    }
+
+    /**
+     * 获取包含指定时间点的帧
+     * @param millis 时间（毫秒）
+     * @return 帧序号
+     */
+    public int frameAtMillis(long millis) {
+        if (sampleRate == 0) {
+            return 0;
+        }
+        long frame = (Math.max(millis, 0) * sampleRate) / (1000L * samplesPerFrame);
+        return (int) Math.min(frame, Math.max(getTotalFrames() - 1, 0));
+    }
+
+    /**
+     * 获取帧的起始时间
+     * @param frame 帧序号
+     * @return 时间（毫秒）
+     */
+    public long millisAtFrame(int frame) {
+        if (sampleRate == 0) {
+            return 0;
+        }
+        return getSamplePosition(frame) * 1000L / sampleRate;
+    }
+
+    /**
+     * 超出已扫描范围的帧，用Xing/VBRI的TOC估算偏移
+     */
+    private long estimateOffset(int frame) {
+        int total = getTotalFrames();
+        if (vbriToc != null && vbriFramesPerEntry > 0) {
+            int entry = Math.min(frame / vbriFramesPerEntry, vbriToc.length - 1);
+            return vbriToc[entry];
+        }
+        if (xingToc != null && total > 0) {
+            double percent = Math.min(100.0 * frame / total, 99.999);
+            int i = (int) percent;
+            double a = xingToc[i] & 0xFF;
+            double b = i < 99 ? xingToc[i + 1] & 0xFF : 256;
+            double fraction = a + (b - a) * (percent - i);
+            return dataStart + (long) (fraction / 256.0 * dataLength);
+        }
+        return frameCount > 0 ? offsets[frameCount - 1] : 0;
+    }
+
+    /**
+     * 获取已扫描到的帧数量
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 获取总帧数，数据不完整时使用头信息中声明的帧数
+     */
+    public int getTotalFrames() {
+        return Math.max(frameCount, declaredFrames);
+    }
+
+    /**
+     * 获取总时长（毫秒）
+     */
+    public long getDurationMillis() {
+        return millisAtFrame(getTotalFrames());
+    }
+
+    public int getSampleRate() { return sampleRate; }
+    public int getChannels() { return channels; }
+    public int getSamplesPerFrame() { return samplesPerFrame; }
+    public boolean hasToc() { return xingToc != null || vbriToc != null; }
+    public int getEncoderDelay() { return encoderDelay; }
+    public int getEncoderPadding() { return encoderPadding; }
+
+    /**
+     * 跳过文件开头的ID3v2标签
+     */
+    private static int skipId3v2(ByteBuffer data) {
+        int pos = 0;
+        while (pos + 10 <= data.limit() && matches(data, pos, "ID3")) {
+            int size = ((data.get(pos + 6) & 0x7F) << 21) | ((data.get(pos + 7) & 0x7F) << 14)
+                | ((data.get(pos + 8) & 0x7F) << 7) | (data.get(pos + 9) & 0x7F);
+            boolean footer = (data.get(pos + 5) & 0x10) != 0;
+            pos += 10 + size + (footer ? 10 : 0);
+        }
+        return Math.min(pos, data.limit());
+    }
+
+    private static int readHeader(ByteBuffer data, int pos) {
+        if (pos < 0 || pos + 4 > data.limit()) {
+            return 0;
+        }
+        return ((data.get(pos) & 0xFF) << 24) | ((data.get(pos + 1) & 0xFF) << 16)
+            | ((data.get(pos + 2) & 0xFF) << 8) | (data.get(pos + 3) & 0xFF);
+    }
+
+    private static boolean matches(ByteBuffer data, int pos, String tag) {
+        if (pos < 0 || pos + tag.length() > data.limit()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (data.get(pos + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 两个帧头的版本、层和采样率是否一致
+     */
+    private static boolean isCompatible(int first, int second) {
+        return frameLength(second) > 0 && (first & 0xFFFE0C00) == (second & 0xFFFE0C00);
+    }
+
+    /**
+     * 根据帧头计算帧长度，帧头无效时返回0
+     */
+    static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return 0;
+        }
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int rateIndex = (header >>> 10) & 3;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return 0;
+        }
+        int bitrate = BITRATES[version == 3 ? 0 : 1][3 - layer][bitrateIndex] * 1000;
+        int rate = SAMPLE_RATES[version][rateIndex];
+        int padding = (header >>> 9) & 1;
+        if (layer == 3) {
+            return (12 * bitrate / rate + padding) * 4;
+        }
+        if (layer == 1 && version != 3) {
+            return 72 * bitrate / rate + padding;
+        }
+        return 144 * bitrate / rate + padding;
+    }
+
+    static int sampleRate(int header) {
+        return SAMPLE_RATES[(header >>> 19) & 3][(header >>> 10) & 3];
+    }
+
+    static int samplesPerFrame(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        if (layer == 3) {
+            return 384;
+        }
+        return (layer == 1 && version != 3) ? 576 : 1152;
+    }
+
+    /**
+     * Xing/Info头相对帧起始的偏移（帧头加边信息）
+     */
+    private static int xingOffset(int header) {
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        if (mpeg1) {
+            return mono ? 4 + 17 : 4 + 32;
+        }
+        return mono ? 4 + 9 : 4 + 17;
+    }
+}
@@ -0,0 +1,149 @@
+package com.musicplayer.audio;
+
+import javazoom.jl.decoder.JavaLayerException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 第一次播放中途向后跳转时使用的数据源：先读取未写完的PCM缓存中已解码的部分，
+ * 读完后从对应的MP3帧接着解码并继续写入，解码到结尾后整首歌曲加入缓存
+ */
+public class PartialPcmSource implements PcmSource {
+    /** 未写完的缓存 */
+    private final PcmCache.Capture capture;
+
+    /** 读完缓存部分后使用的解码器，从缓存结尾开始边解码边写入 */
+    private final CapturingPcmSource decoder;
+
+    /** 声道数 */
+    private final int channels;
+
+    /** 每次读取的帧数（与MP3帧大小一致） */
+    private final int blockFrames;
+
+    /** 开头裁掉的采样数，用于换算MP3帧序号 */
+    private final long trimStart;
+
+    /** 当前帧的采样数据 */
+    private final short[] samples;
+
+    /** 已缓存部分的帧数（每声道采样数） */
+    private final long cachedFrames;
+
+    /** 下一次读取的位置（每声道采样数） */
+    private long position;
+
+    /** 当前帧的位置 */
+    private long samplePosition;
+
+    /** 当前帧的采样个数 */
+    private int sampleLength;
+
+    /** 是否已改为从解码器读取 */
+    private boolean decoding;
+
+    /**
+     * 构造函数
+     * @param cache PCM缓存
+     * @param capture 通过 {@link PcmCache#resume(String)} 取回的写入器
+     * @param decoder 从 {@link #resumeFrame(PcmCache.Capture, Mp3FrameIndex)} 帧开始的解码器
+     * @param index 帧索引
+     * @param startFrame 起始MP3帧，必须落在已缓存的部分内
+     */
+    public PartialPcmSource(PcmCache cache, PcmCache.Capture capture, PcmSource decoder,
+                            Mp3FrameIndex index, int startFrame) {
+        this.capture = capture;
+        this.decoder = new CapturingPcmSource(decoder, cache, capture);
+        this.channels = capture.getFormat().getChannels();
+        this.blockFrames = index.getSamplesPerFrame();
+        this.trimStart = TrackDecoder.trimStart(index);
+        this.samples = new short[blockFrames * channels];
+        this.cachedFrames = capture.getFrames();
+        this.position = Math.max((long) startFrame * blockFrames - trimStart, 0);
+    }
+
+    /**
+     * 计算接着解码的起始帧：已写入的数据总是以整个MP3帧结束，该帧之后的第一帧正好从缓存结尾开始
+     * @param capture 写入器
+     * @param index 帧索引
+     * @return MP3帧序号
+     */
+    public static int resumeFrame(PcmCache.Capture capture, Mp3FrameIndex index) {
+        return (int) ((capture.getFrames() + TrackDecoder.trimStart(index)) / index.getSamplesPerFrame());
+    }
+
+    /**
+     * 从指定帧开始播放时能否使用已缓存的部分
+     * @param capture 写入器
+     * @param index 帧索引
+     * @param startFrame 起始MP3帧
+     */
+    public static boolean covers(PcmCache.Capture capture, Mp3FrameIndex index, int startFrame) {
+        long position = Math.max((long) startFrame * index.getSamplesPerFrame() - TrackDecoder.trimStart(index), 0);
+        return capture.getFormat() != null && position < capture.getFrames()
+            && resumeFrame(capture, index) < index.getFrameCount();
+    }
+
+    @Override
+    public void prime(int frames) {
+        // 开头的数据已在内存中，不需要预先准备
+    }
+
+    @Override
+    public boolean nextFrame() throws JavaLayerException {
+        if (!decoding && position < cachedFrames) {
+            int count = capture.read(position * channels, samples, 0,
+                (int) Math.min(samples.length, (cachedFrames - position) * channels));
+            if (count > 0) {
+                samplePosition = position;
+                sampleLength = count;
+                position += count / channels;
+                return true;
+            }
+        }
+        // 已缓存的部分读完，从其结尾接着解码
+        decoding = true;
+        return decoder.nextFrame();
+    }
+
+    @Override
+    public short[] getSamples() {
+        return decoding ? decoder.getSamples() : samples;
+    }
+
+    @Override
+    public int getSampleOffset() {
+        return decoding ? decoder.getSampleOffset() : 0;
+    }
+
+    @Override
+    public int getSampleLength() {
+        return decoding ? decoder.getSampleLength() : sampleLength;
+    }
+
+    @Override
+    public int getCurrentFrame() {
+        return decoding ? decoder.getCurrentFrame() : (int) ((samplePosition + trimStart) / blockFrames);
+    }
+
+    @Override
+    public long getSamplePosition() {
+        return decoding ? decoder.getSamplePosition() : samplePosition;
+    }
+
+    @Override
+    public long getTotalSamples() {
+        return decoder.getTotalSamples();
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return capture.getFormat();
+    }
+
+    @Override
+    public void close() {
+        // 没有读完时写入器重新保留在缓存中
+        decoder.close();
+    }
+}
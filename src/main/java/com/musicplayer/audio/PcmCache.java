@@ -0,0 +1,451 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 已解码PCM的LRU缓存，用于重播和向后跳转时不再解码
+ * 整首歌曲的PCM按块存放在从缓冲区池借用的直接内存中，总量不超过字节预算，
+ * 超出时淘汰最久未使用的曲目；正在被读取的曲目在读取结束后才归还内存
+ * 第一次播放中途跳转或停止时，已解码的部分作为未写完的曲目保留（最多一首），
+ * 向后跳转时先读取这部分，再从其结尾接着解码写入
+ */
+public class PcmCache {
+    /** 每块的字节数 */
+    public static final int CHUNK_BYTES = 1 << 20;
+
+    /** 默认字节预算：最多128MB，且不超过最大堆的1/16（直接内存上限默认与最大堆相同，还要留给其他缓冲区） */
+    public static final long DEFAULT_BUDGET = Math.min(128L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+
+    /** 缓冲区池 */
+    private final BufferPool pool;
+
+    /** 字节预算 */
+    private long budgetBytes;
+
+    /** 已缓存的字节数 */
+    private long sizeBytes;
+
+    /** 缓存项，按访问顺序排列 */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** 中途中断的写入器，保留已解码的部分 */
+    private Capture suspended;
+
+    /** 命中次数 */
+    private long hits;
+
+    /** 未命中次数 */
+    private long misses;
+
+    /** 淘汰次数 */
+    private long evictions;
+
+    /**
+     * 缓存的一首歌曲，读取前通过 {@link PcmCache#get(String)} 获得引用，用完后调用 {@link #release()}
+     */
+    public static class Entry {
+        /** 缓存键 */
+        private final String key;
+
+        /** PCM格式 */
+        private final AudioFormat format;
+
+        /** 总帧数（每声道采样数） */
+        private final long frames;
+
+        /** 存放PCM的块 */
+        private final ByteBuffer[] chunks;
+
+        /** 按采样访问的块视图 */
+        private final List<ShortBuffer> views = new ArrayList<>();
+
+        /** 缓冲区池 */
+        private final BufferPool pool;
+
+        /** 引用计数，缓存本身持有一个引用 */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(String key, AudioFormat format, long frames, List<ByteBuffer> chunks, BufferPool pool) {
+            this.key = key;
+            this.format = format;
+            this.frames = frames;
+            this.pool = pool;
+            this.chunks = chunks.toArray(new ByteBuffer[0]);
+            for (ByteBuffer chunk : this.chunks) {
+                views.add(chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+            }
+        }
+
+        /**
+         * 读取采样
+         * @param sample 起始采样（所有声道合计）
+         * @param dst 目标数组
+         * @param offset 目标起始位置
+         * @param length 采样个数
+         * @return 实际读取的采样个数
+         */
+        public int read(long sample, short[] dst, int offset, int length) {
+            return readViews(views, frames * format.getChannels(), sample, dst, offset, length);
+        }
+
+        /**
+         * 增加引用
+         */
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        /**
+         * 释放引用，引用全部释放后内存归还缓冲区池
+         */
+        public void release() {
+            if (refs.decrementAndGet() == 0) {
+                for (ByteBuffer chunk : chunks) {
+                    pool.release(chunk);
+                }
+            }
+        }
+
+        public String getKey() { return key; }
+        public AudioFormat getFormat() { return format; }
+        public long getFrames() { return frames; }
+
+        /**
+         * 获取占用的字节数
+         */
+        public long getBytes() {
+            return (long) chunks.length * CHUNK_BYTES;
+        }
+    }
+
+    /**
+     * 正在写入的缓存项，解码完整首歌曲后通过 {@link PcmCache#commit(Capture)} 加入缓存
+     */
+    public class Capture {
+        /** 缓存键 */
+        private final String key;
+
+        /** 预计的总帧数，用于提前判断是否超出预算 */
+        private final long expectedFrames;
+
+        /** PCM格式 */
+        private AudioFormat format;
+
+        /** 已写入的块 */
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        /** 已写入的块的采样视图 */
+        private final List<ShortBuffer> views = new ArrayList<>();
+
+        /** 当前块的采样视图 */
+        private ShortBuffer current;
+
+        /** 已写入的采样个数 */
+        private long written;
+
+        /** 是否已放弃 */
+        private boolean aborted;
+
+        Capture(String key, long expectedFrames) {
+            this.key = key;
+            this.expectedFrames = expectedFrames;
+        }
+
+        /**
+         * 追加采样，超出预算时自动放弃
+         * @param format PCM格式
+         * @param samples 采样数据
+         * @param offset 起始位置
+         * @param length 采样个数
+         */
+        public void append(AudioFormat format, short[] samples, int offset, int length) {
+            if (aborted) {
+                return;
+            }
+            if (this.format == null) {
+                this.format = format;
+                if (expectedFrames * format.getFrameSize() > getBudgetBytes()) {
+                    abort();
+                    return;
+                }
+            } else if (!this.format.matches(format)) {
+                abort();
+                return;
+            }
+            while (length > 0) {
+                if (current == null || !current.hasRemaining()) {
+                    ByteBuffer chunk = pool.acquire(CHUNK_BYTES);
+                    chunks.add(chunk);
+                    current = chunk.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                    views.add(current);
+                }
+                int n = Math.min(length, current.remaining());
+                current.put(samples, offset, n);
+                offset += n;
+                length -= n;
+                written += n;
+            }
+        }
+
+        /**
+         * 读取已写入的采样
+         * @param sample 起始采样（所有声道合计）
+         * @param dst 目标数组
+         * @param offset 目标起始位置
+         * @param length 采样个数
+         * @return 实际读取的采样个数
+         */
+        public int read(long sample, short[] dst, int offset, int length) {
+            return aborted ? 0 : readViews(views, written, sample, dst, offset, length);
+        }
+
+        /**
+         * 获取已写入的帧数（每声道采样数），也是下一次追加的数据在曲目中的位置
+         */
+        public long getFrames() {
+            return aborted || format == null ? 0 : written / format.getChannels();
+        }
+
+        public String getKey() { return key; }
+        public AudioFormat getFormat() { return format; }
+
+        /**
+         * 是否写入了可用的数据（解码到结尾后提交）
+         */
+        public boolean isComplete() {
+            return !aborted && format != null && written > 0;
+        }
+
+        /**
+         * 放弃写入，归还已借用的内存
+         */
+        public void abort() {
+            if (!aborted) {
+                aborted = true;
+                for (ByteBuffer chunk : chunks) {
+                    pool.release(chunk);
+                }
+                chunks.clear();
+                views.clear();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 从按块存放的采样中读取
+     * @param views 块视图
+     * @param total 采样总数（所有声道合计）
+     * @param sample 起始采样
+     * @param dst 目标数组
+     * @param offset 目标起始位置
+     * @param length 采样个数
+     * @return 实际读取的采样个数
+     */
+    private static int readViews(List<ShortBuffer> views, long total, long sample, short[] dst, int offset, int length) {
+        int count = (int) Math.max(Math.min(length, total - sample), 0);
+        int perChunk = CHUNK_BYTES / 2;
+        for (int done = 0; done < count; ) {
+            long position = sample + done;
+            ShortBuffer view = views.get((int) (position / perChunk));
+            int within = (int) (position % perChunk);
+            int n = Math.min(count - done, perChunk - within);
+            for (int i = 0; i < n; i++) {
+                dst[offset + done + i] = view.get(within + i);
+            }
+            done += n;
+        }
+        return count;
+    }
+
+    /**
+     * 构造函数
+     * @param budgetBytes 字节预算
+     */
+    public PcmCache(long budgetBytes) {
+        this(BufferPool.getDefault(), budgetBytes);
+    }
+
+    /**
+     * 构造函数
+     * @param pool 缓冲区池
+     * @param budgetBytes 字节预算
+     */
+    public PcmCache(BufferPool pool, long budgetBytes) {
+        this.pool = pool;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * 根据文件路径、长度和修改时间生成缓存键，文件被替换后不会命中旧数据
+     * @param file 音乐文件
+     * @return 缓存键
+     */
+    public static String keyOf(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * 查找缓存项，命中时增加引用
+     * @param key 缓存键
+     * @return 缓存项，未命中时返回null
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.retain();
+        return entry;
+    }
+
+    /**
+     * 是否已缓存（不计入命中统计）
+     * @param key 缓存键
+     */
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * 开始写入新的缓存项
+     * @param key 缓存键
+     * @param expectedFrames 预计的整首歌曲帧数（每声道采样数）
+     * @return 写入器，预算为0或帧数未知时返回null
+     */
+    public Capture startCapture(String key, long expectedFrames) {
+        synchronized (this) {
+            // 只保留一首未写完的曲目
+            discardSuspended();
+        }
+        if (getBudgetBytes() <= 0 || expectedFrames <= 0) {
+            return null;
+        }
+        return new Capture(key, expectedFrames);
+    }
+
+    /**
+     * 保留中途中断的写入器，之后可以通过 {@link #resume(String)} 取回继续读取和写入，
+     * 已保留的其他曲目会被放弃
+     * @param capture 写入器，没有数据时直接放弃
+     */
+    public synchronized void suspend(Capture capture) {
+        if (capture == suspended) {
+            return;
+        }
+        discardSuspended();
+        if (capture.getFrames() > 0 && budgetBytes > 0) {
+            suspended = capture;
+        } else {
+            capture.abort();
+        }
+    }
+
+    /**
+     * 取回之前中断的写入器，取回后由调用方负责提交或再次保留
+     * @param key 缓存键
+     * @return 写入器，没有该曲目的写入器时返回null
+     */
+    public synchronized Capture resume(String key) {
+        if (suspended == null || !suspended.key.equals(key)) {
+            return null;
+        }
+        Capture capture = suspended;
+        suspended = null;
+        return capture;
+    }
+
+    private void discardSuspended() {
+        if (suspended != null) {
+            suspended.abort();
+            suspended = null;
+        }
+    }
+
+    /**
+     * 把解码到结尾的缓存项加入缓存，必要时淘汰最久未使用的曲目
+     * @param capture 写入器
+     * @return 是否已加入
+     */
+    public synchronized boolean commit(Capture capture) {
+        if (!capture.isComplete()) {
+            capture.abort();
+            return false;
+        }
+        long frames = capture.written / capture.format.getChannels();
+        Entry entry = new Entry(capture.key, capture.format, frames, capture.chunks, pool);
+        if (entry.getBytes() > budgetBytes) {
+            capture.abort();
+            return false;
+        }
+        Entry previous = entries.remove(entry.key);
+        if (previous != null) {
+            sizeBytes -= previous.getBytes();
+            previous.release();
+        }
+        entries.put(entry.key, entry);
+        sizeBytes += entry.getBytes();
+        evictToBudget();
+        return true;
+    }
+
+    private void evictToBudget() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > budgetBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            sizeBytes -= eldest.getBytes();
+            eldest.release();
+            evictions++;
+        }
+    }
+
+    /**
+     * 设置字节预算，超出部分立即淘汰
+     * @param budgetBytes 字节预算，0表示不缓存
+     */
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = Math.max(budgetBytes, 0);
+        if (this.budgetBytes == 0) {
+            discardSuspended();
+        }
+        evictToBudget();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.release();
+        }
+        entries.clear();
+        sizeBytes = 0;
+        discardSuspended();
+    }
+
+    public synchronized long getBudgetBytes() { return budgetBytes; }
+    public synchronized long getSizeBytes() { return sizeBytes; }
+    public synchronized int getEntryCount() { return entries.size(); }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("PcmCache[曲目=%d, 占用=%d/%d 字节, 命中=%d, 未命中=%d, 淘汰=%d]",
+            entries.size(), sizeBytes, budgetBytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,167 @@
+package com.musicplayer.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * PCM环形缓冲区，解码线程写入16位采样，输出线程按小端字节读出
+ * 缓冲区满时写入方等待，缓冲区空时读取方等待，存储空间从缓冲区池借用，关闭时归还
+ */
+public class PcmRingBuffer {
+    /** 缓冲区池 */
+    private final BufferPool pool;
+
+    /** 环形缓冲区（小端16位PCM） */
+    private final ByteBuffer buffer;
+
+    /** 按采样访问的视图 */
+    private final ShortBuffer sampleView;
+
+    /** 容量（字节） */
+    private final int capacity;
+
+    /** 累计写入字节数 */
+    private long writePosition;
+
+    /** 累计读取字节数 */
+    private long readPosition;
+
+    /** 缓冲区是否已关闭 */
+    private boolean closed;
+
+    /**
+     * 构造函数，从默认缓冲区池借用存储空间
+     * @param capacity 容量（字节），取偶数
+     */
+    public PcmRingBuffer(int capacity) {
+        this(BufferPool.getDefault(), capacity);
+    }
+
+    /**
+     * 构造函数
+     * @param pool 缓冲区池
+     * @param capacity 容量（字节），取偶数
+     */
+    public PcmRingBuffer(BufferPool pool, int capacity) {
+        this.pool = pool;
+        this.capacity = Math.max(capacity & ~1, 2);
+        this.buffer = pool.acquire(this.capacity).order(ByteOrder.LITTLE_ENDIAN);
+        this.sampleView = buffer.asShortBuffer();
+    }
+
+    /**
+     * 写入交错排列的采样，缓冲区满时等待
+     * @param samples 采样数据
+     * @param offset 起始位置
+     * @param length 采样个数
+     * @return 是否全部写入，缓冲区关闭时返回false
+     */
+    public synchronized boolean write(short[] samples, int offset, int length) {
+        while (length > 0) {
+            while (!closed && writePosition - readPosition == capacity) {
+                if (!waitQuietly()) {
+                    return false;
+                }
+            }
+            if (closed) {
+                return false;
+            }
+            int free = (int) (capacity - (writePosition - readPosition)) / 2;
+            int count = Math.min(length, free);
+            int index = (int) (writePosition % capacity) / 2;
+            int slots = capacity / 2;
+            for (int i = 0; i < count; i++) {
+                sampleView.put(index, samples[offset + i]);
+                if (++index == slots) {
+                    index = 0;
+                }
+            }
+            writePosition += count * 2L;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * 读取数据，缓冲区空时等待
+     * @param data 目标数组
+     * @param offset 起始位置
+     * @param length 最多读取的字节数
+     * @return 读取的字节数，缓冲区关闭时返回-1
+     */
+    public synchronized int read(byte[] data, int offset, int length) {
+        while (!closed && writePosition == readPosition) {
+            if (!waitQuietly()) {
+                return -1;
+            }
+        }
+        if (closed) {
+            return -1;
+        }
+        int available = (int) (writePosition - readPosition);
+        int start = (int) (readPosition % capacity);
+        int count = Math.min(Math.min(length, available), capacity - start);
+        buffer.position(start);
+        buffer.get(data, offset, count);
+        readPosition += count;
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * 丢弃所有未读取的数据
+     * @return 丢弃的字节数
+     */
+    public synchronized int clear() {
+        int discarded = (int) (writePosition - readPosition);
+        readPosition = writePosition;
+        notifyAll();
+        return discarded;
+    }
+
+    /**
+     * 关闭缓冲区，等待中的读写都会返回，存储空间归还缓冲区池
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        pool.release(buffer);
+    }
+
+    /**
+     * 获取累计写入字节数
+     */
+    public synchronized long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 获取尚未读取的字节数
+     */
+    public synchronized int available() {
+        return (int) (writePosition - readPosition);
+    }
+
+    /**
+     * 获取容量（字节）
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean waitQuietly() {
+        try {
+            wait();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.musicplayer.audio;
+
+import javazoom.jl.decoder.JavaLayerException;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+
+/**
+ * 逐帧提供PCM的数据源，由MP3解码器或已解码的PCM缓存实现
+ */
+public interface PcmSource extends Closeable {
+    /**
+     * 预先准备开头的若干帧，用于无缝切换
+     * @param frames 帧数
+     * @throws JavaLayerException 如果解码失败
+     */
+    void prime(int frames) throws JavaLayerException;
+
+    /**
+     * 读取下一帧，之后通过 {@link #getSamples()} 等方法读取PCM
+     * @return 是否还有数据，false表示歌曲结束
+     * @throws JavaLayerException 如果解码失败
+     */
+    boolean nextFrame() throws JavaLayerException;
+
+    /**
+     * 获取当前帧的采样数据（交错排列）
+     */
+    short[] getSamples();
+
+    /**
+     * 获取当前帧数据在数组中的起始位置
+     */
+    int getSampleOffset();
+
+    /**
+     * 获取当前帧的采样个数（所有声道合计）
+     */
+    int getSampleLength();
+
+    /**
+     * 获取当前帧对应的MP3帧序号
+     */
+    int getCurrentFrame();
+
+    /**
+     * 获取当前帧第一个采样在曲目中的位置，以裁掉编码器延迟后的开头为0
+     * @return 位置（每声道采样数）
+     */
+    long getSamplePosition();
+
+    /**
+     * 获取裁剪后的总采样数
+     * @return 每声道采样数，未知时返回-1
+     */
+    long getTotalSamples();
+
+    /**
+     * 获取输出格式，读取第一帧之前可能为null
+     */
+    AudioFormat getFormat();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,85 @@
+package com.musicplayer.audio;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 按采样计算的播放时钟
+ * 解码线程在写入不连续的数据（新会话、跳转、无缝切换）前记录一个标记，
+ * 播放位置由输出已播放的帧数和最近一个已经播放到的标记推算，暂停时自然停止
+ */
+public class PlaybackClock {
+    /** 音频输出 */
+    private final AudioOutput output;
+
+    /** 尚未全部播放的标记，按写入顺序排列 */
+    private final ArrayDeque<Marker> markers = new ArrayDeque<>();
+
+    /**
+     * 标记：输出中某一帧对应的曲目位置
+     */
+    private static class Marker {
+        /** 输出中的帧位置 */
+        final long outputFrame;
+
+        /** 对应的曲目采样位置 */
+        final long trackSample;
+
+        /** 采样率 */
+        final float sampleRate;
+
+        Marker(long outputFrame, long trackSample, float sampleRate) {
+            this.outputFrame = outputFrame;
+            this.trackSample = trackSample;
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param output 音频输出
+     */
+    public PlaybackClock(AudioOutput output) {
+        this.output = output;
+    }
+
+    /**
+     * 记录下一次写入的第一个采样对应的曲目位置
+     * @param trackSample 曲目采样位置（每声道采样数）
+     * @param sampleRate 采样率
+     */
+    public synchronized void mark(long trackSample, float sampleRate) {
+        markers.add(new Marker(output.getFramesWritten(), trackSample, sampleRate));
+    }
+
+    /**
+     * 清除所有标记，输出重新打开后调用
+     */
+    public synchronized void reset() {
+        markers.clear();
+    }
+
+    /**
+     * 获取当前听到的位置
+     * @return 播放位置（毫秒），没有标记时返回-1
+     */
+    public synchronized long getPositionMillis() {
+        if (markers.isEmpty()) {
+            return -1;
+        }
+        long played = output.getFramePosition();
+        // 丢弃已被后一个标记取代的标记
+        while (markers.size() > 1 && nextMarker().outputFrame <= played) {
+            markers.poll();
+        }
+        Marker marker = markers.peek();
+        long sample = marker.trackSample + Math.max(played - marker.outputFrame, 0);
+        return (long) (sample * 1000L / marker.sampleRate);
+    }
+
+    private Marker nextMarker() {
+        Iterator<Marker> iterator = markers.iterator();
+        iterator.next();
+        return iterator.next();
+    }
+}
@@ -0,0 +1,181 @@
+package com.musicplayer.audio;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 播放执行器，所有解码会话都在同一个线程上运行
+ * 提交新会话时取消旧会话，已被取消的会话在轮到执行时只做清理，
+ * 因此无论切歌多快，同一时刻最多只有一个解码器在运行
+ */
+public class PlaybackExecutor {
+    /** 解码线程名称 */
+    public static final String THREAD_NAME = "audio-decoder";
+
+    /** 会话编号生成器 */
+    private final AtomicLong sessionIds = new AtomicLong();
+
+    /** 正在运行的解码会话数 */
+    private final AtomicInteger liveDecoders = new AtomicInteger();
+
+    /** 同时运行的解码会话数峰值 */
+    private final AtomicInteger peakLiveDecoders = new AtomicInteger();
+
+    /** 单线程执行器 */
+    private final ExecutorService executor;
+
+    /** 解码线程 */
+    private volatile Thread decoderThread;
+
+    /** 最近提交的会话 */
+    private volatile Session current;
+
+    /**
+     * 会话任务接口
+     */
+    public interface SessionTask {
+        /**
+         * 执行解码，应定期检查 {@link Session#isActive()} 并在会话取消后尽快返回，
+         * 会话在开始前已被取消时也会调用，以便释放资源
+         * @param session 所属会话
+         * @throws Exception 解码过程中的异常
+         */
+        void run(Session session) throws Exception;
+    }
+
+    /**
+     * 解码会话，提交时分配唯一编号
+     */
+    public static class Session {
+        /** 会话编号 */
+        private final long id;
+
+        /** 是否已取消 */
+        private volatile boolean cancelled;
+
+        /** 会话结束（执行完毕或被跳过）时计数归零 */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Session(long id) {
+            this.id = id;
+        }
+
+        /**
+         * 取消会话，正在运行的任务会在下一次检查时退出
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * 会话是否仍然有效
+         */
+        public boolean isActive() {
+            return !cancelled;
+        }
+
+        /**
+         * 等待会话结束
+         * @param timeoutMillis 最长等待时间
+         * @return 会话是否已结束
+         */
+        public boolean awaitTermination(long timeoutMillis) {
+            try {
+                return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        public long getId() { return id; }
+    }
+
+    /**
+     * 构造函数，创建唯一的解码线程
+     */
+    public PlaybackExecutor() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            decoderThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * 提交新的解码会话，之前的会话会被取消
+     * @param task 会话任务
+     * @return 新会话
+     */
+    public Session submit(SessionTask task) {
+        Session previous = current;
+        if (previous != null) {
+            previous.cancel();
+        }
+        Session session = new Session(sessionIds.incrementAndGet());
+        current = session;
+        executor.execute(() -> {
+            // 轮到执行前已被取消的会话只做清理，不计为运行中的解码器
+            boolean live = session.isActive();
+            if (live) {
+                peakLiveDecoders.accumulateAndGet(liveDecoders.incrementAndGet(), Math::max);
+            }
+            try {
+                task.run(session);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                if (live) {
+                    liveDecoders.decrementAndGet();
+                }
+                session.done.countDown();
+            }
+        });
+        return session;
+    }
+
+    /**
+     * 在解码线程上执行清理任务，排在已提交的会话之后运行，不取消当前会话
+     * @param task 清理任务
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * 当前线程是否是解码线程
+     */
+    public boolean isDecoderThread() {
+        return Thread.currentThread() == decoderThread;
+    }
+
+    /**
+     * 获取正在运行的解码会话数
+     */
+    public int getLiveDecoderCount() {
+        return liveDecoders.get();
+    }
+
+    /**
+     * 获取同时运行的解码会话数峰值
+     */
+    public int getPeakLiveDecoderCount() {
+        return peakLiveDecoders.get();
+    }
+
+    /**
+     * 关闭执行器，取消当前会话
+     */
+    public void shutdown() {
+        Session session = current;
+        if (session != null) {
+            session.cancel();
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,184 @@
+package com.musicplayer.audio;
+
+import javax.swing.SwingUtilities;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 进度事件分发器，按每个监听器各自的频率在事件线程中推送播放位置
+ * 每个监听器在事件队列中最多只有一个待处理的事件，事件线程繁忙时多余的更新被合并，
+ * 停止后不再产生任何事件
+ */
+public class ProgressDispatcher {
+    /** 调度线程名称 */
+    public static final String THREAD_NAME = "progress-dispatcher";
+
+    /** 播放位置来源（毫秒） */
+    private final LongSupplier position;
+
+    /** 总时长来源（毫秒） */
+    private final LongSupplier duration;
+
+    /** 已注册的监听器 */
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    /** 调度线程 */
+    private final ScheduledExecutorService scheduler;
+
+    /** 是否正在推送 */
+    private boolean running;
+
+    /** 已投递到事件线程的事件数 */
+    private final AtomicLong postedEvents = new AtomicLong();
+
+    /** 因已有待处理事件而合并掉的更新数 */
+    private final AtomicLong coalescedEvents = new AtomicLong();
+
+    /**
+     * 监听器注册信息
+     */
+    private class Registration {
+        final AudioPlayer.ProgressListener listener;
+        final long intervalMillis;
+        final AtomicBoolean pending = new AtomicBoolean();
+        ScheduledFuture<?> future;
+
+        Registration(AudioPlayer.ProgressListener listener, long intervalMillis) {
+            this.listener = listener;
+            this.intervalMillis = intervalMillis;
+        }
+
+        /**
+         * 投递一次更新，已有待处理的事件时合并
+         */
+        void post() {
+            if (!pending.compareAndSet(false, true)) {
+                coalescedEvents.incrementAndGet();
+                return;
+            }
+            postedEvents.incrementAndGet();
+            SwingUtilities.invokeLater(() -> {
+                pending.set(false);
+                // 在事件线程中读取位置，合并后的事件总是显示最新的进度
+                listener.onProgress((int) position.getAsLong(), (int) duration.getAsLong());
+            });
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param position 播放位置来源（毫秒）
+     * @param duration 总时长来源（毫秒）
+     */
+    public ProgressDispatcher(LongSupplier position, LongSupplier duration) {
+        this.position = position;
+        this.duration = duration;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 添加监听器
+     * @param listener 进度监听器
+     * @param intervalMillis 推送间隔（毫秒）
+     */
+    public synchronized void addListener(AudioPlayer.ProgressListener listener, long intervalMillis) {
+        Registration registration = new Registration(listener, Math.max(intervalMillis, 1));
+        registrations.add(registration);
+        if (running) {
+            schedule(registration);
+        }
+    }
+
+    /**
+     * 移除监听器
+     * @param listener 进度监听器
+     */
+    public synchronized void removeListener(AudioPlayer.ProgressListener listener) {
+        for (Registration registration : registrations) {
+            if (registration.listener == listener) {
+                cancel(registration);
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * 开始按频率推送
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (Registration registration : registrations) {
+            schedule(registration);
+        }
+    }
+
+    /**
+     * 停止推送
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Registration registration : registrations) {
+            cancel(registration);
+        }
+    }
+
+    /**
+     * 立即向所有监听器推送一次当前位置（例如暂停时跳转或播放结束后）
+     */
+    public void notifyNow() {
+        for (Registration registration : registrations) {
+            registration.post();
+        }
+    }
+
+    /**
+     * 关闭调度线程
+     */
+    public synchronized void shutdown() {
+        stop();
+        scheduler.shutdown();
+    }
+
+    private void schedule(Registration registration) {
+        registration.future = scheduler.scheduleAtFixedRate(registration::post,
+            0, registration.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel(Registration registration) {
+        if (registration.future != null) {
+            registration.future.cancel(false);
+            registration.future = null;
+        }
+    }
+
+    /**
+     * 获取已投递到事件线程的事件数
+     */
+    public long getPostedEvents() {
+        return postedEvents.get();
+    }
+
+    /**
+     * 获取被合并掉的更新数
+     */
+    public long getCoalescedEvents() {
+        return coalescedEvents.get();
+    }
+}
@@ -0,0 +1,316 @@
+package com.musicplayer.audio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 流式播放用的有界环形缓冲区
+ * 网络读取线程把数据写入缓冲区，解码器通过 {@link #getInputStream()} 读取，
+ * 缓冲区满时读取线程等待，缓冲区空时解码器等待并记录一次欠载，
+ * 存储空间从缓冲区池借用，关闭时归还
+ */
+public class StreamBuffer {
+    /** 缓冲区池 */
+    private final BufferPool pool = BufferPool.getDefault();
+
+    /** 环形缓冲区 */
+    private final ByteBuffer buffer;
+
+    /** 容量（字节） */
+    private final int capacity;
+
+    /** 累计写入字节数 */
+    private long writePosition;
+
+    /** 累计读取字节数 */
+    private long readPosition;
+
+    /** 数据源是否已读完 */
+    private boolean endOfStream;
+
+    /** 缓冲区是否已关闭 */
+    private boolean closed;
+
+    /** 读取数据源时的异常 */
+    private IOException failure;
+
+    /** 已到达的完整帧数 */
+    private int framesArrived;
+
+    /** 欠载次数 */
+    private int underruns;
+
+    /** 第一个帧头，用于计算采样率 */
+    private volatile int firstHeader;
+
+    /** 数据源 */
+    private InputStream source;
+
+    /** 网络读取线程 */
+    private Thread readerThread;
+
+    /** 帧计数：移位寄存器 */
+    private int headerRegister;
+
+    /** 帧计数：下一帧的起始位置 */
+    private long nextFramePosition;
+
+    /** 帧计数：是否已和帧边界同步 */
+    private boolean synced;
+
+    /**
+     * 构造函数
+     * @param capacity 缓冲区容量（字节）
+     */
+    public StreamBuffer(int capacity) {
+        this.capacity = capacity;
+        this.buffer = pool.acquire(capacity);
+    }
+
+    /**
+     * 启动读取线程，把数据源的内容填充到缓冲区
+     * @param source 数据源（通常是网络流）
+     */
+    public void start(InputStream source) {
+        this.source = source;
+        readerThread = new Thread(() -> {
+            byte[] chunk = new byte[8192];
+            try {
+                int read;
+                while (!isClosed() && (read = source.read(chunk)) != -1) {
+                    write(chunk, 0, read);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (!closed) {
+                        failure = e;
+                    }
+                }
+            } finally {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                synchronized (this) {
+                    endOfStream = true;
+                    notifyAll();
+                }
+            }
+        }, "stream-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * 写入数据，缓冲区满时等待
+     */
+    private void write(byte[] data, int offset, int length) throws IOException {
+        countFrames(data, offset, length);
+        synchronized (this) {
+            while (length > 0) {
+                while (!closed && writePosition - readPosition == capacity) {
+                    waitQuietly();
+                }
+                if (closed) {
+                    return;
+                }
+                int free = (int) (capacity - (writePosition - readPosition));
+                int start = (int) (writePosition % capacity);
+                int count = Math.min(Math.min(length, free), capacity - start);
+                buffer.position(start);
+                buffer.put(data, offset, count);
+                writePosition += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 读取数据，缓冲区空时等待，返回-1表示数据已读完
+     */
+    private synchronized int read(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (writePosition == readPosition && !endOfStream && !closed) {
+            underruns++;
+            while (writePosition == readPosition && !endOfStream && !closed) {
+                waitQuietly();
+            }
+        }
+        if (failure != null && writePosition == readPosition) {
+            throw failure;
+        }
+        if (closed || writePosition == readPosition) {
+            return -1;
+        }
+        int available = (int) (writePosition - readPosition);
+        int start = (int) (readPosition % capacity);
+        int count = Math.min(Math.min(length, available), capacity - start);
+        buffer.position(start);
+        buffer.get(data, offset, count);
+        readPosition += count;
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * 在读取线程中按帧头统计已到达的帧数
+     */
+    private void countFrames(byte[] data, int offset, int length) {
+        long position = writePosition;
+        int frames = 0;
+        for (int i = 0; i < length; i++, position++) {
+            headerRegister = (headerRegister << 8) | (data[offset + i] & 0xFF);
+            long headerStart = position - 3;
+            if (headerStart < nextFramePosition || (synced && headerStart != nextFramePosition)) {
+                continue;
+            }
+            int frameLength = Mp3FrameIndex.frameLength(headerRegister);
+            if (frameLength > 0) {
+                if (firstHeader == 0) {
+                    firstHeader = headerRegister;
+                }
+                nextFramePosition = headerStart + frameLength;
+                synced = true;
+                frames++;
+            } else {
+                synced = false;
+            }
+        }
+        if (frames > 0) {
+            synchronized (this) {
+                framesArrived += frames;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 等待缓冲区中到达指定数量的帧（或数据源结束）
+     * @param frames 帧数
+     * @param timeoutMillis 最长等待时间
+     * @return 是否已到达足够的数据
+     */
+    public synchronized boolean awaitFrames(int frames, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (framesArrived < frames && !endOfStream && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !closed;
+    }
+
+    /**
+     * 获取供解码器读取的输入流
+     */
+    public InputStream getInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return StreamBuffer.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return StreamBuffer.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                synchronized (StreamBuffer.this) {
+                    return (int) (writePosition - readPosition);
+                }
+            }
+
+            @Override
+            public void close() {
+                StreamBuffer.this.close();
+            }
+        };
+    }
+
+    /**
+     * 关闭缓冲区，读取线程和解码器都会退出等待
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        pool.release(buffer);
+        if (readerThread != null) {
+            readerThread.interrupt();
+        }
+        // 关闭数据源以中断阻塞中的网络读取
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                // 读取线程可能已经关闭了数据源
+            }
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void waitQuietly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    /**
+     * 获取已到达的帧数
+     */
+    public synchronized int getFramesArrived() {
+        return framesArrived;
+    }
+
+    /**
+     * 获取欠载次数
+     */
+    public synchronized int getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * 数据源是否已全部读入
+     */
+    public synchronized boolean isComplete() {
+        return endOfStream && failure == null;
+    }
+
+    /**
+     * 获取流的采样率，尚未收到帧头时返回0
+     */
+    public int getSampleRate() {
+        return firstHeader != 0 ? Mp3FrameIndex.sampleRate(firstHeader) : 0;
+    }
+
+    /**
+     * 获取每帧采样数，尚未收到帧头时返回0
+     */
+    public int getSamplesPerFrame() {
+        return firstHeader != 0 ? Mp3FrameIndex.samplesPerFrame(firstHeader) : 0;
+    }
+}
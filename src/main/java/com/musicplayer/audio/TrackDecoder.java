@@ -0,0 +1,377 @@
+package com.musicplayer.audio;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 单首歌曲的MP3解码器，逐帧输出PCM
+ * 根据LAME头裁掉编码器延迟和末尾填充，可以预先解码开头若干帧用于无缝切换，
+ * 读取缓冲和预解码的PCM都从缓冲区池借用，关闭时归还
+ */
+public class TrackDecoder implements PcmSource {
+    /** MP3解码器固有延迟（每声道采样数） */
+    public static final int DECODER_DELAY = 529;
+
+    /** 跳转时额外解码并丢弃的帧数，用于填充比特池和重叠窗口 */
+    private static final int PREROLL_FRAMES = 2;
+
+    /** 比特池最多回溯的主数据字节数（main_data_begin为9位） */
+    private static final int MAX_RESERVOIR_BYTES = 511;
+
+    /** 每帧不属于主数据的最大字节数（帧头、CRC和立体声边信息） */
+    private static final int FRAME_OVERHEAD_BYTES = 4 + 2 + 32;
+
+    /** 单帧最多的采样个数（MPEG1 Layer III 立体声） */
+    private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+
+    /** 输入流 */
+    private final InputStream input;
+
+    /** 比特流 */
+    private final Bitstream bitstream;
+
+    /** jlayer解码器 */
+    private final Decoder decoder = new Decoder();
+
+    /** 下一帧的序号 */
+    private int frame;
+
+    /** 开头需要解码但丢弃的帧数 */
+    private int discardFrames;
+
+    /** 有效采样的起始位置（每声道采样数） */
+    private final long trimStart;
+
+    /** 有效采样的结束位置（每声道采样数） */
+    private final long trimEnd;
+
+    /** 裁剪后的总采样数，没有帧索引时为-1 */
+    private final long totalSamples;
+
+    /** 缓冲区池 */
+    private final BufferPool pool = BufferPool.getDefault();
+
+    /** 预先解码的PCM（从缓冲区池借用） */
+    private ByteBuffer primedBuffer;
+
+    /** 预先解码的PCM按采样访问的视图 */
+    private ShortBuffer primedSamples;
+
+    /** 预先解码的各帧采样个数 */
+    private final ArrayDeque<Integer> primedLengths = new ArrayDeque<>();
+
+    /** 取出预先解码的帧时使用的数组 */
+    private short[] primedOutput;
+
+    /** 预先解码的帧对应的帧序号 */
+    private final ArrayDeque<Integer> primedNumbers = new ArrayDeque<>();
+
+    /** 预先解码的帧对应的采样位置 */
+    private final ArrayDeque<Long> primedPositions = new ArrayDeque<>();
+
+    /** 当前帧的采样数据 */
+    private short[] samples;
+
+    /** 当前帧的起始位置 */
+    private int sampleOffset;
+
+    /** 当前帧的采样个数 */
+    private int sampleLength;
+
+    /** 当前帧的序号 */
+    private int currentFrame = -1;
+
+    /** 当前帧第一个采样在曲目中的位置（裁剪后，每声道采样数） */
+    private long samplePosition;
+
+    /** 输出格式，解码第一帧后确定 */
+    private AudioFormat format;
+
+    /**
+     * 构造函数
+     * @param input 从 {@code firstFrame} 帧起始处开始的输入流
+     * @param index 帧索引，为null时不裁剪
+     * @param firstFrame 输入流中第一帧的序号
+     * @param discardFrames 开头解码后丢弃的帧数
+     */
+    public TrackDecoder(InputStream input, Mp3FrameIndex index, int firstFrame, int discardFrames) {
+        this.input = input;
+        this.bitstream = new Bitstream(input);
+        this.frame = firstFrame;
+        this.discardFrames = discardFrames;
+        this.trimStart = trimStart(index);
+        if (index != null && index.getEncoderDelay() > 0) {
+            long total = (long) index.getTotalFrames() * index.getSamplesPerFrame();
+            this.trimEnd = Math.min(total, total - index.getEncoderPadding() + DECODER_DELAY);
+        } else {
+            this.trimEnd = Long.MAX_VALUE;
+        }
+        if (index != null && index.getTotalFrames() > 0) {
+            long total = (long) index.getTotalFrames() * index.getSamplesPerFrame();
+            this.totalSamples = Math.min(total, trimEnd) - trimStart;
+        } else {
+            this.totalSamples = -1;
+        }
+    }
+
+    /**
+     * 计算开头需要裁掉的采样数（编码器延迟加解码器延迟）
+     * @param index 帧索引，可以为null
+     * @return 每声道采样数
+     */
+    static long trimStart(Mp3FrameIndex index) {
+        return index != null && index.getEncoderDelay() > 0 ? index.getEncoderDelay() + DECODER_DELAY : 0;
+    }
+
+    /**
+     * 计算跳转时开始解码的帧：至少提前 {@link #PREROLL_FRAMES} 帧，
+     * 码率较低、比特池跨越多帧时继续往前，直到预解码第一帧的主数据一定已经读入，
+     * 这样跳转后的第一帧与从头顺序解码的结果完全相同
+     * @param index 帧索引，可以为null
+     * @param startFrame 起始帧
+     * @return 开始解码的帧
+     */
+    static int prerollStart(Mp3FrameIndex index, int startFrame) {
+        int required = startFrame - PREROLL_FRAMES;
+        if (required <= 0 || index == null || required >= index.getFrameCount()) {
+            return Math.max(required, 0);
+        }
+        long end = index.getOffset(required);
+        int first = required;
+        while (first > 0 && end - index.getOffset(first)
+                < MAX_RESERVOIR_BYTES + (long) FRAME_OVERHEAD_BYTES * (required - first)) {
+            first--;
+        }
+        return first;
+    }
+
+    /**
+     * 打开本地文件，从指定帧开始解码
+     * 文件以内存映射方式读取，不复制到堆中；无法映射时按顺序读取
+     * @param file MP3文件
+     * @param index 帧索引
+     * @param startFrame 起始帧
+     * @return 解码器
+     * @throws IOException 如果打开文件失败
+     */
+    public static TrackDecoder open(File file, Mp3FrameIndex index, int startFrame) throws IOException {
+        ByteBuffer mapped;
+        try {
+            mapped = MappedInputStream.map(file);
+        } catch (IOException e) {
+            mapped = null;
+        }
+        if (mapped != null) {
+            return open(mapped, index, startFrame);
+        }
+        int firstFrame = prerollStart(index, startFrame);
+        FileChannel channel = new FileInputStream(file).getChannel();
+        if (index != null && index.getFrameCount() > 0) {
+            channel.position(index.getOffset(firstFrame));
+        } else {
+            firstFrame = startFrame = 0;
+        }
+        return new TrackDecoder(new ChannelInputStream(channel), index, firstFrame, startFrame - firstFrame);
+    }
+
+    /**
+     * 打开内存中的MP3数据，从指定帧开始解码
+     * @param data MP3数据
+     * @param index 帧索引
+     * @param startFrame 起始帧
+     * @return 解码器
+     */
+    public static TrackDecoder open(byte[] data, Mp3FrameIndex index, int startFrame) {
+        return open(ByteBuffer.wrap(data), index, startFrame);
+    }
+
+    /**
+     * 打开缓冲区中的MP3数据（从0到界限），从指定帧开始解码，不改变缓冲区的位置
+     * 缓冲区可以是文件的内存映射，同一个映射可以反复打开用于跳转
+     * @param data MP3数据
+     * @param index 帧索引
+     * @param startFrame 起始帧
+     * @return 解码器
+     */
+    public static TrackDecoder open(ByteBuffer data, Mp3FrameIndex index, int startFrame) {
+        int firstFrame = prerollStart(index, startFrame);
+        int offset = 0;
+        if (index != null && index.getFrameCount() > 0) {
+            offset = (int) Math.min(index.getOffset(firstFrame), data.limit());
+        } else {
+            firstFrame = startFrame = 0;
+        }
+        MappedInputStream input = new MappedInputStream(data);
+        input.position(offset);
+        return new TrackDecoder(input, index, firstFrame, startFrame - firstFrame);
+    }
+
+    /**
+     * 预先解码开头的若干帧
+     * @param frames 帧数
+     * @throws JavaLayerException 如果解码失败
+     */
+    public void prime(int frames) throws JavaLayerException {
+        if (primedBuffer == null) {
+            primedBuffer = pool.acquire(frames * MAX_FRAME_SAMPLES * 2);
+            primedSamples = primedBuffer.asShortBuffer();
+        }
+        for (int i = 0; i < frames && primedSamples.remaining() >= MAX_FRAME_SAMPLES && decodeNext(); i++) {
+            primedSamples.put(samples, sampleOffset, sampleLength);
+            primedLengths.add(sampleLength);
+            primedNumbers.add(currentFrame);
+            primedPositions.add(samplePosition);
+        }
+    }
+
+    /**
+     * 解码下一帧，之后通过 {@link #getSamples()} 等方法读取PCM
+     * @return 是否还有数据，false表示歌曲结束
+     * @throws JavaLayerException 如果解码失败
+     */
+    public boolean nextFrame() throws JavaLayerException {
+        if (!primedLengths.isEmpty()) {
+            if (primedOutput == null) {
+                primedOutput = new short[MAX_FRAME_SAMPLES];
+                primedSamples.flip();
+            }
+            sampleLength = primedLengths.poll();
+            primedSamples.get(primedOutput, 0, sampleLength);
+            samples = primedOutput;
+            currentFrame = primedNumbers.poll();
+            samplePosition = primedPositions.poll();
+            sampleOffset = 0;
+            if (primedLengths.isEmpty()) {
+                releasePrimed();
+            }
+            return true;
+        }
+        return decodeNext();
+    }
+
+    private boolean decodeNext() throws JavaLayerException {
+        while (true) {
+            Header header = bitstream.readFrame();
+            if (header == null) {
+                return false;
+            }
+            SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+            bitstream.closeFrame();
+            int number = frame++;
+
+            int channels = output.getChannelCount();
+            if (format == null) {
+                format = new AudioFormat(output.getSampleFrequency(), 16, channels, true, false);
+            }
+            if (discardFrames > 0) {
+                discardFrames--;
+                continue;
+            }
+
+            // 只输出落在有效范围内的采样
+            int samplesPerChannel = output.getBufferLength() / channels;
+            long first = (long) number * samplesPerChannel;
+            long from = Math.max(first, trimStart);
+            long to = Math.min(first + samplesPerChannel, trimEnd);
+            if (from >= to) {
+                if (first >= trimEnd) {
+                    return false;
+                }
+                continue;
+            }
+            samples = output.getBuffer();
+            sampleOffset = (int) (from - first) * channels;
+            sampleLength = (int) (to - from) * channels;
+            currentFrame = number;
+            samplePosition = from - trimStart;
+            return true;
+        }
+    }
+
+    /**
+     * 获取当前帧的采样数据（交错排列）
+     */
+    public short[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * 获取当前帧数据在数组中的起始位置
+     */
+    public int getSampleOffset() {
+        return sampleOffset;
+    }
+
+    /**
+     * 获取当前帧的采样个数（所有声道合计）
+     */
+    public int getSampleLength() {
+        return sampleLength;
+    }
+
+    /**
+     * 获取当前帧的序号
+     */
+    public int getCurrentFrame() {
+        return currentFrame;
+    }
+
+    /**
+     * 获取当前帧第一个采样在曲目中的位置，以裁掉编码器延迟后的开头为0
+     * @return 位置（每声道采样数）
+     */
+    public long getSamplePosition() {
+        return samplePosition;
+    }
+
+    /**
+     * 获取裁剪后的总采样数
+     * @return 每声道采样数，没有帧索引时返回-1
+     */
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * 获取输出格式，解码第一帧之前为null
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    private void releasePrimed() {
+        if (primedBuffer != null) {
+            pool.release(primedBuffer);
+            primedBuffer = null;
+            primedSamples = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        releasePrimed();
+        try {
+            bitstream.close();
+        } catch (JavaLayerException e) {
+            e.printStackTrace();
+        }
+        try {
+            input.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -3,8 +3,14 @@ package com.musicplayer.controller;
 import com.musicplayer.model.Song;
 import com.musicplayer.model.Playlist;
 import com.musicplayer.audio.AudioPlayer;
+import com.musicplayer.util.CacheWarmer;
 import com.musicplayer.util.MusicFileManager;
+import com.musicplayer.util.StreamCache;
+import com.musicplayer.util.StreamPrefetcher;
+import javax.swing.SwingUtilities;
+import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -32,14 +38,76 @@ public class PlayerController {
     /** 在线播放列表 */
     private List<Song> onlinePlaylist;
     
-    /** 流状态 */
+    /** 在线流是否已关闭，停止或切歌后为true，暂停时保留的会话仍然有效 */
     private boolean streamClosed = false;
     
+    /** 按播放模式预先确定的下一首 */
+    private Song upcomingSong;
+    
+    /** 是否启用无缝播放 */
+    private boolean gaplessEnabled = true;
+    
+    /** 淡入淡出时长（毫秒），0表示不启用 */
+    private int crossfadeMillis = 0;
+    
+    /** 歌曲切换监听器 */
+    private SongChangeListener songChangeListener;
+    
+    /** 默认预取的在线歌曲数 */
+    public static final int DEFAULT_PREFETCH_COUNT = 2;
+    
+    /** 在线歌曲预取器，设置下载来源前为null */
+    private StreamPrefetcher prefetcher;
+    
+    /** 预取的在线歌曲数，0表示不预取 */
+    private int prefetchCount = DEFAULT_PREFETCH_COUNT;
+    
+    /** 按收听历史预热缓存，设置下载来源前为null */
+    private CacheWarmer warmer;
+    
+    /**
+     * 歌曲切换监听器接口，播放器自动切歌后在事件线程中回调
+     */
+    public interface SongChangeListener {
+        /**
+         * 当前歌曲已变化
+         * @param song 新的当前歌曲
+         */
+        void onSongChanged(Song song);
+    }
+    
     /**
      * 构造函数，初始化音频播放器
      */
     public PlayerController() {
         this.audioPlayer = new AudioPlayer();
+        this.audioPlayer.setTrackListener(new AudioPlayer.TrackListener() {
+            @Override
+            public void onTrackChanged(String filePath) {
+                SwingUtilities.invokeLater(() -> {
+                    // 播放器已无缝切换到预先确定的下一首
+                    if (upcomingSong != null) {
+                        currentSong = upcomingSong;
+                        if (onlinePlaylist != null) {
+                            StreamCache.recordPlay(currentSong.getId());
+                        }
+                        onlineSongStarted();
+                        prepareUpcoming();
+                        notifySongChanged();
+                    }
+                });
+            }
+            
+            @Override
+            public void onTrackFinished() {
+                SwingUtilities.invokeLater(() -> {
+                    // 没有无缝衔接的下一首时，按播放模式切到下一首
+                    isPlaying = false;
+                    next();
+                    notifySongChanged();
+                });
+            }
+        });
     }
     
     /**
@@ -67,30 +135,33 @@ public class PlayerController {
             audioPlayer.stop();
             audioPlayer.play(filePath);
             isPlaying = true;
+            prepareUpcoming();
         }
     }
     
     /**
-     * 从暂停处继续播放
+     * 从暂停处继续播放，在线歌曲直接继续暂停时保留的解码器和输出
      */
     public void resume() {
         if (currentSong != null) {
             if (!needNewStream()) {
                 audioPlayer.resume();
                 isPlaying = true;
+                if (onlinePlaylist != null && !audioPlayer.isPlaying()) {
+                    // 暂停期间会话已结束（如网络出错），需要重新获取流
+                    streamClosed = true;
+                    isPlaying = false;
+                }
             }
         }
     }
     
     /**
-     * 暂停播放
+     * 暂停播放，解码器和输出保留，在线流不关闭
      */
     public void pause() {
         audioPlayer.pause();
         isPlaying = false;
-        if (onlinePlaylist != null) {
-            streamClosed = true;  // 标记在线流已关闭
-        }
     }
     
     /**
@@ -99,37 +170,31 @@ public class PlayerController {
     public void stop() {
         audioPlayer.stop();
         isPlaying = false;
+        if (onlinePlaylist != null) {
+            streamClosed = true;  // 标记在线流已关闭
+        }
     }
     
     /**
      * 播放下一首歌曲
      */
     public void next() {
-        List<Song> currentList = onlinePlaylist != null ? onlinePlaylist : 
-            (currentPlaylist != null ? currentPlaylist.getSongs() : null);
+        List<Song> currentList = getCurrentList();
             
         if (currentList != null && !currentList.isEmpty()) {
             int currentIndex = currentList.indexOf(currentSong);
             if (currentIndex >= 0) {
+                if (isPlaying && crossfadeMillis > 0 && crossfadeToNext(currentList, currentIndex)) {
+                    return;
+                }
                 stop();
                 
-                int nextIndex;
-                switch (playMode) {
-                    case RANDOM:
-                        do {
-                            nextIndex = (int) (Math.random() * currentList.size());
-                        } while (nextIndex == currentIndex && currentList.size() > 1);
-                        break;
-                    case SINGLE_LOOP:
-                        nextIndex = currentIndex;
-                        break;
-                    case SEQUENCE:
-                    default:
-                        nextIndex = (currentIndex + 1) % currentList.size();
-                        break;
+                // 优先使用预先确定的下一首，随机模式下与预先打开的曲目保持一致
+                if (upcomingSong != null && currentList.contains(upcomingSong)) {
+                    currentSong = upcomingSong;
+                } else {
+                    currentSong = currentList.get(pickNextIndex(currentList.size(), currentIndex));
                 }
-                
-                currentSong = currentList.get(nextIndex);
                 if (onlinePlaylist != null) {
                     streamClosed = true;  // 标记需要新的流
                 } else {
@@ -141,12 +206,164 @@ public class PlayerController {
         }
     }
     
+    /**
+     * 从当前位置淡变到下一首，歌曲信息在淡变完成后通过曲目监听器更新
+     * @return 是否已安排淡变，下一首不能直接播放时返回false
+     */
+    private boolean crossfadeToNext(List<Song> currentList, int currentIndex) {
+        Song target = upcomingSong != null && currentList.contains(upcomingSong)
+            ? upcomingSong : currentList.get(pickNextIndex(currentList.size(), currentIndex));
+        String path = resolvePlayablePath(target);
+        if (path == null || !audioPlayer.crossfadeTo(path)) {
+            return false;
+        }
+        upcomingSong = target;
+        return true;
+    }
+    
+    /**
+     * 按播放模式计算下一首的位置
+     * @param size 列表长度
+     * @param currentIndex 当前位置
+     * @return 下一首的位置
+     */
+    private int pickNextIndex(int size, int currentIndex) {
+        int nextIndex;
+        switch (playMode) {
+            case RANDOM:
+                do {
+                    nextIndex = (int) (Math.random() * size);
+                } while (nextIndex == currentIndex && size > 1);
+                break;
+            case SINGLE_LOOP:
+                nextIndex = currentIndex;
+                break;
+            case SEQUENCE:
+            default:
+                nextIndex = (currentIndex + 1) % size;
+                break;
+        }
+        return nextIndex;
+    }
+    
+    /**
+     * 获取当前播放队列
+     */
+    private List<Song> getCurrentList() {
+        return onlinePlaylist != null ? onlinePlaylist :
+            (currentPlaylist != null ? currentPlaylist.getSongs() : null);
+    }
+    
+    /**
+     * 预先确定下一首，并交给播放器提前打开以便无缝衔接
+     */
+    private void prepareUpcoming() {
+        upcomingSong = null;
+        List<Song> currentList = getCurrentList();
+        if (currentList != null && !currentList.isEmpty() && currentSong != null) {
+            int currentIndex = currentList.indexOf(currentSong);
+            if (currentIndex >= 0) {
+                upcomingSong = currentList.get(pickNextIndex(currentList.size(), currentIndex));
+            }
+        }
+        audioPlayer.setNextTrack(gaplessEnabled || crossfadeMillis > 0 ? resolvePlayablePath(upcomingSong) : null);
+        updatePrefetch();
+    }
+    
+    /**
+     * 按播放模式和当前队列更新在线歌曲的预取列表，不再需要的下载会被取消
+     */
+    private void updatePrefetch() {
+        List<String> md5s = new ArrayList<>();
+        for (Song song : getLookahead(prefetchCount)) {
+            md5s.add(song.getId());
+        }
+        // 正在播放和即将播放的歌曲不会被磁盘缓存淘汰
+        List<String> pinned = new ArrayList<>(md5s);
+        if (onlinePlaylist != null && currentSong != null) {
+            pinned.add(currentSong.getId());
+        }
+        StreamCache.setPinned(pinned);
+        if (prefetcher != null) {
+            prefetcher.prefetch(md5s);
+        }
+    }
+    
+    /**
+     * 获取接下来将要播放的在线歌曲
+     * 顺序播放时为后面的若干首，单曲循环时为当前歌曲，随机播放时只有已确定的下一首
+     * @param count 最多返回的歌曲数
+     * @return 即将播放的歌曲，越靠前越先播放
+     */
+    private List<Song> getLookahead(int count) {
+        List<Song> lookahead = new ArrayList<>();
+        if (onlinePlaylist == null || onlinePlaylist.isEmpty() || currentSong == null || count <= 0) {
+            return lookahead;
+        }
+        int currentIndex = onlinePlaylist.indexOf(currentSong);
+        if (currentIndex < 0) {
+            return lookahead;
+        }
+        switch (playMode) {
+            case SEQUENCE:
+                int size = onlinePlaylist.size();
+                for (int i = 1; i <= Math.min(count, size - 1); i++) {
+                    lookahead.add(onlinePlaylist.get((currentIndex + i) % size));
+                }
+                break;
+            case SINGLE_LOOP:
+                lookahead.add(currentSong);
+                break;
+            case RANDOM:
+            default:
+                if (upcomingSong != null) {
+                    lookahead.add(upcomingSong);
+                }
+                break;
+        }
+        return lookahead;
+    }
+    
+    /**
+     * 预取完成后，如果正是下一首，交给播放器提前打开以便无缝衔接
+     */
+    private void onPrefetched(String md5) {
+        if (upcomingSong != null && md5.equals(upcomingSong.getId()) && isPlaying && !streamClosed
+            && (gaplessEnabled || crossfadeMillis > 0)) {
+            audioPlayer.setNextTrack(resolvePlayablePath(upcomingSong));
+        }
+    }
+    
+    /**
+     * 获取歌曲可直接播放的本地文件，在线歌曲只在已缓存时可用
+     */
+    private String resolvePlayablePath(Song song) {
+        if (song == null) {
+            return null;
+        }
+        if (onlinePlaylist != null) {
+            // 只是预先确定下一首，真正播放时才计入缓存命中
+            File cachedFile = StreamCache.peekFile(song.getId());
+            if (cachedFile != null && !cachedFile.isFile()) {
+                StreamCache.invalidate(song.getId());
+                return null;
+            }
+            return cachedFile != null ? cachedFile.getPath() : null;
+        }
+        return MusicFileManager.isMusicFileExists(song.getFilePath()) ? song.getFilePath() : null;
+    }
+    
+    private void notifySongChanged() {
+        if (songChangeListener != null) {
+            songChangeListener.onSongChanged(currentSong);
+        }
+    }
+    
     /**
      * 播放上一首歌曲
      */
     public void previous() {
-        List<Song> currentList = onlinePlaylist != null ? onlinePlaylist : 
-            (currentPlaylist != null ? currentPlaylist.getSongs() : null);
+        List<Song> currentList = getCurrentList();
             
         if (currentList != null && !currentList.isEmpty()) {
             int currentIndex = currentList.indexOf(currentSong);
@@ -181,12 +398,63 @@ public class PlayerController {
         }
     }
     
+    /**
+     * 跳转到指定位置
+     * @param millis 目标位置（毫秒）
+     */
+    public void seek(long millis) {
+        if (currentSong != null && !needNewStream()) {
+            audioPlayer.seek(millis);
+        }
+    }
+    
+    /**
+     * 获取当前歌曲总时长
+     * @return 总时长（毫秒），未知时返回0
+     */
+    public long getDurationMillis() {
+        return audioPlayer.getDurationMillis();
+    }
+    
     /**
      * 设置播放模式
      * @param mode 播放模式
      */
     public void setPlayMode(PlayMode mode) {
         this.playMode = mode;
+        if (isPlaying) {
+            prepareUpcoming();
+        } else {
+            updatePrefetch();
+        }
+    }
+    
+    /**
+     * 设置是否启用无缝播放
+     * @param enabled 是否启用
+     */
+    public void setGaplessEnabled(boolean enabled) {
+        this.gaplessEnabled = enabled;
+        audioPlayer.setGaplessEnabled(enabled);
+        prepareUpcoming();
+    }
+    
+    /**
+     * 设置淡入淡出时长，启用后自动切歌和手动下一首都会与下一首交叉淡变
+     * @param millis 时长（毫秒），0表示不启用
+     */
+    public void setCrossfadeMillis(int millis) {
+        this.crossfadeMillis = Math.max(millis, 0);
+        audioPlayer.setCrossfadeMillis(this.crossfadeMillis);
+        prepareUpcoming();
+    }
+    
+    /**
+     * 设置歌曲切换监听器
+     * @param listener 歌曲切换监听器
+     */
+    public void setSongChangeListener(SongChangeListener listener) {
+        this.songChangeListener = listener;
     }
     
     /**
@@ -198,11 +466,70 @@ public class PlayerController {
         audioPlayer.setProgressListener(listener);
     }
     
+    /**
+     * 设置在线歌曲的下载来源，设置后在线播放时会在后台预取接下来的歌曲
+     * @param fetcher 下载来源，null表示停止预取
+     */
+    public void setOnlineFetcher(StreamCache.Downloader fetcher) {
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
+        if (warmer != null) {
+            warmer.shutdown();
+            warmer = null;
+        }
+        if (fetcher != null) {
+            prefetcher = new StreamPrefetcher(fetcher);
+            prefetcher.setListener((md5, file) -> SwingUtilities.invokeLater(() -> onPrefetched(md5)));
+            warmer = new CacheWarmer(fetcher);
+            warmer.warmFromHistory();
+            updatePrefetch();
+        }
+    }
+    
+    /**
+     * 设置预取的在线歌曲数
+     * @param count 歌曲数，0表示不预取
+     */
+    public void setPrefetchCount(int count) {
+        this.prefetchCount = Math.max(count, 0);
+        updatePrefetch();
+    }
+    
+    public int getPrefetchCount() { return prefetchCount; }
+    
+    /**
+     * 获取在线歌曲预取器，用于查看统计
+     * @return 预取器，未设置下载来源时返回null
+     */
+    public StreamPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+    
+    /**
+     * 获取缓存预热器，用于查看预测命中统计
+     * @return 预热器，未设置下载来源时返回null
+     */
+    public CacheWarmer getWarmer() {
+        return warmer;
+    }
+    
+    /**
+     * 记录开始播放的在线歌曲，下一首、上一首、手动选择和无缝切换都经过这里
+     */
+    private void onlineSongStarted() {
+        if (warmer != null && onlinePlaylist != null && currentSong != null) {
+            warmer.songStarted(currentSong.getId());
+        }
+    }
+    
     /**
      * 设置在线播放列表
      */
     public void setOnlinePlaylist(List<Song> playlist) {
         this.onlinePlaylist = playlist;
+        updatePrefetch();
     }
     
     /**
@@ -213,16 +540,31 @@ public class PlayerController {
             audioPlayer.playStream(musicStream);
             streamClosed = false;  // 重置流状态
             isPlaying = true;
+            onlineSongStarted();
+            prepareUpcoming();
         } catch (Exception e) {
             throw new RuntimeException("Failed to play online music: " + e.getMessage());
         }
     }
     
+    /**
+     * 播放已缓存的在线音乐文件
+     * @param cachedFile 缓存文件
+     */
+    public void playOnlineFile(File cachedFile) {
+        audioPlayer.play(cachedFile.getPath());
+        streamClosed = false;  // 重置流状态
+        isPlaying = true;
+        onlineSongStarted();
+        prepareUpcoming();
+    }
+    
     /**
      * 清除在线播放列表
      */
     public void clearOnlinePlaylist() {
         this.onlinePlaylist = null;
+        updatePrefetch();
     }
     
     /**
@@ -4,6 +4,7 @@ import com.musicplayer.model.OnlineMusicSheet;
 import com.musicplayer.model.Playlist;
 import com.musicplayer.model.Song;
 import com.musicplayer.util.MusicFileManager;
+import com.musicplayer.util.StreamCache;
 import com.musicplayer.network.MusicServerAPI;
 
 
@@ -344,17 +345,17 @@ public class DataManager {
     }
     
     /**
-     * 下载在线音乐
+     * 下载在线音乐到音乐目录
+     * 通过缓存下载，与播放或预取同时请求同一首歌时只下载一次；
+     * 缓存文件与音乐目录中的文件共用 {@link com.musicplayer.util.BlobStore} 中的一份数据
+     * @param md5 歌曲MD5
+     * @param filename 文件名
+     * @return 音乐目录中的文件路径
+     * @throws IOException 如果下载失败或内容与MD5不一致
      */
-    public void downloadOnlineMusic(String md5, String filename) {
-        try (InputStream is = musicServerAPI.downloadMusic(md5)) {
-            // 使用新的方法保存文件
-            String targetPath = MusicFileManager.saveOnlineMusicFile(is, filename);
-            // 可以在这里触发下载完成的回调
-        } catch (IOException e) {
-            e.printStackTrace();
-            // 处理错误
-        }
+    public String downloadOnlineMusic(String md5, String filename) throws IOException {
+        File cachedFile = StreamCache.fetch(md5, musicServerAPI::downloadMusicTo, musicServerAPI::downloadMusic);
+        return MusicFileManager.saveOnlineMusicFile(cachedFile, filename, md5);
     }
     
     /**
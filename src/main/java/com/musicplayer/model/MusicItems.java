@@ -0,0 +1,128 @@
+package com.musicplayer.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 在线歌单的歌曲表（MD5 -> 文件名），只读，按服务器返回的顺序迭代
+ * MD5和文件名依次存放在一个数组中，每首歌只占两个引用，没有哈希表节点；
+ * 歌单通常只有几十首歌，按MD5查找时顺序比较即可
+ */
+public final class MusicItems extends AbstractMap<String, String> {
+    /** 空歌曲表 */
+    public static final MusicItems EMPTY = new MusicItems(new String[0], 0);
+
+    /** 依次存放 MD5 和文件名 */
+    private final String[] pairs;
+
+    /** 歌曲数 */
+    private final int size;
+
+    /** 懒创建的条目视图 */
+    private Set<Entry<String, String>> entrySet;
+
+    /**
+     * 构造函数
+     * @param pairs 依次存放的 MD5 和文件名，长度超出时复制前 size * 2 个
+     * @param size 歌曲数
+     */
+    public MusicItems(String[] pairs, int size) {
+        if (size < 0 || size * 2 > pairs.length) {
+            throw new IllegalArgumentException("Invalid size " + size + " for " + pairs.length + " strings");
+        }
+        this.pairs = pairs.length == size * 2 ? pairs : Arrays.copyOf(pairs, size * 2);
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? pairs[index + 1] : null;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size * 2; i += 2) {
+            if (pairs[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 第 index 首歌的MD5
+     */
+    public String md5At(int index) {
+        return pairs[checkIndex(index) * 2];
+    }
+
+    /**
+     * 第 index 首歌的文件名
+     */
+    public String filenameAt(int index) {
+        return pairs[checkIndex(index) * 2 + 1];
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int i = 0; i < size * 2; i += 2) {
+            action.accept(pairs[i], pairs[i + 1]);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++ * 2;
+                            return new SimpleImmutableEntry<>(pairs[index], pairs[index + 1]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
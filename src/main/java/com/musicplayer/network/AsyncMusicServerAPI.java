@@ -0,0 +1,411 @@
+package com.musicplayer.network;
+
+import com.musicplayer.model.OnlineMusicSheet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步的音乐服务器接口，请求在固定数量的I/O线程中执行，返回 {@link CompletableFuture}
+ * 调用方不需要自己创建线程，可以一次发出几十个请求，超出线程数的请求排队等待。
+ * 取消返回的 Future 或超过期限时，排队的请求直接移出队列，正在进行的请求关闭套接字，
+ * 阻塞在读取中的I/O线程立即返回，连接不会被放回连接池；
+ * 通过 {@link #submit(IOTask, long)} 执行的操作则中断其I/O线程
+ */
+public class AsyncMusicServerAPI {
+    /** 默认I/O线程数，不超过每个主机的连接数上限 */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** 默认请求期限（毫秒），从提交开始计算，包括排队时间 */
+    public static final long DEFAULT_DEADLINE_MILLIS = 30000;
+
+    /** 读取整首歌曲的请求期限（毫秒） */
+    public static final long STREAM_DEADLINE_MILLIS = 300000;
+
+    /** 空闲I/O线程的存活时间（秒） */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * 处理响应体，在I/O线程中调用，返回后响应体被关闭
+     * @param <T> 结果类型
+     */
+    public interface BodyHandler<T> {
+        T handle(InputStream body) throws IOException;
+    }
+
+    /**
+     * 在I/O线程中执行的阻塞操作
+     * @param <T> 结果类型
+     */
+    public interface IOTask<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * 请求中正在使用的 Call，取消时中止；Call 在取消之后才创建时立即取消
+     */
+    private static final class CallSlot {
+        private HttpTransport.Call call;
+        private boolean cancelled;
+
+        synchronized void set(HttpTransport.Call call) {
+            this.call = call;
+            if (cancelled) {
+                call.cancel();
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * 执行 {@link #submit(IOTask, long)} 操作的I/O线程，取消时中断它；
+     * 操作结束后清除中断状态，不影响该线程执行下一个请求
+     */
+    private static final class TaskRunner {
+        private Thread thread;
+        private boolean cancelled;
+
+        <T> T run(IOTask<T> task) throws IOException {
+            synchronized (this) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Task cancelled");
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                return task.run();
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                }
+                Thread.interrupted();
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    private final MusicServerAPI api;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor deadlines;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * 构造函数，使用默认线程数
+     * @param api 同步接口，提供服务器地址和连接池
+     */
+    public AsyncMusicServerAPI(MusicServerAPI api) {
+        this(api, DEFAULT_THREADS);
+    }
+
+    /**
+     * 构造函数
+     * @param api 同步接口，提供服务器地址和连接池
+     * @param threads I/O线程数
+     */
+    public AsyncMusicServerAPI(MusicServerAPI api, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.api = api;
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("music-api-io-"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.deadlines = new ScheduledThreadPoolExecutor(1, daemonThreads("music-api-deadline-"));
+        this.deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 获取同步接口
+     */
+    public MusicServerAPI getApi() {
+        return api;
+    }
+
+    /**
+     * 查询歌单
+     * @param type 歌单类型
+     * @return 歌单列表
+     */
+    public CompletableFuture<List<OnlineMusicSheet>> queryMusicSheets(String type) {
+        return cacheable(api.getBaseUrl() + "/queryMusicSheets?type=" + type, api::parseMusicSheets);
+    }
+
+    /**
+     * 下载歌单封面
+     * @param uuid 歌单UUID
+     * @return 图片数据
+     */
+    public CompletableFuture<byte[]> downloadPicture(String uuid) {
+        return downloadPicture(uuid, AsyncMusicServerAPI::readAll);
+    }
+
+    /**
+     * 下载歌单封面，在I/O线程中解码
+     * @param uuid 歌单UUID
+     * @param handler 响应体处理器，例如 {@code ImageIO::read}
+     * @return 处理器的结果
+     */
+    public <T> CompletableFuture<T> downloadPicture(String uuid, BodyHandler<T> handler) {
+        return cacheable(api.getBaseUrl() + "/downloadPicture?uuid=" + uuid, handler);
+    }
+
+    /**
+     * 通过同步接口的响应缓存请求，没有缓存时直接请求
+     */
+    private <T> CompletableFuture<T> cacheable(String url, BodyHandler<T> handler) {
+        HttpResponseCache cache = api.getResponseCache();
+        if (cache == null) {
+            return request(url, Collections.emptyMap(), DEFAULT_DEADLINE_MILLIS, handler);
+        }
+        CallSlot slot = new CallSlot();
+        return start(() -> {
+            try (InputStream body = cache.open(url, slot::set)) {
+                return handler.handle(body);
+            }
+        }, slot::cancel, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    /**
+     * 流式读取歌曲，处理器只读需要的部分时（例如解析时长），其余数据不会下载
+     * @param md5 歌曲MD5
+     * @param handler 响应体处理器
+     * @return 处理器的结果
+     */
+    public <T> CompletableFuture<T> streamMusic(String md5, BodyHandler<T> handler) {
+        return request(api.getBaseUrl() + "/music?md5=" + md5, Collections.emptyMap(),
+            STREAM_DEADLINE_MILLIS, handler);
+    }
+
+    /**
+     * 下载歌曲
+     * @param md5 歌曲MD5
+     * @param handler 响应体处理器
+     * @return 处理器的结果
+     */
+    public <T> CompletableFuture<T> downloadMusic(String md5, BodyHandler<T> handler) {
+        return request(api.getBaseUrl() + "/downloadMusic?md5=" + md5, Collections.emptyMap(),
+            STREAM_DEADLINE_MILLIS, handler);
+    }
+
+    /**
+     * 发送GET请求，在I/O线程中用处理器读取状态码为200的响应体
+     * @param url 地址
+     * @param headers 请求头
+     * @param deadlineMillis 期限（毫秒），超过时以 {@link TimeoutException} 失败，0表示不限
+     * @param handler 响应体处理器
+     * @return 处理器的结果；取消它会中止请求
+     */
+    public <T> CompletableFuture<T> request(String url, Map<String, String> headers, long deadlineMillis,
+                                            BodyHandler<T> handler) {
+        HttpTransport.Call call = api.getTransport().newCall(url, headers);
+        CallSlot slot = new CallSlot();
+        slot.set(call);
+        return start(() -> {
+            try (HttpTransport.Response response = call.execute()) {
+                if (response.getCode() != 200) {
+                    throw new IOException("Request failed: " + response.getCode() + " " + response.getMessage()
+                        + " (" + url + ")");
+                }
+                return handler.handle(response.getBody());
+            }
+        }, slot::cancel, deadlineMillis);
+    }
+
+    /**
+     * 在I/O线程中执行任意阻塞操作，例如打开边下载边缓存的流
+     * 取消或超过期限时中断执行操作的I/O线程：等待下载、等待连接池等可中断的等待以 {@link InterruptedIOException} 结束；
+     * 操作自己在套接字上的读取不能被中断，应改用 {@link #request} 发送。操作仍然完成时，返回的 {@link Closeable} 会被关闭
+     * @param task 操作
+     * @param deadlineMillis 期限（毫秒），0表示不限
+     * @return 操作的结果
+     */
+    public <T> CompletableFuture<T> submit(IOTask<T> task, long deadlineMillis) {
+        TaskRunner runner = new TaskRunner();
+        return start(() -> runner.run(task), runner::cancel, deadlineMillis);
+    }
+
+    /**
+     * 提交操作
+     * @param onAbort 取消或超过期限时调用，中止正在进行的操作
+     */
+    private <T> CompletableFuture<T> start(IOTask<T> task, Runnable onAbort, long deadlineMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable work = () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                T result = task.run();
+                if (!future.complete(result) && result instanceof Closeable) {
+                    // 已取消或超时，没有人会使用这个结果
+                    closeQuietly((Closeable) result);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        ScheduledFuture<?> deadline = deadlineMillis > 0
+            ? deadlines.schedule(() -> future.completeExceptionally(
+                new TimeoutException("Deadline of " + deadlineMillis + " ms exceeded")),
+                deadlineMillis, TimeUnit.MILLISECONDS)
+            : null;
+        future.whenComplete((result, error) -> {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (error == null) {
+                completed.incrementAndGet();
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                cancelled.incrementAndGet();
+            } else if (cause instanceof TimeoutException) {
+                timedOut.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+                return;
+            }
+            // 排队中的请求移出队列，进行中的请求关闭套接字或中断线程
+            executor.remove(work);
+            onAbort.run();
+        });
+        submitted.incrementAndGet();
+        executor.execute(work);
+        return future;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 停止I/O线程，正在进行的请求被中断
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    /**
+     * 已提交的请求数
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * 成功完成的请求数
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * 失败的请求数（不包括取消和超时）
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * 被取消的请求数
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * 超过期限的请求数
+     */
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    /**
+     * 排队等待I/O线程的请求数
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 正在执行的请求数
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * 当前的I/O线程数
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("异步请求: 提交 %d, 完成 %d, 失败 %d, 取消 %d, 超时 %d, 排队 %d, 执行中 %d, 线程 %d",
+            getSubmittedCount(), getCompletedCount(), getFailedCount(), getCancelledCount(), getTimedOutCount(),
+            getQueuedCount(), getActiveCount(), getPoolSize());
+    }
+}
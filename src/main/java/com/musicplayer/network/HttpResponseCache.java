@@ -0,0 +1,458 @@
+package com.musicplayer.network;
+
+import com.musicplayer.util.StreamCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 磁盘上的HTTP响应缓存，用于歌单列表和封面这类会重复请求的小响应
+ * 每个地址保存响应体和验证信息（ETag、Last-Modified）。新鲜期内直接读磁盘，不发请求；
+ * 过期后在“过期可用期”内先返回旧的响应，同时在后台发送条件请求更新；
+ * 超过过期可用期时同步发送条件请求，304时使用已缓存的响应体。
+ * 新鲜期和过期可用期取自 Cache-Control 的 max-age 和 stale-while-revalidate，
+ * 服务器没有给出时使用默认值；网络失败时如果有缓存就返回旧的响应
+ */
+public class HttpResponseCache {
+    /** 服务器没有给出 max-age 时的默认新鲜期（毫秒），0表示每次都要验证 */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 0;
+
+    /** 服务器没有给出 stale-while-revalidate 时的默认过期可用期（毫秒） */
+    public static final long DEFAULT_STALE_WHILE_REVALIDATE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /** 后台验证线程名 */
+    public static final String REVALIDATE_THREAD_NAME = "http-cache-revalidate";
+
+    /** 元数据文件的标识 */
+    private static final int MAGIC = 0x48545443;
+
+    /** 元数据文件后缀 */
+    private static final String META_SUFFIX = ".meta";
+
+    /** 响应体文件后缀 */
+    private static final String BODY_SUFFIX = ".body";
+
+    /** 默认缓存，位于流缓存目录下的 http 子目录 */
+    private static HttpResponseCache defaultCache;
+
+    /** 缓存目录 */
+    private final File dir;
+
+    /** 发送请求的传输层 */
+    private final HttpTransport transport;
+
+    /** 后台验证线程 */
+    private final ExecutorService revalidator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, REVALIDATE_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /** 正在后台验证的地址，同一个地址只验证一次 */
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    private volatile long defaultMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private volatile long defaultStaleWhileRevalidateMillis = DEFAULT_STALE_WHILE_REVALIDATE_MILLIS;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong freshHits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong staleOnError = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    /**
+     * 缓存条目的元数据
+     */
+    private static final class Entry {
+        String url;
+        String etag;
+        String lastModified;
+        /** 保存或最近一次验证的时间 */
+        long storedAt;
+        long maxAgeMillis;
+        long staleWhileRevalidateMillis;
+        long bodyLength;
+
+        long age(long now) {
+            return now - storedAt;
+        }
+
+        boolean isFresh(long now) {
+            return age(now) < maxAgeMillis;
+        }
+
+        boolean isUsableWhileRevalidating(long now) {
+            return age(now) < maxAgeMillis + staleWhileRevalidateMillis;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param dir 缓存目录，不存在时创建
+     * @param transport 发送请求的传输层
+     */
+    public HttpResponseCache(File dir, HttpTransport transport) {
+        this.dir = dir;
+        this.transport = transport;
+    }
+
+    /**
+     * 获取默认缓存，使用默认传输层，位于流缓存目录下的 http 子目录
+     */
+    public static synchronized HttpResponseCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new HttpResponseCache(new File(StreamCache.getCacheDir(), "http"),
+                HttpTransport.getDefault());
+        }
+        return defaultCache;
+    }
+
+    /**
+     * 打开地址的响应体，可能来自缓存
+     * @param url 地址
+     * @return 状态码为200的响应体，使用完后必须关闭
+     * @throws IOException 如果请求失败且没有缓存
+     */
+    public InputStream open(String url) throws IOException {
+        return open(url, call -> { });
+    }
+
+    /**
+     * 打开地址的响应体，可能来自缓存
+     * @param url 地址
+     * @param onCall 同步发送请求前调用，调用方可以保存 Call 以便取消
+     * @return 状态码为200的响应体，使用完后必须关闭
+     * @throws IOException 如果请求失败且没有缓存
+     */
+    public InputStream open(String url, Consumer<HttpTransport.Call> onCall) throws IOException {
+        requests.incrementAndGet();
+        String key = keyFor(url);
+        Entry entry = readEntry(key, url);
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            if (entry.isFresh(now)) {
+                freshHits.incrementAndGet();
+                return openBody(key);
+            }
+            if (entry.isUsableWhileRevalidating(now)) {
+                staleHits.incrementAndGet();
+                revalidateInBackground(key, entry);
+                return openBody(key);
+            }
+        }
+
+        HttpTransport.Call call = transport.newCall(url, conditionalHeaders(entry));
+        onCall.accept(call);
+        HttpTransport.Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            if (entry == null || call.isCancelled()) {
+                throw e;
+            }
+            // 服务器不可用时使用旧的响应
+            staleOnError.incrementAndGet();
+            return openBody(key);
+        }
+        return handleResponse(key, url, entry, response);
+    }
+
+    /**
+     * 处理同步请求的响应，返回可读的响应体
+     */
+    private InputStream handleResponse(String key, String url, Entry entry, HttpTransport.Response response)
+            throws IOException {
+        int code = response.getCode();
+        if (code == 304 && entry != null) {
+            response.close();
+            notModified.incrementAndGet();
+            refresh(key, entry, response);
+            return openBody(key);
+        }
+        if (code != 200) {
+            response.close();
+            throw new IOException("Unexpected response " + code + " " + response.getMessage() + " (" + url + ")");
+        }
+        fetched.incrementAndGet();
+        if (!isStorable(response)) {
+            remove(key);
+            return response.getBody();
+        }
+        try (HttpTransport.Response stored = response) {
+            store(key, url, stored);
+        }
+        return openBody(key);
+    }
+
+    /**
+     * 在后台发送条件请求，304时只更新验证时间，200时替换缓存的响应
+     */
+    private void revalidateInBackground(String key, Entry entry) {
+        if (!revalidating.add(key)) {
+            return;
+        }
+        revalidator.execute(() -> {
+            try (HttpTransport.Response response = transport.get(entry.url, conditionalHeaders(entry))) {
+                revalidations.incrementAndGet();
+                if (response.getCode() == 304) {
+                    notModified.incrementAndGet();
+                    refresh(key, entry, response);
+                } else if (response.getCode() == 200) {
+                    fetched.incrementAndGet();
+                    if (isStorable(response)) {
+                        store(key, entry.url, response);
+                    } else {
+                        remove(key);
+                    }
+                }
+            } catch (IOException e) {
+                // 下次使用时再验证
+            } finally {
+                revalidating.remove(key);
+            }
+        });
+    }
+
+    private static Map<String, String> conditionalHeaders(Entry entry) {
+        if (entry == null || (entry.etag == null && entry.lastModified == null)) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (entry.etag != null) {
+            headers.put("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            headers.put("If-Modified-Since", entry.lastModified);
+        }
+        return headers;
+    }
+
+    private static boolean isStorable(HttpTransport.Response response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        return cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store");
+    }
+
+    /**
+     * 保存200响应：先删除元数据，写入响应体，再写入元数据，中途失败时条目不存在而不是错乱
+     */
+    private void store(String key, String url, HttpTransport.Response response) throws IOException {
+        Entry entry = new Entry();
+        entry.url = url;
+        applyHeaders(entry, response);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + dir);
+        }
+        File body = new File(dir, key + BODY_SUFFIX);
+        // 前台和后台可能同时保存同一个地址，临时文件各用各的
+        File temp = Files.createTempFile(dir.toPath(), key, BODY_SUFFIX + ".tmp").toFile();
+        long length = 0;
+        try (InputStream in = response.getBody();
+             OutputStream out = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                length += n;
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        entry.bodyLength = length;
+        synchronized (this) {
+            new File(dir, key + META_SUFFIX).delete();
+            Files.move(temp.toPath(), body.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeEntry(key, entry);
+        }
+    }
+
+    /**
+     * 304 响应：更新验证时间，以及服务器给出的新验证信息
+     */
+    private synchronized void refresh(String key, Entry entry, HttpTransport.Response response) throws IOException {
+        Entry updated = readEntry(key, entry.url);
+        if (updated == null) {
+            return;
+        }
+        String etag = updated.etag;
+        String lastModified = updated.lastModified;
+        applyHeaders(updated, response);
+        // 304 可以不带验证信息，这时保留原来的
+        if (updated.etag == null) {
+            updated.etag = etag;
+        }
+        if (updated.lastModified == null) {
+            updated.lastModified = lastModified;
+        }
+        writeEntry(key, updated);
+    }
+
+    private void applyHeaders(Entry entry, HttpTransport.Response response) {
+        entry.etag = response.getHeader("ETag");
+        entry.lastModified = response.getHeader("Last-Modified");
+        entry.storedAt = System.currentTimeMillis();
+        entry.maxAgeMillis = defaultMaxAgeMillis;
+        entry.staleWhileRevalidateMillis = defaultStaleWhileRevalidateMillis;
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl == null) {
+            return;
+        }
+        for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = directive.trim().split("=", 2);
+            try {
+                if (parts[0].equals("no-cache")) {
+                    entry.maxAgeMillis = 0;
+                    entry.staleWhileRevalidateMillis = 0;
+                } else if (parts[0].equals("max-age") && parts.length == 2) {
+                    entry.maxAgeMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(parts[1].trim()));
+                } else if (parts[0].equals("stale-while-revalidate") && parts.length == 2) {
+                    entry.staleWhileRevalidateMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(parts[1].trim()));
+                }
+            } catch (NumberFormatException e) {
+                // 忽略格式错误的指令
+            }
+        }
+    }
+
+    private void writeEntry(String key, Entry entry) throws IOException {
+        File meta = new File(dir, key + META_SUFFIX);
+        File temp = new File(dir, key + META_SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(entry.url);
+            out.writeUTF(entry.etag != null ? entry.etag : "");
+            out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAgeMillis);
+            out.writeLong(entry.staleWhileRevalidateMillis);
+            out.writeLong(entry.bodyLength);
+        }
+        Files.move(temp.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取条目的元数据，不存在、损坏、地址不符或响应体长度不符时返回 null
+     */
+    private Entry readEntry(String key, String url) {
+        File meta = new File(dir, key + META_SUFFIX);
+        if (!meta.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.url = in.readUTF();
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            entry.etag = etag.isEmpty() ? null : etag;
+            entry.lastModified = lastModified.isEmpty() ? null : lastModified;
+            entry.storedAt = in.readLong();
+            entry.maxAgeMillis = in.readLong();
+            entry.staleWhileRevalidateMillis = in.readLong();
+            entry.bodyLength = in.readLong();
+            if (!entry.url.equals(url) || new File(dir, key + BODY_SUFFIX).length() != entry.bodyLength) {
+                return null;
+            }
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private InputStream openBody(String key) throws IOException {
+        return new FileInputStream(new File(dir, key + BODY_SUFFIX));
+    }
+
+    private synchronized void remove(String key) {
+        new File(dir, key + META_SUFFIX).delete();
+        new File(dir, key + BODY_SUFFIX).delete();
+    }
+
+    /**
+     * 地址的SHA-1作为文件名
+     */
+    private static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 删除所有缓存的响应
+     */
+    public synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 设置服务器没有给出 max-age 时的新鲜期，只影响之后保存或验证的响应
+     */
+    public void setDefaultMaxAgeMillis(long millis) {
+        this.defaultMaxAgeMillis = millis;
+    }
+
+    /**
+     * 设置服务器没有给出 stale-while-revalidate 时的过期可用期，只影响之后保存或验证的响应
+     */
+    public void setDefaultStaleWhileRevalidateMillis(long millis) {
+        this.defaultStaleWhileRevalidateMillis = millis;
+    }
+
+    public File getDir() { return dir; }
+    public long getRequestCount() { return requests.get(); }
+    public long getFreshHits() { return freshHits.get(); }
+    public long getStaleHits() { return staleHits.get(); }
+    public long getNotModified() { return notModified.get(); }
+    public long getFetched() { return fetched.get(); }
+    public long getStaleOnError() { return staleOnError.get(); }
+    public long getRevalidations() { return revalidations.get(); }
+    public int getRevalidating() { return revalidating.size(); }
+
+    @Override
+    public String toString() {
+        return String.format("HTTP响应缓存: 请求 %d, 新鲜命中 %d, 过期命中 %d, 未修改 %d, 完整下载 %d, 出错时用旧响应 %d, 后台验证 %d",
+            getRequestCount(), getFreshHits(), getStaleHits(), getNotModified(), getFetched(), getStaleOnError(),
+            getRevalidations());
+    }
+}
@@ -0,0 +1,1064 @@
+package com.musicplayer.network;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带连接池的HTTP/1.1传输层
+ * 每个主机保留空闲的长连接供后续请求复用，同时使用的连接数有上限，超出时等待；
+ * 响应体读完或关闭时把连接放回池中，关闭时剩余数据不多就读完丢弃以便复用，否则断开。
+ * 复用的空闲连接可能已被服务器关闭，发送失败时换一个连接重试，只用于GET这样可以重复的请求。
+ * 与 HttpURLConnection 一致：HTTPS校验证书和主机名；自动跟随协议不变的重定向；
+ * 按 {@link ProxySelector}（http.proxyHost、https.proxyHost、socksProxyHost 等系统属性）使用代理，
+ * HTTP代理上的HTTPS请求通过CONNECT隧道发送。不支持需要认证的代理，代理返回407时请求失败
+ */
+public class HttpTransport {
+    /** 默认每个主机同时使用的连接数 */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+
+    /** 默认连接超时（毫秒） */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** 默认读取超时（毫秒） */
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /** 默认等待空闲连接的超时（毫秒） */
+    public static final long DEFAULT_POOL_TIMEOUT = 60000;
+
+    /** 默认空闲连接保留时间（毫秒），应短于服务器的空闲超时 */
+    public static final long DEFAULT_KEEP_ALIVE = 15000;
+
+    /** 最多跟随的重定向次数，超过时返回最后一个重定向响应 */
+    static final int MAX_REDIRECTS = 5;
+
+    /** 关闭未读完的响应时最多读取丢弃的字节数，超过时直接断开 */
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /** 响应头单行的最大长度 */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /** 读写缓冲区大小 */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** 默认实例 */
+    private static final HttpTransport DEFAULT = new HttpTransport();
+
+    /** 每个主机的连接池，键为 协议://主机:端口，经过代理时加上代理地址 */
+    private final Map<String, HostPool> pools = new ConcurrentHashMap<>();
+
+    /** 每个主机同时使用的连接数 */
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    /** 连接超时 */
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT;
+
+    /** 读取超时 */
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT;
+
+    /** 等待空闲连接的超时 */
+    private volatile long poolTimeoutMillis = DEFAULT_POOL_TIMEOUT;
+
+    /** 空闲连接保留时间 */
+    private volatile long keepAliveMillis = DEFAULT_KEEP_ALIVE;
+
+    /** 代理选择器，为null时使用系统默认的选择器 */
+    private volatile ProxySelector proxySelector;
+
+    /** 请求数 */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** 新建的连接数 */
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    /** 复用空闲连接的请求数 */
+    private final AtomicLong connectionsReused = new AtomicLong();
+
+    /** 关闭响应时读完剩余数据以便复用的次数 */
+    private final AtomicLong drained = new AtomicLong();
+
+    /** 因响应未读完、服务器要求或出错而断开的连接数 */
+    private final AtomicLong discarded = new AtomicLong();
+
+    /** 空闲太久而关闭的连接数 */
+    private final AtomicLong expired = new AtomicLong();
+
+    /** 复用的连接已被服务器关闭、换连接重试的次数 */
+    private final AtomicLong staleRetries = new AtomicLong();
+
+    /** 跟随的重定向次数 */
+    private final AtomicLong redirects = new AtomicLong();
+
+    /** 因达到连接数上限而等待的次数 */
+    private final AtomicLong poolWaits = new AtomicLong();
+
+    /** 等待连接的总时间（纳秒） */
+    private final AtomicLong poolWaitNanos = new AtomicLong();
+
+    /** 最长的一次等待（纳秒） */
+    private final AtomicLong maxPoolWaitNanos = new AtomicLong();
+
+    /**
+     * 获取默认实例，所有 {@link MusicServerAPI} 默认共用
+     */
+    public static HttpTransport getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 发送GET请求
+     * @param url 地址
+     * @return 响应，使用完后必须关闭响应或其响应体
+     * @throws IOException 如果连接、发送或读取响应头失败
+     */
+    public Response get(String url) throws IOException {
+        return get(url, Collections.emptyMap());
+    }
+
+    /**
+     * 发送GET请求
+     * @param url 地址
+     * @param headers 额外的请求头
+     * @return 响应，使用完后必须关闭响应或其响应体
+     * @throws IOException 如果连接、发送或读取响应头失败
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        return newCall(url, headers).execute();
+    }
+
+    /**
+     * 创建可以从其他线程取消的GET请求
+     * @param url 地址
+     * @param headers 额外的请求头
+     * @return 尚未发送的请求
+     */
+    public Call newCall(String url, Map<String, String> headers) {
+        return new Call(url, headers);
+    }
+
+    /**
+     * 可以取消的请求：等待连接、建立连接、发送、读取响应头和响应体的任何阶段取消，
+     * 都会关闭套接字，使阻塞的线程立即抛出 {@link InterruptedIOException}
+     */
+    public final class Call {
+        private final String url;
+        private final Map<String, String> headers;
+
+        /** 是否已取消 */
+        private volatile boolean cancelled;
+
+        /** 正在使用的套接字，取消时关闭 */
+        private Socket socket;
+
+        /** 已收到的响应，取消时中止 */
+        private Response response;
+
+        /** 等待连接的连接池，取消时唤醒 */
+        private HostPool pool;
+
+        private Call(String url, Map<String, String> headers) {
+            this.url = url;
+            this.headers = headers;
+        }
+
+        /**
+         * 发送请求并读取响应头，跟随重定向
+         * @return 响应，使用完后必须关闭响应或其响应体
+         * @throws InterruptedIOException 如果请求已取消
+         * @throws IOException 如果连接、发送或读取响应头失败
+         */
+        public Response execute() throws IOException {
+            URL parsed = new URL(url);
+            for (int followed = 0; ; followed++) {
+                Response received = send(parsed);
+                String location = received.getHeader("Location");
+                if (!isRedirect(received.getCode()) || location == null || followed >= MAX_REDIRECTS) {
+                    return received;
+                }
+                URL next;
+                try {
+                    next = new URL(parsed, location);
+                } catch (MalformedURLException e) {
+                    return received;
+                }
+                // 与 HttpURLConnection 一样不跟随改变协议的重定向
+                if (!next.getProtocol().equals(parsed.getProtocol())) {
+                    return received;
+                }
+                // 重定向的响应体很短，读完丢弃后连接可以复用
+                received.close();
+                redirects.incrementAndGet();
+                parsed = next;
+            }
+        }
+
+        private Response send(URL parsed) throws IOException {
+            String protocol = parsed.getProtocol();
+            if (!"http".equals(protocol) && !"https".equals(protocol)) {
+                throw new IOException("Unsupported protocol: " + protocol);
+            }
+            HostPool target = poolFor(parsed);
+            synchronized (this) {
+                pool = target;
+                response = null;
+            }
+            requests.incrementAndGet();
+            while (true) {
+                checkCancelled();
+                Connection conn;
+                try {
+                    conn = target.lease(this);
+                } catch (IOException e) {
+                    checkCancelled();
+                    throw e;
+                }
+                boolean reused = conn.requests > 0;
+                try {
+                    attach(conn.socket);
+                    conn.socket.setSoTimeout(readTimeoutMillis);
+                    writeRequest(conn, parsed, headers, target.proxy.type() == Proxy.Type.HTTP && !target.secure);
+                    Response received = readResponse(conn, target, reused);
+                    synchronized (this) {
+                        response = received;
+                        socket = null;
+                    }
+                    if (cancelled) {
+                        received.abort();
+                        checkCancelled();
+                    }
+                    if (reused) {
+                        connectionsReused.incrementAndGet();
+                    }
+                    return received;
+                } catch (IOException e) {
+                    target.release(conn, false);
+                    checkCancelled();
+                    if (reused && !(e instanceof SocketTimeoutException)) {
+                        // 空闲连接已被服务器关闭，换一个连接重试
+                        staleRetries.incrementAndGet();
+                        continue;
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * 取消请求，可以在任何线程中调用，已收到的响应体也会被中止
+         */
+        public void cancel() {
+            cancelled = true;
+            Socket current;
+            Response received;
+            HostPool waiting;
+            synchronized (this) {
+                current = socket;
+                received = response;
+                waiting = pool;
+            }
+            if (received != null) {
+                received.abort();
+            } else if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    // 忽略
+                }
+            }
+            if (waiting != null) {
+                waiting.wakeUp();
+            }
+        }
+
+        public boolean isCancelled() { return cancelled; }
+
+        /**
+         * 记录正在使用的套接字，已取消时立即关闭
+         */
+        void attach(Socket current) throws IOException {
+            synchronized (this) {
+                socket = current;
+            }
+            if (cancelled) {
+                current.close();
+                checkCancelled();
+            }
+        }
+
+        void checkCancelled() throws InterruptedIOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Request cancelled: " + url);
+            }
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+    }
+
+    private HostPool poolFor(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        Proxy proxy = selectProxy(url);
+        String key = url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port
+            + (proxy.type() == Proxy.Type.DIRECT ? "" : " via " + proxy);
+        return pools.computeIfAbsent(key,
+            k -> new HostPool(url.getHost(), port, "https".equals(url.getProtocol()), proxy));
+    }
+
+    /**
+     * 选择请求使用的代理，选择器返回多个时使用第一个
+     */
+    private Proxy selectProxy(URL url) {
+        ProxySelector selector = proxySelector != null ? proxySelector : ProxySelector.getDefault();
+        if (selector == null) {
+            return Proxy.NO_PROXY;
+        }
+        List<Proxy> proxies;
+        try {
+            proxies = selector.select(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return Proxy.NO_PROXY;
+        }
+        return proxies == null || proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+    }
+
+    /**
+     * 发送请求头
+     * @param absolute 是否使用完整地址作为请求目标，经HTTP代理发送HTTP请求时需要
+     */
+    private static void writeRequest(Connection conn, URL url, Map<String, String> headers, boolean absolute)
+            throws IOException {
+        String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        if (absolute) {
+            target = url.getProtocol() + "://" + url.getAuthority() + target;
+        }
+        StringBuilder request = new StringBuilder(256);
+        request.append("GET ").append(target).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            request.append(':').append(url.getPort());
+        }
+        request.append("\r\n");
+        request.append("Connection: keep-alive\r\n");
+        request.append("Accept-Encoding: identity\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        request.append("\r\n");
+        conn.out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        conn.out.flush();
+    }
+
+    private Response readResponse(Connection conn, HostPool pool, boolean reused) throws IOException {
+        String statusLine;
+        int code;
+        Map<String, String> headers;
+        do {
+            statusLine = readLine(conn.in);
+            if (statusLine == null) {
+                throw new EOFException("Connection closed before response");
+            }
+            code = parseStatus(statusLine);
+            headers = readHeaders(conn.in);
+            // 跳过 100 Continue 之类的临时响应
+        } while (code >= 100 && code < 200);
+
+        int space = statusLine.indexOf(' ', statusLine.indexOf(' ') + 1);
+        String message = space > 0 ? statusLine.substring(space + 1) : "";
+        String connection = headers.getOrDefault("Connection", "");
+        boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+            ? !connection.equalsIgnoreCase("close")
+            : connection.equalsIgnoreCase("keep-alive");
+
+        long length;
+        boolean chunked = false;
+        if (code == 204 || code == 304) {
+            length = 0;
+        } else if (headers.getOrDefault("Transfer-Encoding", "").toLowerCase().contains("chunked")) {
+            length = -1;
+            chunked = true;
+        } else if (headers.containsKey("Content-Length")) {
+            try {
+                length = Long.parseLong(headers.get("Content-Length").trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + headers.get("Content-Length"));
+            }
+        } else {
+            // 没有长度的响应读到连接关闭为止，之后不能复用
+            length = -1;
+            keepAlive = false;
+        }
+        // 空响应体在构造时就归还连接，先计数
+        conn.requests++;
+        Body body = new Body(conn, pool, length, chunked, keepAlive);
+        return new Response(code, message, Collections.unmodifiableMap(headers), body, reused);
+    }
+
+    private static int parseStatus(String statusLine) throws IOException {
+        if (!statusLine.startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        int start = statusLine.indexOf(' ');
+        try {
+            return Integer.parseInt(statusLine.substring(start + 1, Math.min(start + 4, statusLine.length())));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                headers.merge(name, value, (a, b) -> a + ", " + b);
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed in response headers");
+        }
+        return headers;
+    }
+
+    /**
+     * 读取一行（ISO-8859-1），去掉行尾的CRLF
+     * @return 一行，连接已关闭且没有数据时返回null
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            line.write(b);
+        }
+        if (line.size() > 0) {
+            throw new EOFException("Connection closed in the middle of a line");
+        }
+        return null;
+    }
+
+    /**
+     * 关闭所有空闲连接，正在使用的连接不受影响
+     */
+    public void closeIdleConnections() {
+        for (HostPool pool : pools.values()) {
+            pool.closeIdle();
+        }
+    }
+
+    public int getMaxConnectionsPerHost() { return maxConnectionsPerHost; }
+    public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+    public int getReadTimeoutMillis() { return readTimeoutMillis; }
+    public long getPoolTimeoutMillis() { return poolTimeoutMillis; }
+    public long getKeepAliveMillis() { return keepAliveMillis; }
+    public ProxySelector getProxySelector() { return proxySelector; }
+
+    /**
+     * 设置每个主机同时使用的连接数
+     * @param max 连接数，至少为1
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        this.maxConnectionsPerHost = Math.max(max, 1);
+        for (HostPool pool : pools.values()) {
+            pool.wakeUp();
+        }
+    }
+
+    /**
+     * 设置连接超时
+     * @param millis 毫秒，0表示不超时
+     */
+    public void setConnectTimeoutMillis(int millis) {
+        this.connectTimeoutMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * 设置读取超时，对之后的请求生效
+     * @param millis 毫秒，0表示不超时
+     */
+    public void setReadTimeoutMillis(int millis) {
+        this.readTimeoutMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * 设置达到连接数上限时等待空闲连接的超时
+     * @param millis 毫秒，0表示不超时
+     */
+    public void setPoolTimeoutMillis(long millis) {
+        this.poolTimeoutMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * 设置空闲连接保留时间
+     * @param millis 毫秒
+     */
+    public void setKeepAliveMillis(long millis) {
+        this.keepAliveMillis = Math.max(millis, 0);
+    }
+
+    /**
+     * 设置代理选择器，对之后的请求生效
+     * @param selector 选择器，为null时使用系统默认的选择器
+     */
+    public void setProxySelector(ProxySelector selector) {
+        this.proxySelector = selector;
+    }
+
+    public long getRequests() { return requests.get(); }
+    public long getConnectionsOpened() { return connectionsOpened.get(); }
+    public long getConnectionsReused() { return connectionsReused.get(); }
+    public long getDrained() { return drained.get(); }
+    public long getDiscarded() { return discarded.get(); }
+    public long getExpired() { return expired.get(); }
+    public long getStaleRetries() { return staleRetries.get(); }
+    public long getRedirects() { return redirects.get(); }
+    public long getPoolWaits() { return poolWaits.get(); }
+    public long getPoolWaitMillis() { return poolWaitNanos.get() / 1_000_000; }
+    public long getMaxPoolWaitMillis() { return maxPoolWaitNanos.get() / 1_000_000; }
+
+    /**
+     * 复用空闲连接的请求所占比例，没有请求时为0
+     */
+    public double getReuseRatio() {
+        long total = requests.get();
+        return total == 0 ? 0 : (double) connectionsReused.get() / total;
+    }
+
+    /**
+     * 正在使用的连接数
+     */
+    public int getLeasedConnections() {
+        int total = 0;
+        for (HostPool pool : pools.values()) {
+            total += pool.getLeased();
+        }
+        return total;
+    }
+
+    /**
+     * 空闲的连接数
+     */
+    public int getIdleConnections() {
+        int total = 0;
+        for (HostPool pool : pools.values()) {
+            total += pool.getIdle();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        long waits = poolWaits.get();
+        return String.format("HttpTransport[请求=%d, 新建连接=%d, 复用=%d, 复用率=%.1f%%, 使用中=%d, 空闲=%d, "
+                + "等待=%d 次, 平均等待=%.1f ms, 最长等待=%d ms, 读完复用=%d, 断开=%d, 过期=%d, 重试=%d]",
+            getRequests(), getConnectionsOpened(), getConnectionsReused(), getReuseRatio() * 100,
+            getLeasedConnections(), getIdleConnections(), waits,
+            waits == 0 ? 0 : poolWaitNanos.get() / 1e6 / waits, getMaxPoolWaitMillis(),
+            getDrained(), getDiscarded(), getExpired(), getStaleRetries());
+    }
+
+    /**
+     * 一条TCP连接
+     */
+    private static class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        /** 已在这条连接上完成的请求数 */
+        int requests;
+
+        /** 放回池中的时间 */
+        long idleSince;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        }
+
+        void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 一个主机的连接池
+     */
+    private final class HostPool {
+        private final String host;
+        private final int port;
+        private final boolean secure;
+
+        /** 使用的代理 */
+        private final Proxy proxy;
+
+        /** 空闲连接，最近放回的在末尾 */
+        private final Deque<Connection> idle = new ArrayDeque<>();
+
+        /** 正在使用的连接数 */
+        private int leased;
+
+        HostPool(String host, int port, boolean secure, Proxy proxy) {
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+            this.proxy = proxy;
+        }
+
+        /**
+         * 取出一个连接：优先复用最近放回的空闲连接，达到上限时等待
+         */
+        Connection lease(Call call) throws IOException {
+            Connection conn;
+            synchronized (this) {
+                long start = System.nanoTime();
+                long timeout = poolTimeoutMillis;
+                boolean waited = false;
+                while (leased >= maxConnectionsPerHost) {
+                    call.checkCancelled();
+                    waited = true;
+                    long remaining = timeout > 0 ? timeout - (System.nanoTime() - start) / 1_000_000 : 0;
+                    if (timeout > 0 && remaining <= 0) {
+                        recordWait(System.nanoTime() - start);
+                        throw new SocketTimeoutException("Timed out waiting for a connection to " + host + ":" + port);
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a connection");
+                    }
+                }
+                if (waited) {
+                    recordWait(System.nanoTime() - start);
+                }
+                leased++;
+                long now = System.currentTimeMillis();
+                while ((conn = idle.pollLast()) != null) {
+                    if (now - conn.idleSince < keepAliveMillis && !conn.socket.isClosed()) {
+                        break;
+                    }
+                    conn.closeQuietly();
+                    expired.incrementAndGet();
+                }
+            }
+            if (conn != null) {
+                return conn;
+            }
+            try {
+                return connect(call);
+            } catch (IOException | RuntimeException e) {
+                release(null, false);
+                throw e;
+            }
+        }
+
+        private Connection connect(Call call) throws IOException {
+            Proxy.Type type = proxy.type();
+            Socket socket = type == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+            try {
+                call.attach(socket);
+                socket.setTcpNoDelay(true);
+                if (type == Proxy.Type.HTTP) {
+                    socket.connect(resolve(proxy.address()), connectTimeoutMillis);
+                    if (secure) {
+                        socket.setSoTimeout(readTimeoutMillis);
+                        tunnel(socket);
+                    }
+                } else if (type == Proxy.Type.SOCKS) {
+                    // 由代理解析主机名
+                    socket.connect(InetSocketAddress.createUnresolved(host, port), connectTimeoutMillis);
+                } else {
+                    socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                }
+                if (secure) {
+                    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                    SSLSocket ssl = (SSLSocket) factory.createSocket(socket, host, port, true);
+                    ssl.setSoTimeout(readTimeoutMillis);
+                    // 校验证书与主机名是否一致，与 HttpsURLConnection 相同
+                    SSLParameters parameters = ssl.getSSLParameters();
+                    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    ssl.setSSLParameters(parameters);
+                    ssl.startHandshake();
+                    socket = ssl;
+                    call.attach(socket);
+                }
+                Connection conn = new Connection(socket);
+                connectionsOpened.incrementAndGet();
+                return conn;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 通过HTTP代理建立到目标主机的CONNECT隧道
+         */
+        private void tunnel(Socket socket) throws IOException {
+            String authority = host + ":" + port;
+            OutputStream out = socket.getOutputStream();
+            out.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            // 逐字节读取响应头，不多读隧道中的数据
+            InputStream in = socket.getInputStream();
+            String statusLine = readLine(in);
+            if (statusLine == null) {
+                throw new EOFException("Proxy closed the connection");
+            }
+            int code = parseStatus(statusLine);
+            readHeaders(in);
+            if (code != 200) {
+                throw new IOException("Proxy tunnel to " + authority + " failed: " + statusLine);
+            }
+        }
+
+        /**
+         * 归还连接
+         * @param conn 连接，建立连接失败时为null
+         * @param reusable 是否可以放回池中
+         */
+        synchronized void release(Connection conn, boolean reusable) {
+            leased--;
+            if (conn != null) {
+                if (reusable && !conn.socket.isClosed()) {
+                    conn.idleSince = System.currentTimeMillis();
+                    idle.addLast(conn);
+                    // 空闲连接数不超过上限，关闭最久未用的
+                    while (idle.size() > maxConnectionsPerHost) {
+                        idle.pollFirst().closeQuietly();
+                        expired.incrementAndGet();
+                    }
+                } else {
+                    conn.closeQuietly();
+                    discarded.incrementAndGet();
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized void closeIdle() {
+            Connection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                conn.closeQuietly();
+            }
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        synchronized int getLeased() { return leased; }
+        synchronized int getIdle() { return idle.size(); }
+    }
+
+    /**
+     * 解析代理地址，代理选择器返回的地址通常未解析
+     */
+    private static InetSocketAddress resolve(SocketAddress address) {
+        InetSocketAddress inet = (InetSocketAddress) address;
+        return inet.isUnresolved() ? new InetSocketAddress(inet.getHostString(), inet.getPort()) : inet;
+    }
+
+    private void recordWait(long nanos) {
+        poolWaits.incrementAndGet();
+        poolWaitNanos.addAndGet(nanos);
+        maxPoolWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * HTTP响应，关闭时归还连接
+     */
+    public static class Response implements Closeable {
+        private final int code;
+        private final String message;
+        private final Map<String, String> headers;
+        private final Body body;
+        private final boolean reused;
+
+        Response(int code, String message, Map<String, String> headers, Body body, boolean reused) {
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+            this.reused = reused;
+        }
+
+        public int getCode() { return code; }
+        public String getMessage() { return message; }
+
+        /**
+         * 获取响应头，名称不区分大小写
+         * @return 响应头的值，同名的多个值用逗号连接；没有时返回null
+         */
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        /**
+         * 获取所有响应头，名称不区分大小写
+         */
+        public Map<String, String> getHeaders() { return headers; }
+
+        /**
+         * 响应体长度
+         * @return 字节数，未知时返回-1
+         */
+        public long getContentLength() {
+            return body.length;
+        }
+
+        /**
+         * 响应体，读完或关闭后连接归还到池中
+         */
+        public InputStream getBody() { return body; }
+
+        /**
+         * 是否复用了空闲连接
+         */
+        public boolean isReused() { return reused; }
+
+        /**
+         * 立即断开连接，可以在其他线程中调用，使阻塞在读取上的线程抛出异常
+         */
+        public void abort() {
+            body.abort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * 响应体：按 Content-Length、分块编码或读到连接关闭为止
+     * 读完时立即归还连接，调用者忘记关闭也不会占用连接
+     */
+    private final class Body extends InputStream {
+        private final Connection conn;
+        private final HostPool pool;
+
+        /** 响应体长度，分块编码或未知时为-1 */
+        final long length;
+
+        private final boolean chunked;
+        private final boolean keepAlive;
+
+        /** 固定长度时剩余的字节数，分块编码时为当前块剩余的字节数 */
+        private long remaining;
+
+        /** 是否已读到响应体末尾 */
+        private boolean endOfBody;
+
+        /** 分块编码时是否已读过第一个块 */
+        private boolean firstChunk = true;
+
+        /** 连接是否已归还 */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /** 是否已被中止 */
+        private volatile boolean aborted;
+
+        /** 是否有线程正在读取，其他线程关闭时直接断开而不是读完 */
+        private volatile boolean reading;
+
+        Body(Connection conn, HostPool pool, long length, boolean chunked, boolean keepAlive) {
+            this.conn = conn;
+            this.pool = pool;
+            this.length = length;
+            this.chunked = chunked;
+            this.keepAlive = keepAlive;
+            this.remaining = chunked ? 0 : length;
+            if (length == 0) {
+                endOfBody = true;
+                finish(true);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == 1 ? one[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (endOfBody) {
+                return -1;
+            }
+            if (released.get()) {
+                throw aborted ? new InterruptedIOException("Request aborted") : new IOException("Stream closed");
+            }
+            reading = true;
+            try {
+                if (chunked && remaining == 0 && !nextChunk()) {
+                    return -1;
+                }
+                int count = remaining >= 0 ? (int) Math.min(len, remaining) : len;
+                int n = conn.in.read(b, off, count);
+                if (n < 0) {
+                    if (remaining >= 0) {
+                        throw new EOFException("Connection closed before end of response body");
+                    }
+                    endOfBody = true;
+                    finish(false);
+                    return -1;
+                }
+                if (remaining >= 0) {
+                    remaining -= n;
+                    if (remaining == 0 && !chunked) {
+                        endOfBody = true;
+                        finish(true);
+                    }
+                }
+                return n;
+            } catch (IOException e) {
+                finish(false);
+                if (aborted && !(e instanceof InterruptedIOException)) {
+                    throw new InterruptedIOException("Request aborted");
+                }
+                throw e;
+            } finally {
+                reading = false;
+            }
+        }
+
+        /**
+         * 读取下一个块的长度
+         * @return 是否还有数据，最后一个块之后返回false并归还连接
+         */
+        private boolean nextChunk() throws IOException {
+            if (!firstChunk && !"".equals(readLine(conn.in))) {
+                throw new IOException("Malformed chunked encoding");
+            }
+            firstChunk = false;
+            String line = readLine(conn.in);
+            if (line == null) {
+                throw new EOFException("Connection closed in chunked body");
+            }
+            int semicolon = line.indexOf(';');
+            try {
+                remaining = Long.parseLong((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + line);
+            }
+            if (remaining == 0) {
+                readHeaders(conn.in);
+                endOfBody = true;
+                finish(true);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (endOfBody || released.get()) {
+                return 0;
+            }
+            int buffered = conn.in.available();
+            return remaining >= 0 ? (int) Math.min(buffered, remaining) : buffered;
+        }
+
+        /**
+         * 关闭：剩余数据不多时读完丢弃，使连接可以复用，否则断开
+         */
+        @Override
+        public void close() {
+            if (released.get()) {
+                return;
+            }
+            if (reading || !keepAlive || aborted || (!chunked && remaining > MAX_DRAIN_BYTES)) {
+                finish(false);
+                return;
+            }
+            byte[] skip = new byte[8192];
+            long total = 0;
+            try {
+                int n;
+                while (total <= MAX_DRAIN_BYTES && (n = read(skip, 0, skip.length)) != -1) {
+                    total += n;
+                }
+            } catch (IOException e) {
+                // 读取失败时已断开
+            }
+            if (endOfBody) {
+                if (total > 0) {
+                    drained.incrementAndGet();
+                }
+            } else {
+                finish(false);
+            }
+        }
+
+        /**
+         * 断开连接，连接已归还时什么也不做
+         */
+        void abort() {
+            if (released.get()) {
+                return;
+            }
+            aborted = true;
+            conn.closeQuietly();
+            finish(false);
+        }
+
+        /**
+         * 归还连接，只执行一次
+         */
+        private void finish(boolean reusable) {
+            if (released.compareAndSet(false, true)) {
+                pool.release(conn, reusable && keepAlive && !aborted);
+            }
+        }
+    }
+}
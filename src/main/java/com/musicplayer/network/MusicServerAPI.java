@@ -1,20 +1,97 @@
 package com.musicplayer.network;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.musicplayer.model.OnlineMusicSheet;
+import com.musicplayer.util.RangeInputStream;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.security.MessageDigest;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class MusicServerAPI {
-    private static final String BASE_URL = "http://119.167.221.14:38080/music.server";
-    private final Gson gson = new Gson();
+    /** 默认服务器地址 */
+    public static final String DEFAULT_BASE_URL = "http://119.167.221.14:38080/music.server";
+    
+    /** 服务器地址 */
+    private final String baseUrl;
+    
+    /** HTTP传输层，连接在所有请求之间复用 */
+    private final HttpTransport transport;
+    
+    /** 歌单列表和封面的响应缓存，为 null 时不缓存 */
+    private final HttpResponseCache responseCache;
+    
+    /** 批量下载整首歌时使用的分段并行下载器 */
+    private final SegmentedDownloader segmentedDownloader;
+    
+    /**
+     * 构造函数，使用默认服务器地址
+     */
+    public MusicServerAPI() {
+        this(DEFAULT_BASE_URL);
+    }
+    
+    /**
+     * 构造函数，使用默认的传输层
+     * @param baseUrl 服务器地址，例如 http://localhost:8080/music.server
+     */
+    public MusicServerAPI(String baseUrl) {
+        this(baseUrl, HttpTransport.getDefault(), HttpResponseCache.getDefault());
+    }
+    
+    /**
+     * 构造函数，不缓存响应
+     * @param baseUrl 服务器地址，例如 http://localhost:8080/music.server
+     * @param transport HTTP传输层
+     */
+    public MusicServerAPI(String baseUrl, HttpTransport transport) {
+        this(baseUrl, transport, null);
+    }
+    
+    /**
+     * 构造函数
+     * @param baseUrl 服务器地址，例如 http://localhost:8080/music.server
+     * @param transport HTTP传输层
+     * @param responseCache 歌单列表和封面的响应缓存，为 null 时不缓存
+     */
+    public MusicServerAPI(String baseUrl, HttpTransport transport, HttpResponseCache responseCache) {
+        this.baseUrl = baseUrl;
+        this.transport = transport;
+        this.responseCache = responseCache;
+        this.segmentedDownloader = new SegmentedDownloader(transport);
+    }
+    
+    /**
+     * 获取HTTP传输层，用于调整连接数和超时或查看复用统计
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+    
+    /**
+     * 获取分段下载器，用于调整分段大小或查看统计
+     */
+    public SegmentedDownloader getSegmentedDownloader() {
+        return segmentedDownloader;
+    }
+    
+    /**
+     * 获取响应缓存，没有时为 null
+     */
+    public HttpResponseCache getResponseCache() {
+        return responseCache;
+    }
+    
+    /**
+     * 获取服务器地址
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
 
     /**
      * 获取在线歌单列表
@@ -22,87 +99,160 @@ public class MusicServerAPI {
      * @return 歌单列表
      */
     public List<OnlineMusicSheet> queryMusicSheets(String type) throws IOException {
-        String urlStr = BASE_URL + "/queryMusicSheets?type=" + type;
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        
+        try (InputStream body = openCacheable(baseUrl + "/queryMusicSheets?type=" + type, "query music sheets")) {
+            return parseMusicSheets(body);
+        }
+    }
+    
+    /**
+     * 打开可以缓存的响应，有响应缓存时重复请求只需条件请求或直接读磁盘
+     * @param url 地址
+     * @param action 失败时异常信息中的操作名称
+     * @return 响应体
+     */
+    private InputStream openCacheable(String url, String action) throws IOException {
+        if (responseCache == null) {
+            return request(url, Collections.emptyMap(), action, 200).getBody();
+        }
         try {
-            if (conn.getResponseCode() != 200) {
-                throw new IOException("Failed to query music sheets: " + conn.getResponseMessage());
-            }
-            
-            // 使用 ByteArrayOutputStream 来读取响应数据
-            ByteArrayOutputStream result = new ByteArrayOutputStream();
-            byte[] buffer = new byte[8192];
-            int length;
-            InputStream inputStream = conn.getInputStream();
-            
-            while ((length = inputStream.read(buffer)) != -1) {
-                result.write(buffer, 0, length);
+            return responseCache.open(url);
+        } catch (IOException e) {
+            throw new IOException("Failed to " + action + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 解析歌单列表响应
+     * @param inputStream 响应体，歌单较多时可能有几MB
+     * @return 歌单列表
+     */
+    List<OnlineMusicSheet> parseMusicSheets(InputStream inputStream) throws IOException {
+        // 边读边解析，不把整个响应读成字符串再转换
+        return MusicSheetReader.read(inputStream);
+    }
+
+    /**
+     * 发送请求，状态码不符时关闭响应并抛出异常
+     * @param url 地址
+     * @param headers 请求头
+     * @param action 失败时异常信息中的操作名称
+     * @param expected 接受的状态码
+     * @return 响应
+     */
+    private HttpTransport.Response request(String url, Map<String, String> headers, String action, int... expected)
+            throws IOException {
+        HttpTransport.Response response = transport.get(url, headers);
+        for (int code : expected) {
+            if (response.getCode() == code) {
+                return response;
             }
-            
-            // 将响应数据转换为字符串
-            String response = result.toString("UTF-8");
-            Map<String, Object> resultMap = gson.fromJson(response, 
-                new TypeToken<Map<String, Object>>(){}.getType());
-            
-            return gson.fromJson(
-                gson.toJson(resultMap.get("musicSheetList")),
-                new TypeToken<List<OnlineMusicSheet>>(){}.getType()
-            );
-        } finally {
-            conn.disconnect();
         }
+        response.close();
+        throw new IOException("Failed to " + action + ": " + response.getMessage());
     }
 
     /**
      * 下载音乐文件
      * @param md5 音乐文件MD5值
-     * @return 音乐文件输入流
+     * @return 音乐文件输入流，读完或关闭后连接可以复用
      */
     public InputStream downloadMusic(String md5) throws IOException {
-        URL url = new URL(BASE_URL + "/downloadMusic?md5=" + md5);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        return request(baseUrl + "/downloadMusic?md5=" + md5, Collections.emptyMap(), "download music", 200)
+            .getBody();
+    }
+
+    /**
+     * 从指定位置下载音乐文件，用于断点续传和按分段缓存
+     * 使用Range请求，服务器不支持时跳过前面的字节
+     * @param md5 音乐文件MD5值
+     * @param offset 起始字节位置
+     * @return 从offset开始的音乐文件输入流，带有文件总长度；offset已到文件末尾时返回空流
+     */
+    public RangeInputStream downloadMusic(String md5, long offset) throws IOException {
+        Map<String, String> headers = offset > 0
+            ? Collections.singletonMap("Range", "bytes=" + offset + "-")
+            : Collections.emptyMap();
+        HttpTransport.Response response = request(baseUrl + "/downloadMusic?md5=" + md5, headers,
+            "download music", 200, 206, 416);
         
-        if (conn.getResponseCode() != 200) {
-            conn.disconnect();
-            throw new IOException("Failed to download music: " + conn.getResponseMessage());
+        int code = response.getCode();
+        if (code == 206) {
+            return new RangeInputStream(response.getBody(), offset,
+                parseTotalLength(response.getHeader("Content-Range")));
+        }
+        if (code == 416) {
+            // 请求范围超出文件长度，说明之前已下载完整
+            long total = parseTotalLength(response.getHeader("Content-Range"));
+            response.close();
+            return new RangeInputStream(new ByteArrayInputStream(new byte[0]), offset, total);
         }
         
-        return conn.getInputStream();
+        InputStream in = response.getBody();
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    in.close();
+                    throw new IOException("Failed to resume music: offset beyond end of file");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return new RangeInputStream(in, offset, response.getContentLength());
+    }
+
+    /**
+     * 从 Content-Range 响应头（例如 bytes 0-99/1000）解析文件总长度
+     * @return 文件总长度，未知时返回-1
+     */
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return slash >= 0 ? Long.parseLong(contentRange.substring(slash + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 把整首歌下载到文件，服务器支持Range时通过多条连接分段并行下载
+     * @param md5 音乐文件MD5值
+     * @param target 目标文件
+     */
+    public void downloadMusicTo(String md5, File target) throws IOException {
+        downloadMusicTo(md5, target, null);
+    }
+
+    /**
+     * 把整首歌下载到文件，同时按文件顺序计算摘要
+     * @param md5 音乐文件MD5值
+     * @param target 目标文件
+     * @param digest 摘要，为null时不计算
+     */
+    public void downloadMusicTo(String md5, File target, MessageDigest digest) throws IOException {
+        segmentedDownloader.download(baseUrl + "/downloadMusic?md5=" + md5, target, digest);
     }
 
     /**
      * 下载歌单封面
      * @param uuid 歌单UUID
-     * @return 封面图片输入流
+     * @return 封面图片输入流，读完或关闭后连接可以复用
      */
     public InputStream downloadPicture(String uuid) throws IOException {
-        URL url = new URL(BASE_URL + "/downloadPicture?uuid=" + uuid);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        
-        if (conn.getResponseCode() != 200) {
-            conn.disconnect();
-            throw new IOException("Failed to download picture: " + conn.getResponseMessage());
-        }
-        
-        return conn.getInputStream();
+        return openCacheable(baseUrl + "/downloadPicture?uuid=" + uuid, "download picture");
     }
 
     /**
      * 在线播放音乐
      * @param md5 音乐文件MD5值
-     * @return 音乐文件输入流
+     * @return 音乐文件输入流，读完或关闭后连接可以复用
      */
     public InputStream streamMusic(String md5) throws IOException {
-        URL url = new URL(BASE_URL + "/music?md5=" + md5);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        
-        if (conn.getResponseCode() != 200) {
-            conn.disconnect();
-            throw new IOException("Failed to stream music: " + conn.getResponseMessage());
-        }
-        
-        return conn.getInputStream();
+        return request(baseUrl + "/music?md5=" + md5, Collections.emptyMap(), "stream music", 200).getBody();
     }
-} 
\ No newline at end of file
+}
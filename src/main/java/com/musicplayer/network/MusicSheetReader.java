@@ -0,0 +1,132 @@
+package com.musicplayer.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.musicplayer.model.MusicItems;
+import com.musicplayer.model.OnlineMusicSheet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 歌单列表响应的流式解析器
+ * 边读响应体边解析成 {@link OnlineMusicSheet}，不先读成字符串、也不经过中间的 Map，
+ * 响应体在内存中只经过 JsonReader 的小缓冲区；同一个创建者的名字和ID只保留一份，
+ * 歌曲表存成 {@link MusicItems}。不认识的字段跳过
+ */
+final class MusicSheetReader {
+    /** 歌曲表的初始容量（MD5和文件名的个数） */
+    private static final int INITIAL_ITEMS = 32;
+
+    /** 本次解析中已出现的字符串，同一个创建者只保留一份 */
+    private final Map<String, String> pool = new HashMap<>();
+
+    /** 解析歌曲表时复用的数组 */
+    private String[] items = new String[INITIAL_ITEMS];
+
+    /**
+     * 解析形如 {"musicSheetList": [...]} 的响应体
+     * @param in 响应体，不会被关闭
+     * @return 歌单列表，没有 musicSheetList 时为空列表
+     * @throws IOException 如果读取失败或JSON格式错误
+     */
+    static List<OnlineMusicSheet> read(InputStream in) throws IOException {
+        return new MusicSheetReader().readResponse(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    }
+
+    private List<OnlineMusicSheet> readResponse(JsonReader reader) throws IOException {
+        List<OnlineMusicSheet> sheets = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("musicSheetList".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    sheets.add(readSheet(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return sheets;
+    }
+
+    private OnlineMusicSheet readSheet(JsonReader reader) throws IOException {
+        OnlineMusicSheet sheet = new OnlineMusicSheet();
+        sheet.setMusicItems(MusicItems.EMPTY);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "creator":
+                    sheet.setCreator(intern(reader.nextString()));
+                    break;
+                case "creatorId":
+                    sheet.setCreatorId(intern(reader.nextString()));
+                    break;
+                case "dateCreated":
+                    sheet.setDateCreated(reader.nextString());
+                    break;
+                case "id":
+                    sheet.setId(reader.nextInt());
+                    break;
+                case "musicItems":
+                    sheet.setMusicItems(readItems(reader));
+                    break;
+                case "name":
+                    sheet.setName(reader.nextString());
+                    break;
+                case "picture":
+                    sheet.setPicture(reader.nextString());
+                    break;
+                case "uuid":
+                    sheet.setUuid(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return sheet;
+    }
+
+    private MusicItems readItems(JsonReader reader) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String md5 = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            if (count + 2 > items.length) {
+                items = Arrays.copyOf(items, items.length * 2);
+            }
+            items[count++] = md5;
+            items[count++] = reader.nextString();
+        }
+        reader.endObject();
+        MusicItems result = count == 0 ? MusicItems.EMPTY : new MusicItems(Arrays.copyOf(items, count), count / 2);
+        // 复用数组中不再保留上一个歌单的字符串
+        Arrays.fill(items, 0, count, null);
+        return result;
+    }
+
+    private String intern(String value) {
+        String existing = pool.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+}
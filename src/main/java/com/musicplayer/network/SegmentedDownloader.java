@@ -0,0 +1,433 @@
+package com.musicplayer.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段并行下载器，把整个文件分成若干字节范围，通过连接池中的多条连接同时下载，
+ * 用 {@link FileChannel} 按位置写入目标文件，不需要按顺序到达。
+ * 第一段的请求同时用来探测：服务器返回206时从 Content-Range 得到总长度，其余各段由调用线程
+ * 和下载线程从共享的段序号中领取，慢的连接不会拖住整个文件；服务器不支持Range返回200时
+ * 退回单个连接顺序下载。适用于一条连接的吞吐量受限（高延迟链路）时批量下载整首歌。
+ * 需要摘要时按文件顺序边下载边计算：乱序完成的段先留在内存中，等前面的段到齐后再计算，
+ * 留在内存中的字节数超过上限时才在轮到它时从文件读回
+ */
+public class SegmentedDownloader {
+    /** 默认同时使用的连接数，包括调用线程，不超过每主机连接数上限 */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    /** 默认每段的字节数 */
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+
+    /** 读写缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 空闲下载线程的存活时间（秒） */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final HttpTransport transport;
+    private final int connections;
+    private final ThreadPoolExecutor helpers;
+
+    private volatile long segmentBytes = DEFAULT_SEGMENT_BYTES;
+
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong segmentedDownloads = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong rereadBytes = new AtomicLong();
+
+    /**
+     * 构造函数，使用默认连接数
+     * @param transport HTTP传输层
+     */
+    public SegmentedDownloader(HttpTransport transport) {
+        this(transport, DEFAULT_CONNECTIONS);
+    }
+
+    /**
+     * 构造函数
+     * @param transport HTTP传输层
+     * @param connections 每个文件同时使用的连接数，1表示只用调用线程顺序下载各段
+     */
+    public SegmentedDownloader(HttpTransport transport, int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections must be positive: " + connections);
+        }
+        this.transport = transport;
+        this.connections = connections;
+        int threads = Math.max(connections - 1, 1);
+        AtomicInteger counter = new AtomicInteger();
+        this.helpers = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "segment-download-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.helpers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 按文件顺序计算摘要，乱序完成的段等前面的段到齐后再计算
+     */
+    private final class OrderedDigest {
+        final MessageDigest digest;
+        final FileChannel channel;
+
+        /** 留在内存中等待计算的字节数上限 */
+        final long budget;
+
+        /** 已计算摘要的字节数 */
+        long digested;
+
+        /** 已完成、等待前面的段的数据，按起始位置 */
+        final Map<Long, byte[]> held = new HashMap<>();
+        long heldBytes;
+
+        /** 超出上限没有留在内存中的段，起始位置到长度 */
+        final Map<Long, Long> spilled = new HashMap<>();
+
+        OrderedDigest(MessageDigest digest, FileChannel channel, long budget) {
+            this.digest = digest;
+            this.channel = channel;
+            this.budget = budget;
+        }
+
+        /**
+         * 一段已写入文件，轮到它时计算摘要，并继续计算其后已完成的段
+         */
+        synchronized void segmentDone(long start, byte[] data) throws IOException {
+            if (start != digested) {
+                if (heldBytes + data.length <= budget) {
+                    held.put(start, data);
+                    heldBytes += data.length;
+                } else {
+                    spilled.put(start, (long) data.length);
+                }
+                return;
+            }
+            digest.update(data);
+            digested += data.length;
+            while (true) {
+                byte[] next = held.remove(digested);
+                if (next != null) {
+                    heldBytes -= next.length;
+                    digest.update(next);
+                    digested += next.length;
+                    continue;
+                }
+                Long length = spilled.remove(digested);
+                if (length == null) {
+                    return;
+                }
+                reread(length);
+            }
+        }
+
+        private void reread(long length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+            long end = digested + length;
+            while (digested < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - digested));
+                int n = channel.read(buffer, digested);
+                if (n < 0) {
+                    throw new IOException("Segment at " + digested + " missing while computing digest");
+                }
+                digest.update(buffer.array(), 0, n);
+                digested += n;
+                rereadBytes.addAndGet(n);
+            }
+        }
+    }
+
+    /**
+     * 一次分段下载的共享状态
+     */
+    private final class Job {
+        final String url;
+        final FileChannel channel;
+        final long total;
+        final long segment;
+        final int count;
+
+        /** 需要摘要时按文件顺序计算，否则为null */
+        final OrderedDigest ordered;
+
+        /** 下一个待领取的段序号 */
+        final AtomicInteger next = new AtomicInteger(1);
+
+        /** 是否已有段失败，其他段不再继续 */
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        /** 正在进行的请求，失败时中止 */
+        final Set<HttpTransport.Call> calls = ConcurrentHashMap.newKeySet();
+
+        Job(String url, FileChannel channel, long total, long segment, MessageDigest digest) {
+            this.url = url;
+            this.channel = channel;
+            this.total = total;
+            this.segment = segment;
+            this.count = (int) ((total + segment - 1) / segment);
+            this.ordered = digest != null ? new OrderedDigest(digest, channel, connections * segment) : null;
+        }
+
+        /**
+         * 领取并下载段，直到没有剩余的段
+         */
+        void run() throws IOException {
+            try {
+                int index;
+                while (!failed.get() && (index = next.getAndIncrement()) < count) {
+                    long start = index * segment;
+                    long end = Math.min(start + segment, total) - 1;
+                    fetch(start, end);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail();
+                throw e;
+            }
+        }
+
+        private void fetch(long start, long end) throws IOException {
+            HttpTransport.Call call = transport.newCall(url, rangeHeader(start, end));
+            calls.add(call);
+            if (failed.get()) {
+                call.cancel();
+            }
+            try (HttpTransport.Response response = call.execute()) {
+                if (response.getCode() != 206 || parseStart(response.getHeader("Content-Range")) != start) {
+                    throw new IOException("Server ignored range " + start + "-" + end + ": " + response.getCode()
+                        + " " + response.getMessage());
+                }
+                copySegment(response.getBody(), start, end - start + 1);
+            } finally {
+                calls.remove(call);
+            }
+        }
+
+        /**
+         * 把一段写入文件，需要摘要时同时留下这段数据
+         */
+        void copySegment(InputStream in, long start, long length) throws IOException {
+            byte[] data = ordered != null ? new byte[(int) length] : null;
+            copy(in, channel, start, length, data);
+            segments.incrementAndGet();
+            if (ordered != null) {
+                ordered.segmentDone(start, data);
+            }
+        }
+
+        void fail() {
+            if (failed.compareAndSet(false, true)) {
+                for (HttpTransport.Call call : calls) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * 下载整个文件
+     * @param url 地址
+     * @param target 目标文件，已存在时覆盖
+     * @return 文件长度
+     * @throws IOException 如果请求失败、服务器返回的范围不符或写入失败
+     */
+    public long download(String url, File target) throws IOException {
+        return download(url, target, null);
+    }
+
+    /**
+     * 下载整个文件，同时按文件顺序计算摘要，不需要下载完成后再读一遍
+     * @param url 地址
+     * @param target 目标文件，已存在时覆盖
+     * @param digest 摘要，下载成功后已包含整个文件，为null时不计算
+     * @return 文件长度
+     * @throws IOException 如果请求失败、服务器返回的范围不符或写入失败
+     */
+    public long download(String url, File target, MessageDigest digest) throws IOException {
+        downloads.incrementAndGet();
+        long segment = segmentBytes;
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             HttpTransport.Response first = transport.get(url, rangeHeader(0, segment - 1))) {
+            if (first.getCode() == 200) {
+                // 服务器不支持Range，整个文件在这一个响应中
+                fallbacks.incrementAndGet();
+                return copy(digesting(first.getBody(), digest), channel, 0, first.getContentLength(), null);
+            }
+            long total = first.getCode() == 206 ? parseTotal(first.getHeader("Content-Range")) : -1;
+            if (total < 0 || parseStart(first.getHeader("Content-Range")) != 0) {
+                throw new IOException("Failed to download " + url + ": " + first.getCode() + " " + first.getMessage());
+            }
+            if (total <= segment) {
+                copy(digesting(first.getBody(), digest), channel, 0, total, null);
+                segments.incrementAndGet();
+                return total;
+            }
+
+            segmentedDownloads.incrementAndGet();
+            Job job = new Job(url, channel, total, segment, digest);
+            List<FutureTask<Void>> started = new ArrayList<>();
+            for (int i = 0; i < Math.min(connections - 1, job.count - 1); i++) {
+                FutureTask<Void> task = new FutureTask<>(() -> {
+                    job.run();
+                    return null;
+                });
+                helpers.execute(task);
+                started.add(task);
+            }
+            IOException error = null;
+            try {
+                // 调用线程先读完探测请求的第一段，再和下载线程一起领取其余的段
+                job.copySegment(first.getBody(), 0, segment);
+                job.run();
+            } catch (IOException e) {
+                job.fail();
+                error = e;
+            }
+            for (FutureTask<Void> future : started) {
+                if (helpers.remove(future)) {
+                    // 还在排队，段已经被领完；已开始的要等它写完
+                    continue;
+                }
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // 其他段因失败被中止时抛出的是取消，保留最先出错的原因
+                    if (error == null || error instanceof InterruptedIOException) {
+                        error = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    job.fail();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + url);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (job.ordered != null && job.ordered.digested != total) {
+                throw new IOException("Digest covers " + job.ordered.digested + " of " + total + " bytes");
+            }
+            return total;
+        }
+    }
+
+    private static InputStream digesting(InputStream in, MessageDigest digest) {
+        return digest != null ? new DigestInputStream(in, digest) : in;
+    }
+
+    /**
+     * 把响应体按位置写入文件
+     * @param expected 应有的字节数，未知时为-1
+     * @param keep 不为null时读入其中并保留，长度为 expected
+     * @return 写入的字节数
+     */
+    private long copy(InputStream in, FileChannel channel, long position, long expected, byte[] keep)
+            throws IOException {
+        byte[] buffer = keep != null ? keep : new byte[BUFFER_SIZE];
+        long written = 0;
+        while (expected < 0 || written < expected) {
+            int offset = keep != null ? (int) written : 0;
+            int length = expected < 0 ? BUFFER_SIZE : (int) Math.min(BUFFER_SIZE, expected - written);
+            int n = in.read(buffer, offset, length);
+            if (n == -1) {
+                break;
+            }
+            ByteBuffer wrapped = ByteBuffer.wrap(buffer, offset, n);
+            long at = position + written;
+            while (wrapped.hasRemaining()) {
+                at += channel.write(wrapped, at);
+            }
+            written += n;
+        }
+        bytes.addAndGet(written);
+        if (expected >= 0 && written != expected) {
+            throw new IOException("Incomplete segment at " + position + ": " + written + " of " + expected + " bytes");
+        }
+        return written;
+    }
+
+    private static Map<String, String> rangeHeader(long start, long end) {
+        return Collections.singletonMap("Range", "bytes=" + start + "-" + end);
+    }
+
+    /**
+     * 解析 Content-Range: bytes start-end/total 的起始位置，格式不符时返回-1
+     */
+    private static long parseStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        try {
+            return dash > 6 ? Long.parseLong(contentRange.substring(6, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析 Content-Range 中的总长度，未知（*）或格式不符时返回-1
+     */
+    private static long parseTotal(String contentRange) {
+        int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+        try {
+            return slash >= 0 ? Long.parseLong(contentRange.substring(slash + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 设置每段的字节数，只影响之后开始的下载
+     */
+    public void setSegmentBytes(long segmentBytes) {
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentBytes out of range: " + segmentBytes);
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    public int getConnections() { return connections; }
+    public long getSegmentBytes() { return segmentBytes; }
+    public long getDownloadCount() { return downloads.get(); }
+    public long getSegmentedDownloads() { return segmentedDownloads.get(); }
+    public long getFallbacks() { return fallbacks.get(); }
+    public long getSegmentCount() { return segments.get(); }
+    public long getDownloadedBytes() { return bytes.get(); }
+    public long getRereadBytes() { return rereadBytes.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("分段下载: 文件 %d, 分段下载 %d, 单连接回退 %d, 段 %d, 字节 %d, 摘要读回 %d, 连接数 %d",
+            getDownloadCount(), getSegmentedDownloads(), getFallbacks(), getSegmentCount(), getDownloadedBytes(),
+            getRereadBytes(), getConnections());
+    }
+}
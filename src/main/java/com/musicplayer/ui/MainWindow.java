@@ -6,7 +6,9 @@ import com.musicplayer.model.Playlist;
 import com.musicplayer.model.Song;
 import com.musicplayer.data.DataManager;
 import com.musicplayer.util.MusicFileManager;
+import com.musicplayer.network.AsyncMusicServerAPI;
 import com.musicplayer.model.OnlineMusicSheet;
+import com.musicplayer.util.CacheScrubber;
 import com.musicplayer.util.StreamCache;
 
 import javax.swing.*;
@@ -18,13 +20,11 @@ import java.time.Duration;
 import java.time.format.DateTimeFormatter;
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import javax.swing.table.TableCellRenderer;
 
-import org.jaudiotagger.audio.AudioFile;
-import org.jaudiotagger.audio.AudioFileIO;
 
 
 
@@ -35,6 +35,10 @@ import javax.imageio.ImageIO;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.io.InputStream;
 
 import java.util.ArrayList;
@@ -68,20 +72,28 @@ public class MainWindow extends JFrame {
     private Map<String, OnlineMusicSheet> onlineSheetMap = new HashMap<>();
     private JTextField searchField;
     private DefaultListModel<String> friendsListModel;
+    private final CacheScrubber cacheScrubber = new CacheScrubber();
+    
+    /** 异步的服务器接口，网络请求都在它的I/O线程中执行，不阻塞界面 */
+    private AsyncMusicServerAPI asyncApi;
+    
+    /** 当前在线歌单的封面和时长请求，切换歌单时取消 */
+    private final List<CompletableFuture<?>> onlinePlaylistRequests = new ArrayList<>();
+    
+    /** 正在打开的在线歌曲，选择另一首时取消 */
+    private CompletableFuture<InputStream> pendingPlay;
     
     public MainWindow() {
         this.playerController = new PlayerController();
+        this.asyncApi = new AsyncMusicServerAPI(dataManager.getMusicServerAPI());
+        // 在线播放时在后台预取接下来的歌曲
+        playerController.setOnlineFetcher((md5, offset) -> dataManager.getMusicServerAPI().downloadMusic(md5, offset));
+        // 播放最多的几首歌保存在内存中，占用不超过最大堆的1/16
+        StreamCache.setHotTierLimits(8, Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16));
+        // 启动后在后台低速核对缓存文件的MD5
+        cacheScrubber.start(1, 30, TimeUnit.MINUTES);
         initializeComponents();
         initializeUI();
-        
-        // 添加窗口关闭事件处理
-        addWindowListener(new java.awt.event.WindowAdapter() {
-            @Override
-            public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                // 清理缓存
-                StreamCache.clearCache();
-            }
-        });
     }
     
     private void initializeComponents() {
@@ -499,14 +511,38 @@ public class MainWindow extends JFrame {
         progressSlider = new JSlider(0, 100, 0);
         progressSlider.setPreferredSize(new Dimension(400, 20));
         
-        // 添进度监听器
+        // 添进度监听器（回调已在事件线程中）
         playerController.setProgressListener((current, total) -> {
-            SwingUtilities.invokeLater(() -> {
-                if (!progressSlider.getValueIsAdjusting()) {
-                    progressSlider.setValue(current);
-                    updateProgressLabel(current, total);
+            if (!progressSlider.getValueIsAdjusting()) {
+                if (total > 0) {
+                    if (progressSlider.getMaximum() != total) {
+                        progressSlider.setMaximum(total);
+                    }
+                    // 流式播放的时长在数据全部到达后才知道
+                    if (playerController.isOnlinePlayback() && currentPlayingSong != null
+                        && (currentPlayingSong.getDuration() == null || currentPlayingSong.getDuration().isZero())) {
+                        currentPlayingSong.setDuration(Duration.ofMillis(total));
+                    }
                 }
-            });
+                progressSlider.setValue(current);
+                updateProgressLabel(current, total);
+            }
+        });
+        
+        // 播放器自动切歌后更新界面
+        playerController.setSongChangeListener(song -> {
+            updatePlayerInfo();
+            playButton.setText(playerController.isPlaying() ? "暂停" : "继续");
+        });
+        
+        // 拖动进度条结束后跳转到对应位置
+        progressSlider.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseReleased(java.awt.event.MouseEvent e) {
+                if (currentPlayingSong != null && playerController.getDurationMillis() > 0) {
+                    playerController.seek(progressSlider.getValue());
+                }
+            }
         });
         
         progressPanel.add(progressSlider, BorderLayout.CENTER);
@@ -558,13 +594,10 @@ public class MainWindow extends JFrame {
                 } else {
                     // 继续播放
                     if (playerController.isOnlinePlayback()) {
-                        // 在线歌曲
+                        // 在线歌曲：暂停时保留的会话直接继续，停止或切歌后才重新获取流
+                        playerController.resume();
                         if (playerController.needNewStream()) {
-                            // 需要新流时重新获取
                             playOnlineSong(currentPlayingSong);
-                        } else {
-                            // 不需要新流时直接继续
-                            playerController.resume();
                         }
                     } else {
                         // 本地歌曲
@@ -669,22 +702,24 @@ public class MainWindow extends JFrame {
         playlistOwnerLabel.setText("创建者：" + onlineSheet.getCreator());
         playlistDateLabel.setText("创建时间：" + onlineSheet.getDateCreated());
         
-        // 更新封面图片（如果有）
+        // 取消上一个歌单还没完成的封面和时长请求
+        for (CompletableFuture<?> request : onlinePlaylistRequests) {
+            request.cancel(true);
+        }
+        onlinePlaylistRequests.clear();
+        
+        // 更新封面图片（如果有），在后台下载和解码，完成时仍是这个歌单才显示
+        setDefaultCoverImage();
         if (onlineSheet.getPicture() != null && !onlineSheet.getPicture().isEmpty()) {
-            try {
-                // 下载并显示封面
-                InputStream coverStream = dataManager.getMusicServerAPI().downloadPicture(onlineSheet.getUuid());
-                BufferedImage coverImage = ImageIO.read(coverStream);
-                if (coverImage != null) {
-                    BufferedImage roundedImage = createRoundedImage(coverImage);
-                    coverImageLabel.setIcon(new ImageIcon(roundedImage));
+            CompletableFuture<BufferedImage> cover = asyncApi.downloadPicture(onlineSheet.getUuid(), ImageIO::read);
+            onlinePlaylistRequests.add(cover);
+            cover.whenComplete((coverImage, error) -> SwingUtilities.invokeLater(() -> {
+                if (songTable.getClientProperty("currentPlaylist") != onlineSheet || coverImage == null) {
+                    return;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                setDefaultCoverImage();
-            }
-        } else {
-            setDefaultCoverImage();
+                coverImageLabel.setText(null);
+                coverImageLabel.setIcon(new ImageIcon(createRoundedImage(coverImage)));
+            }));
         }
         
         // 清空表格
@@ -706,29 +741,20 @@ public class MainWindow extends JFrame {
                 ""                            // 操作列（由渲染器处理）
             });
             
-            // 异步加载时长
+            // 异步加载时长，切换歌单时取消，正在读取的连接被断开
             final int rowIndex = index;
-            new Thread(() -> {
-                try {
-                    // 获取文头信息来计算时长
-                    InputStream is = dataManager.getMusicServerAPI().streamMusic(entry.getKey());
-                    BufferedInputStream bis = new BufferedInputStream(is);
-                    Duration duration = MusicFileManager.getMp3DurationFromStream(bis);
-                    
-                    // 更新表格
-                    SwingUtilities.invokeLater(() -> {
-                        model.setValueAt(formatDuration(duration), rowIndex, 3);
-                    });
-                    
-                    bis.close();
-                    is.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    SwingUtilities.invokeLater(() -> {
-                        model.setValueAt("--:--", rowIndex, 3);
-                    });
+            CompletableFuture<Duration> duration = asyncApi.streamMusic(entry.getKey(),
+                body -> MusicFileManager.getMp3DurationFromStream(new BufferedInputStream(body)));
+            onlinePlaylistRequests.add(duration);
+            duration.whenComplete((value, error) -> SwingUtilities.invokeLater(() -> {
+                if (songTable.getClientProperty("currentPlaylist") != onlineSheet) {
+                    return;
+                }
+                if (error != null && !(error instanceof CancellationException)) {
+                    error.printStackTrace();
                 }
-            }).start();
+                model.setValueAt(value != null ? formatDuration(value) : "--:--", rowIndex, 3);
+            }));
             
             index++;
         }
@@ -1012,59 +1038,88 @@ public class MainWindow extends JFrame {
      * 播放在线歌曲
      */
     private void playOnlineSong(Song song) {
-        try {
-            if (currentPlayingSong != null && 
-                currentPlayingSong.equals(song) && 
-                playerController.isOnlinePlayback() && 
-                !playerController.needNewStream()) {
-                // 如果是同一首歌且不需要新流，则继续播放
-                playerController.resume();
+        if (currentPlayingSong != null && 
+            currentPlayingSong.equals(song) && 
+            playerController.isOnlinePlayback() && 
+            !playerController.needNewStream()) {
+            // 如果是同一首歌且暂停时的会话仍然有效，则直接继续播放
+            playerController.resume();
+            if (!playerController.needNewStream()) {
                 playButton.setText("暂停");
                 return;
             }
-            
-            // 检查是否有缓存
-            final File cachedFile = StreamCache.getCachedFile(song.getId());
-            final File musicFile;
-            
-            if (cachedFile == null) {
-                // 没有缓存，下载并缓存
-                InputStream musicStream = dataManager.getMusicServerAPI().streamMusic(song.getId());
-                musicFile = StreamCache.cacheStream(song.getId(), musicStream);
-            } else {
-                musicFile = cachedFile;
+        }
+        
+        // 上一首还没打开就选择了这一首，取消它
+        if (pendingPlay != null) {
+            pendingPlay.cancel(true);
+            pendingPlay = null;
+        }
+        
+        // 检查是否有缓存，缓存文件在程序外被删除时重新获取
+        File cachedFile = StreamCache.getCachedFile(song.getId());
+        if (cachedFile != null && !cachedFile.isFile()) {
+            StreamCache.invalidate(song.getId());
+            cachedFile = null;
+        }
+        currentPlayingSong = song;
+        playerController.setCurrentSong(song);
+        
+        if (cachedFile != null) {
+            // 有缓存时直接播放缓存文件，支持拖动进度
+            playerController.playOnlineFile(cachedFile);
+            onlineSongStarted(song);
+            return;
+        }
+        
+        // 没有缓存，在后台连接服务器，边下载边写入缓存，收到前几帧即开始流式播放，下载完成后重播直接读缓存
+        CompletableFuture<InputStream> open = asyncApi.submit(
+            () -> StreamCache.openStream(song.getId(), dataManager.getMusicServerAPI()::downloadMusic),
+            AsyncMusicServerAPI.DEFAULT_DEADLINE_MILLIS);
+        pendingPlay = open;
+        open.whenComplete((musicStream, error) -> SwingUtilities.invokeLater(() -> {
+            if (pendingPlay != open) {
+                // 已选择了别的歌曲，取消时流已被关闭
+                return;
             }
-            
-            // 使用缓存的文件播放
-            currentPlayingSong = song;
-            // 设置一个默认时长（3分钟）
-            song.setDuration(Duration.ofMinutes(3));
-            playerController.setCurrentSong(song);
-            playerController.playOnlineStream(new FileInputStream(musicFile));
-            playButton.setText("暂停");
-            updateCurrentSongLabel();
-            
-            // 异步获取实际时长
-            new Thread(() -> {
-                try {
-                    AudioFile audioFile = AudioFileIO.read(musicFile);
-                    int durationInSeconds = audioFile.getAudioHeader().getTrackLength();
-                    song.setDuration(Duration.ofSeconds(durationInSeconds));
-                    SwingUtilities.invokeLater(this::updateCurrentSongLabel);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    // 保持默认时长
-                    SwingUtilities.invokeLater(this::updateCurrentSongLabel);
+            pendingPlay = null;
+            try {
+                if (error != null) {
+                    throw error instanceof CompletionException ? error.getCause() : error;
                 }
-            }).start();
-            
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                "播放失败：" + e.getMessage(),
-                "错误",
-                JOptionPane.ERROR_MESSAGE);
+                playerController.playOnlineStream(musicStream);
+                onlineSongStarted(song);
+            } catch (Throwable e) {
+                showPlayError(e);
+            }
+        }));
+    }
+    
+    /**
+     * 在线歌曲开始播放后更新时长和界面
+     */
+    private void onlineSongStarted(Song song) {
+        // 帧索引已给出实际时长；流式播放时长未知，保留已加载的时长，数据全部到达后由进度监听器更新
+        long durationMillis = playerController.getDurationMillis();
+        if (durationMillis > 0) {
+            song.setDuration(Duration.ofMillis(durationMillis));
+        } else if (song.getDuration() != null) {
+            durationMillis = song.getDuration().toMillis();
         }
+        if (durationMillis > 0) {
+            progressSlider.setMaximum((int) durationMillis);
+        }
+        progressSlider.setValue(0);
+        playButton.setText("暂停");
+        updateCurrentSongLabel();
+    }
+    
+    private void showPlayError(Throwable e) {
+        e.printStackTrace();
+        JOptionPane.showMessageDialog(this,
+            "播放失败：" + e.getMessage(),
+            "错误",
+            JOptionPane.ERROR_MESSAGE);
     }
     
     private void downloadAllSongs() {
@@ -1097,8 +1152,8 @@ public class MainWindow extends JFrame {
             progressDialog.setSize(300, 100);
             progressDialog.setLocationRelativeTo(this);
             
-            // 在后台线程中执行下载
-            Thread downloadThread = new Thread(() -> {
+            // 在I/O线程中执行下载，不限期限
+            asyncApi.submit(() -> {
                 int successCount = 0;
                 int totalCount = 0;  // 初始化为0
                 
@@ -1119,16 +1174,12 @@ public class MainWindow extends JFrame {
                                     progressBar.setValue(progressBar.getValue() + 1);
                                 });
                                 
-                                // 下载文件
-                                InputStream is = dataManager.getMusicServerAPI().downloadMusic(entry.getKey());
+                                // 通过缓存分段并行下载，与预取或播放同时请求同一首歌时只下载一次
+                                File cachedFile = StreamCache.fetch(entry.getKey(),
+                                    dataManager.getMusicServerAPI()::downloadMusicTo,
+                                    dataManager.getMusicServerAPI()::downloadMusic);
                                 File targetFile = new File(downloadDir, filename);
-                                try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-                                    byte[] buffer = new byte[8192];
-                                    int bytesRead;
-                                    while ((bytesRead = is.read(buffer)) != -1) {
-                                        fos.write(buffer, 0, bytesRead);
-                                    }
-                                }
+                                Files.copy(cachedFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
                                 successCount++;
                             } catch (IOException e) {
                                 e.printStackTrace();
@@ -1147,9 +1198,9 @@ public class MainWindow extends JFrame {
                         "下载结果",
                         JOptionPane.INFORMATION_MESSAGE);
                 });
-            });
+                return null;
+            }, 0);
             
-            downloadThread.start();
             progressDialog.setVisible(true); // 显示进度对话框
         }
     }
@@ -1347,7 +1398,7 @@ public class MainWindow extends JFrame {
                 songProgressLabel.setText(String.format("00:00 / %02d:%02d",
                     totalSeconds / 60, totalSeconds % 60));
             } else if (playerController.isOnlinePlayback()) {
-                songProgressLabel.setText("00:00 / 03:00");
+                songProgressLabel.setText("00:00 / --:--");
             } else {
                 songProgressLabel.setText("00:00 / 00:00");
             }
@@ -1363,23 +1414,18 @@ public class MainWindow extends JFrame {
      */
     private void updateProgressLabel(int current, int total) {
         if (currentPlayingSong != null) {
-            Duration duration = currentPlayingSong.getDuration();
-            if (duration != null && !duration.isZero()) {
-                // 有时长信息时，显示具体时间
-                long totalSeconds = duration.getSeconds();
-                long currentSeconds = (totalSeconds * current) / total;
+            if (total > 0) {
+                // 进度以毫秒为单位
+                long currentSeconds = current / 1000;
+                long totalSeconds = total / 1000;
                 songProgressLabel.setText(String.format("%02d:%02d / %02d:%02d",
                     currentSeconds / 60, currentSeconds % 60,
                     totalSeconds / 60, totalSeconds % 60));
-            } else if (playerController.isOnlinePlayback()) {
-                // 在线音乐播放时，使用3分钟作为默认时长
-                long totalSeconds = 3 * 60; // 3分钟
-                long currentSeconds = (totalSeconds * current) / total;
-                songProgressLabel.setText(String.format("%02d:%02d / 03:00",
-                    currentSeconds / 60, currentSeconds % 60));
             } else {
-                // 其他情况显示百分比
-                songProgressLabel.setText(String.format("%d%% / 100%%", current));
+                // 时长未知时只显示当前位置
+                long currentSeconds = current / 1000;
+                songProgressLabel.setText(String.format("%02d:%02d / --:--",
+                    currentSeconds / 60, currentSeconds % 60));
             }
         } else {
             songProgressLabel.setText("00:00 / 00:00");
@@ -1545,68 +1591,65 @@ public class MainWindow extends JFrame {
         
         int result = fileChooser.showSaveDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            try {
-                // 获取选择的保存路径
-                File targetFile = fileChooser.getSelectedFile();
-                
-                // 下载文件
-                InputStream is = dataManager.getMusicServerAPI().downloadMusic(md5);
-                try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = is.read(buffer)) != -1) {
-                        fos.write(buffer, 0, bytesRead);
-                    }
+            // 获取选择的保存路径
+            File targetFile = fileChooser.getSelectedFile();
+            
+            // 在I/O线程中通过缓存分段并行下载，与预取或播放同时请求同一首歌时只下载一次
+            asyncApi.submit(() -> {
+                File cachedFile = StreamCache.fetch(md5, dataManager.getMusicServerAPI()::downloadMusicTo,
+                    dataManager.getMusicServerAPI()::downloadMusic);
+                Files.copy(cachedFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return targetFile;
+            }, 0).whenComplete((file, error) -> SwingUtilities.invokeLater(() -> {
+                if (error == null) {
+                    JOptionPane.showMessageDialog(this,
+                        "下载完成：" + filename,
+                        "下载成功",
+                        JOptionPane.INFORMATION_MESSAGE);
+                } else {
+                    error.printStackTrace();
+                    JOptionPane.showMessageDialog(this,
+                        "下载失败：" + error.getMessage(),
+                        "错误",
+                        JOptionPane.ERROR_MESSAGE);
                 }
-                
-                JOptionPane.showMessageDialog(this,
-                    "下载完成：" + filename,
-                    "下载成功",
-                    JOptionPane.INFORMATION_MESSAGE);
-                
-            } catch (Exception e) {
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(this,
-                    "下载失败：" + e.getMessage(),
-                    "错误",
-                    JOptionPane.ERROR_MESSAGE);
-            }
+            }));
         }
     }
     
     private void downloadAndFavoriteOnlineSong(String md5, String filename) {
-        try {
-            // 先下载歌曲
-            dataManager.downloadOnlineMusic(md5, filename);
-            
-            // 创建Song对象
-            String filePath = MusicFileManager.saveOnlineMusicFile(
-                dataManager.getMusicServerAPI().downloadMusic(md5),
-                filename
-            );
-            
-            Song song = new Song(
-                md5,
-                filename,
-                "在线音乐",
-                Duration.ZERO,
-                filePath
-            );
-            
-            // 添加到收藏
-            if (dataManager.addFavoriteSong(song)) {
-                JOptionPane.showMessageDialog(this,
-                    "已收藏：" + filename,
-                    "收藏成功",
-                    JOptionPane.INFORMATION_MESSAGE);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                "收藏失败：" + e.getMessage(),
-                "错误",
-                JOptionPane.ERROR_MESSAGE);
-        }
+        // 在I/O线程中下载歌曲，音乐目录中的文件与缓存共用一份数据
+        asyncApi.submit(() -> dataManager.downloadOnlineMusic(md5, filename), 0)
+            .whenComplete((filePath, error) -> SwingUtilities.invokeLater(() -> {
+                try {
+                    if (error != null) {
+                        throw error instanceof CompletionException ? error.getCause() : error;
+                    }
+                    
+                    // 创建Song对象
+                    Song song = new Song(
+                        md5,
+                        filename,
+                        "在线音乐",
+                        Duration.ZERO,
+                        filePath
+                    );
+                    
+                    // 添加到收藏
+                    if (dataManager.addFavoriteSong(song)) {
+                        JOptionPane.showMessageDialog(this,
+                            "已收藏：" + filename,
+                            "收藏成功",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(this,
+                        "收藏失败：" + e.getMessage(),
+                        "错误",
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }));
     }
     
     // 添加设置默认封面的方法
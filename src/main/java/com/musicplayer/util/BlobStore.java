@@ -0,0 +1,293 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 按内容MD5寻址的音乐文件存储
+ * 每首歌只保存一份，文件按MD5的前四位分两级子目录存放：blobs/ab/cd/abcd...；
+ * 缓存目录和音乐目录中的文件都是指向它的硬链接，从缓存加入音乐库不复制数据。
+ * 文件的硬链接数就是引用数：只剩存储中的一个链接时可以删除。
+ * 文件系统不支持硬链接（例如跨分区）时退回复制，此时各处的文件互不影响。
+ * 不能读取硬链接数（例如NTFS）时无法知道内容何时不再被引用，存储不启用，各处保存独立的文件；
+ * 之前留在存储中的内容在回收时直接删除，其他位置的链接仍保有数据
+ */
+public class BlobStore {
+    /** 存储目录，可通过系统属性 musicplayer.blob.dir 指定 */
+    private static final String BLOB_DIR = System.getProperty("musicplayer.blob.dir", "blobs");
+
+    /** 创建的硬链接数 */
+    private static final AtomicLong linkedFiles = new AtomicLong();
+
+    /** 无法链接而复制的文件数 */
+    private static final AtomicLong copiedFiles = new AtomicLong();
+
+    /** 因内容已存在而省下的字节数 */
+    private static final AtomicLong dedupedBytes = new AtomicLong();
+
+    /** 删除的无引用文件数 */
+    private static final AtomicLong releasedFiles = new AtomicLong();
+
+    /** 能否读取硬链接数，首次使用时检测，可通过系统属性 musicplayer.blob.nlink=false 关闭 */
+    private static volatile Boolean enabled;
+
+    private BlobStore() {
+    }
+
+    /**
+     * 内容在存储中的文件
+     * @param md5 内容MD5
+     */
+    public static File blobFile(String md5) {
+        String key = md5.toLowerCase();
+        return new File(new File(new File(BLOB_DIR, key.substring(0, 2)), key.substring(2, 4)), key);
+    }
+
+    /**
+     * 存储是否启用，只有能读取硬链接数时才能按引用回收
+     */
+    public static boolean isEnabled() {
+        Boolean result = enabled;
+        if (result == null) {
+            result = !"false".equals(System.getProperty("musicplayer.blob.nlink")) && probeLinkCount();
+            enabled = result;
+        }
+        return result;
+    }
+
+    /**
+     * 在存储目录或其最近的已存在的上级目录上读取硬链接数，检测文件系统是否支持
+     */
+    private static boolean probeLinkCount() {
+        Path path = Paths.get(BLOB_DIR).toAbsolutePath();
+        while (path != null && !Files.exists(path)) {
+            path = path.getParent();
+        }
+        if (path == null) {
+            return false;
+        }
+        try {
+            return Files.getAttribute(path, "unix:nlink") instanceof Number;
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 存储中是否已有该内容
+     * @param md5 内容MD5，不是MD5或存储未启用时返回false
+     */
+    public static boolean contains(String md5) {
+        return isEnabled() && Md5Utils.isMd5(md5) && blobFile(md5).isFile();
+    }
+
+    /**
+     * 把已校验的文件纳入存储：存储中没有时为其建立链接，已有时把文件替换为指向存储的链接，
+     * 两种情况都不复制数据
+     * @param md5 内容MD5
+     * @param file 内容与MD5一致的文件
+     * @return 存储中的文件，存储未启用时返回null，文件保持不变
+     * @throws IOException 如果读写失败
+     */
+    public static File adopt(String md5, File file) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        File blob = blobFile(md5);
+        if (!blob.isFile()) {
+            Files.createDirectories(blob.getParentFile().toPath());
+            try {
+                link(file, blob);
+                return blob;
+            } catch (FileAlreadyExistsException e) {
+                // 其他线程刚刚存入了同样的内容
+            }
+        }
+        if (!Files.isSameFile(file.toPath(), blob.toPath())) {
+            long size = file.length();
+            replaceWithLink(blob, file);
+            dedupedBytes.addAndGet(size);
+        }
+        return blob;
+    }
+
+    /**
+     * 把新写入的临时文件移入存储，存储中已有同样的内容时删除临时文件；只在存储启用时使用
+     * @param md5 内容MD5
+     * @param tempFile 内容与MD5一致的临时文件
+     * @return 存储中的文件
+     * @throws IOException 如果读写失败
+     */
+    public static File ingest(String md5, File tempFile) throws IOException {
+        File blob = blobFile(md5);
+        if (blob.isFile()) {
+            dedupedBytes.addAndGet(tempFile.length());
+            tempFile.delete();
+            return blob;
+        }
+        Files.createDirectories(blob.getParentFile().toPath());
+        try {
+            Files.move(tempFile.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 跨分区时不能原子移动，先复制到存储目录中再改名
+            File staging = File.createTempFile("temp_", null, blob.getParentFile());
+            try {
+                Files.copy(tempFile.toPath(), staging.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(staging.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                staging.delete();
+            }
+            tempFile.delete();
+        }
+        return blob;
+    }
+
+    /**
+     * 在target处建立指向存储中内容的链接，target已存在时替换
+     * @param md5 内容MD5
+     * @param target 链接位置
+     * @throws IOException 如果存储中没有该内容或读写失败
+     */
+    public static void linkTo(String md5, File target) throws IOException {
+        File blob = blobFile(md5);
+        if (!blob.isFile()) {
+            throw new IOException("Blob not found: " + md5);
+        }
+        replaceWithLink(blob, target);
+    }
+
+    /**
+     * 内容的硬链接数，包括存储中的一个
+     * @return 链接数，不存在时返回0，文件系统不支持时返回-1
+     */
+    public static int linkCount(String md5) {
+        return linkCount(blobFile(md5).toPath());
+    }
+
+    /**
+     * 没有其他链接时删除存储中的内容，存储未启用时直接删除之前留下的内容
+     * @param md5 内容MD5
+     * @return 是否已删除
+     */
+    public static boolean release(String md5) {
+        if (!Md5Utils.isMd5(md5)) {
+            return false;
+        }
+        return releaseIfUnreferenced(blobFile(md5).toPath());
+    }
+
+    /**
+     * 删除存储中的内容，不论是否还有其他链接，用于内容已损坏的情况
+     * @param md5 内容MD5
+     */
+    public static void discard(String md5) {
+        if (Md5Utils.isMd5(md5)) {
+            blobFile(md5).delete();
+        }
+    }
+
+    /**
+     * 删除存储中所有没有其他链接的内容，例如音乐库中的文件被删除之后
+     * @return 删除的文件数
+     * @throws IOException 如果遍历存储目录失败
+     */
+    public static int collectGarbage() throws IOException {
+        Path root = Paths.get(BLOB_DIR);
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        int released = 0;
+        try (Stream<Path> paths = Files.walk(root, 3)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                String name = path.getFileName().toString();
+                if (name.startsWith("temp_")) {
+                    Files.deleteIfExists(path);
+                } else if (Md5Utils.isMd5(name) && releaseIfUnreferenced(path)) {
+                    released++;
+                }
+            }
+        }
+        return released;
+    }
+
+    private static boolean releaseIfUnreferenced(Path path) {
+        // 存储未启用时其他位置的文件都是独立的副本或链接，删除存储中的名字不影响它们
+        if (!isEnabled() ? Files.exists(path) : linkCount(path) == 1) {
+            try {
+                Files.delete(path);
+                releasedFiles.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static int linkCount(Path path) {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return -1;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 建立硬链接，不支持时复制
+     */
+    private static void link(File existing, File link) throws IOException {
+        try {
+            Files.createLink(link.toPath(), existing.toPath());
+            linkedFiles.incrementAndGet();
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            File staging = File.createTempFile("temp_", null, link.getParentFile());
+            try {
+                Files.copy(existing.toPath(), staging.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(staging.toPath(), link.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                staging.delete();
+            }
+            copiedFiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * 先在目标目录中建立链接再原子替换，替换过程中读取者不会看到不完整的文件
+     */
+    private static void replaceWithLink(File blob, File target) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parent.toPath());
+        File staging = new File(parent, "temp_" + blob.getName() + "_" + System.nanoTime());
+        try {
+            link(blob, staging);
+            Files.move(staging.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            staging.delete();
+        }
+    }
+
+    public static long getLinkedFiles() { return linkedFiles.get(); }
+    public static long getCopiedFiles() { return copiedFiles.get(); }
+    public static long getDedupedBytes() { return dedupedBytes.get(); }
+    public static long getReleasedFiles() { return releasedFiles.get(); }
+
+    /**
+     * 获取存储统计信息
+     */
+    public static String getStats() {
+        return String.format("BlobStore[链接=%d, 复制=%d, 去重=%d 字节, 回收=%d]",
+            getLinkedFiles(), getCopiedFiles(), getDedupedBytes(), getReleasedFiles());
+    }
+}
@@ -0,0 +1,596 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+/**
+ * 边下载边读取的缓存条目
+ * 下载线程把网络流按位置写入 part_ 文件，文件按固定大小分段，写完整的分段记入 {@link SegmentMap}；
+ * 读取者各自从文件读取，只有读到尚未下载的位置时才等待，因此播放收到最初几KB即可开始，
+ * 同时缓存文件在后台写完。读取者向前跳到尚未下载的分段时，下载线程放弃当前连接，
+ * 用Range请求从该分段继续，之后再回头补齐缺少的分段。
+ * 条目按引用计数保持：所有读取者和等待者都释放后下载中止，已下载的分段保留，下次只下载缺少的部分。
+ * 写入的同时按顺序计算MD5：顺序下载时直接用收到的数据更新摘要，不再读文件；
+ * 只有跳转或续传留下的、已在磁盘上的分段在前面补齐后才读回计算。写完后与歌曲MD5比较，不一致时删除重下
+ */
+class CacheDownload implements Runnable {
+    /** 下载线程名称前缀 */
+    static final String THREAD_NAME = "cache-writer";
+
+    /** 读取者要读的位置在下载位置之后超过此字节数时改从该位置下载 */
+    private static final int RETARGET_DISTANCE = StreamCache.SEGMENT_BYTES;
+
+    /** 歌曲MD5 */
+    private final String md5;
+
+    /** 下载来源 */
+    private final StreamCache.Downloader downloader;
+
+    /** 写入中的文件 */
+    private final File partFile;
+
+    /** 分段位图文件 */
+    private final File mapFile;
+
+    /** 读取者打开的文件，下载完成后为正式的缓存文件 */
+    private File file;
+
+    /** 分段位图，下载线程打开之前为null */
+    private SegmentMap map;
+
+    /** 当前连接写入的起始位置 */
+    private long runStart = -1;
+
+    /** 当前连接已写到的位置，[runStart, writePosition) 已写入文件 */
+    private long writePosition = -1;
+
+    /** 读取者等待的位置，下一次连接从其所在分段开始，没有时为-1 */
+    private long demand = -1;
+
+    /** 是否因读取者跳转而放弃当前连接 */
+    private boolean retarget;
+
+    /** 开始时已存在的字节数 */
+    private long resumedBytes;
+
+    /** 本次下载写入的字节数 */
+    private long downloadedBytes;
+
+    /** 发起的连接数 */
+    private int connections;
+
+    /** 按顺序计算的MD5，只在下载线程中使用 */
+    private MessageDigest digest;
+
+    /** 已计入摘要的字节数，只在下载线程中使用 */
+    private long digested;
+
+    /** 为计算摘要从文件读回的字节数 */
+    private long rereadBytes;
+
+    /** 内容是否已与MD5核对一致 */
+    private boolean verified;
+
+    /** 同一首歌上一个已中止的下载，其下载线程结束后才能继续写入文件 */
+    private CacheDownload previous;
+
+    /** 引用数：读取者和等待结果的调用者 */
+    private int refs;
+
+    /** 是否已中止 */
+    private boolean aborted;
+
+    /** 是否已结束（完成、失败或中止） */
+    private boolean finished;
+
+    /** 失败原因 */
+    private IOException failure;
+
+    /** 网络流，中止或跳转时关闭使下载线程立即返回 */
+    private InputStream source;
+
+    /**
+     * 构造函数，已有未完成的文件时只下载缺少的分段
+     * @param md5 歌曲MD5
+     * @param downloader 下载来源
+     * @param partFile 写入中的文件
+     * @param mapFile 分段位图文件
+     * @param previous 同一首歌尚未结束的上一个下载，可为null
+     */
+    CacheDownload(String md5, StreamCache.Downloader downloader, File partFile, File mapFile,
+                  CacheDownload previous) throws IOException {
+        this.md5 = md5;
+        this.downloader = downloader;
+        this.partFile = partFile;
+        this.mapFile = mapFile;
+        this.file = partFile;
+        this.previous = previous;
+        if (!partFile.exists() && !partFile.createNewFile()) {
+            throw new IOException("Failed to create " + partFile);
+        }
+    }
+
+    /**
+     * 启动下载线程
+     */
+    void start() {
+        Thread thread = new Thread(this, THREAD_NAME + "-" + md5);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 增加引用
+     * @return 下载已结束或中止时返回false，调用者应另建下载
+     */
+    synchronized boolean retain() {
+        if (finished || aborted) {
+            return false;
+        }
+        refs++;
+        return true;
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时中止未完成的下载；数据已全部写入时不中止，让下载线程移入缓存
+     */
+    void release() {
+        InputStream toClose;
+        synchronized (this) {
+            if (--refs > 0 || finished || aborted || (map != null && map.isComplete())) {
+                return;
+            }
+            aborted = true;
+            toClose = source;
+            notifyAll();
+        }
+        closeQuietly(toClose);
+    }
+
+    @Override
+    public void run() {
+        File result = null;
+        IOException error = null;
+        try {
+            result = transfer();
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            if (map != null && result == null) {
+                try {
+                    map.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        StreamCache.downloadFinished(this, result != null);
+        synchronized (this) {
+            finished = true;
+            failure = error;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 逐个下载缺少的分段，优先从读取者等待的位置开始，全部存在后移入缓存
+     */
+    private File transfer() throws IOException {
+        if (previous != null) {
+            previous.awaitWriterExit();
+            previous = null;
+        }
+        SegmentMap opened = SegmentMap.open(mapFile, StreamCache.SEGMENT_BYTES, partFile.length());
+        synchronized (this) {
+            map = opened;
+            resumedBytes = map.getPresentBytes();
+            notifyAll();
+        }
+        digest = Md5Utils.newDigest();
+        digested = 0;
+
+        try (RandomAccessFile out = new RandomAccessFile(partFile, "rw")) {
+            advanceDigest(out);
+            while (true) {
+                long start;
+                synchronized (this) {
+                    if (map.isComplete()) {
+                        break;
+                    }
+                    checkAborted();
+                    int segment = map.nextMissing(demand >= 0 ? map.segmentOf(demand) : 0);
+                    start = map.segmentStart(segment);
+                    runStart = start;
+                    writePosition = start;
+                    retarget = false;
+                    connections++;
+                }
+                InputStream in = downloader.open(md5, start);
+                synchronized (this) {
+                    if (aborted || retarget) {
+                        closeQuietly(in);
+                        checkAborted();
+                        continue;
+                    }
+                    source = in;
+                    if (map.getTotalLength() < 0 && in instanceof RangeInputStream
+                        && ((RangeInputStream) in).getTotalLength() > 0) {
+                        setTotalLength(out, ((RangeInputStream) in).getTotalLength());
+                    }
+                }
+                try {
+                    copy(in, out, start);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        checkAborted();
+                        if (!retarget) {
+                            throw e;
+                        }
+                    }
+                } finally {
+                    closeQuietly(in);
+                    synchronized (this) {
+                        source = null;
+                        runStart = -1;
+                        writePosition = -1;
+                    }
+                }
+                advanceDigest(out);
+            }
+        }
+        verified = verifyDigest();
+
+        synchronized (this) {
+            // 先删除位图：移入缓存前中断时，重启后把 part_ 文件当作连续写入的部分重新核对
+            map.delete();
+            file = StreamCache.commit(md5, partFile, verified);
+            return file;
+        }
+    }
+
+    /**
+     * 把摘要与歌曲MD5比较，不一致时删除已下载的内容，下次从头下载
+     * @return 是否已核对一致，标识不是MD5时返回false
+     * @throws IOException 如果内容与MD5不一致
+     */
+    private boolean verifyDigest() throws IOException {
+        if (!Md5Utils.isMd5(md5)) {
+            return false;
+        }
+        if (Md5Utils.matches(md5, digest)) {
+            return true;
+        }
+        synchronized (this) {
+            map.delete();
+        }
+        partFile.delete();
+        StreamCache.recordCorruption();
+        throw new IOException("MD5 mismatch for " + md5 + ", downloaded content discarded");
+    }
+
+    /**
+     * 把摘要位置之后已在磁盘上的连续分段读回计入摘要，只在跳转或续传后需要（在下载线程中调用）
+     */
+    private void advanceDigest(RandomAccessFile file) throws IOException {
+        long end;
+        synchronized (this) {
+            end = map.isPresent(map.segmentOf(digested)) ? map.presentEnd(digested) : digested;
+        }
+        if (end <= digested) {
+            return;
+        }
+        long from = digested;
+        byte[] buffer = new byte[StreamCache.BUFFER_SIZE];
+        while (digested < end) {
+            int n = (int) Math.min(buffer.length, end - digested);
+            file.seek(digested);
+            file.readFully(buffer, 0, n);
+            digest.update(buffer, 0, n);
+            digested += n;
+        }
+        synchronized (this) {
+            rereadBytes += end - from;
+        }
+    }
+
+    /**
+     * 把一个连接的数据写入文件，遇到已存在的分段、读取者跳转或文件结束时返回
+     */
+    private void copy(InputStream in, RandomAccessFile out, long start) throws IOException {
+        byte[] buffer = new byte[StreamCache.BUFFER_SIZE];
+        long position = start;
+        while (true) {
+            int segment;
+            long segmentEnd;
+            synchronized (this) {
+                segment = map.segmentOf(position);
+                segmentEnd = map.segmentEnd(segment);
+            }
+            int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, segmentEnd - position));
+            synchronized (this) {
+                if (bytesRead == -1) {
+                    if (map.getTotalLength() >= 0 && position >= map.getTotalLength()) {
+                        return;
+                    }
+                    if (map.getTotalLength() >= 0) {
+                        throw new IOException("Unexpected end of stream at " + position + " for " + md5);
+                    }
+                    // 总长度未知时以流结束位置为准
+                    if (position == 0) {
+                        throw new IOException("Failed to cache file");
+                    }
+                    setTotalLength(out, position);
+                    if (position > map.segmentStart(segment)) {
+                        map.mark(segment);
+                    }
+                    notifyAll();
+                    return;
+                }
+                if (aborted || retarget) {
+                    return;
+                }
+            }
+            out.seek(position);
+            out.write(buffer, 0, bytesRead);
+            if (position <= digested && digested < position + bytesRead) {
+                // 顺序写入时直接用收到的数据计算摘要
+                int skip = (int) (digested - position);
+                digest.update(buffer, skip, bytesRead - skip);
+                digested = position + bytesRead;
+            }
+            position += bytesRead;
+            synchronized (this) {
+                writePosition = position;
+                downloadedBytes += bytesRead;
+                boolean stop = false;
+                if (position == segmentEnd) {
+                    map.mark(segment);
+                    // 下一段已存在或到达文件末尾时结束这个连接
+                    stop = position == map.getTotalLength() || map.isPresent(segment + 1) || retarget;
+                }
+                notifyAll();
+                if (stop) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void setTotalLength(RandomAccessFile out, long length) throws IOException {
+        map.setTotalLength(length);
+        out.setLength(length);
+    }
+
+    private void checkAborted() throws InterruptedIOException {
+        if (aborted) {
+            throw new InterruptedIOException("Download aborted: " + md5);
+        }
+    }
+
+    /**
+     * 等待下载结束
+     * @return 缓存文件
+     * @throws IOException 如果下载失败，或等待时被中断
+     */
+    synchronized File await() throws IOException {
+        while (!finished) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + md5);
+            }
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+        return file;
+    }
+
+    /**
+     * 等待下载线程结束，不关心结果
+     */
+    private synchronized void awaitWriterExit() throws InterruptedIOException {
+        while (!finished) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + md5);
+            }
+        }
+    }
+
+    /**
+     * 打开新的读取流，调用前应已增加引用，读取流关闭时释放
+     */
+    InputStream newReader() throws IOException {
+        synchronized (this) {
+            return new Reader(new RandomAccessFile(file, "r"));
+        }
+    }
+
+    /**
+     * position处可以立即读取的字节数（在持有锁时调用）
+     * @return 字节数，已到文件末尾时返回-1
+     */
+    private long readable(long position) {
+        if (map == null) {
+            return 0;
+        }
+        long total = map.getTotalLength();
+        if (total >= 0 && position >= total) {
+            return -1;
+        }
+        if (map.isPresent(map.segmentOf(position))) {
+            return map.presentEnd(position) - position;
+        }
+        if (runStart >= 0 && runStart <= position && position < writePosition) {
+            return writePosition - position;
+        }
+        return 0;
+    }
+
+    /**
+     * 读取者要读的位置尚未下载且离下载位置较远时，放弃当前连接改从该位置下载（在持有锁时调用）
+     * @return 需要在锁外关闭的连接，不需要跳转时返回null
+     */
+    private InputStream requestPosition(long position) {
+        if (map == null || map.getTotalLength() < 0 || position == demand) {
+            return null;
+        }
+        demand = position;
+        boolean near = writePosition >= 0 && writePosition <= position
+            && position - writePosition < RETARGET_DISTANCE;
+        if (near || retarget) {
+            return null;
+        }
+        retarget = true;
+        return source;
+    }
+
+    /**
+     * 等待读取者的位置有数据可读
+     * @return 可读的字节数，已读完时返回-1，需要重新等待时返回0
+     */
+    private long awaitData(Reader reader) throws IOException {
+        InputStream toClose = null;
+        try {
+            synchronized (this) {
+                long readable;
+                while ((readable = readable(reader.position)) == 0 && !finished && !reader.closed) {
+                    toClose = requestPosition(reader.position);
+                    if (toClose != null) {
+                        // 在锁外关闭连接，下载线程随后从等待的位置重新连接
+                        return 0;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading " + md5);
+                    }
+                }
+                if (reader.closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (readable != 0) {
+                    return readable;
+                }
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                return -1;
+            }
+        } finally {
+            closeQuietly(toClose);
+        }
+    }
+
+    synchronized long getResumedBytes() { return resumedBytes; }
+    synchronized long getDownloadedBytes() { return downloadedBytes; }
+    synchronized int getConnections() { return connections; }
+    synchronized long getRereadBytes() { return rereadBytes; }
+    synchronized boolean isVerified() { return verified; }
+    synchronized boolean isAborted() { return aborted; }
+    String getMd5() { return md5; }
+
+    /**
+     * 已存在的字节数
+     */
+    synchronized long getPresentBytes() {
+        return map != null ? map.getPresentBytes() : 0;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+                // 中止或跳转时关闭失败不影响结果
+            }
+        }
+    }
+
+    /**
+     * 从文件读取已下载部分的输入流，skip不读取跳过的数据
+     */
+    private class Reader extends InputStream {
+        private final RandomAccessFile raf;
+        private long position;
+        private boolean closed;
+
+        Reader(RandomAccessFile raf) {
+            this.raf = raf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long available;
+            while ((available = awaitData(this)) == 0) {
+                // 已请求下载线程跳转，继续等待数据
+            }
+            if (available < 0) {
+                return -1;
+            }
+            raf.seek(position);
+            int n = raf.read(b, off, (int) Math.min(len, available));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            synchronized (CacheDownload.this) {
+                long total = map != null ? map.getTotalLength() : -1;
+                if (total >= 0) {
+                    // 总长度已知时直接移动位置，读取时再下载
+                    long skipped = Math.min(n, Math.max(total - position, 0));
+                    position += skipped;
+                    return skipped;
+                }
+            }
+            return super.skip(n);
+        }
+
+        @Override
+        public int available() {
+            synchronized (CacheDownload.this) {
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(readable(position), 0));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (CacheDownload.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                CacheDownload.this.notifyAll();
+            }
+            raf.close();
+            release();
+        }
+    }
+}
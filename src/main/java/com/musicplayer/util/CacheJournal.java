@@ -0,0 +1,279 @@
+package com.musicplayer.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘缓存的索引日志，只追加写入，记录每个缓存条目的最新状态
+ * 文件以4字节标识开头，之后每条记录为：类型(1) 长度(4) 内容 CRC32(4)。
+ * 启动时一次读入整个文件重放；程序崩溃留下的不完整或校验失败的末尾记录会被截掉。
+ * 记录数远多于有效条目时用当前状态重写一份紧凑的日志替换原文件
+ */
+public class CacheJournal {
+    /** 日志文件名 */
+    public static final String FILE_NAME = "index.journal";
+
+    /** 文件标识 */
+    private static final byte[] MAGIC = {'S', 'C', 'J', '1'};
+
+    /** 记录类型：条目状态 */
+    private static final byte PUT = 'P';
+
+    /** 记录类型：删除条目 */
+    private static final byte REMOVE = 'R';
+
+    /** 记录头长度：类型和内容长度 */
+    private static final int HEADER_BYTES = 5;
+
+    /** 记录尾长度：CRC32 */
+    private static final int TRAILER_BYTES = 4;
+
+    /** 单条记录内容的长度上限，超出视为损坏 */
+    private static final int MAX_PAYLOAD = 4096;
+
+    /** 触发压缩的最少记录数 */
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    /**
+     * 一个缓存条目的状态
+     */
+    public static class Record {
+        /** 歌曲MD5 */
+        public final String md5;
+
+        /** 文件大小 */
+        public final long size;
+
+        /** 最近访问时间（毫秒） */
+        public final long lastAccess;
+
+        /** 命中次数 */
+        public final int hits;
+
+        /** 内容是否已校验 */
+        public final boolean verified;
+
+        public Record(String md5, long size, long lastAccess, int hits, boolean verified) {
+            this.md5 = md5;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.hits = hits;
+            this.verified = verified;
+        }
+    }
+
+    /** 日志文件 */
+    private final File file;
+
+    /** 追加写入流 */
+    private DataOutputStream out;
+
+    /** 编码单条记录的缓冲区 */
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(128);
+
+    /** 校验和 */
+    private final CRC32 crc = new CRC32();
+
+    /** 日志中的记录数 */
+    private long recordCount;
+
+    /** 加载时截掉的字节数 */
+    private long truncatedBytes;
+
+    /** 压缩次数 */
+    private long compactions;
+
+    /**
+     * 构造函数
+     * @param file 日志文件
+     */
+    public CacheJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 一次读入整个日志并重放，截掉不完整的末尾记录，之后可以追加写入
+     * @return 各条目的最新状态，按最后写入顺序排列；日志不存在或无法识别时返回null
+     * @throws IOException 如果读写失败
+     */
+    public Map<String, Record> load() throws IOException {
+        if (!file.exists() || file.length() < MAGIC.length) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        for (byte b : MAGIC) {
+            if (data.get() != b) {
+                return null;
+            }
+        }
+
+        Map<String, Record> records = new LinkedHashMap<>();
+        int validEnd = data.position();
+        while (data.remaining() >= HEADER_BYTES) {
+            byte type = data.get();
+            int length = data.getInt();
+            if ((type != PUT && type != REMOVE) || length < 0 || length > MAX_PAYLOAD
+                || data.remaining() < length + TRAILER_BYTES) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            int payloadStart = data.position();
+            data.position(payloadStart + length);
+            if (data.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(data.array(), payloadStart, length);
+            String md5 = readString(payload);
+            if (type == PUT) {
+                records.remove(md5);
+                records.put(md5, new Record(md5, payload.getLong(), payload.getLong(), payload.getInt(),
+                    payload.get() != 0));
+            } else {
+                records.remove(md5);
+            }
+            recordCount++;
+            validEnd = data.position();
+        }
+
+        truncatedBytes = data.limit() - validEnd;
+        if (truncatedBytes > 0) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validEnd);
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        return records;
+    }
+
+    /**
+     * 写入条目的最新状态
+     * @param record 条目状态
+     * @throws IOException 如果写入失败
+     */
+    public synchronized void put(Record record) throws IOException {
+        ensureOpen();
+        writeRecord(out, PUT, record.md5, record);
+        recordCount++;
+    }
+
+    /**
+     * 写入删除记录
+     * @param md5 歌曲MD5
+     * @throws IOException 如果写入失败
+     */
+    public synchronized void remove(String md5) throws IOException {
+        ensureOpen();
+        writeRecord(out, REMOVE, md5, null);
+        recordCount++;
+    }
+
+    /**
+     * 把缓冲的记录写入文件
+     * @throws IOException 如果写入失败
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * 记录数是否已远多于有效条目
+     * @param liveEntries 有效条目数
+     */
+    public synchronized boolean needsCompaction(int liveEntries) {
+        return recordCount >= MIN_COMPACT_RECORDS && recordCount > 4L * liveEntries;
+    }
+
+    /**
+     * 用当前状态重写日志：先写临时文件再替换原文件，中途崩溃时原日志仍然完整
+     * @param live 所有有效条目
+     * @throws IOException 如果写入失败
+     */
+    public synchronized void compact(Collection<Record> live) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            tempOut.write(MAGIC);
+            for (Record record : live) {
+                writeRecord(tempOut, PUT, record.md5, record);
+            }
+        }
+        close();
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        recordCount = live.size();
+        compactions++;
+    }
+
+    /**
+     * 关闭日志
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * 日志不存在时创建只有文件标识的新日志
+     */
+    private void ensureOpen() throws IOException {
+        if (out == null) {
+            boolean fresh = !file.exists() || file.length() == 0;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !fresh)));
+            if (fresh) {
+                out.write(MAGIC);
+                recordCount = 0;
+            }
+        }
+    }
+
+    private void writeRecord(DataOutputStream target, byte type, String md5, Record record) throws IOException {
+        recordBuffer.reset();
+        DataOutputStream payload = new DataOutputStream(recordBuffer);
+        byte[] key = md5.getBytes(StandardCharsets.UTF_8);
+        payload.writeShort(key.length);
+        payload.write(key);
+        if (record != null) {
+            payload.writeLong(record.size);
+            payload.writeLong(record.lastAccess);
+            payload.writeInt(record.hits);
+            payload.writeBoolean(record.verified);
+        }
+        byte[] bytes = recordBuffer.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+
+        target.writeByte(type);
+        target.writeInt(bytes.length);
+        target.write(bytes);
+        target.writeInt((int) crc.getValue());
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    public synchronized long getRecordCount() { return recordCount; }
+    public long getTruncatedBytes() { return truncatedBytes; }
+    public synchronized long getCompactions() { return compactions; }
+    public File getFile() { return file; }
+}
@@ -0,0 +1,211 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存巡检器，在后台重新计算已缓存文件的MD5，发现损坏的文件时删除，下次播放重新下载
+ * 尚未校验的条目优先，其次是最久没有检查过的条目。多个文件并行检查，
+ * 每个线程按 bytesPerSecond 限速读取，线程使用最低优先级，尽量不影响播放和下载。
+ * 核对一致的文件链接到 {@link BlobStore}，定时巡检后回收存储中已无引用的内容
+ */
+public class CacheScrubber {
+    /** 巡检线程名称前缀 */
+    public static final String THREAD_NAME = "cache-scrubber";
+
+    /** 默认并行检查的文件数 */
+    public static final int DEFAULT_PARALLELISM = 2;
+
+    /** 默认每个线程每秒读取的字节数 */
+    public static final long DEFAULT_BYTES_PER_SECOND = 4L * 1024 * 1024;
+
+    /** 每轮最多检查的已校验条目数 */
+    private static final int MAX_RECHECKS_PER_ROUND = 16;
+
+    /** 并行检查的文件数 */
+    private final int parallelism;
+
+    /** 每个线程每秒读取的字节数，0表示不限制 */
+    private final long bytesPerSecond;
+
+    /** 计算MD5的线程 */
+    private final ExecutorService workers;
+
+    /** 定时巡检的线程，启动后才创建 */
+    private ScheduledExecutorService scheduler;
+
+    /** 各条目上次检查的时间（毫秒） */
+    private final Map<String, Long> checkedAt = new ConcurrentHashMap<>();
+
+    /** 检查的文件数 */
+    private final AtomicLong checkedFiles = new AtomicLong();
+
+    /** 发现损坏的文件数 */
+    private final AtomicLong corruptFiles = new AtomicLong();
+
+    /** 读取的字节数 */
+    private final AtomicLong scannedBytes = new AtomicLong();
+
+    /**
+     * 构造函数
+     * @param parallelism 并行检查的文件数
+     * @param bytesPerSecond 每个线程每秒读取的字节数，0表示不限制
+     */
+    public CacheScrubber(int parallelism, long bytesPerSecond) {
+        this.parallelism = Math.max(parallelism, 1);
+        this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(this.parallelism, r -> {
+            Thread thread = new Thread(r, THREAD_NAME + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * 使用默认并行数和限速
+     */
+    public CacheScrubber() {
+        this(DEFAULT_PARALLELISM, DEFAULT_BYTES_PER_SECOND);
+    }
+
+    /**
+     * 定时巡检
+     * @param initialDelay 首次巡检前的等待时间
+     * @param interval 两轮巡检之间的间隔
+     * @param unit 时间单位
+     */
+    public synchronized void start(long initialDelay, long interval, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, THREAD_NAME);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                scrubOnce();
+                BlobStore.collectGarbage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, initialDelay, interval, unit);
+    }
+
+    /**
+     * 停止巡检，正在计算的MD5被中断
+     */
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * 检查一轮：所有尚未校验的条目，加上若干最久没有检查过的已校验条目，并行计算后等待全部完成
+     * 只检查以MD5为标识的条目
+     * @return 本轮发现的损坏文件数
+     * @throws InterruptedException 如果等待时被中断
+     */
+    public int scrubOnce() throws InterruptedException {
+        List<CacheJournal.Record> pending = new ArrayList<>();
+        List<CacheJournal.Record> rechecks = new ArrayList<>();
+        for (CacheJournal.Record record : StreamCache.getRecords()) {
+            if (Md5Utils.isMd5(record.md5)) {
+                (record.verified ? rechecks : pending).add(record);
+            }
+        }
+        pending.sort(Comparator.comparingLong(record -> record.lastAccess));
+        rechecks.sort(Comparator.comparingLong(
+            (CacheJournal.Record record) -> checkedAt.getOrDefault(record.md5, 0L))
+            .thenComparingLong(record -> record.lastAccess));
+        pending.addAll(rechecks.subList(0, Math.min(rechecks.size(), MAX_RECHECKS_PER_ROUND)));
+
+        List<Future<Boolean>> results = new ArrayList<>(pending.size());
+        for (CacheJournal.Record record : pending) {
+            results.add(workers.submit(() -> check(record.md5)));
+        }
+        int corrupt = 0;
+        for (Future<Boolean> result : results) {
+            try {
+                if (!result.get()) {
+                    corrupt++;
+                }
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return corrupt;
+    }
+
+    /**
+     * 检查一个条目
+     * @return 文件损坏时返回false，一致或已不在缓存中时返回true
+     */
+    private boolean check(String md5) throws IOException {
+        File file = StreamCache.peekFile(md5);
+        if (file == null) {
+            return true;
+        }
+        String actual;
+        try {
+            actual = Md5Utils.of(file, bytesPerSecond);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // 检查期间被淘汰
+            if (StreamCache.peekFile(md5) == null) {
+                return true;
+            }
+            throw e;
+        }
+        checkedFiles.incrementAndGet();
+        scannedBytes.addAndGet(file.length());
+        checkedAt.put(md5, System.currentTimeMillis());
+        if (actual.equalsIgnoreCase(md5)) {
+            StreamCache.markVerified(md5);
+            if (!BlobStore.contains(md5)) {
+                BlobStore.adopt(md5, file);
+            }
+            return true;
+        }
+        System.err.println("缓存文件损坏，已删除: " + md5);
+        StreamCache.discardCorrupt(md5);
+        checkedAt.remove(md5);
+        corruptFiles.incrementAndGet();
+        return false;
+    }
+
+    public int getParallelism() { return parallelism; }
+    public long getBytesPerSecond() { return bytesPerSecond; }
+    public long getCheckedFiles() { return checkedFiles.get(); }
+    public long getCorruptFiles() { return corruptFiles.get(); }
+    public long getScannedBytes() { return scannedBytes.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("CacheScrubber[并行=%d, 限速=%d 字节/秒, 检查=%d, 损坏=%d, 读取=%d 字节]",
+            parallelism, bytesPerSecond, getCheckedFiles(), getCorruptFiles(), getScannedBytes());
+    }
+}
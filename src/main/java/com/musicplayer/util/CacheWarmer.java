@@ -0,0 +1,369 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按收听历史预热缓存
+ * 每次开始播放一首在线歌曲时记入 {@link TransitionTable}，再把历史上最常接着播放的几首歌排入预热队列；
+ * 启动时按上次最后播放的歌曲预测。预热在低优先级线程中逐首下载到 {@link StreamCache}，
+ * 只在没有其他下载时进行，下载速度受 bytesPerSecond 限制，预热后尚未播放的歌曲总字节数达到磁盘预算时停止。
+ * 统计预热的歌曲中有多少后来真的被播放，用于判断预测是否值得
+ */
+public class CacheWarmer {
+    /** 预热线程名称 */
+    public static final String THREAD_NAME = "cache-warmer";
+
+    /** 默认每首歌预测的后继数 */
+    public static final int DEFAULT_PREDICTIONS = 2;
+
+    /** 默认下载速度上限 */
+    public static final long DEFAULT_BYTES_PER_SECOND = 512L * 1024;
+
+    /** 默认磁盘预算：预热后尚未播放的歌曲最多占用的字节数 */
+    public static final long DEFAULT_DISK_BUDGET = 64L * 1024 * 1024;
+
+    /** 等待其他下载结束时的检查间隔 */
+    private static final long IDLE_POLL_MILLIS = 200;
+
+    /** 切换记录表 */
+    private final TransitionTable table;
+
+    /** 记录表文件，null表示不保存 */
+    private final File tableFile;
+
+    /** 限速的下载来源 */
+    private final StreamCache.Downloader downloader;
+
+    /** 每首歌预测的后继数 */
+    private final int predictions;
+
+    /** 磁盘预算 */
+    private final long diskBudgetBytes;
+
+    /** 待预热的歌曲 */
+    private final Set<String> queue = new LinkedHashSet<>();
+
+    /** 已预热、尚未播放的歌曲及其大小 */
+    private final Map<String, Long> outstanding = new LinkedHashMap<>();
+
+    /** 已预热、尚未播放的歌曲的总字节数 */
+    private long outstandingBytes;
+
+    /** 上一首播放的歌曲 */
+    private String lastPlayed;
+
+    /** 预热线程 */
+    private Thread worker;
+
+    /** 是否已关闭 */
+    private boolean shutdown;
+
+    /** 排入队列的预测数 */
+    private long predictedCount;
+
+    /** 预热完成的歌曲数 */
+    private long warmedCount;
+
+    /** 预热下载的字节数 */
+    private long warmedBytes;
+
+    /** 预热后被播放的歌曲数 */
+    private long playedCount;
+
+    /** 预热后未播放就被淘汰的歌曲数 */
+    private long wastedCount;
+
+    /** 因磁盘预算跳过的预测数 */
+    private long skippedCount;
+
+    /** 预热失败的歌曲数 */
+    private long failedCount;
+
+    /**
+     * 构造函数
+     * @param table 切换记录表
+     * @param tableFile 记录表文件，null表示不保存
+     * @param downloader 下载来源
+     * @param predictions 每首歌预测的后继数
+     * @param bytesPerSecond 下载速度上限，0表示不限制
+     * @param diskBudgetBytes 预热后尚未播放的歌曲最多占用的字节数
+     */
+    public CacheWarmer(TransitionTable table, File tableFile, StreamCache.Downloader downloader,
+                       int predictions, long bytesPerSecond, long diskBudgetBytes) {
+        this.table = table;
+        this.tableFile = tableFile;
+        this.downloader = throttle(downloader, bytesPerSecond);
+        this.predictions = Math.max(predictions, 0);
+        this.diskBudgetBytes = Math.max(diskBudgetBytes, 0);
+        this.lastPlayed = table.getLastPlayed();
+    }
+
+    /**
+     * 使用缓存目录中的记录表和默认预算
+     * @param downloader 下载来源
+     */
+    public CacheWarmer(StreamCache.Downloader downloader) {
+        this(TransitionTable.load(new File(StreamCache.getCacheDir(), TransitionTable.FILE_NAME)),
+            new File(StreamCache.getCacheDir(), TransitionTable.FILE_NAME), downloader,
+            DEFAULT_PREDICTIONS, DEFAULT_BYTES_PER_SECOND, DEFAULT_DISK_BUDGET);
+    }
+
+    /**
+     * 开始播放一首歌：记录从上一首的切换，统计预热命中，并预热最可能接着播放的歌曲
+     * 下一首、上一首、手动选择和无缝切换都经过这里
+     * @param md5 歌曲MD5
+     */
+    public synchronized void songStarted(String md5) {
+        if (shutdown || md5 == null) {
+            return;
+        }
+        if (md5.equals(lastPlayed)) {
+            // 同一首歌重新打开（例如暂停后继续）不算切换
+            return;
+        }
+        table.record(lastPlayed, md5);
+        lastPlayed = md5;
+        Long size = outstanding.remove(md5);
+        if (size != null) {
+            outstandingBytes -= size;
+            playedCount++;
+        }
+        queue.clear();
+        enqueue(md5);
+    }
+
+    /**
+     * 按上次最后播放的歌曲预热，用于启动时
+     */
+    public synchronized void warmFromHistory() {
+        if (!shutdown && lastPlayed != null) {
+            enqueue(lastPlayed);
+        }
+    }
+
+    /**
+     * 把预测的歌曲排入队列（在持有锁时调用）
+     */
+    private void enqueue(String from) {
+        for (String md5 : table.predict(from, predictions)) {
+            if (!md5.equals(from) && !outstanding.containsKey(md5) && queue.add(md5)) {
+                predictedCount++;
+            }
+        }
+        if (worker == null) {
+            worker = new Thread(this::runLoop, THREAD_NAME);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 关闭预热器，正在进行的预热下载在无人读取后中止
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        queue.clear();
+        if (worker != null) {
+            worker.interrupt();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 取出下一首需要预热的歌曲，顺便保存记录表
+     * @return 歌曲MD5，关闭后返回null
+     */
+    private String takeTask() throws InterruptedException {
+        while (true) {
+            saveTable();
+            synchronized (this) {
+                if (shutdown) {
+                    return null;
+                }
+                dropEvicted();
+                Iterator<String> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    String md5 = iterator.next();
+                    iterator.remove();
+                    if (StreamCache.getRecord(md5) != null) {
+                        continue;
+                    }
+                    if (outstandingBytes >= diskBudgetBytes) {
+                        skippedCount++;
+                        continue;
+                    }
+                    return md5;
+                }
+                wait();
+            }
+        }
+    }
+
+    private void runLoop() {
+        try {
+            String md5;
+            while ((md5 = takeTask()) != null) {
+                awaitIdle();
+                warm(md5);
+            }
+        } catch (InterruptedException e) {
+            // 已关闭
+        }
+        saveTable();
+    }
+
+    /**
+     * 等待其他下载结束，预热不与播放和预取争抢带宽
+     */
+    private void awaitIdle() throws InterruptedException {
+        while (StreamCache.getActiveDownloads() > 0) {
+            Thread.sleep(IDLE_POLL_MILLIS);
+        }
+    }
+
+    private void warm(String md5) {
+        long before = StreamCache.getDownloadedBytes();
+        File file = null;
+        try {
+            file = StreamCache.fetch(md5, downloader);
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("预热失败: " + md5 + " - " + e.getMessage());
+        }
+        synchronized (this) {
+            if (file != null) {
+                long size = file.length();
+                outstanding.put(md5, size);
+                outstandingBytes += size;
+                warmedCount++;
+                warmedBytes += Math.max(StreamCache.getDownloadedBytes() - before, 0);
+            } else if (!shutdown) {
+                failedCount++;
+            }
+        }
+    }
+
+    /**
+     * 移除已被缓存淘汰的预热歌曲（在持有锁时调用）
+     */
+    private void dropEvicted() {
+        Iterator<Map.Entry<String, Long>> iterator = outstanding.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (StreamCache.getRecord(entry.getKey()) == null) {
+                outstandingBytes -= entry.getValue();
+                wastedCount++;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void saveTable() {
+        if (tableFile != null && table.isDirty()) {
+            try {
+                table.save(tableFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 预热的歌曲中被播放的比例，没有预热时为0
+     */
+    public synchronized double getHitRatio() {
+        return warmedCount == 0 ? 0 : (double) playedCount / warmedCount;
+    }
+
+    public TransitionTable getTable() { return table; }
+    public synchronized long getPredictedCount() { return predictedCount; }
+    public synchronized long getWarmedCount() { return warmedCount; }
+    public synchronized long getWarmedBytes() { return warmedBytes; }
+    public synchronized long getPlayedCount() { return playedCount; }
+    public synchronized long getWastedCount() { return wastedCount; }
+    public synchronized long getSkippedCount() { return skippedCount; }
+    public synchronized long getFailedCount() { return failedCount; }
+    public synchronized long getOutstandingBytes() { return outstandingBytes; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CacheWarmer[预测=%d, 预热=%d, 下载=%d 字节, 命中播放=%d, 命中率=%.1f%%, 未播放被淘汰=%d, 超出预算=%d, 失败=%d, 待播放=%d 字节]",
+            predictedCount, warmedCount, warmedBytes, playedCount, getHitRatio() * 100, wastedCount,
+            skippedCount, failedCount, outstandingBytes);
+    }
+
+    /**
+     * 给下载来源加上速度限制，保留Range信息
+     */
+    private static StreamCache.Downloader throttle(StreamCache.Downloader downloader, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return downloader;
+        }
+        return (md5, offset) -> {
+            InputStream in = downloader.open(md5, offset);
+            InputStream throttled = new ThrottledInputStream(in, bytesPerSecond);
+            if (in instanceof RangeInputStream) {
+                RangeInputStream range = (RangeInputStream) in;
+                return new RangeInputStream(throttled, range.getOffset(), range.getTotalLength());
+            }
+            return throttled;
+        };
+    }
+
+    /**
+     * 按速度上限读取的输入流，读得太快时等待
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long total;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                pace(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                pace(n);
+            }
+            return n;
+        }
+
+        private void pace(int n) throws InterruptedIOException {
+            total += n;
+            long aheadNanos = total * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+            if (aheadNanos > 0) {
+                try {
+                    Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while warming cache");
+                }
+            }
+        }
+    }
+}
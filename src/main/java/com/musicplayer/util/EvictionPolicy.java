@@ -0,0 +1,66 @@
+package com.musicplayer.util;
+
+import java.util.Iterator;
+
+/**
+ * 磁盘缓存的淘汰策略
+ * 所有方法都只在缓存的后台淘汰线程中调用，实现不需要考虑线程安全
+ */
+public interface EvictionPolicy {
+    /**
+     * 新条目加入缓存
+     * @param key 缓存键
+     * @param size 字节数
+     */
+    void onInsert(String key, long size);
+
+    /**
+     * 条目被访问
+     * @param key 缓存键
+     */
+    void onAccess(String key);
+
+    /**
+     * 条目已从缓存中删除
+     * @param key 缓存键
+     */
+    void onRemove(String key);
+
+    /**
+     * 按淘汰顺序返回缓存键，最先应被淘汰的在前
+     * @return 缓存键迭代器
+     */
+    Iterator<String> victims();
+
+    /**
+     * 容量不足时，是否接纳新条目并淘汰victim
+     * @param candidate 新加入的条目
+     * @param victim 将被淘汰的条目
+     * @return true表示淘汰victim，false表示放弃新条目
+     */
+    default boolean admit(String candidate, String victim) {
+        return true;
+    }
+
+    /**
+     * 最久未使用优先淘汰
+     */
+    static EvictionPolicy lru() {
+        return new LruEvictionPolicy();
+    }
+
+    /**
+     * 访问次数最少优先淘汰，次数相同时淘汰最久未使用的
+     */
+    static EvictionPolicy lfu() {
+        return new LfuEvictionPolicy();
+    }
+
+    /**
+     * 按最久未使用顺序选出淘汰对象，再用访问频率估计决定是否接纳新条目，
+     * 避免一次性访问的歌曲把常听的歌曲挤出缓存
+     */
+    static EvictionPolicy tinyLfu() {
+        return new TinyLfuEvictionPolicy();
+    }
+}
@@ -0,0 +1,262 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link StreamCache} 的内存层，保存播放次数最多的若干首歌的堆外副本
+ * 读取时直接从内存返回，不打开文件；条目按播放次数接纳，新条目的次数超过层中最少的条目才替换它，
+ * 条目数和字节数都有上限。接纳和移出只在淘汰线程中进行，读取可以在任何线程
+ */
+class HotTier {
+    /** 接纳前至少需要的播放次数 */
+    static final int MIN_ADMIT_HITS = 2;
+
+    /**
+     * 内存中的条目
+     */
+    private static class HotEntry {
+        /** 只读的堆外副本，读取者各自复制位置 */
+        final ByteBuffer buffer;
+
+        /** 播放次数，只在淘汰线程中修改 */
+        int frequency;
+
+        HotEntry(ByteBuffer buffer, int frequency) {
+            this.buffer = buffer;
+            this.frequency = frequency;
+        }
+    }
+
+    /** 内存中的条目 */
+    private final Map<String, HotEntry> entries = new ConcurrentHashMap<>();
+
+    /** 最多保存的条目数，0表示不启用 */
+    private volatile int maxEntries;
+
+    /** 最多占用的字节数 */
+    private volatile long maxBytes;
+
+    /** 占用的字节数 */
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    /** 从内存读取的次数 */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** 已缓存但不在内存中、需要打开文件的次数 */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** 从内存读出的字节数 */
+    private final AtomicLong servedBytes = new AtomicLong();
+
+    /** 载入内存的次数 */
+    private final AtomicLong loads = new AtomicLong();
+
+    /** 移出内存的次数 */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 打开内存中的条目
+     * @return 输入流，不在内存中时返回null
+     */
+    InputStream open(String md5) {
+        HotEntry entry = entries.get(md5);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new BufferInputStream(entry.buffer.duplicate());
+    }
+
+    boolean contains(String md5) {
+        return entries.containsKey(md5);
+    }
+
+    /**
+     * 记录一次播放，次数足够且能腾出空间时载入内存（在淘汰线程中调用）
+     * @param md5 歌曲MD5
+     * @param file 缓存文件
+     * @param size 文件大小
+     * @param frequency 累计播放次数
+     */
+    void onAccess(String md5, File file, long size, int frequency) {
+        HotEntry current = entries.get(md5);
+        if (current != null) {
+            current.frequency = frequency;
+            return;
+        }
+        if (maxEntries <= 0 || frequency < MIN_ADMIT_HITS || size > maxBytes || size > Integer.MAX_VALUE) {
+            return;
+        }
+        // 依次与播放次数最少的条目比较，只替换比自己少的
+        while (entries.size() >= maxEntries || sizeBytes.get() + size > maxBytes) {
+            String coldest = coldest();
+            if (coldest == null || entries.get(coldest).frequency >= frequency) {
+                return;
+            }
+            evict(coldest);
+        }
+        try {
+            ByteBuffer buffer = load(file, (int) size);
+            entries.put(md5, new HotEntry(buffer, frequency));
+            sizeBytes.addAndGet(buffer.capacity());
+            loads.incrementAndGet();
+        } catch (IOException e) {
+            // 文件已被删除或替换，下次访问时再试
+        }
+    }
+
+    /**
+     * 移出条目（在淘汰线程中调用）
+     */
+    void remove(String md5) {
+        HotEntry entry = entries.remove(md5);
+        if (entry != null) {
+            sizeBytes.addAndGet(-entry.buffer.capacity());
+        }
+    }
+
+    /**
+     * 设置上限，超出的部分按播放次数从少到多移出（在淘汰线程中调用）
+     * @param entryLimit 最多保存的条目数，0表示不启用
+     * @param byteLimit 最多占用的字节数
+     */
+    void setLimits(int entryLimit, long byteLimit) {
+        maxEntries = Math.max(entryLimit, 0);
+        maxBytes = Math.max(byteLimit, 0);
+        while (!entries.isEmpty() && (entries.size() > maxEntries || sizeBytes.get() > maxBytes)) {
+            evict(coldest());
+        }
+    }
+
+    private void evict(String md5) {
+        remove(md5);
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * 播放次数最少的条目，条目数不多，直接遍历
+     */
+    private String coldest() {
+        String coldest = null;
+        int min = Integer.MAX_VALUE;
+        for (Map.Entry<String, HotEntry> entry : entries.entrySet()) {
+            if (entry.getValue().frequency < min) {
+                min = entry.getValue().frequency;
+                coldest = entry.getKey();
+            }
+        }
+        return coldest;
+    }
+
+    /**
+     * 把文件读入堆外内存
+     */
+    private static ByteBuffer load(File file, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("File shorter than expected: " + file);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    int getEntryCount() { return entries.size(); }
+    int getMaxEntries() { return maxEntries; }
+    long getMaxBytes() { return maxBytes; }
+    long getSizeBytes() { return sizeBytes.get(); }
+    long getHits() { return hits.get(); }
+    long getMisses() { return misses.get(); }
+    long getServedBytes() { return servedBytes.get(); }
+    long getLoads() { return loads.get(); }
+    long getEvictions() { return evictions.get(); }
+
+    /**
+     * 命中率，没有读取时为0
+     */
+    double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HotTier[条目=%d/%d, 占用=%d/%d 字节, 命中=%d, 未命中=%d, 命中率=%.1f%%, 读出=%d 字节, 载入=%d, 移出=%d]",
+            getEntryCount(), maxEntries, getSizeBytes(), maxBytes, getHits(), getMisses(), getHitRatio() * 100,
+            getServedBytes(), getLoads(), getEvictions());
+    }
+
+    /**
+     * 读取内存副本的输入流
+     */
+    private class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.mark();
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            servedBytes.incrementAndGet();
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            servedBytes.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(Math.min(n, buffer.remaining()), 0);
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.musicplayer.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 最少使用（LFU）淘汰策略，访问次数相同时淘汰最久未使用的
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+    /**
+     * 条目的访问统计
+     */
+    private static class Stats implements Comparable<Stats> {
+        final String key;
+        long count;
+        long lastAccess;
+
+        Stats(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(Stats other) {
+            if (count != other.count) {
+                return Long.compare(count, other.count);
+            }
+            if (lastAccess != other.lastAccess) {
+                return Long.compare(lastAccess, other.lastAccess);
+            }
+            return key.compareTo(other.key);
+        }
+    }
+
+    /** 访问序号 */
+    private long clock;
+
+    /** 缓存键到统计的映射 */
+    private final Map<String, Stats> stats = new HashMap<>();
+
+    /** 按淘汰顺序排列的统计 */
+    private final TreeSet<Stats> order = new TreeSet<>();
+
+    @Override
+    public void onInsert(String key, long size) {
+        onRemove(key);
+        Stats entry = new Stats(key);
+        entry.count = 1;
+        entry.lastAccess = ++clock;
+        stats.put(key, entry);
+        order.add(entry);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        Stats entry = stats.get(key);
+        if (entry != null) {
+            order.remove(entry);
+            entry.count++;
+            entry.lastAccess = ++clock;
+            order.add(entry);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Stats entry = stats.remove(key);
+        if (entry != null) {
+            order.remove(entry);
+        }
+    }
+
+    @Override
+    public Iterator<String> victims() {
+        Iterator<Stats> iterator = order.iterator();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return iterator.next().key;
+            }
+        };
+    }
+}
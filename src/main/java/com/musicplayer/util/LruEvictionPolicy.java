@@ -0,0 +1,32 @@
+package com.musicplayer.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 最久未使用（LRU）淘汰策略
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+    /** 缓存键，按访问顺序排列 */
+    private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void onInsert(String key, long size) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        order.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        order.remove(key);
+    }
+
+    @Override
+    public Iterator<String> victims() {
+        return order.keySet().iterator();
+    }
+}
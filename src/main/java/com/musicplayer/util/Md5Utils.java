@@ -0,0 +1,105 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5工具类
+ * 在线歌曲以内容的MD5作为标识，下载时边写入边计算摘要，写完即可与标识比较
+ */
+public class Md5Utils {
+    /** 读取文件的缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Md5Utils() {
+    }
+
+    /**
+     * 创建MD5摘要
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Java平台都必须支持MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 是否为32位十六进制的MD5，只有这样的标识才能校验内容
+     * @param key 歌曲标识
+     */
+    public static boolean isMd5(String key) {
+        if (key == null || key.length() != 32) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (Character.digit(key.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 摘要转为小写十六进制
+     */
+    public static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 摘要是否与标识一致，不区分大小写
+     * @param md5 歌曲MD5
+     * @param digest 已写入全部内容的摘要，调用后被重置
+     */
+    public static boolean matches(String md5, MessageDigest digest) {
+        return toHex(digest.digest()).equalsIgnoreCase(md5);
+    }
+
+    /**
+     * 计算文件的MD5，可限制读取速度以免影响播放
+     * @param file 文件
+     * @param bytesPerSecond 每秒最多读取的字节数，0表示不限制
+     * @return 小写十六进制的MD5
+     * @throws IOException 如果读取失败或被中断
+     */
+    public static String of(File file, long bytesPerSecond) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long total = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                total += n;
+                if (bytesPerSecond > 0) {
+                    long aheadNanos = total * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+                    if (aheadNanos > 0) {
+                        try {
+                            Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while hashing " + file);
+                        }
+                    }
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+}
@@ -6,20 +6,23 @@ import java.io.*;
 import java.nio.file.Files;
 
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.time.Duration;
 import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.audio.AudioFileIO;
 
 /**
  * 音乐文件管理工具类
- * 负责音乐文件和封面图片的存储、读取和管理
+ * 负责音乐文件和封面图片的存储、读取和管理。
+ * 音乐目录中的文件是指向 {@link BlobStore} 的链接，同一首歌无论导入或下载几次都只保存一份
  */
 public class MusicFileManager {
-    /** 音乐文件存储目录 */
-    private static final String MUSIC_DIR = "music";
+    /** 音乐文件存储目录，可通过系统属性 musicplayer.music.dir 指定 */
+    private static final String MUSIC_DIR = System.getProperty("musicplayer.music.dir", "music");
     
-    /** 封面图片存储目录 */
-    private static final String COVERS_DIR = "covers";
+    /** 封面图片存储目录，可通过系统属性 musicplayer.covers.dir 指定 */
+    private static final String COVERS_DIR = System.getProperty("musicplayer.covers.dir", "covers");
     
     // 静态初始化块，创建必要的目录
     static {
@@ -47,9 +50,9 @@ public class MusicFileManager {
      */
     public static String saveMusicFile(File sourceFile) throws IOException {
         String fileName = System.currentTimeMillis() + "_" + sourceFile.getName();
-        File targetFile = new File(MUSIC_DIR, fileName);
-        FileUtils.copyFile(sourceFile, targetFile);
-        return targetFile.getPath();
+        try (InputStream in = new FileInputStream(sourceFile)) {
+            return saveToLibrary(in, fileName, null);
+        }
     }
     
     /**
@@ -177,26 +180,83 @@ public class MusicFileManager {
      * @throws IOException 如果保存失败
      */
     public static String saveOnlineMusicFile(InputStream inputStream, String filename) throws IOException {
+        return saveOnlineMusicFile(inputStream, filename, null);
+    }
+    
+    /**
+     * 从输入流保存在线音乐文件，边写入边计算MD5，与歌曲MD5不一致时删除文件
+     * @param inputStream 音乐文件输入流
+     * @param filename 文件名
+     * @param md5 歌曲MD5，null或不是MD5时不校验
+     * @return 保存后的文件路径
+     * @throws IOException 如果保存失败或内容与MD5不一致
+     */
+    public static String saveOnlineMusicFile(InputStream inputStream, String filename, String md5) throws IOException {
+        return saveToLibrary(inputStream, System.currentTimeMillis() + "_" + filename, md5);
+    }
+    
+    /**
+     * 把已缓存的在线音乐加入音乐目录：存储中已有该内容时只建立链接，不复制数据；
+     * 否则按输入流的方式复制并校验
+     * @param cachedFile 缓存文件
+     * @param filename 文件名
+     * @param md5 歌曲MD5
+     * @return 保存后的文件路径
+     * @throws IOException 如果保存失败或内容与MD5不一致
+     */
+    public static String saveOnlineMusicFile(File cachedFile, String filename, String md5) throws IOException {
+        if (BlobStore.contains(md5)) {
+            File targetFile = new File(MUSIC_DIR, System.currentTimeMillis() + "_" + filename);
+            BlobStore.linkTo(md5, targetFile);
+            return targetFile.getPath();
+        }
+        try (InputStream in = new FileInputStream(cachedFile)) {
+            return saveOnlineMusicFile(in, filename, md5);
+        }
+    }
+    
+    /**
+     * 写入临时文件并计算MD5，放入存储后在音乐目录建立链接，存储未启用时直接移到音乐目录
+     * @param md5 期望的MD5，null或不是MD5时不校验
+     */
+    private static String saveToLibrary(InputStream inputStream, String fileName, String md5) throws IOException {
         // 确保目录存在
         File musicDir = new File(MUSIC_DIR);
         if (!musicDir.exists()) {
             musicDir.mkdirs();
         }
+        File targetFile = new File(musicDir, fileName);
+        File tempFile = File.createTempFile("temp_", ".mp3", musicDir);
         
-        // 生成唯一文件名
-        String uniqueFilename = System.currentTimeMillis() + "_" + filename;
-        File targetFile = new File(musicDir, uniqueFilename);
-        
-        // 复制文件内容
-        try (FileOutputStream fos = new FileOutputStream(targetFile)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
+        try {
+            // 复制文件内容，同时计算摘要
+            MessageDigest digest = Md5Utils.newDigest();
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                byte[] buffer = new byte[8192];
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    fos.write(buffer, 0, bytesRead);
+                    digest.update(buffer, 0, bytesRead);
+                }
+            }
+            
+            String actual = Md5Utils.toHex(digest.digest());
+            if (Md5Utils.isMd5(md5) && !actual.equalsIgnoreCase(md5)) {
+                throw new IOException("MD5 mismatch for " + md5 + ", downloaded file discarded");
+            }
+            if (BlobStore.isEnabled()) {
+                BlobStore.ingest(actual, tempFile);
+                BlobStore.linkTo(actual, targetFile);
+            } else {
+                // 不能按引用回收存储中的内容时直接保存到音乐目录
+                Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return targetFile.getPath();
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
             }
         }
-        
-        return targetFile.getPath();
     }
     
     /**
@@ -0,0 +1,31 @@
+package com.musicplayer.util;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * 带有位置信息的下载流：数据在文件中的起始位置和文件总长度，
+ * 供 {@link CacheDownload} 按分段写入缓存文件；总长度未知的下载只能从头顺序写入
+ */
+public class RangeInputStream extends FilterInputStream {
+    /** 数据在文件中的起始位置 */
+    private final long offset;
+
+    /** 文件总长度，未知时为-1 */
+    private final long totalLength;
+
+    /**
+     * 构造函数
+     * @param in 下载流
+     * @param offset 数据在文件中的起始位置
+     * @param totalLength 文件总长度，未知时为-1
+     */
+    public RangeInputStream(InputStream in, long offset, long totalLength) {
+        super(in);
+        this.offset = offset;
+        this.totalLength = totalLength;
+    }
+
+    public long getOffset() { return offset; }
+    public long getTotalLength() { return totalLength; }
+}
@@ -0,0 +1,208 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+/**
+ * 未下载完的缓存文件的分段位图
+ * 文件按固定大小分段，每段下载完整后置位，位图保存在 part_ 文件旁的 .map 文件中：
+ * 标识(4) 分段大小(4) 文件总长度(8，未知时为-1) 位图。置位时只改写对应的一个字节，
+ * 程序中断后重新打开即可知道哪些分段已经存在，只需下载缺少的部分
+ */
+class SegmentMap {
+    /** 文件标识 */
+    private static final int MAGIC = 0x53454731;
+
+    /** 位图之前的头部长度 */
+    private static final int HEADER_BYTES = 16;
+
+    /** 位图文件 */
+    private final File file;
+
+    /** 分段大小 */
+    private final int segmentSize;
+
+    /** 文件总长度，未知时为-1 */
+    private long totalLength;
+
+    /** 已存在的分段 */
+    private final BitSet present;
+
+    /** 位图文件的读写句柄 */
+    private RandomAccessFile raf;
+
+    private SegmentMap(File file, int segmentSize, long totalLength, BitSet present) {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.totalLength = totalLength;
+        this.present = present;
+    }
+
+    /**
+     * 打开位图文件，不存在或无法识别时新建
+     * @param file 位图文件
+     * @param segmentSize 新建时的分段大小
+     * @param prefixLength 新建时已连续写入的字节数，整段的部分视为已存在
+     * @return 位图
+     * @throws IOException 如果读写失败
+     */
+    static SegmentMap open(File file, int segmentSize, long prefixLength) throws IOException {
+        SegmentMap map = read(file);
+        if (map == null) {
+            BitSet present = new BitSet();
+            present.set(0, (int) (prefixLength / segmentSize));
+            map = new SegmentMap(file, segmentSize, -1, present);
+            map.raf = new RandomAccessFile(file, "rw");
+            map.raf.setLength(0);
+            map.writeHeader();
+            map.raf.write(map.present.toByteArray());
+        } else {
+            map.raf = new RandomAccessFile(file, "rw");
+        }
+        return map;
+    }
+
+    /**
+     * 只读方式读取位图文件
+     * @return 位图，文件不存在或无法识别时返回null
+     */
+    static SegmentMap read(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_BYTES) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int segmentSize = in.readInt();
+            long totalLength = in.readLong();
+            if (segmentSize <= 0) {
+                return null;
+            }
+            byte[] bits = new byte[(int) (in.length() - HEADER_BYTES)];
+            in.readFully(bits);
+            return new SegmentMap(file, segmentSize, totalLength, BitSet.valueOf(bits));
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(segmentSize);
+        raf.writeLong(totalLength);
+    }
+
+    /**
+     * 记录文件总长度，超出长度的分段被清除
+     * @param length 文件总长度
+     */
+    void setTotalLength(long length) throws IOException {
+        totalLength = length;
+        int count = getSegmentCount();
+        if (present.length() > count) {
+            present.clear(count, present.length());
+            raf.setLength(HEADER_BYTES + (count + 7) / 8);
+        }
+        writeHeader();
+    }
+
+    /**
+     * 标记分段已存在
+     * @param segment 分段序号
+     */
+    void mark(int segment) throws IOException {
+        present.set(segment);
+        int index = segment / 8;
+        byte[] bits = present.toByteArray();
+        raf.seek(HEADER_BYTES + index);
+        raf.write(bits[index]);
+    }
+
+    /**
+     * 从指定分段开始找第一个缺少的分段，到末尾后从头继续
+     * @param from 起始分段
+     * @return 分段序号，全部存在时返回-1；总长度未知时返回连续部分之后的分段
+     */
+    int nextMissing(int from) {
+        if (totalLength < 0) {
+            return present.nextClearBit(0);
+        }
+        int count = getSegmentCount();
+        int segment = present.nextClearBit(Math.min(Math.max(from, 0), count));
+        if (segment >= count) {
+            segment = present.nextClearBit(0);
+        }
+        return segment < count ? segment : -1;
+    }
+
+    /**
+     * 从position开始连续存在的数据的结束位置
+     */
+    long presentEnd(long position) {
+        int segment = present.nextClearBit(segmentOf(position));
+        long end = segmentStart(segment);
+        return totalLength >= 0 ? Math.min(end, totalLength) : end;
+    }
+
+    boolean isPresent(int segment) {
+        return present.get(segment);
+    }
+
+    boolean isComplete() {
+        return totalLength >= 0 && nextMissing(0) < 0;
+    }
+
+    int segmentOf(long position) {
+        return (int) (position / segmentSize);
+    }
+
+    long segmentStart(int segment) {
+        return (long) segment * segmentSize;
+    }
+
+    /**
+     * 分段的结束位置，总长度未知时按整段计算
+     */
+    long segmentEnd(int segment) {
+        long end = segmentStart(segment + 1);
+        return totalLength >= 0 ? Math.min(end, totalLength) : end;
+    }
+
+    /**
+     * 分段数，总长度未知时为-1
+     */
+    int getSegmentCount() {
+        return totalLength >= 0 ? (int) ((totalLength + segmentSize - 1) / segmentSize) : -1;
+    }
+
+    /**
+     * 已存在的字节数
+     */
+    long getPresentBytes() {
+        long bytes = 0;
+        for (int segment = present.nextSetBit(0); segment >= 0; segment = present.nextSetBit(segment + 1)) {
+            bytes += segmentEnd(segment) - segmentStart(segment);
+        }
+        return bytes;
+    }
+
+    long getTotalLength() { return totalLength; }
+    int getSegmentSize() { return segmentSize; }
+
+    /**
+     * 关闭并删除位图文件
+     */
+    void delete() throws IOException {
+        close();
+        file.delete();
+    }
+
+    void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+        }
+    }
+}
@@ -1,60 +1,878 @@
 package com.musicplayer.util;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 
+/**
+ * 在线音乐的磁盘缓存
+ * 缓存总量受字节预算限制，超出时由后台线程按淘汰策略删除文件；
+ * 查找只读内存中的映射并把访问记录放入队列，不访问文件系统，也不会因为淘汰而阻塞。
+ * 条目状态由后台线程追加到索引日志 {@link CacheJournal}，程序重启时一次读入恢复。
+ * 未缓存的歌曲由 {@link CacheDownload} 边下载边写入 part_ 文件，读取者不必等待下载完成；
+ * 文件按 {@link #SEGMENT_BYTES} 分段，已下载的分段记在 part_ 文件旁的位图中，
+ * 中断的下载只需用Range请求补齐缺少的分段。
+ * 标识是MD5时，下载的内容在写入的同时计算摘要，一致才登记为已校验，不一致时丢弃重下；
+ * 已缓存的旧条目由 {@link CacheScrubber} 在后台低速重新核对。
+ * 已校验的缓存文件同时链接到 {@link BlobStore}，音乐库中的同一首歌与缓存共用一份数据，
+ * 缓存被淘汰后再播放音乐库中已有的歌曲时直接链接回来，不再下载。
+ * 可选的内存层 {@link HotTier} 保存播放次数最多的若干首歌，{@link #getInputStream} 读取时不打开文件
+ */
 public class StreamCache {
-    /** 缓存文件映射 */
-    private static final Map<String, File> cacheFiles = new HashMap<>();
-    
-    /** 缓存目录 */
-    private static final String CACHE_DIR = "cache";
-    
+    /** 默认字节预算 */
+    public static final long DEFAULT_BUDGET = 1024L * 1024 * 1024;
+
+    /** 淘汰线程名称 */
+    public static final String EVICTOR_THREAD_NAME = "cache-evictor";
+
+    /**
+     * 下载来源接口
+     */
+    public interface Downloader {
+        /**
+         * 从指定位置打开歌曲的下载流，用于断点续传
+         * @param md5 歌曲MD5
+         * @param offset 起始字节位置，0表示从头下载
+         * @return 从offset开始的下载流
+         * @throws IOException 如果请求失败
+         */
+        InputStream open(String md5, long offset) throws IOException;
+    }
+
+    /**
+     * 整文件下载来源接口，例如分段并行下载
+     */
+    public interface FileDownloader {
+        /**
+         * 把整首歌下载到文件，同时按文件顺序计算摘要
+         * @param md5 歌曲MD5
+         * @param target 目标文件
+         * @param digest 摘要，返回时应已包含整个文件；为null时不计算
+         * @throws IOException 如果下载失败
+         */
+        void download(String md5, File target, MessageDigest digest) throws IOException;
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class CacheEntry {
+        /** 歌曲MD5 */
+        final String md5;
+
+        /** 缓存文件 */
+        final File file;
+
+        /** 文件大小 */
+        final long size;
+
+        /** 最近访问时间（毫秒），只在淘汰线程中修改 */
+        volatile long lastAccess;
+
+        /** 命中次数，只在淘汰线程中修改 */
+        volatile int hits;
+
+        /** 内容是否已校验 */
+        volatile boolean verified;
+
+        CacheEntry(String md5, File file, long size, long lastAccess) {
+            this.md5 = md5;
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+
+        CacheJournal.Record toRecord() {
+            return new CacheJournal.Record(md5, size, lastAccess, hits, verified);
+        }
+    }
+
+    /**
+     * 交给淘汰线程处理的缓存事件
+     */
+    private static class Event {
+        static final int INSERT = 0;
+        static final int ACCESS = 1;
+        static final int REMOVE = 2;
+        /** 启动时从索引日志恢复的条目，不再写入日志 */
+        static final int LOAD = 3;
+        /** 条目内容已重新核对 */
+        static final int VERIFY = 4;
+
+        final int type;
+        final String md5;
+        final long size;
+        final long time;
+
+        Event(int type, String md5, long size, long time) {
+            this.type = type;
+            this.md5 = md5;
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    /** 缓存文件映射，预取线程和界面线程都会访问 */
+    private static final Map<String, CacheEntry> cacheFiles = new ConcurrentHashMap<>();
+
+    /** 缓存目录，可通过系统属性 musicplayer.cache.dir 指定 */
+    private static final String CACHE_DIR = System.getProperty("musicplayer.cache.dir", "cache");
+
     /** 缓冲区大小 */
-    private static final int BUFFER_SIZE = 8192 * 4;
-    
+    static final int BUFFER_SIZE = 8192 * 4;
+
+    /** 未下载完的文件的分段大小 */
+    static final int SEGMENT_BYTES = 64 * 1024;
+
+    /** 重放索引时每个条目最多计入的访问次数 */
+    private static final int MAX_REPLAYED_HITS = 15;
+
+    /** 索引日志，只在淘汰线程和类初始化时写入 */
+    private static final CacheJournal journal = new CacheJournal(new File(CACHE_DIR, CacheJournal.FILE_NAME));
+
+    /** 等待淘汰线程处理的事件 */
+    private static final Queue<Event> events = new ConcurrentLinkedQueue<>();
+
+    /** 淘汰线程 */
+    private static final ExecutorService evictor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, EVICTOR_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /** 是否已安排淘汰线程处理事件 */
+    private static final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    /** 不允许淘汰的条目，例如正在播放和即将播放的歌曲 */
+    private static volatile Set<String> pinned = Collections.emptySet();
+
+    /** 淘汰策略，只在淘汰线程中使用 */
+    private static EvictionPolicy policy = EvictionPolicy.lru();
+
+    /** 淘汰策略中各条目的字节数，只在淘汰线程中使用 */
+    private static final Map<String, Long> trackedSizes = new HashMap<>();
+
+    /** 淘汰策略中条目的总字节数，尚未处理的新条目不计入 */
+    private static long trackedBytes;
+
+    /** 字节预算 */
+    private static volatile long budgetBytes = DEFAULT_BUDGET;
+
+    /** 已缓存的字节数 */
+    private static final AtomicLong sizeBytes = new AtomicLong();
+
+    /** 命中次数 */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /** 未命中次数 */
+    private static final AtomicLong misses = new AtomicLong();
+
+    /** 淘汰次数 */
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /** 未被接纳的新条目数 */
+    private static final AtomicLong rejections = new AtomicLong();
+
+    /** 正在进行的下载，同一首歌只有一个 */
+    private static final Map<String, CacheDownload> inFlight = new ConcurrentHashMap<>();
+
+    /** 正在进行的整文件下载，同一首歌只有一个，与 inFlight 中的下载互斥（在 inFlight 的同一个键上登记） */
+    private static final Map<String, CompletableFuture<File>> wholeFileDownloads = new ConcurrentHashMap<>();
+
+    /** 实际发起的下载数 */
+    private static final AtomicLong downloads = new AtomicLong();
+
+    /** 等待他人下载的调用数 */
+    private static final AtomicLong joinedDownloads = new AtomicLong();
+
+    /** 从断点继续的下载数 */
+    private static final AtomicLong resumedDownloads = new AtomicLong();
+
+    /** 因无人读取而中止的下载数 */
+    private static final AtomicLong abortedDownloads = new AtomicLong();
+
+    /** 已结束的下载共写入的字节数 */
+    private static final AtomicLong downloadedBytes = new AtomicLong();
+
+    /** 与MD5不一致而被丢弃的文件数 */
+    private static final AtomicLong corruptFiles = new AtomicLong();
+
+    /** 跳转或续传后为计算摘要从磁盘读回的字节数 */
+    private static final AtomicLong rereadBytes = new AtomicLong();
+
+    /** 从存储链接回缓存、省去下载的次数 */
+    private static final AtomicLong storeLinks = new AtomicLong();
+
+    /** 播放次数最多的条目的内存副本，默认不启用 */
+    private static final HotTier hotTier = new HotTier();
+
     static {
-        // 创建缓存目录
+        // 创建缓存目录，并从索引日志恢复上次运行留下的缓存
         try {
             Files.createDirectories(Paths.get(CACHE_DIR));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        loadIndex();
     }
-    
+
+    /**
+     * 一次读入索引日志恢复缓存条目，再用一次目录列表核对：
+     * 删除未完成的临时文件，丢弃文件已不存在的条目，登记日志中没有的缓存文件；
+     * 未下载完的 part_ 文件和分段位图保留用于续传，对应歌曲已缓存时删除。
+     * 条目按最近访问时间从旧到新加入淘汰策略
+     */
+    private static void loadIndex() {
+        Map<String, CacheJournal.Record> records = null;
+        try {
+            records = journal.load();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        boolean rewrite = records == null;
+        if (records == null) {
+            records = new HashMap<>();
+        }
+
+        Set<String> present = new HashSet<>();
+        List<File> partFiles = new ArrayList<>();
+        File[] files = new File(CACHE_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("temp_")) {
+                    file.delete();
+                } else if (name.startsWith("part_")) {
+                    partFiles.add(file);
+                } else if (name.startsWith("music_") && name.endsWith(".mp3")) {
+                    String md5 = name.substring("music_".length(), name.length() - ".mp3".length());
+                    present.add(md5);
+                    if (!records.containsKey(md5) && file.length() > 0) {
+                        records.put(md5, new CacheJournal.Record(md5, file.length(), file.lastModified(), 0, false));
+                        rewrite = true;
+                    }
+                }
+            }
+        }
+        if (records.keySet().retainAll(present)) {
+            rewrite = true;
+        }
+        for (File file : partFiles) {
+            String name = file.getName();
+            if (present.contains(name.substring("part_".length(), name.lastIndexOf('.')))) {
+                file.delete();
+            }
+        }
+
+        List<CacheJournal.Record> ordered = new ArrayList<>(records.values());
+        ordered.sort(Comparator.comparingLong(record -> record.lastAccess));
+        for (CacheJournal.Record record : ordered) {
+            CacheEntry entry = new CacheEntry(record.md5, cacheFile(record.md5), record.size, record.lastAccess);
+            entry.hits = record.hits;
+            entry.verified = record.verified;
+            cacheFiles.put(record.md5, entry);
+            sizeBytes.addAndGet(record.size);
+            events.add(new Event(Event.LOAD, record.md5, record.size, 0));
+        }
+        if (rewrite) {
+            try {
+                journal.compact(ordered);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        scheduleMaintenance();
+    }
+
+    private static File cacheFile(String md5) {
+        return new File(CACHE_DIR, "music_" + md5 + ".mp3");
+    }
+
+    private static File partFile(String md5) {
+        return new File(CACHE_DIR, "part_" + md5 + ".mp3");
+    }
+
+    private static File mapFile(String md5) {
+        return new File(CACHE_DIR, "part_" + md5 + ".map");
+    }
+
     /**
-     * 获取缓存的音乐文件
+     * 获取缓存的音乐文件用于播放，计入命中统计和访问频率；只检查是否已缓存时使用 {@link #peekFile(String)}
      */
     public static File getCachedFile(String md5) {
-        // 先检查内存中的缓存
-        File cachedFile = cacheFiles.get(md5);
-        if (cachedFile != null && cachedFile.exists() && cachedFile.length() > 0) {
-            return cachedFile;
+        // 索引在内存中，查找不访问文件系统
+        CacheEntry entry = cacheFiles.get(md5);
+        if (entry != null) {
+            hits.incrementAndGet();
+            submit(new Event(Event.ACCESS, md5, entry.size, System.currentTimeMillis()));
+            return entry.file;
         }
-        
-        // 检查磁盘缓存
-        File diskCacheFile = new File(CACHE_DIR, "music_" + md5 + ".mp3");
-        if (diskCacheFile.exists() && diskCacheFile.length() > 0) {
-            cacheFiles.put(md5, diskCacheFile);
-            return diskCacheFile;
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 记录一次播放，用于没有经过 {@link #getCachedFile(String)} 就直接播放缓存文件的情况（例如无缝切换到下一首）
+     * @param md5 歌曲MD5
+     * @return 是否已缓存
+     */
+    public static boolean recordPlay(String md5) {
+        return getCachedFile(md5) != null;
+    }
+
+    /**
+     * 缓存文件在程序外被删除或损坏时移除条目
+     * @param md5 歌曲MD5
+     */
+    public static void invalidate(String md5) {
+        CacheEntry entry = cacheFiles.remove(md5);
+        if (entry != null) {
+            sizeBytes.addAndGet(-entry.size);
+            submit(new Event(Event.REMOVE, md5, entry.size, 0));
+        }
+    }
+
+    /**
+     * 条目内容已与MD5核对一致，记入索引日志
+     * @param md5 歌曲MD5
+     */
+    public static void markVerified(String md5) {
+        CacheEntry entry = cacheFiles.get(md5);
+        if (entry != null && !entry.verified) {
+            submit(new Event(Event.VERIFY, md5, entry.size, 0));
+        }
+    }
+
+    /**
+     * 缓存文件与MD5不一致时移除条目并删除文件
+     * @param md5 歌曲MD5
+     */
+    public static void discardCorrupt(String md5) {
+        CacheEntry entry = cacheFiles.get(md5);
+        if (entry != null) {
+            invalidate(md5);
+            entry.file.delete();
+            BlobStore.discard(md5);
+            recordCorruption();
+        }
+    }
+
+    /**
+     * 记录一个与MD5不一致的文件
+     */
+    static void recordCorruption() {
+        corruptFiles.incrementAndGet();
+    }
+
+    /**
+     * 登记缓存文件并通知淘汰线程
+     * @param verified 内容是否已与MD5核对一致
+     */
+    private static void register(String md5, File file, boolean verified) {
+        CacheEntry entry = new CacheEntry(md5, file, file.length(), System.currentTimeMillis());
+        entry.verified = verified;
+        CacheEntry previous = cacheFiles.put(md5, entry);
+        if (previous != null) {
+            sizeBytes.addAndGet(-previous.size);
+        }
+        sizeBytes.addAndGet(entry.size);
+        submit(new Event(Event.INSERT, md5, entry.size, entry.lastAccess));
+    }
+
+    /**
+     * 把事件放入队列，并在需要时安排淘汰线程处理
+     */
+    private static void submit(Event event) {
+        events.add(event);
+        scheduleMaintenance();
+    }
+
+    /**
+     * 安排淘汰线程处理排队的事件并检查预算，已安排时不重复提交
+     */
+    private static void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            evictor.execute(StreamCache::maintain);
+        }
+    }
+
+    /**
+     * 在淘汰线程中处理排队的事件并写入索引日志，新条目超出预算时按策略决定淘汰旧条目或放弃新条目
+     */
+    private static void maintain() {
+        maintenanceScheduled.set(false);
+        try {
+            Event event;
+            while ((event = events.poll()) != null) {
+                CacheEntry entry = cacheFiles.get(event.md5);
+                switch (event.type) {
+                    case Event.LOAD:
+                        if (entry != null) {
+                            track(event.md5, event.size);
+                            for (int i = Math.min(entry.hits, MAX_REPLAYED_HITS); i > 0; i--) {
+                                policy.onAccess(event.md5);
+                            }
+                            hotTier.onAccess(event.md5, entry.file, entry.size, entry.hits);
+                        }
+                        break;
+                    case Event.INSERT:
+                        if (entry != null) {
+                            // 同一首歌的文件被替换时丢弃旧的内存副本
+                            hotTier.remove(event.md5);
+                            track(event.md5, event.size);
+                            journal.put(entry.toRecord());
+                            admit(event.md5);
+                        }
+                        break;
+                    case Event.ACCESS:
+                        if (entry != null) {
+                            entry.hits++;
+                            entry.lastAccess = event.time;
+                            policy.onAccess(event.md5);
+                            journal.put(entry.toRecord());
+                            hotTier.onAccess(event.md5, entry.file, entry.size, entry.hits);
+                        }
+                        break;
+                    case Event.VERIFY:
+                        if (entry != null) {
+                            entry.verified = true;
+                            journal.put(entry.toRecord());
+                        }
+                        break;
+                    case Event.REMOVE:
+                    default:
+                        untrack(event.md5);
+                        journal.remove(event.md5);
+                        break;
+                }
+            }
+            evictToBudget();
+            journal.flush();
+            if (journal.needsCompaction(cacheFiles.size())) {
+                List<CacheJournal.Record> live = new ArrayList<>();
+                for (CacheEntry entry : cacheFiles.values()) {
+                    live.add(entry.toRecord());
+                }
+                journal.compact(live);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 把条目加入淘汰策略（在淘汰线程中调用）
+     */
+    private static void track(String md5, long size) {
+        Long previous = trackedSizes.put(md5, size);
+        trackedBytes += size - (previous != null ? previous : 0);
+        policy.onInsert(md5, size);
+    }
+
+    /**
+     * 新条目加入后超出预算时，逐个与淘汰对象比较
+     */
+    private static void admit(String candidate) throws IOException {
+        boolean exempt = pinned.contains(candidate);
+        while (trackedBytes > budgetBytes) {
+            String victim = nextVictim(candidate);
+            if (victim == null) {
+                return;
+            }
+            if (exempt || policy.admit(candidate, victim)) {
+                evict(victim);
+            } else {
+                rejections.incrementAndGet();
+                remove(candidate);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按淘汰顺序删除条目，直到不超出预算
+     */
+    private static void evictToBudget() throws IOException {
+        while (trackedBytes > budgetBytes) {
+            String victim = nextVictim(null);
+            if (victim == null) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    /**
+     * 选出下一个可以淘汰的条目，跳过固定的条目
+     * @param keep 不淘汰的条目，可为null
+     */
+    private static String nextVictim(String keep) {
+        Set<String> protectedKeys = pinned;
+        Iterator<String> iterator = policy.victims();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (!key.equals(keep) && !protectedKeys.contains(key)) {
+                return key;
+            }
         }
-        
         return null;
     }
-    
+
+    private static void evict(String md5) throws IOException {
+        evictions.incrementAndGet();
+        remove(md5);
+    }
+
     /**
-     * 缓存音乐流
+     * 从淘汰策略中移除条目（在淘汰线程中调用）
+     */
+    private static void untrack(String md5) {
+        Long size = trackedSizes.remove(md5);
+        if (size != null) {
+            trackedBytes -= size;
+        }
+        policy.onRemove(md5);
+        hotTier.remove(md5);
+    }
+
+    /**
+     * 删除条目和对应的文件（在淘汰线程中调用）
+     */
+    private static void remove(String md5) throws IOException {
+        untrack(md5);
+        CacheEntry entry = cacheFiles.remove(md5);
+        if (entry != null) {
+            sizeBytes.addAndGet(-entry.size);
+            entry.file.delete();
+            // 音乐库中没有这首歌时一并删除存储中的内容
+            BlobStore.release(md5);
+            journal.remove(md5);
+        }
+    }
+
+    /**
+     * 获取缓存的音乐文件，未缓存时下载；同一首歌同时只下载一次，
+     * 其他调用者等待正在进行的下载，不再打开新的连接；用于预取和下载，不计入播放的命中统计
+     * @param md5 歌曲MD5
+     * @param downloader 下载来源
+     * @return 缓存文件
+     * @throws IOException 如果下载失败
+     */
+    public static File fetch(String md5, Downloader downloader) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            File cachedFile = peekFile(md5);
+            if (cachedFile != null) {
+                return cachedFile;
+            }
+            CacheDownload download = acquire(md5, downloader);
+            if (download == null) {
+                continue;
+            }
+            try {
+                return download.await();
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // 下载失败时从断点重试一次
+                if (attempt > 0) {
+                    throw e;
+                }
+            } finally {
+                download.release();
+            }
+        }
+    }
+
+    /**
+     * 获取缓存的音乐文件，未缓存时用整文件下载器下载（例如分段并行下载），用于批量下载整首歌。
+     * 已有边下边播的下载、断点续传的部分或存储中的内容时改用 {@link #fetch(String, Downloader)}；
+     * 同一首歌同时只下载一次，整文件下载期间打开的流和其他获取都等待它完成
+     * @param md5 歌曲MD5
+     * @param fileDownloader 整文件下载来源
+     * @param downloader 续传或加入已有下载时使用的下载来源
+     * @return 缓存文件
+     * @throws IOException 如果下载失败或内容与MD5不一致
+     */
+    public static File fetch(String md5, FileDownloader fileDownloader, Downloader downloader) throws IOException {
+        File cachedFile = peekFile(md5);
+        if (cachedFile != null) {
+            return cachedFile;
+        }
+        CompletableFuture<File> download = new CompletableFuture<>();
+        boolean[] streaming = new boolean[1];
+        AtomicReference<CompletableFuture<File>> existing = new AtomicReference<>();
+        // 在 inFlight 的同一个键上登记，与边下边播的下载互斥
+        inFlight.compute(md5, (key, current) -> {
+            if (current != null || cacheFiles.containsKey(key) || partFile(key).exists() || BlobStore.contains(key)) {
+                streaming[0] = true;
+            } else {
+                existing.set(wholeFileDownloads.putIfAbsent(key, download));
+            }
+            return current;
+        });
+        if (streaming[0]) {
+            return fetch(md5, downloader);
+        }
+        if (existing.get() != null) {
+            joinedDownloads.incrementAndGet();
+            return awaitWholeFile(existing.get());
+        }
+        File file;
+        try {
+            file = downloadWholeFile(md5, fileDownloader);
+        } catch (IOException | RuntimeException e) {
+            // 先移除再通知，等待者醒来后不会再看到这个已结束的下载
+            wholeFileDownloads.remove(md5, download);
+            download.completeExceptionally(e);
+            throw e;
+        }
+        wholeFileDownloads.remove(md5, download);
+        download.complete(file);
+        return file;
+    }
+
+    private static File downloadWholeFile(String md5, FileDownloader fileDownloader) throws IOException {
+        File dir = new File(CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + dir);
+        }
+        File tempFile = File.createTempFile("temp_" + md5 + "_", ".mp3", dir);
+        try {
+            downloads.incrementAndGet();
+            // 下载器边写边按文件顺序计算摘要，完成后不必再读一遍
+            boolean verified = Md5Utils.isMd5(md5);
+            MessageDigest digest = verified ? Md5Utils.newDigest() : null;
+            fileDownloader.download(md5, tempFile, digest);
+            downloadedBytes.addAndGet(tempFile.length());
+            if (verified && !Md5Utils.matches(md5, digest)) {
+                recordCorruption();
+                throw new IOException("MD5 mismatch for " + md5 + ", downloaded content discarded");
+            }
+            if (tempFile.length() == 0) {
+                throw new IOException("Failed to cache file");
+            }
+            return commit(md5, tempFile, verified);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static File awaitWholeFile(CompletableFuture<File> download) throws IOException {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for download");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 打开歌曲的输入流：已缓存时读取缓存文件，否则边下载边读取，
+     * 只有读到尚未下载的位置时才等待，下载完成的文件留在缓存中供重播。
+     * 未缓存时 skip 不读取跳过的数据，下载随之跳到新的位置。
+     * 流关闭时如果没有其他读取者或等待者，未完成的下载中止，已写入的部分保留用于续传
+     * @param md5 歌曲MD5
+     * @param downloader 下载来源
+     * @return 输入流
+     * @throws IOException 如果无法打开
+     */
+    public static InputStream openStream(String md5, Downloader downloader) throws IOException {
+        while (true) {
+            InputStream cached = getInputStream(md5);
+            if (cached != null) {
+                return cached;
+            }
+            CacheDownload download = acquire(md5, downloader);
+            if (download != null) {
+                try {
+                    return download.newReader();
+                } catch (IOException | RuntimeException e) {
+                    download.release();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * 加入正在进行的下载，没有时新建一个并启动；正在整文件下载时等待它完成
+     * @return 已增加引用的下载，歌曲刚刚缓存完成或整文件下载结束时返回null
+     */
+    private static CacheDownload acquire(String md5, Downloader downloader) throws IOException {
+        CacheDownload[] created = new CacheDownload[1];
+        IOException[] error = new IOException[1];
+        AtomicReference<CompletableFuture<File>> wholeFile = new AtomicReference<>();
+        CacheDownload download = inFlight.compute(md5, (key, existing) -> {
+            if (existing != null && existing.retain()) {
+                joinedDownloads.incrementAndGet();
+                return existing;
+            }
+            // 正在整文件下载，不再打开新的连接
+            wholeFile.set(wholeFileDownloads.get(key));
+            if (wholeFile.get() != null) {
+                return existing;
+            }
+            // 上一个下载可能在查找之后刚刚完成；音乐库中已有时直接链接
+            if (cacheFiles.containsKey(key) || linkFromStore(key)) {
+                return null;
+            }
+            try {
+                CacheDownload fresh = new CacheDownload(key, downloader, partFile(key), mapFile(key), existing);
+                fresh.retain();
+                created[0] = fresh;
+                return fresh;
+            } catch (IOException e) {
+                error[0] = e;
+                return null;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (wholeFile.get() != null) {
+            joinedDownloads.incrementAndGet();
+            try {
+                awaitWholeFile(wholeFile.get());
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // 整文件下载失败，调用者重新查找后自己下载
+            }
+            return null;
+        }
+        if (created[0] != null) {
+            downloads.incrementAndGet();
+            created[0].start();
+        }
+        return download;
+    }
+
+    /**
+     * 存储中已有内容时在缓存目录建立链接并登记，不必下载
+     * @return 是否已登记
+     */
+    private static boolean linkFromStore(String md5) {
+        if (!BlobStore.contains(md5)) {
+            return false;
+        }
+        try {
+            File cacheFile = cacheFile(md5);
+            BlobStore.linkTo(md5, cacheFile);
+            register(md5, cacheFile, true);
+            storeLinks.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 已校验的缓存文件链接到存储，失败时只影响共用，不影响缓存
+     */
+    private static void adopt(String md5, File cacheFile) {
+        try {
+            BlobStore.adopt(md5, cacheFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 把下载完成的文件移入缓存并登记，读取者已打开的文件句柄不受影响
+     * （在下载线程中调用）
+     * @param verified 内容是否已与MD5核对一致
+     */
+    static File commit(String md5, File partFile, boolean verified) throws IOException {
+        File cacheFile = cacheFile(md5);
+        try {
+            Files.move(partFile.toPath(), cacheFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 有读取者打开时某些系统不允许移动，改为复制，part_ 文件在下次启动时清理
+            Files.copy(partFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            partFile.delete();
+        }
+        if (verified) {
+            adopt(md5, cacheFile);
+        }
+        register(md5, cacheFile, verified);
+        return cacheFile;
+    }
+
+    /**
+     * 下载结束后移出正在进行的下载（在下载线程中调用）
+     */
+    static void downloadFinished(CacheDownload download, boolean completed) {
+        inFlight.remove(download.getMd5(), download);
+        downloadedBytes.addAndGet(download.getDownloadedBytes());
+        rereadBytes.addAndGet(download.getRereadBytes());
+        if (download.getResumedBytes() > 0) {
+            resumedDownloads.incrementAndGet();
+        }
+        if (!completed && download.isAborted()) {
+            abortedDownloads.incrementAndGet();
+        }
+    }
+
+    /**
+     * 未下载完的歌曲已存在的字节数
+     * @param md5 歌曲MD5
+     * @return 已下载的分段的总字节数，没有未完成的下载时返回0
+     */
+    public static long getPartialBytes(String md5) {
+        CacheDownload download = inFlight.get(md5);
+        if (download != null) {
+            return download.getPresentBytes();
+        }
+        try {
+            SegmentMap map = SegmentMap.read(mapFile(md5));
+            return map != null ? map.getPresentBytes() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 缓存音乐流，写入独立的临时文件后原子替换，多个线程同时缓存同一首歌也不会互相破坏；
+     * 标识是MD5时边写边计算摘要，不一致时丢弃文件
+     * @throws IOException 如果写入失败或内容与MD5不一致
      */
     public static File cacheStream(String md5, InputStream inputStream) throws IOException {
         // 创建缓存文件
         File cacheFile = new File(CACHE_DIR, "music_" + md5 + ".mp3");
         
         // 使用临时文件
-        File tempFile = new File(CACHE_DIR, "temp_" + md5 + ".mp3");
+        File tempFile = File.createTempFile("temp_" + md5 + "_", ".mp3", new File(CACHE_DIR));
+        MessageDigest digest = Md5Utils.newDigest();
         
         try {
             // 将流写入临时文件
@@ -65,20 +883,26 @@ public class StreamCache {
                 int bytesRead;
                 while ((bytesRead = bis.read(buffer)) != -1) {
                     bos.write(buffer, 0, bytesRead);
+                    digest.update(buffer, 0, bytesRead);
                 }
                 bos.flush();
             }
             
             // 检查文件完整性
+            boolean verified = Md5Utils.isMd5(md5);
+            if (verified && !Md5Utils.matches(md5, digest)) {
+                recordCorruption();
+                throw new IOException("MD5 mismatch for " + md5 + ", downloaded content discarded");
+            }
             if (tempFile.length() > 0) {
                 // 如果文件有效，移动到缓存文件
-                if (cacheFile.exists()) {
-                    cacheFile.delete();
-                }
-                if (tempFile.renameTo(cacheFile)) {
-                    cacheFiles.put(md5, cacheFile);
-                    return cacheFile;
+                Files.move(tempFile.toPath(), cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (verified) {
+                    adopt(md5, cacheFile);
                 }
+                register(md5, cacheFile, verified);
+                return cacheFile;
             }
             
             throw new IOException("Failed to cache file");
@@ -92,35 +916,199 @@ public class StreamCache {
     }
     
     /**
-     * 获取新的输入流
+     * 获取新的输入流，条目在内存层中时直接读取内存，不打开文件
+     * @return 输入流，未缓存时返回null
      */
     public static InputStream getInputStream(String md5) throws IOException {
         File cachedFile = getCachedFile(md5);
-        if (cachedFile != null) {
-            return new BufferedInputStream(new FileInputStream(cachedFile), BUFFER_SIZE);
+        if (cachedFile == null) {
+            return null;
         }
-        return null;
+        InputStream hot = hotTier.open(md5);
+        if (hot != null) {
+            return hot;
+        }
+        return new BufferedInputStream(new FileInputStream(cachedFile), BUFFER_SIZE);
     }
     
+    /**
+     * 设置不允许淘汰的条目，例如正在播放和即将播放的歌曲，替换之前的设置
+     * @param md5s 歌曲MD5
+     */
+    public static void setPinned(Collection<String> md5s) {
+        pinned = Collections.unmodifiableSet(new HashSet<>(md5s));
+        scheduleMaintenance();
+    }
+
+    /**
+     * 设置字节预算，超出部分由淘汰线程删除
+     * @param bytes 字节预算
+     */
+    public static void setBudgetBytes(long bytes) {
+        budgetBytes = Math.max(bytes, 0);
+        scheduleMaintenance();
+    }
+
+    /**
+     * 设置内存层的上限，播放次数最多的条目在淘汰线程中载入内存，超出上限的按播放次数从少到多移出
+     * @param maxEntries 最多保存的条目数，0表示不启用
+     * @param maxBytes 最多占用的内存字节数
+     */
+    public static void setHotTierLimits(int maxEntries, long maxBytes) {
+        evictor.execute(() -> hotTier.setLimits(maxEntries, maxBytes));
+    }
+
+    /**
+     * 条目是否在内存层中
+     * @param md5 歌曲MD5
+     */
+    public static boolean isHot(String md5) {
+        return hotTier.contains(md5);
+    }
+
+    /**
+     * 更换淘汰策略，已有条目按当前顺序加入新策略
+     * @param newPolicy 淘汰策略
+     */
+    public static void setEvictionPolicy(EvictionPolicy newPolicy) {
+        evictor.execute(() -> {
+            List<String> keys = new ArrayList<>();
+            policy.victims().forEachRemaining(keys::add);
+            for (String key : keys) {
+                CacheEntry entry = cacheFiles.get(key);
+                if (entry != null) {
+                    newPolicy.onInsert(key, entry.size);
+                }
+            }
+            policy = newPolicy;
+            for (CacheEntry entry : cacheFiles.values()) {
+                for (int i = Math.min(entry.hits, MAX_REPLAYED_HITS); i > 0; i--) {
+                    newPolicy.onAccess(entry.md5);
+                }
+            }
+            maintain();
+        });
+    }
+
+    /**
+     * 等待淘汰线程处理完已排队的事件
+     */
+    public static void awaitMaintenance() throws InterruptedException {
+        try {
+            evictor.submit(StreamCache::maintain).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 获取条目的状态，不计入命中统计
+     * @param md5 歌曲MD5
+     * @return 条目状态，未缓存时返回null
+     */
+    public static CacheJournal.Record getRecord(String md5) {
+        CacheEntry entry = cacheFiles.get(md5);
+        return entry != null ? entry.toRecord() : null;
+    }
+
+    /**
+     * 获取所有条目的状态快照，不计入命中统计
+     */
+    public static List<CacheJournal.Record> getRecords() {
+        List<CacheJournal.Record> records = new ArrayList<>(cacheFiles.size());
+        for (CacheEntry entry : cacheFiles.values()) {
+            records.add(entry.toRecord());
+        }
+        return records;
+    }
+
+    /**
+     * 获取条目的缓存文件，不计入命中统计和访问频率，用于预取、下载等只检查是否已缓存的场合
+     * @return 缓存文件，未缓存时返回null
+     */
+    public static File peekFile(String md5) {
+        CacheEntry entry = cacheFiles.get(md5);
+        return entry != null ? entry.file : null;
+    }
+
+    /**
+     * 获取缓存目录
+     */
+    public static File getCacheDir() {
+        return new File(CACHE_DIR);
+    }
+
+    /**
+     * 正在进行的下载数，包括预取和播放时的边下边播
+     */
+    public static int getActiveDownloads() {
+        return inFlight.size();
+    }
+
+    public static long getBudgetBytes() { return budgetBytes; }
+    public static long getSizeBytes() { return sizeBytes.get(); }
+    public static int getEntryCount() { return cacheFiles.size(); }
+    public static long getHits() { return hits.get(); }
+    public static long getMisses() { return misses.get(); }
+    public static long getEvictions() { return evictions.get(); }
+    public static long getRejections() { return rejections.get(); }
+    public static long getDownloads() { return downloads.get(); }
+    public static long getJoinedDownloads() { return joinedDownloads.get(); }
+    public static long getResumedDownloads() { return resumedDownloads.get(); }
+    public static long getAbortedDownloads() { return abortedDownloads.get(); }
+    public static long getDownloadedBytes() { return downloadedBytes.get(); }
+    public static long getCorruptFiles() { return corruptFiles.get(); }
+    public static long getRereadBytes() { return rereadBytes.get(); }
+    public static long getStoreLinks() { return storeLinks.get(); }
+    public static int getHotEntryCount() { return hotTier.getEntryCount(); }
+    public static long getHotBytes() { return hotTier.getSizeBytes(); }
+    public static long getHotHits() { return hotTier.getHits(); }
+    public static long getHotMisses() { return hotTier.getMisses(); }
+    public static long getHotServedBytes() { return hotTier.getServedBytes(); }
+    public static double getHotHitRatio() { return hotTier.getHitRatio(); }
+
+    /**
+     * 获取内存层统计信息：条目数、占用字节、命中率和读出字节
+     */
+    public static String getHotTierStats() {
+        return hotTier.toString();
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public static String getStats() {
+        return String.format("StreamCache[条目=%d, 占用=%d/%d 字节, 命中=%d, 未命中=%d, 淘汰=%d, 未接纳=%d, 下载=%d, 合并=%d, 续传=%d, 中止=%d, 损坏=%d, 链接=%d]",
+            getEntryCount(), getSizeBytes(), budgetBytes, getHits(), getMisses(), getEvictions(), getRejections(),
+            getDownloads(), getJoinedDownloads(), getResumedDownloads(), getAbortedDownloads(), getCorruptFiles(),
+            getStoreLinks());
+    }
+
     /**
      * 清理所有缓存
      */
     public static void clearCache() {
-        // 清理内存缓存
-        cacheFiles.clear();
-        
-        // 清理磁盘缓存
+        // 清理内存缓存，淘汰策略和索引日志中的条目由淘汰线程移除
+        for (String md5 : cacheFiles.keySet()) {
+            invalidate(md5);
+        }
+
+        // 清理磁盘缓存中的歌曲、部分下载和临时文件；索引日志、切换记录和HTTP响应缓存由各自的所有者管理
+        File[] files = new File(CACHE_DIR).listFiles((dir, name) ->
+            name.startsWith("music_") || name.startsWith("part_") || name.startsWith("temp_"));
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    file.delete();
+                }
+            }
+        }
+
+        // 只被缓存引用的内容随之删除，音乐库中的歌曲保留
         try {
-            Files.walk(Paths.get(CACHE_DIR))
-                .filter(Files::isRegularFile)
-                .map(Path::toFile)
-                .forEach(file -> {
-                    if (file.exists()) {
-                        file.delete();
-                    }
-                });
+            BlobStore.collectGarbage();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,233 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 在线歌曲预取器，在后台低优先级线程中把即将播放的歌曲下载到 {@link StreamCache}
+ * 每次调用 {@link #prefetch(List)} 都会替换待预取列表，按列表顺序逐首下载，
+ * 正在下载但已不在列表中的歌曲会被立即取消
+ */
+public class StreamPrefetcher {
+    /** 预取线程名称 */
+    public static final String THREAD_NAME = "stream-prefetch";
+
+    /**
+     * 预取完成监听器，在预取线程中回调
+     */
+    public interface Listener {
+        /**
+         * 歌曲已写入缓存
+         * @param md5 歌曲MD5
+         * @param file 缓存文件
+         */
+        void onPrefetched(String md5, File file);
+    }
+
+    /**
+     * 一次下载任务
+     */
+    private static class Task {
+        /** 歌曲MD5 */
+        private final String md5;
+
+        /** 执行下载的线程 */
+        private final Thread thread;
+
+        /** 是否已取消 */
+        private volatile boolean cancelled;
+
+        Task(String md5, Thread thread) {
+            this.md5 = md5;
+            this.thread = thread;
+        }
+
+        /**
+         * 取消任务：中断等待下载结果的预取线程，没有其他读取者时下载随之中止，
+         * 已下载的部分留在缓存目录中，下次从断点继续
+         */
+        void cancel() {
+            cancelled = true;
+            thread.interrupt();
+        }
+    }
+
+    /** 下载来源 */
+    private final StreamCache.Downloader fetcher;
+
+    /** 预取完成监听器 */
+    private volatile Listener listener;
+
+    /** 待预取的歌曲，按优先级排列 */
+    private List<String> wanted = Collections.emptyList();
+
+    /** 本轮下载失败的歌曲，列表更新前不再重试 */
+    private final Set<String> failed = new HashSet<>();
+
+    /** 正在下载的任务 */
+    private Task running;
+
+    /** 预取线程 */
+    private Thread worker;
+
+    /** 是否已关闭 */
+    private boolean shutdown;
+
+    /** 完成的下载数 */
+    private long completedCount;
+
+    /** 取消的下载数 */
+    private long cancelledCount;
+
+    /** 失败的下载数 */
+    private long failedCount;
+
+    /**
+     * 构造函数
+     * @param fetcher 下载来源
+     */
+    public StreamPrefetcher(StreamCache.Downloader fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * 设置预取完成监听器
+     * @param listener 监听器
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 更新待预取列表，已缓存的歌曲会被跳过，不再需要的下载会被取消
+     * @param md5s 即将播放的歌曲MD5，越靠前越先下载
+     */
+    public synchronized void prefetch(List<String> md5s) {
+        if (shutdown) {
+            return;
+        }
+        wanted = new ArrayList<>(new LinkedHashSet<>(md5s));
+        failed.clear();
+        if (running != null && !running.cancelled && !wanted.contains(running.md5)) {
+            running.cancel();
+        }
+        if (worker == null && !wanted.isEmpty()) {
+            worker = new Thread(this::runLoop, THREAD_NAME);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 取消所有预取
+     */
+    public void cancelAll() {
+        prefetch(Collections.emptyList());
+    }
+
+    /**
+     * 关闭预取器，取消正在进行的下载并结束预取线程
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        wanted = Collections.emptyList();
+        if (running != null && !running.cancelled) {
+            running.cancel();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 等待并取出下一个需要下载的任务
+     * @return 任务，预取器关闭后返回null
+     */
+    private synchronized Task takeTask() throws InterruptedException {
+        while (!shutdown) {
+            for (String md5 : wanted) {
+                if (!failed.contains(md5) && StreamCache.peekFile(md5) == null) {
+                    running = new Task(md5, Thread.currentThread());
+                    return running;
+                }
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private void runLoop() {
+        try {
+            Task task;
+            while ((task = takeTask()) != null) {
+                File file = download(task);
+                Listener current = listener;
+                if (file != null && current != null) {
+                    current.onPrefetched(task.md5, file);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 下载一首歌曲到缓存，其他调用者正在下载同一首歌时等待其结果
+     * @return 缓存文件，取消或失败时返回null
+     */
+    private File download(Task task) {
+        File file = null;
+        IOException error = null;
+        try {
+            file = StreamCache.fetch(task.md5, fetcher);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            running = null;
+            // 清除取消等待时设置的中断状态，此后不会再被取消
+            Thread.interrupted();
+            if (file != null) {
+                completedCount++;
+            } else if (task.cancelled) {
+                cancelledCount++;
+            } else {
+                failed.add(task.md5);
+                failedCount++;
+                System.err.println("预取失败: " + task.md5 + " - " + error.getMessage());
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 是否正在下载指定歌曲
+     * @param md5 歌曲MD5
+     */
+    public synchronized boolean isFetching(String md5) {
+        return running != null && !running.cancelled && running.md5.equals(md5);
+    }
+
+    /**
+     * 当前待预取的歌曲
+     */
+    public synchronized List<String> getWanted() {
+        return new ArrayList<>(wanted);
+    }
+
+    public synchronized long getCompletedCount() { return completedCount; }
+    public synchronized long getCancelledCount() { return cancelledCount; }
+    public synchronized long getFailedCount() { return failedCount; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("StreamPrefetcher[待预取=%d, 完成=%d, 取消=%d, 失败=%d]",
+            wanted.size(), completedCount, cancelledCount, failedCount);
+    }
+}
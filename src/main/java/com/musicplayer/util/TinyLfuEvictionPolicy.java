@@ -0,0 +1,134 @@
+package com.musicplayer.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * TinyLFU准入策略：按最久未使用顺序选出淘汰对象，
+ * 只有新条目的估计访问频率高于淘汰对象时才接纳新条目
+ * 访问频率用4行计数器的Count-Min草图估计，计数总数达到上限后全部减半，
+ * 让过去常听但最近不再听的歌曲逐渐失去优势
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+    /** 草图行数 */
+    private static final int DEPTH = 4;
+
+    /** 单个计数器上限 */
+    private static final int MAX_COUNT = 15;
+
+    /** 每行的计数器个数，必须是2的幂 */
+    private final int width;
+
+    /** 计数器 */
+    private final byte[][] counters;
+
+    /** 每行的哈希种子 */
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    /** 触发减半的计数总数 */
+    private final int sampleSize;
+
+    /** 上次减半后的计数总数 */
+    private int additions;
+
+    /** 缓存键，按访问顺序排列 */
+    private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 构造函数，草图按约1000个条目设置
+     */
+    public TinyLfuEvictionPolicy() {
+        this(1024);
+    }
+
+    /**
+     * 构造函数
+     * @param expectedEntries 预计的缓存条目数
+     */
+    public TinyLfuEvictionPolicy(int expectedEntries) {
+        int size = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+        this.width = size;
+        this.counters = new byte[DEPTH][size];
+        this.sampleSize = size * 10;
+    }
+
+    @Override
+    public void onInsert(String key, long size) {
+        order.put(key, Boolean.TRUE);
+        increment(key);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        order.get(key);
+        increment(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        order.remove(key);
+    }
+
+    @Override
+    public Iterator<String> victims() {
+        return order.keySet().iterator();
+    }
+
+    @Override
+    public boolean admit(String candidate, String victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    /**
+     * 估计访问频率
+     * @param key 缓存键
+     * @return 估计的访问次数（减半后的值）
+     */
+    public int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters[row][index(hash, row)]);
+        }
+        return min;
+    }
+
+    private void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int i = index(hash, row);
+            if (counters[row][i] < MAX_COUNT) {
+                counters[row][i]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >> 1);
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        h ^= h >>> 16;
+        return h & (width - 1);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,199 @@
+package com.musicplayer.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 歌曲切换记录表：记录每首歌之后接着播放了哪些歌及次数，用于预测下一首
+ * 每首歌最多保留 {@link #MAX_SUCCESSORS} 个后继，满了以后新后继替换次数最少的一个并从头计数，
+ * 常听的后继不会被一连串偶然的切换挤掉；来源歌曲按最近使用保留 {@link #MAX_SOURCES} 首。
+ * 文件格式：标识(4) 最近播放的歌曲 来源数(4)，每个来源为 歌曲 后继数(1) 后继与次数(4)...
+ */
+public class TransitionTable {
+    /** 文件名 */
+    public static final String FILE_NAME = "transitions.dat";
+
+    /** 每首歌最多保留的后继数 */
+    static final int MAX_SUCCESSORS = 8;
+
+    /** 最多保留的来源歌曲数 */
+    static final int MAX_SOURCES = 4096;
+
+    /** 文件标识 */
+    private static final int MAGIC = 0x54524E31;
+
+    /**
+     * 一首歌的后继及次数，数组保存，个数很少
+     */
+    private static class Successors {
+        final String[] songs = new String[MAX_SUCCESSORS];
+        final int[] counts = new int[MAX_SUCCESSORS];
+        int size;
+
+        void add(String song, int count) {
+            int min = 0;
+            for (int i = 0; i < size; i++) {
+                if (songs[i].equals(song)) {
+                    counts[i] += count;
+                    return;
+                }
+                if (counts[i] < counts[min]) {
+                    min = i;
+                }
+            }
+            if (size < MAX_SUCCESSORS) {
+                songs[size] = song;
+                counts[size] = count;
+                size++;
+            } else {
+                songs[min] = song;
+                counts[min] = count;
+            }
+        }
+    }
+
+    /** 来源歌曲到后继，按最近使用排列 */
+    private final Map<String, Successors> table = new LinkedHashMap<String, Successors>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Successors> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+
+    /** 最近播放的歌曲 */
+    private String lastPlayed;
+
+    /** 上次保存后是否有变化 */
+    private boolean dirty;
+
+    /**
+     * 记录一次切换
+     * @param from 上一首
+     * @param to 下一首
+     */
+    public synchronized void record(String from, String to) {
+        if (from != null && to != null) {
+            table.computeIfAbsent(from, key -> new Successors()).add(to, 1);
+        }
+        if (to != null) {
+            lastPlayed = to;
+        }
+        dirty = true;
+    }
+
+    /**
+     * 预测某首歌之后最可能播放的歌曲
+     * @param from 当前歌曲
+     * @param count 最多返回的歌曲数
+     * @return 按次数从多到少排列的歌曲
+     */
+    public synchronized List<String> predict(String from, int count) {
+        Successors successors = from != null ? table.get(from) : null;
+        if (successors == null || count <= 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> order = new ArrayList<>(successors.size);
+        for (int i = 0; i < successors.size; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(successors.counts[b], successors.counts[a]));
+        List<String> songs = new ArrayList<>(Math.min(count, order.size()));
+        for (int i = 0; i < Math.min(count, order.size()); i++) {
+            songs.add(successors.songs[order.get(i)]);
+        }
+        return songs;
+    }
+
+    /**
+     * 某个切换的次数
+     */
+    public synchronized int getCount(String from, String to) {
+        Successors successors = table.get(from);
+        if (successors != null) {
+            for (int i = 0; i < successors.size; i++) {
+                if (successors.songs[i].equals(to)) {
+                    return successors.counts[i];
+                }
+            }
+        }
+        return 0;
+    }
+
+    public synchronized String getLastPlayed() { return lastPlayed; }
+    public synchronized int getSourceCount() { return table.size(); }
+    public synchronized boolean isDirty() { return dirty; }
+
+    /**
+     * 读取记录表
+     * @param file 文件
+     * @return 记录表，文件不存在或无法识别时返回空表
+     */
+    public static TransitionTable load(File file) {
+        TransitionTable loaded = new TransitionTable();
+        if (!file.isFile()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return loaded;
+            }
+            String last = in.readUTF();
+            loaded.lastPlayed = last.isEmpty() ? null : last;
+            int sources = in.readInt();
+            for (int i = 0; i < sources; i++) {
+                String from = in.readUTF();
+                Successors successors = new Successors();
+                int size = Math.min(in.readUnsignedByte(), MAX_SUCCESSORS);
+                for (int j = 0; j < size; j++) {
+                    String to = in.readUTF();
+                    successors.add(to, in.readInt());
+                }
+                loaded.table.put(from, successors);
+            }
+        } catch (EOFException e) {
+            // 写入中断时保留已读到的部分
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return loaded;
+    }
+
+    /**
+     * 写入临时文件后原子替换
+     * @param file 文件
+     * @throws IOException 如果写入失败
+     */
+    public synchronized void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(lastPlayed != null ? lastPlayed : "");
+            out.writeInt(table.size());
+            for (Map.Entry<String, Successors> entry : table.entrySet()) {
+                Successors successors = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeByte(successors.size);
+                for (int i = 0; i < successors.size; i++) {
+                    out.writeUTF(successors.songs[i]);
+                    out.writeInt(successors.counts[i]);
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
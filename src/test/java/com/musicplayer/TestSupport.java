@@ -0,0 +1,87 @@
+package com.musicplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 测试共用的方法：检查条件、等待条件成立、读取流
+ * 测试以 main 方法运行，失败时打印原因并以状态1退出
+ */
+public final class TestSupport {
+    private TestSupport() {
+    }
+
+    /**
+     * 检查条件，不成立时打印 "测试失败: 原因" 并退出
+     * @param condition 条件
+     * @param message 失败原因
+     */
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("测试失败: " + message);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 等待条件成立，超时后直接返回，由调用方检查结果
+     * @param condition 条件
+     * @param timeoutMillis 超时（毫秒）
+     * @throws InterruptedException 如果等待被中断
+     */
+    public static void waitUntil(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * 睡眠，被中断时恢复中断状态后返回
+     * @param millis 毫秒
+     */
+    public static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 读到流结束，不关闭流
+     * @param in 输入流
+     * @return 读到的全部数据
+     * @throws IOException 如果读取失败
+     */
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 读满数组
+     * @param in 输入流
+     * @param buffer 目标数组
+     * @throws EOFException 如果流提前结束
+     * @throws IOException 如果读取失败
+     */
+    public static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int n = in.read(buffer, offset, buffer.length - offset);
+            if (n == -1) {
+                throw new EOFException("Unexpected end of stream");
+            }
+            offset += n;
+        }
+    }
+}
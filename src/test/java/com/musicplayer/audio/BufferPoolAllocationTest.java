@@ -0,0 +1,104 @@
+package com.musicplayer.audio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * 内存分配测试：稳定播放时解码线程和写入线程每解码一帧几乎不分配内存，
+ * 反复切歌时读取、解码和输出环节的缓冲区都从池中复用；在线播放借用的缓冲区只归还一次
+ */
+public class BufferPoolAllocationTest {
+    /** 稳定播放阶段每帧允许分配的字节数 */
+    private static final double MAX_BYTES_PER_FRAME = 64;
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length < 2) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+
+        BufferPool pool = BufferPool.getDefault();
+        LineAudioOutput output = new LineAudioOutput(format -> new PauseLatencyTest.SimulatedLine());
+        AudioPlayer player = new AudioPlayer(output);
+
+        // 反复切歌，预热之后缓冲区应全部来自池中
+        for (int i = 0; i < 10; i++) {
+            player.play(files[i % 2].getPath());
+            Thread.sleep(50);
+        }
+        long allocationsBefore = pool.getAllocationCount();
+        long acquiresBefore = pool.getAcquireCount();
+        for (int i = 0; i < 50; i++) {
+            player.play(files[i % 2].getPath());
+            Thread.sleep(20);
+        }
+        long newAllocations = pool.getAllocationCount() - allocationsBefore;
+        System.out.println("50 次切歌: 获取缓冲区 " + (pool.getAcquireCount() - acquiresBefore)
+            + " 次，新分配 " + newAllocations + " 次");
+        System.out.println(pool);
+        if (newAllocations > 0) {
+            System.err.println("测试失败: 切歌时仍在分配新的缓冲区");
+            System.exit(1);
+        }
+
+        // 稳定播放阶段统计解码线程和写入线程的分配量
+        Thread.sleep(1000);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals(PlaybackExecutor.THREAD_NAME) || t.getName().equals(LineAudioOutput.THREAD_NAME))
+            .mapToLong(Thread::getId)
+            .toArray();
+        long allocatedBefore = sum(threads.getThreadAllocatedBytes(ids));
+        long positionBefore = player.getPositionMillis();
+        Thread.sleep(3000);
+        long allocated = sum(threads.getThreadAllocatedBytes(ids)) - allocatedBefore;
+        long frames = (player.getPositionMillis() - positionBefore) * 44100 / 1000 / 1152;
+        player.stop();
+
+        // 非流式在线播放：整首歌读入借用的缓冲区，切歌和停止后各归还一次
+        Thread.sleep(200);
+        long outstandingBefore = pool.getOutstandingCount();
+        player.setStreamingEnabled(false);
+        for (int i = 0; i < 20; i++) {
+            try (InputStream in = new FileInputStream(files[i % 2])) {
+                player.playStream(in);
+            }
+            Thread.sleep(20);
+            if (i % 2 == 1) {
+                player.stop();
+                player.stop();
+            }
+        }
+        player.stop();
+        Thread.sleep(200);
+        long outstandingAfter = pool.getOutstandingCount();
+        output.close();
+        System.out.println("在线播放后借出的缓冲区: " + outstandingAfter + "（之前 " + outstandingBefore + "）");
+        if (outstandingAfter != outstandingBefore) {
+            System.err.println("测试失败: 在线播放的缓冲区应各归还一次");
+            System.exit(1);
+        }
+
+        double perFrame = frames > 0 ? (double) allocated / frames : Double.MAX_VALUE;
+        System.out.printf("稳定播放: %d 帧，分配 %d 字节，每帧 %.2f 字节%n", frames, allocated, perFrame);
+        if (perFrame > MAX_BYTES_PER_FRAME) {
+            System.err.println("测试失败: 每帧分配的内存过多");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += Math.max(value, 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+package com.musicplayer.audio;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 淡变混音器基准测试：测量每帧混合耗时和内存分配，并检查等功率增益曲线
+ */
+public class CrossfadeMixerBenchmark {
+    /** 采样率 */
+    private static final int SAMPLE_RATE = 44100;
+
+    /** 声道数 */
+    private static final int CHANNELS = 2;
+
+    /** 每次混合的帧数（一个MP3帧） */
+    private static final int BLOCK = 1152;
+
+    /** 淡变长度（秒） */
+    private static final int FADE_SECONDS = 5;
+
+    /** 测量的淡变次数 */
+    private static final int FADES = 200;
+
+    public static void main(String[] args) {
+        checkEqualPower();
+
+        int fadeFrames = FADE_SECONDS * SAMPLE_RATE;
+        CrossfadeMixer mixer = new CrossfadeMixer(fadeFrames, CHANNELS);
+        short[] outgoing = new short[BLOCK * CHANNELS];
+        short[] incoming = new short[BLOCK * CHANNELS];
+        Random random = new Random(42);
+        for (int i = 0; i < outgoing.length; i++) {
+            outgoing[i] = (short) random.nextInt();
+            incoming[i] = (short) random.nextInt();
+        }
+
+        // 预热
+        long checksum = runFades(mixer, outgoing, incoming, 20);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        checksum += runFades(mixer, outgoing, incoming, FADES);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        long frames = (long) FADES * fadeFrames;
+        double nanosPerFrame = (double) elapsed / frames;
+        double realtime = frames / (double) SAMPLE_RATE / (elapsed / 1e9);
+        System.out.printf("混合 %d 帧，耗时 %.1f ms，每帧 %.2f ns，%.0f 倍实时速度（校验和 %d）%n",
+            frames, elapsed / 1e6, nanosPerFrame, realtime, checksum);
+        System.out.println("混合期间分配的内存: " + allocated + " 字节");
+        if (allocated > 1024) {
+            System.err.println("测试失败: 混合过程中分配了内存");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+    }
+
+    /**
+     * 按解码循环的方式完成若干次淡变
+     */
+    private static long runFades(CrossfadeMixer mixer, short[] outgoing, short[] incoming, int fades) {
+        long checksum = 0;
+        for (int f = 0; f < fades; f++) {
+            mixer.reset();
+            while (!mixer.isFinished()) {
+                int frames = Math.min(BLOCK, mixer.getFadeFrames() - mixer.getPosition());
+                while (mixer.getPendingFrames() < frames) {
+                    mixer.pushIncoming(incoming, 0, incoming.length);
+                }
+                short[] mixed = mixer.mix(outgoing, 0, frames);
+                checksum += mixed[0];
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * 两路恒定信号在淡变中点的增益都应约为 1/√2，功率之和保持不变
+     */
+    private static void checkEqualPower() {
+        int fadeFrames = 1000;
+        CrossfadeMixer mixer = new CrossfadeMixer(fadeFrames, 1);
+        short[] full = new short[fadeFrames];
+        short[] silence = new short[fadeFrames];
+        Arrays.fill(full, (short) 10000);
+
+        mixer.pushIncoming(silence, 0, fadeFrames);
+        short[] fadeOut = mixer.mix(full, 0, fadeFrames).clone();
+        mixer.reset();
+        mixer.pushIncoming(full, 0, fadeFrames);
+        short[] fadeIn = mixer.mix(silence, 0, fadeFrames).clone();
+
+        for (int i = 0; i < fadeFrames; i++) {
+            double power = (fadeOut[i] / 10000.0) * (fadeOut[i] / 10000.0) + (fadeIn[i] / 10000.0) * (fadeIn[i] / 10000.0);
+            if (Math.abs(power - 1) > 0.01) {
+                System.err.println("测试失败: 第 " + i + " 帧功率为 " + power);
+                System.exit(1);
+            }
+        }
+        System.out.println("淡变中点增益: " + fadeOut[fadeFrames / 2] / 10000.0 + " / " + fadeIn[fadeFrames / 2] / 10000.0);
+    }
+}
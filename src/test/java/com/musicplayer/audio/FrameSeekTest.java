@@ -0,0 +1,432 @@
+package com.musicplayer.audio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 逐帧跳转测试：在固定码率和可变码率（分别带Xing和VBRI头）的歌曲中跳转到若干位置，
+ * 解码出的帧序号、采样位置和PCM应与从头顺序解码完全一致，并统计从跳转到拿到第一帧PCM的耗时；
+ * 只扫描了开头一部分时，后面的偏移用头中的目录估算，VBRI应正好落在帧边界上，Xing的误差不超过一个目录项
+ */
+public class FrameSeekTest {
+    /** 合成可变码率歌曲使用的帧数 */
+    private static final int SYNTH_FRAMES = 3000;
+
+    /** VBRI目录每项覆盖的帧数 */
+    private static final int VBRI_FRAMES_PER_ENTRY = 50;
+
+    /** 跳转位置（占时长的比例） */
+    private static final double[] SEEK_POINTS = {0, 0.13, 0.37, 0.5, 0.71, 0.96};
+
+    /** 每次跳转后与顺序解码结果比较的帧数 */
+    private static final int COMPARE_FRAMES = 3;
+
+    /** 计时前预热的轮数 */
+    private static final int WARMUP_ROUNDS = 100;
+
+    /** 计时的轮数 */
+    private static final int TIMED_ROUNDS = 15;
+
+    /** 要求低于上限的跳转比例（百分位），剩下的允许被其他线程抢占或垃圾回收打断 */
+    private static final double SEEK_PERCENTILE = 0.95;
+
+    /** 跳转耗时上限（毫秒） */
+    private static final double MAX_SEEK_MILLIS = 5;
+
+    /** MPEG1 Layer III 的码率表（kbps） */
+    private static final int[] BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    /**
+     * 合成的可变码率音频数据（不含头信息帧）
+     */
+    static class Synthesized {
+        /** 音频帧数据 */
+        byte[] audio;
+
+        /** 各帧在音频数据中的偏移，最后一项为数据长度 */
+        long[] offsets;
+
+        /** 帧数 */
+        int frames;
+
+        /** 第一帧的帧头 */
+        int header;
+
+        /** 用到的码率 */
+        final Set<Integer> bitrates = new TreeSet<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length == 0) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        File song = files[0];
+        byte[] bytes = Files.readAllBytes(song.toPath());
+
+        // 固定码率：示例歌曲本身（带Info头）
+        Mp3FrameIndex cbr = Mp3FrameIndex.forFile(song);
+        check(cbr.getSamplesPerFrame() == 1152 && isConstantBitrate(cbr), "示例歌曲应为固定码率的MPEG1 Layer III");
+        short[] cbrReference = decodeAll(bytes, (int) cbr.getOffset(0));
+        seekAll("固定码率", MappedInputStream.map(song), cbr, cbrReference);
+
+        // 可变码率：把示例歌曲的帧改成不同码率
+        Synthesized synth = synthesize(bytes, cbr);
+        check(synth.bitrates.size() >= 3, "合成的歌曲应为可变码率: " + synth.bitrates);
+        short[] vbrReference = decodeAll(synth.audio, 0);
+
+        byte[] xing = withHeaderFrame(synth, xingFrame(synth, cbr.getSampleRate()));
+        Mp3FrameIndex xingIndex = scanWhole("Xing", xing, synth);
+        seekAll("可变码率（Xing）", ByteBuffer.wrap(xing), xingIndex, vbrReference);
+
+        byte[] vbri = withHeaderFrame(synth, vbriFrame(synth, cbr.getSampleRate()));
+        Mp3FrameIndex vbriIndex = scanWhole("VBRI", vbri, synth);
+        seekAll("可变码率（VBRI）", ByteBuffer.wrap(vbri), vbriIndex, vbrReference);
+
+        // 只扫描了开头一部分：用目录估算后面的偏移
+        checkXingEstimate(xing, xingIndex);
+        checkVbriEstimate(vbri, vbriIndex, vbrReference);
+
+        // 截断和损坏的头信息
+        checkDamagedHeader("Xing", xing, synth);
+        checkDamagedHeader("VBRI", vbri, synth);
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 跳转到各个位置，核对第一帧和后面几帧，先预热几轮再计时
+     */
+    private static void seekAll(String name, ByteBuffer data, Mp3FrameIndex index, short[] reference) throws Exception {
+        long trim = TrackDecoder.trimStart(index);
+        long[][] times = new long[SEEK_POINTS.length][TIMED_ROUNDS];
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            if (round == WARMUP_ROUNDS) {
+                // 计时前先回收合成和参考数据留下的垃圾，避免算进跳转耗时
+                System.gc();
+            }
+            for (int p = 0; p < SEEK_POINTS.length; p++) {
+                double point = SEEK_POINTS[p];
+                long millis = (long) (index.getDurationMillis() * point);
+                long start = System.nanoTime();
+                int frame = index.frameAtMillis(millis);
+                TrackDecoder decoder = TrackDecoder.open(data, index, frame);
+                try {
+                    boolean decoded = decoder.nextFrame();
+                    long elapsed = System.nanoTime() - start;
+                    if (round >= WARMUP_ROUNDS) {
+                        times[p][round - WARMUP_ROUNDS] = elapsed;
+                    }
+
+                    String at = name + "跳转到 " + millis + "ms";
+                    long sample = millis * index.getSampleRate() / 1000;
+                    check(index.getSamplePosition(frame) <= sample && sample < index.getSamplePosition(frame + 1),
+                        at + " 时选择的帧 " + frame + " 不包含该时间点");
+                    check(decoded && decoder.getCurrentFrame() == frame, at + " 后解码的第一帧不是第 " + frame + " 帧");
+                    long expected = Math.max(index.getSamplePosition(frame) - trim, 0);
+                    check(decoder.getSamplePosition() == expected,
+                        at + " 后的采样位置为 " + decoder.getSamplePosition() + "，应为 " + expected);
+                    for (int i = 0; i < COMPARE_FRAMES; i++) {
+                        check(matches(decoder, reference, trim, index.getChannels()),
+                            at + " 后第 " + decoder.getCurrentFrame() + " 帧的PCM与顺序解码不同");
+                        if (!decoder.nextFrame()) {
+                            break;
+                        }
+                    }
+                } finally {
+                    decoder.close();
+                }
+            }
+        }
+
+        long[] all = new long[SEEK_POINTS.length * TIMED_ROUNDS];
+        long total = 0;
+        for (int p = 0; p < times.length; p++) {
+            System.arraycopy(times[p], 0, all, p * TIMED_ROUNDS, TIMED_ROUNDS);
+        }
+        Arrays.sort(all);
+        for (long time : all) {
+            total += time;
+        }
+        long percentile = all[(int) Math.ceil(all.length * SEEK_PERCENTILE) - 1];
+        long worst = all[all.length - 1];
+        long slow = Arrays.stream(all).filter(time -> time / 1e6 >= MAX_SEEK_MILLIS).count();
+        System.out.printf("%s：%d 帧，%d 个位置各跳转 %d 次，到第一帧PCM平均 %.2f ms，P%d %.2f ms，最长 %.2f ms，超过 %.0f ms 的 %d 次%n",
+            name, index.getTotalFrames(), SEEK_POINTS.length, TIMED_ROUNDS, total / 1e6 / all.length,
+            Math.round(SEEK_PERCENTILE * 100), percentile / 1e6, worst / 1e6, MAX_SEEK_MILLIS, slow);
+        check(percentile / 1e6 < MAX_SEEK_MILLIS,
+            name + "P" + Math.round(SEEK_PERCENTILE * 100) + " 跳转耗时超过 " + MAX_SEEK_MILLIS + " ms");
+    }
+
+    /**
+     * 完整扫描合成的歌曲，帧数和每一帧的偏移都应与合成时一致
+     */
+    private static Mp3FrameIndex scanWhole(String name, byte[] data, Synthesized synth) {
+        Mp3FrameIndex index = Mp3FrameIndex.scan(data);
+        check(index.hasToc(), name + "目录没有解析出来");
+        check(index.getFrameCount() == synth.frames && index.getTotalFrames() == synth.frames,
+            name + "扫描到 " + index.getFrameCount() + " 帧，应为 " + synth.frames);
+        long base = data.length - synth.audio.length;
+        for (int i = 0; i < synth.frames; i++) {
+            check(index.getOffset(i) == base + synth.offsets[i], name + "第 " + i + " 帧的偏移不正确");
+        }
+        return index;
+    }
+
+    /**
+     * Xing目录估算的偏移误差不超过一个目录项（1%的数据）
+     */
+    private static void checkXingEstimate(byte[] data, Mp3FrameIndex whole) {
+        Mp3FrameIndex partial = Mp3FrameIndex.scan(ByteBuffer.wrap(data, 0, (int) whole.getOffset(whole.getFrameCount() / 10)));
+        check(partial.getFrameCount() < whole.getFrameCount() / 10 + 1 && partial.getTotalFrames() == whole.getTotalFrames(),
+            "部分扫描时应使用Xing头声明的帧数");
+        check(partial.getDurationMillis() == whole.getDurationMillis(), "部分扫描时的时长不正确");
+
+        long tolerance = data.length / 100;
+        long worst = 0;
+        long previous = 0;
+        for (int frame = partial.getFrameCount(); frame < whole.getFrameCount(); frame++) {
+            long estimate = partial.getOffset(frame);
+            check(estimate >= previous, "Xing估算的偏移应随帧序号递增");
+            previous = estimate;
+            worst = Math.max(worst, Math.abs(estimate - whole.getOffset(frame)));
+        }
+        System.out.printf("Xing目录估算：已扫描 %d 帧，其余 %d 帧的偏移最大误差 %d 字节（允许 %d）%n",
+            partial.getFrameCount(), whole.getFrameCount() - partial.getFrameCount(), worst, tolerance);
+        check(worst <= tolerance, "Xing估算的偏移误差过大");
+    }
+
+    /**
+     * VBRI目录估算的偏移正好是目录项第一帧的起始位置，从那里解码并丢弃前面的帧后与顺序解码一致
+     */
+    private static void checkVbriEstimate(byte[] data, Mp3FrameIndex whole, short[] reference) throws Exception {
+        Mp3FrameIndex partial = Mp3FrameIndex.scan(ByteBuffer.wrap(data, 0, (int) whole.getOffset(whole.getFrameCount() / 10)));
+        check(partial.getTotalFrames() == whole.getTotalFrames(), "部分扫描时应使用VBRI头声明的帧数");
+
+        for (int frame = partial.getFrameCount(); frame < whole.getFrameCount(); frame++) {
+            int entry = frame / VBRI_FRAMES_PER_ENTRY * VBRI_FRAMES_PER_ENTRY;
+            check(partial.getOffset(frame) == whole.getOffset(entry),
+                "VBRI估算第 " + frame + " 帧的偏移应为第 " + entry + " 帧的起始位置");
+        }
+
+        int checked = 0;
+        for (double point : SEEK_POINTS) {
+            int entry = (int) (whole.getFrameCount() * point) / VBRI_FRAMES_PER_ENTRY * VBRI_FRAMES_PER_ENTRY;
+            int frame = entry + VBRI_FRAMES_PER_ENTRY / 2;
+            if (frame < partial.getFrameCount() || frame >= whole.getFrameCount()) {
+                continue;
+            }
+            MappedInputStream input = new MappedInputStream(ByteBuffer.wrap(data));
+            input.position(partial.getOffset(frame));
+            TrackDecoder decoder = new TrackDecoder(input, partial, entry, frame - entry);
+            try {
+                check(decoder.nextFrame() && decoder.getCurrentFrame() == frame
+                        && decoder.getSamplePosition() == partial.getSamplePosition(frame),
+                    "从VBRI估算的位置解码后第一帧不是第 " + frame + " 帧");
+                check(matches(decoder, reference, 0, partial.getChannels()),
+                    "从VBRI估算的位置解码的第 " + frame + " 帧PCM与顺序解码不同");
+            } finally {
+                decoder.close();
+            }
+            checked++;
+        }
+        System.out.printf("VBRI目录估算：已扫描 %d 帧，其余帧都落在目录项起点，%d 个位置解码一致%n",
+            partial.getFrameCount(), checked);
+        check(checked > 0, "没有检查从VBRI估算位置解码");
+    }
+
+    /**
+     * 各帧长度最多相差一个填充字节
+     */
+    private static boolean isConstantBitrate(Mp3FrameIndex index) {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i + 1 < index.getFrameCount(); i++) {
+            long length = index.getOffset(i + 1) - index.getOffset(i);
+            min = Math.min(min, length);
+            max = Math.max(max, length);
+        }
+        return max - min <= 1;
+    }
+
+    /**
+     * 数据在头信息帧中间截断时扫描不抛出异常；头中声明的帧数损坏（接近int上限）时，
+     * 不按声明的帧数分配索引，仍能扫描出全部帧
+     */
+    private static void checkDamagedHeader(String name, byte[] data, Synthesized synth) {
+        int headerFrame = data.length - synth.audio.length;
+        for (int length = 0; length <= headerFrame + 4; length++) {
+            try {
+                Mp3FrameIndex.scan(ByteBuffer.wrap(data, 0, length));
+            } catch (RuntimeException e) {
+                check(false, name + "头在第 " + length + " 字节截断时扫描抛出 " + e);
+            }
+        }
+
+        byte[] damaged = data.clone();
+        int field = name.equals("Xing") ? ((synth.header >>> 6 & 3) == 3 ? 4 + 17 : 4 + 32) + 8 : 4 + 32 + 14;
+        ByteBuffer.wrap(damaged).putInt(field, 0x7FFFFFF0);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        Mp3FrameIndex index = Mp3FrameIndex.scan(damaged);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        System.out.printf("%s头声明 %d 帧：扫描到 %d 帧，分配 %d KB%n",
+            name, 0x7FFFFFF0, index.getFrameCount(), allocated / 1024);
+        check(index.getFrameCount() == synth.frames, name + "头中帧数损坏时没有扫描出全部帧");
+        check(allocated < (long) damaged.length * 4, name + "头中帧数损坏时不应按声明的帧数分配索引");
+    }
+
+    /**
+     * 解码器当前帧的PCM是否与顺序解码结果中相同位置的采样一致
+     */
+    private static boolean matches(TrackDecoder decoder, short[] reference, long trim, int channels) {
+        long from = (decoder.getSamplePosition() + trim) * channels;
+        int length = decoder.getSampleLength();
+        if (length == 0 || from + length > reference.length) {
+            return false;
+        }
+        short[] samples = decoder.getSamples();
+        int offset = decoder.getSampleOffset();
+        for (int i = 0; i < length; i++) {
+            if (samples[offset + i] != reference[(int) from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从第一帧开始顺序解码全部数据，不裁剪
+     */
+    private static short[] decodeAll(byte[] data, int start) throws Exception {
+        TrackDecoder decoder = new TrackDecoder(new ByteArrayInputStream(data, start, data.length - start), null, 0, 0);
+        short[] all = new short[1 << 20];
+        int length = 0;
+        try {
+            while (decoder.nextFrame()) {
+                if (length + decoder.getSampleLength() > all.length) {
+                    all = Arrays.copyOf(all, all.length * 2);
+                }
+                System.arraycopy(decoder.getSamples(), decoder.getSampleOffset(), all, length, decoder.getSampleLength());
+                length += decoder.getSampleLength();
+            }
+        } finally {
+            decoder.close();
+        }
+        return Arrays.copyOf(all, length);
+    }
+
+    /**
+     * 把固定码率歌曲的帧改写成交替的几种码率
+     * 在下一帧主数据开始之前（本帧主数据之后）插入零字节，比特池的回溯距离不变，解码结果与原来相同
+     */
+    private static Synthesized synthesize(byte[] source, Mp3FrameIndex index) {
+        int sideInfo = index.getChannels() == 1 ? 17 : 32;
+        Synthesized synth = new Synthesized();
+        synth.frames = Math.min(SYNTH_FRAMES, index.getFrameCount() - 1);
+        synth.offsets = new long[synth.frames + 1];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < synth.frames; i++) {
+            int from = (int) index.getOffset(i);
+            int length = (int) (index.getOffset(i + 1) - from);
+            int header = ByteBuffer.wrap(source, from, 4).getInt();
+            int crc = (header >>> 16 & 1) == 0 ? 2 : 0;
+            int next = from + length;
+            int nextSide = next + 4 + ((ByteBuffer.wrap(source, next, 4).getInt() >>> 16 & 1) == 0 ? 2 : 0);
+            int mainDataBegin = ((source[nextSide] & 0xFF) << 1) | ((source[nextSide + 1] & 0xFF) >>> 7);
+            int payload = length - 4 - crc - sideInfo;
+
+            int bitrate = i % 3 == 1 ? 192 : i % 3 == 2 ? 256 : 0;
+            int resized = bitrate > 0 ? 144000 * bitrate / index.getSampleRate() : 0;
+            synth.offsets[i] = out.size();
+            if (bitrate > 0 && crc == 0 && mainDataBegin <= payload && resized > length) {
+                int split = length - mainDataBegin;
+                header = (header & ~0xF200) | (Arrays.binarySearch(BITRATES, bitrate) << 12);
+                writeInt(out, header);
+                out.write(source, from + 4, split - 4);
+                out.write(new byte[resized - length], 0, resized - length);
+                out.write(source, from + split, length - split);
+            } else {
+                out.write(source, from, length);
+            }
+            if (i == 0) {
+                synth.header = header;
+            }
+            synth.bitrates.add(BITRATES[header >>> 12 & 0xF]);
+        }
+        synth.offsets[synth.frames] = out.size();
+        synth.audio = out.toByteArray();
+        return synth;
+    }
+
+    /**
+     * 128kbps、不带CRC的头信息帧（全部为零，帧头取自第一帧）
+     */
+    private static byte[] emptyFrame(Synthesized synth, int sampleRate) {
+        byte[] frame = new byte[144000 * 128 / sampleRate];
+        int header = (synth.header & ~0xF200) | 0x10000 | (Arrays.binarySearch(BITRATES, 128) << 12);
+        ByteBuffer.wrap(frame).putInt(header);
+        return frame;
+    }
+
+    /**
+     * 带帧数、字节数和100项目录的Xing头，目录按整个文件的百分比记录
+     */
+    private static byte[] xingFrame(Synthesized synth, int sampleRate) {
+        byte[] frame = emptyFrame(synth, sampleRate);
+        long bytes = frame.length + synth.audio.length;
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(((synth.header >>> 6 & 3) == 3) ? 4 + 17 : 4 + 32);
+        buffer.put("Xing".getBytes()).putInt(7).putInt(synth.frames).putInt((int) bytes);
+        for (int i = 0; i < 100; i++) {
+            long offset = frame.length + synth.offsets[(int) ((long) i * synth.frames / 100)];
+            buffer.put((byte) Math.min(offset * 256 / bytes, 255));
+        }
+        return frame;
+    }
+
+    /**
+     * VBRI头，目录每项记录 {@link #VBRI_FRAMES_PER_ENTRY} 帧的字节数
+     */
+    private static byte[] vbriFrame(Synthesized synth, int sampleRate) {
+        byte[] frame = emptyFrame(synth, sampleRate);
+        int entries = (synth.frames + VBRI_FRAMES_PER_ENTRY - 1) / VBRI_FRAMES_PER_ENTRY;
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.position(4 + 32);
+        buffer.put("VBRI".getBytes()).putShort((short) 1).putShort((short) 0).putShort((short) 75)
+            .putInt(frame.length + synth.audio.length).putInt(synth.frames)
+            .putShort((short) entries).putShort((short) 1).putShort((short) 4).putShort((short) VBRI_FRAMES_PER_ENTRY);
+        for (int i = 0; i < entries; i++) {
+            int first = i * VBRI_FRAMES_PER_ENTRY;
+            int last = Math.min(first + VBRI_FRAMES_PER_ENTRY, synth.frames);
+            buffer.putInt((int) (synth.offsets[last] - synth.offsets[first]));
+        }
+        return frame;
+    }
+
+    private static byte[] withHeaderFrame(Synthesized synth, byte[] frame) {
+        byte[] data = Arrays.copyOf(frame, frame.length + synth.audio.length);
+        System.arraycopy(synth.audio, 0, data, frame.length, synth.audio.length);
+        return data;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
@@ -0,0 +1,136 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无缝播放测试：两首歌连续播放时，输出的PCM应该正好等于两首歌各自解码结果的拼接，
+ * 衔接处不能多出任何静音采样
+ */
+public class GaplessPlaybackTest {
+    /**
+     * 记录所有写入数据的输出
+     */
+    static class CapturingOutput implements AudioOutput {
+        short[] samples = new short[1 << 20];
+        int length;
+
+        @Override
+        public void open(AudioFormat format) { }
+
+        @Override
+        public synchronized void write(short[] data, int offset, int count) {
+            if (length + count > samples.length) {
+                samples = Arrays.copyOf(samples, Math.max(samples.length * 2, length + count));
+            }
+            System.arraycopy(data, offset, samples, length, count);
+            length += count;
+        }
+
+        @Override
+        public void pause() { }
+
+        @Override
+        public void resume() { }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void drain() { }
+
+        @Override
+        public void close() { }
+
+        @Override
+        public synchronized long getFramesWritten() {
+            return length / 2;
+        }
+
+        @Override
+        public long getFramePosition() {
+            return getFramesWritten();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length < 2) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        File first = files[0];
+        File second = files[1];
+
+        // 期望结果：两首歌单独解码（已裁剪延迟和填充）后直接拼接
+        short[] expectedFirst = decodeAll(first);
+        short[] expectedSecond = decodeAll(second);
+        short[] expected = Arrays.copyOf(expectedFirst, expectedFirst.length + expectedSecond.length);
+        System.arraycopy(expectedSecond, 0, expected, expectedFirst.length, expectedSecond.length);
+
+        CapturingOutput output = new CapturingOutput();
+        AudioPlayer player = new AudioPlayer(output);
+        CountDownLatch finished = new CountDownLatch(1);
+        player.setTrackListener(new AudioPlayer.TrackListener() {
+            @Override
+            public void onTrackChanged(String filePath) {
+                System.out.println("已无缝切换到: " + new File(filePath).getName());
+            }
+
+            @Override
+            public void onTrackFinished() {
+                finished.countDown();
+            }
+        });
+        player.setNextTrack(second.getPath());
+        player.play(first.getPath());
+
+        if (!finished.await(60, TimeUnit.SECONDS)) {
+            System.err.println("测试失败: 播放未在60秒内结束");
+            System.exit(1);
+        }
+
+        short[] actual = Arrays.copyOf(output.samples, output.length);
+        System.out.println("期望采样数: " + expected.length + "，实际采样数: " + actual.length);
+        printTrim(first);
+        printTrim(second);
+        if (!Arrays.equals(expected, actual)) {
+            int mismatch = 0;
+            while (mismatch < Math.min(expected.length, actual.length) && expected[mismatch] == actual[mismatch]) {
+                mismatch++;
+            }
+            System.err.println("测试失败: 输出在第 " + mismatch + " 个采样处与期望不同（衔接点 "
+                + expectedFirst.length + "）");
+            System.exit(1);
+        }
+        System.out.println("测试通过: 衔接处没有额外的静音");
+        System.exit(0);
+    }
+
+    private static short[] decodeAll(File file) throws Exception {
+        Mp3FrameIndex index = Mp3FrameIndex.forFile(file);
+        short[] result = new short[1 << 20];
+        int length = 0;
+        try (TrackDecoder decoder = TrackDecoder.open(file, index, 0)) {
+            while (decoder.nextFrame()) {
+                if (length + decoder.getSampleLength() > result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                System.arraycopy(decoder.getSamples(), decoder.getSampleOffset(), result, length,
+                    decoder.getSampleLength());
+                length += decoder.getSampleLength();
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static void printTrim(File file) throws Exception {
+        Mp3FrameIndex index = Mp3FrameIndex.forFile(file);
+        System.out.println(file.getName() + ": 帧数 " + index.getFrameCount()
+            + "，编码器延迟 " + index.getEncoderDelay() + "，末尾填充 " + index.getEncoderPadding());
+    }
+}
@@ -0,0 +1,157 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+
+/**
+ * 内存映射播放测试：映射流按绝对位置读到的内容与文件一致，解码结果与读入堆中的数据相同，
+ * 打开映射不在堆中复制整首歌；播放开始后删除文件，跳转和暂停后继续仍能播放，说明不重新打开文件
+ */
+public class MappedPlaybackTest {
+    /** 比较和统计分配时解码的帧数 */
+    private static final int DECODE_FRAMES = 50;
+
+    /**
+     * 按大约实时速度消耗数据的输出，只统计写入的帧数
+     */
+    static class PacedOutput implements AudioOutput {
+        private volatile long frames;
+
+        @Override
+        public void open(AudioFormat format) { }
+
+        @Override
+        public void write(short[] samples, int offset, int length) {
+            frames += length / 2;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void pause() { }
+
+        @Override
+        public void resume() { }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void drain() { }
+
+        @Override
+        public long getFramesWritten() {
+            return frames;
+        }
+
+        @Override
+        public long getFramePosition() {
+            return frames;
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length == 0) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        File song = files[0];
+        byte[] bytes = Files.readAllBytes(song.toPath());
+
+        // 绝对位置读取
+        MappedInputStream stream = new MappedInputStream(MappedInputStream.map(song));
+        check(stream.length() == bytes.length, "映射长度不正确");
+        byte[] chunk = new byte[4096];
+        stream.position(bytes.length / 2);
+        check(stream.read(chunk, 0, chunk.length) == chunk.length
+            && Arrays.equals(chunk, Arrays.copyOfRange(bytes, bytes.length / 2, bytes.length / 2 + chunk.length)),
+            "跳转后读到的内容不正确");
+        check(stream.position() == bytes.length / 2 + chunk.length, "读取位置应为文件中的字节偏移");
+        stream.position(bytes.length + 100);
+        check(stream.read() == -1 && stream.available() == 0, "超出末尾后应读完");
+
+        // 解码结果与堆中数据相同
+        Mp3FrameIndex index = Mp3FrameIndex.forFile(song);
+        int startFrame = index.getFrameCount() / 3;
+        short[] fromHeap = decode(TrackDecoder.open(bytes, index, startFrame));
+        short[] fromMap = decode(TrackDecoder.open(song, index, startFrame));
+        check(fromHeap.length > 0 && Arrays.equals(fromHeap, fromMap), "映射解码结果与堆中数据不同");
+
+        // 统计打开并解码时在堆中分配的字节数
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        decode(TrackDecoder.open(Files.readAllBytes(song.toPath()), index, 0));
+        long heapCopy = threads.getThreadAllocatedBytes(threadId) - before;
+        before = threads.getThreadAllocatedBytes(threadId);
+        decode(TrackDecoder.open(MappedInputStream.map(song), index, 0));
+        long mapped = threads.getThreadAllocatedBytes(threadId) - before;
+        System.out.printf("打开 %d KB 的歌曲并解码 %d 帧：读入堆中分配 %d KB，内存映射分配 %d KB%n",
+            bytes.length / 1024, DECODE_FRAMES, heapCopy / 1024, mapped / 1024);
+        check(heapCopy - mapped >= bytes.length * 9L / 10, "内存映射应少分配约一首歌的堆内存");
+
+        // 播放开始后删除文件：跳转和继续播放都使用已有的映射
+        File dir = Files.createTempDirectory("mapped-playback-").toFile();
+        File copy = new File(dir, "song.mp3");
+        Files.copy(song.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        PacedOutput output = new PacedOutput();
+        AudioPlayer player = new AudioPlayer(output);
+        try {
+            player.play(copy.getPath());
+            waitUntil(() -> output.getFramesWritten() > 0, 5000);
+            check(copy.delete(), "无法删除文件");
+
+            player.seek(index.getDurationMillis() / 2);
+            long afterSeek = output.getFramesWritten();
+            waitUntil(() -> output.getFramesWritten() > afterSeek, 5000);
+            check(output.getFramesWritten() > afterSeek && player.isPlaying(), "删除文件后跳转应继续播放");
+            check(player.getPositionMillis() >= index.getDurationMillis() / 2 - 1000, "跳转后的位置不正确");
+
+            player.pause();
+            player.seek(index.getDurationMillis() / 4);
+            player.resume();
+            long afterResume = output.getFramesWritten();
+            waitUntil(() -> output.getFramesWritten() > afterResume, 5000);
+            check(output.getFramesWritten() > afterResume && player.isPlaying(), "删除文件后继续播放应从映射读取");
+        } finally {
+            player.stop();
+            copy.delete();
+            dir.delete();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 解码若干帧，返回所有采样
+     */
+    private static short[] decode(TrackDecoder decoder) throws Exception {
+        short[] all = new short[0];
+        try {
+            for (int i = 0; i < DECODE_FRAMES && decoder.nextFrame(); i++) {
+                int length = all.length;
+                all = Arrays.copyOf(all, length + decoder.getSampleLength());
+                System.arraycopy(decoder.getSamples(), decoder.getSampleOffset(), all, length, decoder.getSampleLength());
+            }
+        } finally {
+            decoder.close();
+        }
+        return all;
+    }
+}
@@ -0,0 +1,430 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * 暂停/继续延迟测试：测量从调用暂停到线路停止出声、从调用继续到线路重新出声的时间
+ * 有音频设备时使用真实线路，否则使用按实时速度消耗数据的模拟线路；
+ * 流式播放暂停后继续也从暂停处接着播放，不重新读取流
+ */
+public class PauseLatencyTest {
+    /** 延迟上限（毫秒） */
+    private static final double LIMIT_MILLIS = 20;
+
+    /** 暂停/继续的次数 */
+    private static final int CYCLES = 20;
+
+    /**
+     * 模拟声卡的线路，启动后按采样率消耗缓冲区中的数据
+     */
+    static class SimulatedLine implements SourceDataLine {
+        private AudioFormat format;
+        private int bufferSize;
+        private long buffered;
+        private long framesPlayed;
+        private double pendingFrames;
+        private long lastNanos;
+        private boolean running;
+        private boolean open;
+        private long flushes;
+
+        private void advance() {
+            long now = System.nanoTime();
+            if (running) {
+                pendingFrames += (now - lastNanos) * (double) format.getFrameRate() / 1e9;
+                long frames = Math.min((long) pendingFrames, buffered / format.getFrameSize());
+                pendingFrames -= (long) pendingFrames;
+                framesPlayed += frames;
+                buffered -= frames * format.getFrameSize();
+            }
+            lastNanos = now;
+        }
+
+        @Override
+        public synchronized void open(AudioFormat format, int bufferSize) {
+            this.format = format;
+            this.bufferSize = bufferSize;
+            this.open = true;
+        }
+
+        @Override
+        public void open(AudioFormat format) {
+            open(format, (int) format.getFrameRate() * format.getFrameSize() / 2);
+        }
+
+        @Override
+        public void open() {
+            open(new AudioFormat(44100, 16, 2, true, false));
+        }
+
+        @Override
+        public synchronized int write(byte[] b, int off, int len) {
+            long flushId = flushes;
+            int written = 0;
+            while (written < len && open && flushId == flushes) {
+                advance();
+                int count = (int) Math.min(len - written, bufferSize - buffered);
+                if (count > 0) {
+                    buffered += count;
+                    written += count;
+                } else {
+                    try {
+                        wait(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public synchronized void drain() {
+            while (open && running && buffered > 0) {
+                advance();
+                try {
+                    wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            advance();
+            buffered = 0;
+            flushes++;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void start() {
+            advance();
+            running = true;
+        }
+
+        @Override
+        public synchronized void stop() {
+            advance();
+            running = false;
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public synchronized boolean isActive() {
+            return running;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        @Override
+        public synchronized int available() {
+            advance();
+            return (int) (bufferSize - buffered);
+        }
+
+        @Override
+        public int getFramePosition() {
+            return (int) getLongFramePosition();
+        }
+
+        @Override
+        public synchronized long getLongFramePosition() {
+            advance();
+            return framesPlayed;
+        }
+
+        @Override
+        public long getMicrosecondPosition() {
+            return (long) (getLongFramePosition() * 1e6 / format.getFrameRate());
+        }
+
+        @Override
+        public float getLevel() {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public DataLine.Info getLineInfo() {
+            return new DataLine.Info(SourceDataLine.class, format);
+        }
+
+        @Override
+        public synchronized void close() {
+            open = false;
+            running = false;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public Control[] getControls() {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control) {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control) {
+            throw new IllegalArgumentException("不支持的控件: " + control);
+        }
+
+        @Override
+        public void addLineListener(LineListener listener) { }
+
+        @Override
+        public void removeLineListener(LineListener listener) { }
+    }
+
+    /**
+     * 记录清空之后是否收到旧数据的线路，接收数据前先停顿一下，放大写入线程检查和写入之间的窗口
+     */
+    static class RecordingLine extends SimulatedLine {
+        /** 旧数据的字节值 */
+        static final byte STALE = 1;
+
+        /** 上次清空之后是否收到过旧数据 */
+        private boolean staleAfterFlush;
+
+        /** 清空次数 */
+        private long flushCount;
+
+        @Override
+        public int write(byte[] b, int off, int len) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                long flushId = flushCount;
+                int written = super.write(b, off, len);
+                for (int i = off; i < off + written && flushId == flushCount; i++) {
+                    if (b[i] == STALE) {
+                        staleAfterFlush = true;
+                        break;
+                    }
+                }
+                return written;
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            super.flush();
+            flushCount++;
+            staleAfterFlush = false;
+        }
+
+        synchronized boolean hasStaleAfterFlush() {
+            return staleAfterFlush;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length == 0) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+
+        testNoStaleDataAfterFlush();
+
+        SourceDataLine[] lines = new SourceDataLine[1];
+        LineAudioOutput output = new LineAudioOutput(format -> {
+            if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format))) {
+                lines[0] = AudioSystem.getSourceDataLine(format);
+            } else {
+                lines[0] = new SimulatedLine();
+            }
+            return lines[0];
+        });
+        AudioPlayer player = new AudioPlayer(output);
+        player.play(files[0].getPath());
+        Thread.sleep(500);
+        System.out.println("播放500毫秒后的位置: " + player.getPositionMillis() + " ms");
+        System.out.println("线路: " + (lines[0] instanceof SimulatedLine ? "模拟线路" : lines[0].getLineInfo()));
+
+        double maxPause = 0, maxResume = 0, totalPause = 0, totalResume = 0;
+        for (int i = 0; i < CYCLES; i++) {
+            long before = player.getPositionMillis();
+            double pauseMillis = measurePause(player, output);
+            long pausedAt = player.getPositionMillis();
+            Thread.sleep(50);
+            if (player.getPositionMillis() != pausedAt) {
+                System.err.println("测试失败: 暂停期间播放位置仍在变化");
+                System.exit(1);
+            }
+            double resumeMillis = measureResume(player, output);
+            Thread.sleep(100);
+            if (player.getPositionMillis() < before) {
+                System.err.println("测试失败: 继续播放后位置回退 " + before + " -> " + player.getPositionMillis());
+                System.exit(1);
+            }
+            maxPause = Math.max(maxPause, pauseMillis);
+            maxResume = Math.max(maxResume, resumeMillis);
+            totalPause += pauseMillis;
+            totalResume += resumeMillis;
+        }
+        player.stop();
+
+        // 流式播放：暂停时解码线程停在原处，继续时不重新读取流，也不从头播放
+        CountingInputStream stream = new CountingInputStream(new FileInputStream(files[0]));
+        player.playStream(stream);
+        Thread.sleep(500);
+        for (int i = 0; i < 5; i++) {
+            long before = player.getPositionMillis();
+            player.pause();
+            Thread.sleep(50);
+            long readWhilePaused = stream.count;
+            player.resume();
+            Thread.sleep(100);
+            if (!player.isPlaying() || player.getPositionMillis() < before) {
+                System.err.println("测试失败: 流式播放继续后应从暂停处接着播放 " + before + " -> "
+                    + player.getPositionMillis());
+                System.exit(1);
+            }
+            if (stream.count < readWhilePaused || stream.count > files[0].length()) {
+                System.err.println("测试失败: 流式播放继续时不应重新读取流");
+                System.exit(1);
+            }
+        }
+        System.out.println("流式播放暂停/继续后的位置: " + player.getPositionMillis() + " ms");
+        player.stop();
+        output.close();
+
+        System.out.printf("暂停到静音: 平均 %.2f ms，最大 %.2f ms%n", totalPause / CYCLES, maxPause);
+        System.out.printf("继续到出声: 平均 %.2f ms，最大 %.2f ms%n", totalResume / CYCLES, maxResume);
+        if (maxPause >= LIMIT_MILLIS || maxResume >= LIMIT_MILLIS) {
+            System.err.println("测试失败: 延迟超过 " + LIMIT_MILLIS + " ms");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 清空（跳转、停止）之后线路不应再收到清空前写入的数据，即使写入线程恰好在检查之后、写入之前
+     */
+    private static void testNoStaleDataAfterFlush() throws Exception {
+        RecordingLine line = new RecordingLine();
+        LineAudioOutput output = new LineAudioOutput(format -> line);
+        output.open(new AudioFormat(44100, 16, 2, true, false));
+        short[] stale = new short[441 * 2 * 20];
+        Arrays.fill(stale, (short) 0x0101);
+        short[] fresh = new short[441 * 2];
+        Arrays.fill(fresh, (short) 0x0202);
+        int iterations = 100;
+        int staleCount = 0;
+        for (int i = 0; i < iterations; i++) {
+            output.write(stale, 0, stale.length);
+            Thread.sleep(i % 5);
+            output.flush();
+            output.write(fresh, 0, fresh.length);
+            Thread.sleep(5);
+            if (line.hasStaleAfterFlush()) {
+                staleCount++;
+            }
+        }
+        output.close();
+        System.out.println("清空 " + iterations + " 次，之后线路又收到旧数据: " + staleCount + " 次");
+        if (staleCount > 0) {
+            System.err.println("测试失败: 清空之后线路仍收到清空前的数据");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 统计已读取字节数的输入流
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 调用暂停后观察50毫秒，最后一次帧位置变化的时间即为暂停到静音的延迟
+     */
+    private static double measurePause(AudioPlayer player, LineAudioOutput output) {
+        long start = System.nanoTime();
+        player.pause();
+        long lastPosition = output.getFramePosition();
+        long lastChange = start;
+        while (System.nanoTime() - start < 50_000_000L) {
+            long position = output.getFramePosition();
+            if (position != lastPosition) {
+                lastPosition = position;
+                lastChange = System.nanoTime();
+            }
+        }
+        return (lastChange - start) / 1e6;
+    }
+
+    /**
+     * 调用继续后等待帧位置重新前进
+     */
+    private static double measureResume(AudioPlayer player, LineAudioOutput output) {
+        long position = output.getFramePosition();
+        long start = System.nanoTime();
+        player.resume();
+        while (output.getFramePosition() == position && System.nanoTime() - start < 1_000_000_000L) {
+            Thread.yield();
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,201 @@
+package com.musicplayer.audio;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * PCM缓存测试：重播和向后跳转直接读取缓存且输出与解码结果一致，
+ * 第一次播放中途向后跳转时读取已解码的部分，接着解码后整首写入缓存，
+ * 文件修改后不再命中，超出预算时淘汰最久未使用的曲目
+ */
+public class PcmCacheTest {
+    /**
+     * 写够指定采样数后阻塞写入的输出，模拟播放到一半，清空后不再阻塞
+     */
+    static class GatedOutput extends GaplessPlaybackTest.CapturingOutput {
+        private int limit;
+
+        GatedOutput(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(short[] data, int offset, int count) {
+            while (length >= limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            super.write(data, offset, count);
+        }
+
+        @Override
+        public synchronized void flush() {
+            limit = Integer.MAX_VALUE;
+            notifyAll();
+        }
+
+        synchronized int written() {
+            return length;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length < 2) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        File first = File.createTempFile("pcm-cache-", ".mp3");
+        first.deleteOnExit();
+        Files.copy(files[0].toPath(), first.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        GaplessPlaybackTest.CapturingOutput output = new GaplessPlaybackTest.CapturingOutput();
+        AudioPlayer player = new AudioPlayer(output);
+        PcmCache cache = player.getPcmCache();
+        player.setGaplessEnabled(false);
+
+        // 第一次播放：解码并写入缓存
+        long start = System.nanoTime();
+        short[] decoded = playToEnd(player, output, first.getPath());
+        long decodeMillis = (System.nanoTime() - start) / 1_000_000;
+        check(cache.getEntryCount() == 1, "完整播放后曲目应加入缓存");
+        check(cache.getMisses() == 1 && cache.getHits() == 0, "第一次播放应未命中");
+
+        // 重播：直接读取PCM，输出应完全一致
+        start = System.nanoTime();
+        short[] replayed = playToEnd(player, output, first.getPath());
+        long replayMillis = (System.nanoTime() - start) / 1_000_000;
+        check(cache.getHits() == 1, "重播应命中缓存");
+        check(Arrays.equals(decoded, replayed), "重播输出与解码结果不一致");
+        System.out.println("解码播放 " + decodeMillis + " ms，缓存重播 " + replayMillis + " ms");
+
+        // 向后跳转：从缓存中间位置开始，数据应与解码结果对应位置一致
+        CountDownLatch finished = listen(player);
+        player.play(first.getPath());
+        player.pause();
+        player.seek(60000);
+        output.length = 0;
+        player.resume();
+        check(finished.await(60, TimeUnit.SECONDS), "跳转后没有播放完");
+        check(cache.getHits() >= 3, "跳转应命中缓存");
+        short[] tail = Arrays.copyOf(output.samples, output.length);
+        short[] expectedTail = Arrays.copyOfRange(decoded, decoded.length - tail.length, decoded.length);
+        check(tail.length > 0 && Arrays.equals(tail, expectedTail), "跳转后的输出与解码结果不一致");
+
+        // 文件修改后缓存键变化，不会命中旧数据
+        check(first.setLastModified(first.lastModified() + 2000), "无法修改文件时间");
+        long misses = cache.getMisses();
+        playToEnd(player, output, first.getPath());
+        check(cache.getMisses() == misses + 1, "文件修改后应未命中");
+
+        // 预算只够一首时，播放另一首会淘汰最久未使用的曲目
+        cache.setBudgetBytes(cache.getSizeBytes() / cache.getEntryCount() + PcmCache.CHUNK_BYTES * 4);
+        check(cache.getEntryCount() == 1, "缩小预算后应只剩一首");
+        long evictions = cache.getEvictions();
+        playToEnd(player, output, files[1].getPath());
+        check(cache.getEvictions() == evictions + 1 && cache.getEntryCount() == 1, "超出预算时应淘汰旧曲目");
+        check(cache.getSizeBytes() <= cache.getBudgetBytes(), "缓存占用超出预算");
+
+        System.out.println(cache);
+
+        File second = File.createTempFile("pcm-cache-", ".mp3");
+        second.deleteOnExit();
+        Files.copy(files[1].toPath(), second.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        testBackwardSeekDuringFirstPlayback(second);
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 第一次播放到一半时向后跳转：跳转后的输出与顺序解码一致，
+     * 播放结束后由已解码部分和接着解码的部分拼成的整首歌曲加入缓存，重播结果与顺序解码完全相同
+     */
+    private static void testBackwardSeekDuringFirstPlayback(File song) throws Exception {
+        short[] expected = decodeAll(song);
+        // 播放到30秒左右时阻塞，此时前30秒已写入未完成的缓存
+        GatedOutput output = new GatedOutput(44100 * 2 * 30);
+        AudioPlayer player = new AudioPlayer(output);
+        PcmCache cache = player.getPcmCache();
+        player.setGaplessEnabled(false);
+
+        CountDownLatch finished = listen(player);
+        player.play(song.getPath());
+        long deadline = System.currentTimeMillis() + 30000;
+        while (output.written() < 44100 * 2 * 30 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        check(output.written() >= 44100 * 2 * 30, "第一次播放没有写到30秒");
+        player.pause();
+        player.seek(10000);
+        output.length = 0;
+        player.resume();
+        check(finished.await(60, TimeUnit.SECONDS), "向后跳转后没有播放完");
+        short[] tail = Arrays.copyOf(output.samples, output.length);
+        short[] expectedTail = Arrays.copyOfRange(expected, expected.length - tail.length, expected.length);
+        check(tail.length > expected.length / 2 && Arrays.equals(tail, expectedTail), "第一次播放中向后跳转后的输出与解码结果不一致");
+        check(cache.getEntryCount() == 1 && cache.getHits() == 0, "接着解码到结尾后应整首加入缓存");
+        player.stop();
+
+        short[] replayed = playToEnd(player, output, song.getPath());
+        check(cache.getHits() == 1, "重播应命中缓存");
+        check(Arrays.equals(replayed, expected), "拼接写入的缓存与顺序解码结果不一致");
+        System.out.println("第一次播放中向后跳转：" + cache);
+        player.stop();
+    }
+
+    /**
+     * 从头顺序解码整首歌曲
+     */
+    private static short[] decodeAll(File file) throws Exception {
+        TrackDecoder decoder = TrackDecoder.open(file, Mp3FrameIndex.forFile(file), 0);
+        short[] all = new short[1 << 20];
+        int length = 0;
+        try {
+            while (decoder.nextFrame()) {
+                if (length + decoder.getSampleLength() > all.length) {
+                    all = Arrays.copyOf(all, all.length * 2);
+                }
+                System.arraycopy(decoder.getSamples(), decoder.getSampleOffset(), all, length, decoder.getSampleLength());
+                length += decoder.getSampleLength();
+            }
+        } finally {
+            decoder.close();
+        }
+        return Arrays.copyOf(all, length);
+    }
+
+    private static short[] playToEnd(AudioPlayer player, GaplessPlaybackTest.CapturingOutput output, String path)
+            throws InterruptedException {
+        CountDownLatch finished = listen(player);
+        output.length = 0;
+        player.play(path);
+        check(finished.await(60, TimeUnit.SECONDS), "播放没有结束: " + path);
+        player.stop();
+        return Arrays.copyOf(output.samples, output.length);
+    }
+
+    private static CountDownLatch listen(AudioPlayer player) {
+        CountDownLatch finished = new CountDownLatch(1);
+        player.setTrackListener(new AudioPlayer.TrackListener() {
+            @Override
+            public void onTrackChanged(String filePath) { }
+
+            @Override
+            public void onTrackFinished() {
+                finished.countDown();
+            }
+        });
+        return finished;
+    }
+}
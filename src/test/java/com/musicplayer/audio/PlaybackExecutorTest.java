@@ -0,0 +1,202 @@
+package com.musicplayer.audio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+
+/**
+ * 播放执行器测试：解码线程忙时连续提交的会话，被取代的在开始前就被丢弃，只有最后一个会运行；
+ * 快速切歌1000次后只剩一个解码器在运行，解码线程始终只有一个，
+ * 切歌结束后输出中只有最后一首歌从头开始的PCM
+ */
+public class PlaybackExecutorTest {
+    /** 切歌次数 */
+    private static final int SKIPS = 1000;
+
+    /** 切歌结束后比较的帧数 */
+    private static final int COMPARE_FRAMES = 20;
+
+    /**
+     * 按实时速度消耗数据的输出，模拟真实声卡，记录打开次数和上次清空之后写入的数据
+     */
+    static class RealtimeOutput implements AudioOutput {
+        /** 上次清空之后写入的采样（只保留开头） */
+        private final short[] written;
+
+        /** 已保留的采样个数 */
+        private int length;
+
+        /** 打开次数 */
+        private volatile int opens;
+
+        /** 写入的总帧数 */
+        private volatile long frames;
+
+        RealtimeOutput(int capacity) {
+            this.written = new short[capacity];
+        }
+
+        @Override
+        public void open(AudioFormat format) {
+            opens++;
+        }
+
+        @Override
+        public void write(short[] samples, int offset, int count) {
+            synchronized (this) {
+                int keep = Math.min(count, written.length - length);
+                System.arraycopy(samples, offset, written, length, keep);
+                length += keep;
+            }
+            frames += count / 2;
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void pause() { }
+
+        @Override
+        public void resume() { }
+
+        @Override
+        public synchronized void flush() {
+            length = 0;
+        }
+
+        @Override
+        public void drain() { }
+
+        @Override
+        public void close() { }
+
+        @Override
+        public long getFramesWritten() {
+            return frames;
+        }
+
+        @Override
+        public long getFramePosition() {
+            return getFramesWritten();
+        }
+
+        synchronized short[] getWrittenSinceFlush() {
+            return Arrays.copyOf(written, length);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length < 2) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+
+        testSupersededSessionsDropped();
+
+        // 期望结果：最后一首歌单独解码的开头
+        File last = files[(SKIPS - 1) % 2];
+        short[] expected = decode(last, COMPARE_FRAMES);
+        short[] other = decode(files[SKIPS % 2], COMPARE_FRAMES);
+
+        RealtimeOutput output = new RealtimeOutput(expected.length);
+        AudioPlayer player = new AudioPlayer(output);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < SKIPS; i++) {
+            player.play(files[i % 2].getPath());
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        int opensDuringBurst = output.opens;
+
+        // 等待最后一个会话写够比较的数据
+        waitUntil(() -> output.getWrittenSinceFlush().length == expected.length, 5000);
+        short[] written = output.getWrittenSinceFlush();
+
+        long decoderThreads = Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> PlaybackExecutor.THREAD_NAME.equals(t.getName()))
+            .count();
+
+        System.out.println(SKIPS + " 次切歌耗时 " + elapsed + " ms，输出打开 " + opensDuringBurst + " 次");
+        System.out.println("运行中的解码器: " + player.getLiveDecoderCount()
+            + "，峰值: " + player.getPeakLiveDecoderCount()
+            + "，解码线程数: " + decoderThreads);
+
+        check(player.getLiveDecoderCount() == 1 && decoderThreads == 1, "解码器数量不为1");
+        check(written.length == expected.length, "切歌后最后一首歌没有输出");
+        check(!Arrays.equals(written, other), "切歌后输出的是被取代的歌曲");
+        check(Arrays.equals(written, expected), "切歌后的输出不是最后一首歌从头开始的PCM");
+        player.stop();
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 解码线程被占用时连续提交会话：被取代的会话轮到执行时已取消，不做任何解码工作，
+     * 只有最后一个会话作为解码器运行
+     */
+    private static void testSupersededSessionsDropped() {
+        PlaybackExecutor executor = new PlaybackExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> ran = Collections.synchronizedList(new ArrayList<>());
+
+        PlaybackExecutor.Session busy = executor.submit(session -> {
+            started.countDown();
+            release.await();
+        });
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PlaybackExecutor.Session last = null;
+        for (int i = 1; i <= SKIPS; i++) {
+            int id = i;
+            last = executor.submit(session -> {
+                if (session.isActive()) {
+                    ran.add(id);
+                }
+            });
+        }
+        check(!busy.isActive(), "提交新会话后旧会话应被取消");
+        release.countDown();
+        check(last.awaitTermination(5000), "最后一个会话没有结束");
+
+        System.out.println("解码线程忙时提交 " + SKIPS + " 个会话，运行的会话: " + ran
+            + "，运行中的解码器峰值: " + executor.getPeakLiveDecoderCount());
+        check(ran.equals(Collections.singletonList(SKIPS)), "被取代的会话不应运行");
+        check(executor.getPeakLiveDecoderCount() == 1 && executor.getLiveDecoderCount() == 0,
+            "被取代的会话不应计为运行中的解码器");
+        executor.shutdown();
+    }
+
+    /**
+     * 从头解码若干帧（已裁剪编码器延迟）
+     */
+    private static short[] decode(File file, int frames) throws Exception {
+        Mp3FrameIndex index = Mp3FrameIndex.forFile(file);
+        TrackDecoder decoder = TrackDecoder.open(file, index, 0);
+        short[] all = new short[0];
+        try {
+            for (int i = 0; i < frames && decoder.nextFrame(); i++) {
+                int length = all.length;
+                all = Arrays.copyOf(all, length + decoder.getSampleLength());
+                System.arraycopy(decoder.getSamples(), decoder.getSampleOffset(), all, length, decoder.getSampleLength());
+            }
+        } finally {
+            decoder.close();
+        }
+        return all;
+    }
+}
@@ -0,0 +1,52 @@
+package com.musicplayer.audio;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进度分发测试：事件线程繁忙时每个监听器最多只有一个待处理事件，停止后不再产生事件
+ */
+public class ProgressDispatcherTest {
+    public static void main(String[] args) throws Exception {
+        long start = System.currentTimeMillis();
+        ProgressDispatcher dispatcher = new ProgressDispatcher(
+            () -> System.currentTimeMillis() - start, () -> 180000);
+        AtomicInteger calls = new AtomicInteger();
+        dispatcher.addListener((current, total) -> calls.incrementAndGet(), 5);
+        dispatcher.start();
+        Thread.sleep(100);
+
+        // 让事件线程繁忙500毫秒，期间大约有100次更新
+        int[] afterBusy = new int[2];
+        SwingUtilities.invokeAndWait(() -> {
+            afterBusy[0] = calls.get();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // 繁忙结束后事件队列中最多只有一个进度事件排在这个事件之前
+        SwingUtilities.invokeAndWait(() -> afterBusy[1] = calls.get());
+        System.out.println("繁忙期间积压的进度事件: " + (afterBusy[1] - afterBusy[0])
+            + "，合并的更新: " + dispatcher.getCoalescedEvents());
+        if (afterBusy[1] - afterBusy[0] > 1 || dispatcher.getCoalescedEvents() < 50) {
+            System.err.println("测试失败: 进度事件没有合并");
+            System.exit(1);
+        }
+
+        // 停止后不再产生事件
+        dispatcher.stop();
+        Thread.sleep(50);
+        long posted = dispatcher.getPostedEvents();
+        Thread.sleep(300);
+        System.out.println("停止后投递的事件: " + (dispatcher.getPostedEvents() - posted));
+        if (dispatcher.getPostedEvents() != posted) {
+            System.err.println("测试失败: 停止后仍在投递事件");
+            System.exit(1);
+        }
+        dispatcher.shutdown();
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,221 @@
+package com.musicplayer.network;
+
+import com.musicplayer.model.OnlineMusicSheet;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+import static com.musicplayer.TestSupport.sleep;
+
+/**
+ * 异步接口测试：结果在I/O线程中处理后返回；一次发出几十个读取卡住的请求再全部取消，
+ * 阻塞在读取中的线程立即返回、排队的请求移出队列、连接全部归还，I/O线程数不超过上限；
+ * 超过期限的请求以 TimeoutException 失败并断开连接；取消后才完成的操作返回的流被关闭；
+ * 提交的操作阻塞在可中断的等待中时，超过期限会中断I/O线程，之后的请求不受中断影响
+ */
+public class AsyncMusicServerAPITest {
+    /** 同时发出的请求数 */
+    private static final int REQUESTS = 40;
+
+    /** I/O线程数 */
+    private static final int THREADS = 4;
+
+    public static void main(String[] args) throws Exception {
+        byte[] picture = new byte[50000];
+        Arrays.fill(picture, (byte) 7);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger stalled = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/queryMusicSheets", exchange -> {
+            byte[] body = ("{\"musicSheetList\":[{\"name\":\"晚安\",\"uuid\":\"u1\","
+                + "\"musicItems\":{\"m1\":\"a.mp3\",\"m2\":\"b.mp3\"}}]}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/music.server/downloadPicture", exchange -> {
+            exchange.sendResponseHeaders(200, picture.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(picture);
+            }
+        });
+        // 发送一部分数据后卡住，客户端阻塞在读取中
+        server.createContext("/music.server/music", exchange -> {
+            stalled.incrementAndGet();
+            try (OutputStream out = exchange.getResponseBody()) {
+                exchange.sendResponseHeaders(200, 1024 * 1024);
+                out.write(new byte[1000]);
+                out.flush();
+                release.await(20, TimeUnit.SECONDS);
+            } catch (IOException | InterruptedException e) {
+                // 客户端已断开
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server";
+
+        HttpTransport transport = new HttpTransport();
+        AsyncMusicServerAPI api = new AsyncMusicServerAPI(new MusicServerAPI(base, transport), THREADS);
+        try {
+            // 正常完成
+            List<OnlineMusicSheet> sheets = api.queryMusicSheets("all").get(5, TimeUnit.SECONDS);
+            check(sheets.size() == 1 && "晚安".equals(sheets.get(0).getName())
+                && sheets.get(0).getMusicItems().size() == 2, "歌单解析不正确");
+            check(Arrays.equals(api.downloadPicture("u1").get(5, TimeUnit.SECONDS), picture), "封面内容不正确");
+            check(api.getCompletedCount() == 2, "应统计完成的请求");
+
+            // 一次发出几十个请求后全部取消
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; i++) {
+                futures.add(api.streamMusic("song" + i, AsyncMusicServerAPITest::count));
+            }
+            waitUntil(() -> stalled.get() >= THREADS && api.getActiveCount() == THREADS, 5000);
+            System.out.println("取消前: " + api);
+            check(api.getActiveCount() == THREADS && api.getQueuedCount() == REQUESTS - THREADS,
+                "应有 " + THREADS + " 个请求阻塞在读取中，其余排队");
+            check(countThreads("music-api-io-") == THREADS, "I/O线程数不应超过上限，调用方不需要创建线程");
+
+            long start = System.nanoTime();
+            // 从后往前取消：先取消排队的，正在读取的线程返回后不会再取到它们
+            for (int i = futures.size() - 1; i >= 0; i--) {
+                futures.get(i).cancel(true);
+            }
+            waitUntil(() -> api.getActiveCount() == 0 && transport.getLeasedConnections() == 0, 5000);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("取消 " + REQUESTS + " 个请求后 " + millis + " ms 内线程全部返回: " + api);
+            check(api.getActiveCount() == 0 && millis < 1000, "取消应中止阻塞中的读取");
+            check(api.getQueuedCount() == 0 && api.getCancelledCount() == REQUESTS, "排队的请求应移出队列");
+            check(transport.getLeasedConnections() == 0 && transport.getIdleConnections() == 0,
+                "被中止的连接应断开，不放回连接池");
+            check(stalled.get() == THREADS, "取消的排队请求不应发出");
+
+            // 超过期限
+            start = System.nanoTime();
+            CompletableFuture<Long> slow = api.request(base + "/music?md5=late", Collections.emptyMap(), 300,
+                AsyncMusicServerAPITest::count);
+            try {
+                slow.get(5, TimeUnit.SECONDS);
+                check(false, "应超过期限");
+            } catch (ExecutionException e) {
+                check(e.getCause() instanceof TimeoutException, "超过期限应以 TimeoutException 失败");
+            }
+            millis = (System.nanoTime() - start) / 1_000_000;
+            waitUntil(() -> api.getActiveCount() == 0, 5000);
+            System.out.println("期限 300 ms 的请求 " + millis + " ms 后失败");
+            check(millis < 1500 && api.getTimedOutCount() == 1, "期限应生效");
+            check(api.getActiveCount() == 0 && transport.getLeasedConnections() == 0, "超时的请求应中止");
+
+            // 取消后才完成的操作：返回的流被关闭
+            AtomicBoolean closed = new AtomicBoolean();
+            CountDownLatch running = new CountDownLatch(1);
+            CompletableFuture<InputStream> open = api.submit(() -> {
+                running.countDown();
+                sleep(200);
+                return new ByteArrayInputStream(new byte[1]) {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                };
+            }, 0);
+            running.await();
+            open.cancel(true);
+            waitUntil(closed::get, 5000);
+            check(closed.get(), "取消后返回的流应被关闭");
+
+            // 提交的操作在等待（例如等待整文件下载）中超过期限：中断I/O线程，线程随即空出
+            CountDownLatch never = new CountDownLatch(1);
+            start = System.nanoTime();
+            CompletableFuture<Object> waiting = api.submit(() -> {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("等待被中断");
+                }
+                return null;
+            }, 300);
+            try {
+                waiting.get(5, TimeUnit.SECONDS);
+                check(false, "应超过期限");
+            } catch (ExecutionException e) {
+                check(e.getCause() instanceof TimeoutException, "超过期限应以 TimeoutException 失败");
+            }
+            waitUntil(() -> api.getActiveCount() == 0, 5000);
+            millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("期限 300 ms 的等待操作 " + millis + " ms 后线程空出");
+            check(api.getActiveCount() == 0 && millis < 1500, "超过期限应中断等待中的操作");
+            List<CompletableFuture<Boolean>> probes = new ArrayList<>();
+            for (int i = 0; i < THREADS * 2; i++) {
+                probes.add(api.submit(() -> Thread.currentThread().isInterrupted(), 0));
+            }
+            for (CompletableFuture<Boolean> probe : probes) {
+                check(!probe.get(5, TimeUnit.SECONDS), "中断不应影响之后的请求");
+            }
+
+            // 状态码不是200时失败
+            try {
+                api.request(base + "/missing", Collections.emptyMap(), 0, AsyncMusicServerAPITest::count)
+                    .get(5, TimeUnit.SECONDS);
+                check(false, "状态码不是200时应失败");
+            } catch (ExecutionException e) {
+                check(e.getCause() instanceof IOException && api.getFailedCount() == 1, "应以 IOException 失败");
+            }
+        } finally {
+            release.countDown();
+            api.shutdown();
+            server.stop(0);
+            serverThreads.shutdown();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 读完响应体，返回字节数
+     */
+    private static long count(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,194 @@
+package com.musicplayer.network;
+
+import com.musicplayer.model.OnlineMusicSheet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+import static com.musicplayer.TestSupport.readAll;
+
+/**
+ * HTTP响应缓存测试：用统计请求数的本地服务器代替音乐服务器。
+ * 再次启动时歌单列表直接读磁盘并在后台发送带 ETag 的条件请求，得到304；
+ * 内容变化后后台更新，下次读到新内容；过期可用期为0时同步验证；
+ * 封面按 Last-Modified 验证，max-age 内不发请求；服务器不可用时使用旧的响应；no-store 不保存
+ */
+public class HttpResponseCacheTest {
+    /** 每个路径收到的请求数 */
+    private static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    /** 每个路径返回的304数 */
+    private static final Map<String, AtomicInteger> notModified = new ConcurrentHashMap<>();
+
+    /** 歌单列表的当前版本 */
+    private static volatile int version = 1;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("http-cache-").toFile();
+        byte[] cover = new byte[30000];
+        Arrays.fill(cover, (byte) 3);
+        String lastModified = "Wed, 01 May 2024 08:00:00 GMT";
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/queryMusicSheets", exchange -> {
+            String etag = "\"v" + version + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                respond(exchange, 304, null);
+                return;
+            }
+            respond(exchange, 200, ("{\"musicSheetList\":[{\"name\":\"版本" + version + "\",\"uuid\":\"u1\","
+                + "\"musicItems\":{\"m1\":\"a.mp3\"}}]}").getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/music.server/downloadPicture", exchange -> {
+            exchange.getResponseHeaders().set("Last-Modified", lastModified);
+            if (exchange.getRequestURI().getQuery().contains("fresh")) {
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+            } else if (exchange.getRequestURI().getQuery().contains("private")) {
+                exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            }
+            if (lastModified.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"))) {
+                respond(exchange, 304, null);
+                return;
+            }
+            respond(exchange, 200, cover);
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server";
+        HttpTransport transport = new HttpTransport();
+
+        try {
+            // 第一次启动：完整下载并保存
+            HttpResponseCache cache = new HttpResponseCache(dir, transport);
+            MusicServerAPI api = new MusicServerAPI(base, transport, cache);
+            check("版本1".equals(firstName(api.queryMusicSheets("top20"))), "歌单内容不正确");
+            check(count(requests, "queryMusicSheets") == 1 && cache.getFetched() == 1, "第一次应完整下载");
+
+            // 再次启动：直接读磁盘，后台发送条件请求，得到304
+            cache = new HttpResponseCache(dir, transport);
+            api = new MusicServerAPI(base, transport, cache);
+            check("版本1".equals(firstName(api.queryMusicSheets("top20"))), "应返回缓存的歌单");
+            HttpResponseCache relaunched = cache;
+            waitUntil(() -> relaunched.getRevalidations() == 1 && relaunched.getRevalidating() == 0, 5000);
+            System.out.println("再次启动: " + cache);
+            check(cache.getStaleHits() == 1 && cache.getNotModified() == 1 && cache.getFetched() == 0,
+                "再次启动应先用缓存，再在后台验证");
+            check(count(requests, "queryMusicSheets") == 2 && count(notModified, "queryMusicSheets") == 1,
+                "后台验证应是条件请求并得到304");
+
+            // 服务器上的内容变化：先返回旧的，后台更新后返回新的
+            version = 2;
+            check("版本1".equals(firstName(api.queryMusicSheets("top20"))), "过期可用期内应先返回旧的响应");
+            waitUntil(() -> relaunched.getRevalidations() == 2 && relaunched.getRevalidating() == 0, 5000);
+            check(cache.getFetched() == 1, "内容变化时后台应完整下载");
+            check("版本2".equals(firstName(api.queryMusicSheets("top20"))), "后台更新后应返回新内容");
+            waitUntil(() -> relaunched.getRevalidations() == 3 && relaunched.getRevalidating() == 0, 5000);
+
+            // 过期可用期为0：同步发送条件请求，304时用缓存的响应体
+            cache.setDefaultStaleWhileRevalidateMillis(0);
+            api.queryMusicSheets("top20");
+            // 新的默认值在下一次验证后生效
+            waitUntil(() -> relaunched.getRevalidations() == 4 && relaunched.getRevalidating() == 0, 5000);
+            int before = count(notModified, "queryMusicSheets");
+            check("版本2".equals(firstName(api.queryMusicSheets("top20"))), "同步验证后应返回缓存的响应");
+            check(count(notModified, "queryMusicSheets") == before + 1 && cache.getRevalidating() == 0,
+                "过期可用期为0时应同步验证");
+
+            // 封面：max-age 内不发请求
+            for (int i = 0; i < 3; i++) {
+                try (InputStream in = api.downloadPicture("fresh")) {
+                    check(Arrays.equals(readAll(in), cover), "封面内容不正确");
+                }
+            }
+            check(count(requests, "downloadPicture") == 1 && cache.getFreshHits() == 2, "新鲜期内不应发送请求");
+
+            // 封面：按 Last-Modified 验证
+            try (InputStream in = api.downloadPicture("u1")) {
+                readAll(in);
+            }
+            try (InputStream in = api.downloadPicture("u1")) {
+                check(Arrays.equals(readAll(in), cover), "304后封面内容不正确");
+            }
+            check(count(notModified, "downloadPicture") == 1, "应带 If-Modified-Since 验证");
+
+            // no-store 的响应不保存
+            for (int i = 0; i < 2; i++) {
+                try (InputStream in = api.downloadPicture("private")) {
+                    check(Arrays.equals(readAll(in), cover), "no-store 的封面内容不正确");
+                }
+            }
+            check(count(notModified, "downloadPicture") == 1 && count(requests, "downloadPicture") == 5,
+                "no-store 的响应每次都应完整下载");
+
+            // 异步接口使用同一个缓存
+            AsyncMusicServerAPI async = new AsyncMusicServerAPI(api, 2);
+            int sheetsBefore = count(requests, "queryMusicSheets");
+            check(Arrays.equals(async.downloadPicture("fresh").get(5, TimeUnit.SECONDS), cover),
+                "异步接口的封面不正确");
+            check(count(requests, "downloadPicture") == 5, "异步接口应使用缓存");
+            List<OnlineMusicSheet> sheets = async.queryMusicSheets("top20").get(5, TimeUnit.SECONDS);
+            check("版本2".equals(firstName(sheets)) && count(requests, "queryMusicSheets") == sheetsBefore + 1,
+                "异步接口应发送条件请求");
+            async.shutdown();
+
+            // 服务器不可用：使用旧的响应
+            server.stop(0);
+            transport.closeIdleConnections();
+            check("版本2".equals(firstName(api.queryMusicSheets("top20"))), "服务器不可用时应返回旧的响应");
+            check(cache.getStaleOnError() == 1, "应统计出错时使用的旧响应");
+            System.out.println(cache);
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            FileUtils.deleteQuietly(dir);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        requests.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet();
+        if (code == 304) {
+            notModified.computeIfAbsent(name, key -> new AtomicInteger()).incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static int count(Map<String, AtomicInteger> counts, String name) {
+        AtomicInteger count = counts.get(name);
+        return count != null ? count.get() : 0;
+    }
+
+    private static String firstName(List<OnlineMusicSheet> sheets) {
+        return sheets.isEmpty() ? null : sheets.get(0).getName();
+    }
+}
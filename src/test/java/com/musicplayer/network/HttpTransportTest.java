@@ -0,0 +1,321 @@
+package com.musicplayer.network;
+
+import com.musicplayer.util.RangeInputStream;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.readAll;
+
+/**
+ * 连接池测试：读完或关闭的响应归还连接，后续请求复用同一条连接；分块编码和小响应体提前关闭时也能复用，
+ * 大响应体提前关闭时断开；同时使用的连接数不超过每主机上限并统计等待时间；读取超时生效；
+ * 服务器关闭了空闲连接时换新连接重试；跟随重定向并限制次数；按代理选择器经HTTP代理发送请求，
+ * 代理拒绝CONNECT隧道时HTTPS请求失败；MusicServerAPI 的Range下载在连接池上工作
+ */
+public class HttpTransportTest {
+    /** 大响应体的大小，超过关闭时读完丢弃的上限 */
+    private static final int LARGE_BYTES = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        byte[] large = new byte[LARGE_BYTES];
+        new Random(61).nextBytes(large);
+        Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/small", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/chunked", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 5; i++) {
+                    out.write(("part" + i).getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        });
+        server.createContext("/large", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(200, large.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(large);
+            } catch (IOException e) {
+                // 客户端提前断开
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            int now = active.incrementAndGet();
+            peak.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(Long.parseLong(exchange.getRequestURI().getQuery()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            byte[] body = "done".getBytes(StandardCharsets.UTF_8);
+            try {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (IOException e) {
+                // 客户端已超时断开
+            }
+        });
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/small");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        });
+        server.createContext("/loop", exchange -> {
+            exchange.getResponseHeaders().set("Location", "/loop");
+            exchange.sendResponseHeaders(301, -1);
+            exchange.close();
+        });
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int offset = range != null ? Integer.parseInt(range.replaceAll("\\D+(\\d+)-.*", "$1")) : 0;
+            if (range != null) {
+                exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + offset + "-" + (large.length - 1) + "/" + large.length);
+            }
+            exchange.sendResponseHeaders(range != null ? 206 : 200, large.length - offset);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(large, offset, large.length - offset);
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        try {
+            // 顺序请求：读完或关闭后复用同一条连接
+            HttpTransport transport = new HttpTransport();
+            for (int i = 0; i < 20; i++) {
+                try (HttpTransport.Response response = transport.get(base + "/small")) {
+                    check(response.getCode() == 200 && "hello".equals(readString(response.getBody())), "响应内容不正确");
+                }
+            }
+            System.out.println("顺序请求 20 次: " + transport);
+            check(transport.getConnectionsOpened() == 1 && clientPorts.size() == 1, "顺序请求应只使用一条连接");
+            check(transport.getConnectionsReused() == 19, "后续请求应复用连接");
+
+            // 分块编码的响应读完后复用
+            try (HttpTransport.Response response = transport.get(base + "/chunked")) {
+                check("part0part1part2part3part4".equals(readString(response.getBody())), "分块编码的内容不正确");
+                check(response.isReused(), "分块编码的请求应复用连接");
+            }
+            // 没有读取的小响应关闭时读完丢弃，连接继续复用
+            transport.get(base + "/chunked").close();
+            transport.get(base + "/small").close();
+            check(transport.getConnectionsOpened() == 1 && transport.getDrained() == 2, "小响应关闭时应读完后复用");
+
+            // 大响应体只读一部分就关闭：断开，不读完
+            HttpTransport.Response partial = transport.get(base + "/large");
+            check(partial.getContentLength() == LARGE_BYTES, "响应体长度不正确");
+            check(partial.getBody().read(new byte[1000]) > 0, "没有读到数据");
+            partial.close();
+            check(transport.getDiscarded() == 1 && transport.getIdleConnections() == 0, "大响应提前关闭时应断开");
+            try (HttpTransport.Response response = transport.get(base + "/large")) {
+                check(Arrays.equals(readAll(response.getBody()), large), "大响应内容不正确");
+                check(!response.isReused(), "断开后应新建连接");
+            }
+
+            // 重定向：跟随 Location；循环重定向在次数上限后返回重定向响应
+            try (HttpTransport.Response response = transport.get(base + "/redirect")) {
+                check(response.getCode() == 200 && "hello".equals(readString(response.getBody())), "应跟随重定向");
+            }
+            check(transport.getRedirects() == 1 && transport.getLeasedConnections() == 0, "重定向的连接应归还");
+            try (HttpTransport.Response response = transport.get(base + "/loop")) {
+                check(response.getCode() == 301, "循环重定向应在次数上限后停止");
+            }
+            check(transport.getRedirects() == 1 + HttpTransport.MAX_REDIRECTS, "重定向次数不正确");
+
+            // 每主机连接数上限：8个线程同时请求，服务器同时处理的不超过2个
+            HttpTransport limited = new HttpTransport();
+            limited.setMaxConnectionsPerHost(2);
+            List<Thread> threads = new ArrayList<>();
+            AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < 8; i++) {
+                Thread thread = new Thread(() -> {
+                    try (HttpTransport.Response response = limited.get(base + "/slow?100")) {
+                        readString(response.getBody());
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("并发 8 个请求、上限 2: " + limited);
+            check(failures.get() == 0, "限制连接数时请求不应失败");
+            check(peak.get() <= 2, "同时使用的连接数不应超过上限，实际 " + peak.get());
+            check(limited.getConnectionsOpened() == 2 && limited.getConnectionsReused() == 6, "应复用两条连接");
+            check(limited.getPoolWaits() == 6 && limited.getPoolWaitMillis() > 0, "应统计等待次数和等待时间");
+
+            // 读取超时
+            HttpTransport impatient = new HttpTransport();
+            impatient.setReadTimeoutMillis(200);
+            long start = System.nanoTime();
+            try (HttpTransport.Response response = impatient.get(base + "/slow?2000")) {
+                check(false, "应读取超时");
+            } catch (SocketTimeoutException e) {
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                System.out.println("读取超时用时 " + millis + " ms");
+                check(millis < 1500, "读取超时应生效");
+            }
+            check(impatient.getLeasedConnections() == 0, "超时的连接应归还");
+
+            // MusicServerAPI 的Range下载
+            MusicServerAPI api = new MusicServerAPI(base + "/music.server", transport);
+            try (RangeInputStream in = api.downloadMusic("song", 1000)) {
+                check(in.getOffset() == 1000 && in.getTotalLength() == LARGE_BYTES, "Range信息不正确");
+                check(Arrays.equals(readAll(in), Arrays.copyOfRange(large, 1000, LARGE_BYTES)), "Range下载内容不正确");
+            }
+            check(transport.getLeasedConnections() == 0, "读完后连接应归还");
+
+            testStaleConnection();
+            testProxy();
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 服务器每次响应后关闭连接但不发送 Connection: close，复用空闲连接时应换新连接重试
+     */
+    private static void testStaleConnection() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                while (!listener.isClosed()) {
+                    try (Socket socket = listener.accept()) {
+                        InputStream in = socket.getInputStream();
+                        // 读到请求头结束的空行
+                        int last = 0;
+                        int b;
+                        while (last != 0x0D0A0D0A && (b = in.read()) != -1) {
+                            last = (last << 8) | b;
+                        }
+                        socket.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+                    } catch (IOException e) {
+                        // 监听已关闭
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            HttpTransport transport = new HttpTransport();
+            String url = "http://127.0.0.1:" + listener.getLocalPort() + "/";
+            for (int i = 0; i < 3; i++) {
+                try (HttpTransport.Response response = transport.get(url)) {
+                    check("ok".equals(readString(response.getBody())), "重试后的响应不正确");
+                }
+                Thread.sleep(50);
+            }
+            System.out.println("服务器关闭空闲连接: " + transport);
+            check(transport.getStaleRetries() == 2 && transport.getConnectionsOpened() == 3, "应换新连接重试");
+        }
+    }
+
+    /**
+     * 经HTTP代理：HTTP请求以完整地址发给代理；HTTPS请求先发送CONNECT，代理返回407时请求失败
+     */
+    private static void testProxy() throws Exception {
+        List<String> requestLines = Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket listener = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                while (!listener.isClosed()) {
+                    try (Socket socket = listener.accept()) {
+                        InputStream in = socket.getInputStream();
+                        StringBuilder head = new StringBuilder();
+                        int b;
+                        while (head.indexOf("\r\n\r\n") < 0 && (b = in.read()) != -1) {
+                            head.append((char) b);
+                        }
+                        String requestLine = head.substring(0, Math.max(head.indexOf("\r\n"), 0));
+                        requestLines.add(requestLine);
+                        String reply = requestLine.startsWith("CONNECT")
+                            ? "HTTP/1.1 407 Proxy Authentication Required\r\nContent-Length: 0\r\n\r\n"
+                            : "HTTP/1.1 200 OK\r\nContent-Length: 7\r\nConnection: close\r\n\r\nproxied";
+                        socket.getOutputStream().write(reply.getBytes(StandardCharsets.ISO_8859_1));
+                    } catch (IOException e) {
+                        // 监听已关闭
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            Proxy proxy = new Proxy(Proxy.Type.HTTP,
+                InetSocketAddress.createUnresolved("127.0.0.1", listener.getLocalPort()));
+            HttpTransport transport = new HttpTransport();
+            transport.setProxySelector(new ProxySelector() {
+                @Override
+                public List<Proxy> select(URI uri) {
+                    return Collections.singletonList(proxy);
+                }
+
+                @Override
+                public void connectFailed(URI uri, SocketAddress address, IOException e) { }
+            });
+            try (HttpTransport.Response response = transport.get("http://music.invalid:8080/songs?id=1")) {
+                check("proxied".equals(readString(response.getBody())), "经代理的响应不正确");
+            }
+            check("GET http://music.invalid:8080/songs?id=1 HTTP/1.1".equals(requestLines.get(0)),
+                "经HTTP代理的请求应使用完整地址: " + requestLines.get(0));
+            try (HttpTransport.Response response = transport.get("https://music.invalid/songs")) {
+                check(false, "代理拒绝隧道时请求应失败");
+            } catch (IOException e) {
+                check(e.getMessage() != null && e.getMessage().contains("407"), "应报告代理的拒绝: " + e);
+            }
+            check("CONNECT music.invalid:443 HTTP/1.1".equals(requestLines.get(1)), "HTTPS应通过CONNECT隧道");
+            check(transport.getLeasedConnections() == 0, "失败的连接应归还");
+            System.out.println("经HTTP代理: " + requestLines);
+        }
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        return new String(readAll(in), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+package com.musicplayer.network;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import com.musicplayer.model.OnlineMusicSheet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 歌单列表解析基准测试：在 10000 个歌单的合成响应上比较流式解析与原来的
+ * 读成字符串、解析成 Map、再序列化后第二次解析的做法，测量耗时和内存分配，
+ * 并检查两者结果一致、同一个创建者只保留一份字符串
+ */
+public class MusicSheetReaderBenchmark {
+    /** 歌单数 */
+    private static final int SHEETS = 10000;
+
+    /** 每个歌单的歌曲数 */
+    private static final int SONGS_PER_SHEET = 20;
+
+    /** 不同创建者的个数 */
+    private static final int CREATORS = 200;
+
+    /** 测量的解析次数 */
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        byte[] payload = createPayload();
+        System.out.printf("合成响应: %d 个歌单，每个 %d 首歌，%d KB%n", SHEETS, SONGS_PER_SHEET, payload.length / 1024);
+
+        List<OnlineMusicSheet> expected = parseTwice(new ByteArrayInputStream(payload));
+        List<OnlineMusicSheet> actual = MusicSheetReader.read(new ByteArrayInputStream(payload));
+        checkSame(expected, actual);
+
+        // 预热
+        for (int i = 0; i < ROUNDS; i++) {
+            parseTwice(new ByteArrayInputStream(payload));
+            MusicSheetReader.read(new ByteArrayInputStream(payload));
+        }
+
+        long[] twice = measure(() -> parseTwice(new ByteArrayInputStream(payload)));
+        long[] streaming = measure(() -> MusicSheetReader.read(new ByteArrayInputStream(payload)));
+        System.out.printf("原来的两次解析: 每次 %.1f ms，分配 %d KB%n", twice[0] / 1e6, twice[1] / 1024);
+        System.out.printf("流式解析:       每次 %.1f ms，分配 %d KB%n", streaming[0] / 1e6, streaming[1] / 1024);
+        System.out.printf("分配减少到 %.0f%%，耗时减少到 %.0f%%%n",
+            streaming[1] * 100.0 / twice[1], streaming[0] * 100.0 / twice[0]);
+        if (streaming[1] * 2 > twice[1]) {
+            System.err.println("测试失败: 流式解析分配的内存应不到原来的一半");
+            System.exit(1);
+        }
+        System.out.println("测试通过");
+    }
+
+    private interface Parse {
+        List<OnlineMusicSheet> run() throws IOException;
+    }
+
+    /**
+     * 返回每次解析的平均耗时（纳秒）和平均分配字节数
+     */
+    private static long[] measure(Parse parse) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int sheets = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            sheets += parse.run().size();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (sheets != SHEETS * ROUNDS) {
+            System.err.println("测试失败: 解析出的歌单数不正确");
+            System.exit(1);
+        }
+        return new long[] {elapsed / ROUNDS, allocated / ROUNDS};
+    }
+
+    /**
+     * 原来的做法：读成字符串，解析成 Map，取出歌单列表序列化后再解析一次
+     */
+    private static List<OnlineMusicSheet> parseTwice(InputStream inputStream) throws IOException {
+        Gson gson = new Gson();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            result.write(buffer, 0, length);
+        }
+        String json = result.toString("UTF-8");
+        Map<String, Object> resultMap = gson.fromJson(json, new TypeToken<Map<String, Object>>(){}.getType());
+        return gson.fromJson(gson.toJson(resultMap.get("musicSheetList")),
+            new TypeToken<List<OnlineMusicSheet>>(){}.getType());
+    }
+
+    private static byte[] createPayload() throws IOException {
+        Random random = new Random(23);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("code").value(200);
+            writer.name("musicSheetList").beginArray();
+            for (int i = 0; i < SHEETS; i++) {
+                int creator = random.nextInt(CREATORS);
+                writer.beginObject();
+                writer.name("creator").value("用户" + creator);
+                writer.name("creatorId").value(String.valueOf(100000 + creator));
+                writer.name("dateCreated").value("2024-05-" + (10 + i % 20) + " 12:00:00");
+                writer.name("id").value(i);
+                writer.name("musicItems").beginObject();
+                for (int j = 0; j < SONGS_PER_SHEET; j++) {
+                    writer.name(String.format("%016x%016x", random.nextLong(), random.nextLong()))
+                        .value("歌曲 " + random.nextInt(100000) + ".mp3");
+                }
+                writer.endObject();
+                writer.name("name").value("歌单 " + i);
+                writer.name("picture").value("cover" + i + ".jpg");
+                writer.name("uuid").value(String.format("%08x-%04x", random.nextInt(), i));
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.name("message").value("ok");
+            writer.endObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void checkSame(List<OnlineMusicSheet> expected, List<OnlineMusicSheet> actual) {
+        check(expected.size() == actual.size(), "歌单数不同");
+        List<String> creators = new ArrayList<>();
+        for (int i = 0; i < expected.size(); i++) {
+            OnlineMusicSheet a = expected.get(i);
+            OnlineMusicSheet b = actual.get(i);
+            check(a.getId() == b.getId() && a.getName().equals(b.getName()) && a.getCreator().equals(b.getCreator())
+                && a.getCreatorId().equals(b.getCreatorId()) && a.getDateCreated().equals(b.getDateCreated())
+                && a.getPicture().equals(b.getPicture()) && a.getUuid().equals(b.getUuid()), "第 " + i + " 个歌单的字段不同");
+            check(new ArrayList<>(a.getMusicItems().entrySet()).equals(new ArrayList<>(b.getMusicItems().entrySet())),
+                "第 " + i + " 个歌单的歌曲表不同");
+            check(a.getMusicItems().equals(b.getMusicItems()), "歌曲表应与 Map 相等");
+            creators.add(b.getCreator());
+        }
+        // 同名创建者是同一个字符串对象
+        long distinct = creators.stream().map(System::identityHashCode).distinct().count();
+        check(distinct <= CREATORS, "同一个创建者应只保留一份字符串，实际 " + distinct + " 份");
+    }
+}
@@ -0,0 +1,193 @@
+package com.musicplayer.network;
+
+import com.musicplayer.util.Md5Utils;
+import com.musicplayer.util.StreamCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 分段并行下载基准测试：本地服务器给每条连接限速并加上请求延迟，模拟高延迟链路，
+ * 比较原来的单连接顺序下载与分段并行下载的耗时，检查内容一致；
+ * 服务器不支持Range时退回单连接；通过流缓存下载时边下载边核对MD5后登记，
+ * 同时打开的流等待整文件下载完成，不另发请求
+ */
+public class SegmentedDownloaderBenchmark {
+    /** 文件大小 */
+    private static final int FILE_BYTES = 6 * 1024 * 1024;
+
+    /** 每条连接的速度上限 */
+    private static final long BYTES_PER_SECOND = 2 * 1024 * 1024;
+
+    /** 每个请求的延迟（毫秒） */
+    private static final long LATENCY_MILLIS = 30;
+
+    /** 每段大小 */
+    private static final long SEGMENT_BYTES = 512 * 1024;
+
+    /** 写出时每次的字节数 */
+    private static final int CHUNK = 16 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("segmented-").toFile();
+        System.setProperty("musicplayer.cache.dir", new File(dir, "cache").getPath());
+        System.setProperty("musicplayer.blob.dir", new File(dir, "blobs").getPath());
+        byte[] data = new byte[FILE_BYTES];
+        new Random(67).nextBytes(data);
+        MessageDigest digest = Md5Utils.newDigest();
+        digest.update(data);
+        String md5 = Md5Utils.toHex(digest.digest());
+        AtomicInteger rangeRequests = new AtomicInteger();
+        AtomicInteger plainRequests = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            boolean ranges = !exchange.getRequestURI().getQuery().contains("norange");
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+                if (range != null && ranges) {
+                    rangeRequests.incrementAndGet();
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    int start = Integer.parseInt(bounds[0]);
+                    int end = bounds.length > 1 ? Math.min(Integer.parseInt(bounds[1]), data.length - 1) : data.length - 1;
+                    exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + data.length);
+                    send(exchange, 206, data, start, end - start + 1);
+                } else {
+                    plainRequests.incrementAndGet();
+                    send(exchange, 200, data, 0, data.length);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 客户端已断开
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server";
+
+        try {
+            HttpTransport transport = new HttpTransport();
+            MusicServerAPI api = new MusicServerAPI(base, transport);
+            api.getSegmentedDownloader().setSegmentBytes(SEGMENT_BYTES);
+
+            // 原来的做法：一条连接顺序下载
+            File single = new File(dir, "single.mp3");
+            long start = System.nanoTime();
+            try (InputStream in = api.downloadMusic(md5);
+                 OutputStream out = new FileOutputStream(single)) {
+                byte[] buffer = new byte[CHUNK];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            long singleMillis = (System.nanoTime() - start) / 1_000_000;
+            check(Arrays.equals(Files.readAllBytes(single.toPath()), data), "单连接下载的内容不正确");
+
+            // 分段并行下载
+            File segmented = new File(dir, "segmented.mp3");
+            start = System.nanoTime();
+            api.downloadMusicTo(md5, segmented);
+            long segmentedMillis = (System.nanoTime() - start) / 1_000_000;
+            check(Arrays.equals(Files.readAllBytes(segmented.toPath()), data), "分段下载的内容不正确");
+            SegmentedDownloader downloader = api.getSegmentedDownloader();
+            check(downloader.getSegmentCount() == FILE_BYTES / SEGMENT_BYTES && rangeRequests.get() == FILE_BYTES / SEGMENT_BYTES,
+                "每段应各发一个Range请求");
+            check(transport.getLeasedConnections() == 0, "下载完成后连接应归还");
+
+            System.out.printf("%d MB，每条连接限速 %d KB/s，请求延迟 %d ms%n",
+                FILE_BYTES / 1024 / 1024, BYTES_PER_SECOND / 1024, LATENCY_MILLIS);
+            System.out.printf("单连接顺序下载: %d ms%n", singleMillis);
+            System.out.printf("分段并行下载（%d 条连接，每段 %d KB）: %d ms，快 %.1f 倍%n",
+                downloader.getConnections(), SEGMENT_BYTES / 1024, segmentedMillis, (double) singleMillis / segmentedMillis);
+            System.out.println(downloader + "，" + transport);
+            if (segmentedMillis * 5 > singleMillis * 2) {
+                System.err.println("测试失败: 分段并行下载应至少快2.5倍");
+                System.exit(1);
+            }
+
+            // 服务器不支持Range：退回单连接
+            File fallback = new File(dir, "fallback.mp3");
+            new SegmentedDownloader(transport).download(base + "/downloadMusic?md5=" + md5 + "&norange", fallback);
+            check(Arrays.equals(Files.readAllBytes(fallback.toPath()), data), "退回单连接时内容不正确");
+
+            // 通过流缓存下载：边下载边核对MD5后登记；同时打开的流等待整文件下载，不另发请求
+            int plainBefore = plainRequests.get();
+            int rangeBefore = rangeRequests.get();
+            CompletableFuture<File> fetching = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return StreamCache.fetch(md5, api::downloadMusicTo, api::downloadMusic);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            while (rangeRequests.get() == rangeBefore) {
+                Thread.sleep(1);
+            }
+            byte[] streamed;
+            try (InputStream in = StreamCache.openStream(md5, api::downloadMusic)) {
+                streamed = IOUtils.toByteArray(in);
+            }
+            File cached = fetching.get();
+            check(Arrays.equals(streamed, data), "等待整文件下载后读到的内容不正确");
+            check(plainRequests.get() == plainBefore, "整文件下载期间打开的流不应另发请求");
+            check(Arrays.equals(Files.readAllBytes(cached.toPath()), data), "缓存文件内容不正确");
+            check(downloader.getRereadBytes() == 0, "计算MD5不应从文件读回");
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getRecord(md5) != null && StreamCache.getRecord(md5).verified, "缓存文件应已核对MD5");
+            check(StreamCache.fetch(md5, api::downloadMusicTo, api::downloadMusic).equals(cached)
+                && downloader.getDownloadCount() == 2, "已缓存时不应再次下载");
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            StreamCache.clearCache();
+            FileUtils.deleteQuietly(dir);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 按连接速度上限分块写出
+     */
+    private static void send(HttpExchange exchange, int code, byte[] data, int offset, int length)
+            throws IOException, InterruptedException {
+        exchange.sendResponseHeaders(code, length);
+        long begin = System.nanoTime();
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int sent = 0; sent < length; ) {
+                int n = Math.min(CHUNK, length - sent);
+                out.write(data, offset + sent, n);
+                sent += n;
+                long aheadNanos = sent * 1_000_000_000L / BYTES_PER_SECOND - (System.nanoTime() - begin);
+                if (aheadNanos > 0) {
+                    Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                }
+            }
+        }
+    }
+}
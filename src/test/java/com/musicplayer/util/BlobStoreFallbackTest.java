@@ -0,0 +1,95 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 不能读取硬链接数时的内容寻址存储测试（模拟NTFS）：存储不启用，缓存和音乐库保存独立的文件，
+ * 缓存淘汰后磁盘空间真正释放，音乐库中的歌曲不受影响；之前留在存储中的内容在回收时删除
+ */
+public class BlobStoreFallbackTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File root = Files.createTempDirectory("blob-fallback-").toFile();
+        File cacheDir = new File(root, "cache");
+        File musicDir = new File(root, "music");
+        File blobDir = new File(root, "blobs");
+        System.setProperty("musicplayer.cache.dir", cacheDir.getPath());
+        System.setProperty("musicplayer.music.dir", musicDir.getPath());
+        System.setProperty("musicplayer.covers.dir", new File(root, "covers").getPath());
+        System.setProperty("musicplayer.blob.dir", blobDir.getPath());
+        System.setProperty("musicplayer.blob.nlink", "false");
+
+        byte[] song = new byte[SONG_BYTES];
+        new Random(43).nextBytes(song);
+        MessageDigest digest = Md5Utils.newDigest();
+        digest.update(song);
+        String md5 = Md5Utils.toHex(digest.digest());
+
+        // 旧版本在不支持链接数的文件系统上留下的内容
+        File leftover = BlobStore.blobFile("0123456789abcdef0123456789abcdef");
+        Files.createDirectories(leftover.getParentFile().toPath());
+        Files.write(leftover.toPath(), song);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            exchange.sendResponseHeaders(200, song.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(song);
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        MusicServerAPI api = new MusicServerAPI(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server");
+
+        try {
+            check(!BlobStore.isEnabled(), "不能读取硬链接数时存储不应启用");
+
+            // 下载到缓存：已校验，但不纳入存储
+            File cached = StreamCache.fetch(md5, api::downloadMusic);
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getRecord(md5) != null && StreamCache.getRecord(md5).verified, "缓存文件应已核对MD5");
+            check(!BlobStore.contains(md5) && !BlobStore.blobFile(md5).exists(), "存储未启用时不应纳入存储");
+
+            // 从缓存加入音乐库：保存独立的文件
+            String favorite = MusicFileManager.saveOnlineMusicFile(cached, "favorite.mp3", md5);
+            check(!Files.isSameFile(new File(favorite).toPath(), cached.toPath()), "音乐库中的文件应独立保存");
+            check(!BlobStore.blobFile(md5).exists(), "加入音乐库不应写入存储");
+
+            // 缓存淘汰后空间真正释放，音乐库中的文件不受影响
+            StreamCache.setBudgetBytes(0);
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getEntryCount() == 0 && !cached.exists(), "缓存应被淘汰");
+            check(Arrays.equals(Files.readAllBytes(new File(favorite).toPath()), song), "音乐库中的文件应保留");
+
+            // 之前留下的内容在回收时删除
+            check(BlobStore.collectGarbage() == 1 && !leftover.exists(), "之前留在存储中的内容应被回收");
+            System.out.println(BlobStore.getStats() + "，" + StreamCache.getStats());
+            check(BlobStore.getLinkedFiles() == 0, "存储未启用时不应建立链接");
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            FileUtils.deleteQuietly(root);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 内容寻址存储测试：同一首歌在缓存中、从缓存加入音乐库、再次下载到音乐库、从本地导入，
+ * 磁盘上始终只有一份数据，加入音乐库不复制；缓存淘汰后从音乐库链接回来，不再下载；
+ * 所有引用都删除后存储中的内容被回收
+ */
+public class BlobStoreTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 512 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File root = Files.createTempDirectory("blob-store-").toFile();
+        File cacheDir = new File(root, "cache");
+        File musicDir = new File(root, "music");
+        File blobDir = new File(root, "blobs");
+        System.setProperty("musicplayer.cache.dir", cacheDir.getPath());
+        System.setProperty("musicplayer.music.dir", musicDir.getPath());
+        System.setProperty("musicplayer.covers.dir", new File(root, "covers").getPath());
+        System.setProperty("musicplayer.blob.dir", blobDir.getPath());
+
+        byte[] song = new byte[SONG_BYTES];
+        new Random(41).nextBytes(song);
+        MessageDigest digest = Md5Utils.newDigest();
+        digest.update(song);
+        String md5 = Md5Utils.toHex(digest.digest());
+        AtomicInteger requests = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, song.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(song);
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        MusicServerAPI api = new MusicServerAPI(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server");
+
+        try {
+            // 下载到缓存：已校验的文件链接到存储
+            File cached = StreamCache.fetch(md5, api::downloadMusic);
+            check(BlobStore.contains(md5), "已校验的缓存文件应加入存储");
+            check(Files.isSameFile(cached.toPath(), BlobStore.blobFile(md5).toPath()), "缓存文件应是存储的链接");
+            File blob = BlobStore.blobFile(md5);
+            check(blob.getParentFile().getName().equals(md5.substring(2, 4))
+                && blob.getParentFile().getParentFile().getName().equals(md5.substring(0, 2)), "存储应按MD5分目录");
+
+            // 从缓存加入音乐库：只建立链接
+            String favorite = MusicFileManager.saveOnlineMusicFile(cached, "favorite.mp3", md5);
+            check(Files.isSameFile(new File(favorite).toPath(), cached.toPath()), "加入音乐库不应复制数据");
+
+            // 再次下载到音乐库、从本地导入同样的文件：都指向同一份数据
+            String downloaded = MusicFileManager.saveOnlineMusicFile(api.downloadMusic(md5), "again.mp3", md5);
+            File external = new File(root, "external.mp3");
+            Files.write(external.toPath(), song);
+            String imported = MusicFileManager.saveMusicFile(external);
+            check(Files.isSameFile(new File(downloaded).toPath(), blob.toPath()), "重复下载应指向同一份数据");
+            check(Files.isSameFile(new File(imported).toPath(), blob.toPath()), "本地导入应指向同一份数据");
+            check(Arrays.equals(Files.readAllBytes(new File(imported).toPath()), song), "音乐库中的文件不正确");
+
+            Set<Object> inodes = new HashSet<>();
+            long storedBytes = 0;
+            for (File dir : new File[] {cacheDir, musicDir}) {
+                for (File file : dir.listFiles((d, name) -> name.endsWith(".mp3"))) {
+                    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    if (inodes.add(attributes.fileKey())) {
+                        storedBytes += attributes.size();
+                    }
+                }
+            }
+            System.out.println("引用 " + BlobStore.linkCount(md5) + " 个，实际占用 " + storedBytes + " 字节，"
+                + BlobStore.getStats());
+            check(inodes.size() == 1 && storedBytes == SONG_BYTES, "同一首歌应只保存一份");
+            check(BlobStore.linkCount(md5) == 5, "存储、缓存和音乐库中的三个文件应共用一份数据");
+            check(BlobStore.getCopiedFiles() == 0, "同一分区内不应复制");
+            check(BlobStore.getDedupedBytes() == 2L * SONG_BYTES, "重复的内容应被去掉");
+
+            // 缓存淘汰后音乐库中的文件仍在，再次播放时从存储链接回缓存，不再下载
+            StreamCache.setBudgetBytes(0);
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getEntryCount() == 0 && !cached.exists(), "缓存应被淘汰");
+            check(BlobStore.contains(md5), "音乐库仍引用时存储中的内容应保留");
+            StreamCache.setBudgetBytes(StreamCache.DEFAULT_BUDGET);
+            File relinked = StreamCache.fetch(md5, api::downloadMusic);
+            check(requests.get() == 2, "存储中已有的歌曲不应再下载");
+            check(StreamCache.getStoreLinks() == 1, "应从存储链接回缓存");
+            check(Files.isSameFile(relinked.toPath(), blob.toPath()), "链接回的缓存文件应指向存储");
+
+            // 删除所有引用后回收
+            MusicFileManager.deleteMusicFile(favorite);
+            MusicFileManager.deleteMusicFile(downloaded);
+            MusicFileManager.deleteMusicFile(imported);
+            check(BlobStore.collectGarbage() == 0, "缓存仍引用时不应回收");
+            StreamCache.clearCache();
+            check(!blob.exists(), "没有引用的内容应被回收");
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            FileUtils.deleteQuietly(root);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+}
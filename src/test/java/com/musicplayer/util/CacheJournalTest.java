@@ -0,0 +1,145 @@
+package com.musicplayer.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 索引日志测试：重启后一次读入恢复全部条目，崩溃留下的不完整末尾记录被截掉，
+ * 压缩后日志变小且内容不变；StreamCache 重启后不访问文件系统即可命中
+ */
+public class CacheJournalTest {
+    /** 日志测试的条目数 */
+    private static final int ENTRIES = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("restart")) {
+            verifyRestart();
+            return;
+        }
+
+        File dir = Files.createTempDirectory("cache-journal-").toFile();
+        File file = new File(dir, CacheJournal.FILE_NAME);
+
+        // 写入条目，再更新一半、删除一部分
+        CacheJournal journal = new CacheJournal(file);
+        check(journal.load() == null, "新日志不应有内容");
+        for (int i = 0; i < ENTRIES; i++) {
+            journal.put(new CacheJournal.Record(md5(i), 1000 + i, i, 0, false));
+        }
+        for (int i = 0; i < ENTRIES; i += 2) {
+            journal.put(new CacheJournal.Record(md5(i), 1000 + i, ENTRIES + i, 3, true));
+        }
+        for (int i = 0; i < ENTRIES; i += 10) {
+            journal.remove(md5(i));
+        }
+        journal.close();
+
+        long start = System.nanoTime();
+        journal = new CacheJournal(file);
+        Map<String, CacheJournal.Record> records = journal.load();
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("读入 " + journal.getRecordCount() + " 条记录（" + file.length() + " 字节）用时 "
+            + loadMillis + " ms，有效条目 " + records.size());
+        check(records.size() == ENTRIES - ENTRIES / 10, "有效条目数不正确");
+        CacheJournal.Record updated = records.get(md5(2));
+        check(updated != null && updated.hits == 3 && updated.verified && updated.lastAccess == ENTRIES + 2,
+            "条目应为最后写入的状态");
+        check(!records.containsKey(md5(10)), "删除的条目不应恢复");
+
+        // 模拟崩溃：最后一条记录只写了一半
+        journal.put(new CacheJournal.Record("torn", 1, 1, 1, false));
+        journal.close();
+        long lengthBefore = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(lengthBefore - 7);
+        }
+        journal = new CacheJournal(file);
+        records = journal.load();
+        System.out.println("截掉不完整的末尾记录 " + journal.getTruncatedBytes() + " 字节");
+        check(records.size() == ENTRIES - ENTRIES / 10 && !records.containsKey("torn"), "不完整的末尾记录应被丢弃");
+        check(journal.getTruncatedBytes() > 0, "不完整的末尾记录应被截掉");
+
+        // 截掉后可以继续追加，末尾写入垃圾数据时同样只丢弃垃圾
+        journal.put(new CacheJournal.Record("after", 2, 2, 2, false));
+        journal.close();
+        try (FileOutputStream garbage = new FileOutputStream(file, true)) {
+            garbage.write(new byte[] {'P', 0, 0, 0, 40, 1, 2, 3});
+        }
+        journal = new CacheJournal(file);
+        records = journal.load();
+        check(records.containsKey("after"), "截掉后追加的记录丢失");
+
+        // 压缩：只保留有效条目
+        check(journal.needsCompaction(records.size() / 8), "记录远多于有效条目时应压缩");
+        long beforeCompact = file.length();
+        journal.compact(records.values());
+        journal.close();
+        journal = new CacheJournal(file);
+        Map<String, CacheJournal.Record> compacted = journal.load();
+        journal.close();
+        System.out.println("压缩: " + beforeCompact + " -> " + file.length() + " 字节");
+        check(file.length() < beforeCompact && compacted.size() == records.size(), "压缩后内容不一致");
+        check(compacted.get(md5(2)).hits == 3, "压缩后条目状态不一致");
+        file.delete();
+
+        // StreamCache 重启：在另一个进程中恢复索引
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+        byte[] data = new byte[4096];
+        for (int i = 0; i < 3; i++) {
+            StreamCache.cacheStream("song" + i, new ByteArrayInputStream(data));
+        }
+        StreamCache.getCachedFile("song1");
+        StreamCache.getCachedFile("song1");
+        StreamCache.awaitMaintenance();
+        try (FileOutputStream torn = new FileOutputStream(file, true)) {
+            torn.write(new byte[] {'P', 0, 0, 0, 60, 9});
+        }
+        Process child = new ProcessBuilder(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-Dmusicplayer.cache.dir=" + dir.getPath(),
+            "-cp", System.getProperty("java.class.path"),
+            CacheJournalTest.class.getName(), "restart")
+            .inheritIO()
+            .start();
+        int exit = child.waitFor();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        check(exit == 0, "重启后恢复索引失败");
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 在新进程中检查索引恢复
+     */
+    private static void verifyRestart() {
+        check(StreamCache.getEntryCount() == 3, "重启后条目数不正确: " + StreamCache.getEntryCount());
+        CacheJournal.Record record = StreamCache.getRecord("song1");
+        check(record != null && record.hits == 2 && record.size == 4096, "重启后条目状态不正确");
+
+        // 查找只读内存中的索引
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (StreamCache.getCachedFile("song" + (i % 4)) != null) {
+                found++;
+            }
+        }
+        System.out.printf("重启后查找平均 %.3f us，命中 %d 次%n", (System.nanoTime() - start) / 100_000 / 1000.0, found);
+        check(found == 75_000, "重启后查找结果不正确");
+        System.exit(0);
+    }
+
+    private static String md5(int i) {
+        return String.format("%032x", i);
+    }
+}
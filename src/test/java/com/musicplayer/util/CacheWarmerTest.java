@@ -0,0 +1,178 @@
+package com.musicplayer.util;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+
+/**
+ * 缓存预热测试：切换记录按次数预测、每首歌最多保留8个后继、保存后能完整读回；
+ * 预热最常接着播放的歌曲，超出磁盘预算时跳过，有其他下载时等待，下载速度受限，
+ * 预热的歌曲被播放时计入命中
+ */
+public class CacheWarmerTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 256 * 1024;
+
+    /** 预热下载速度上限 */
+    private static final long BYTES_PER_SECOND = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("cache-warmer-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        try {
+            testTable(dir);
+            testWarmer(dir);
+            testClearKeepsOtherStores(dir);
+        } finally {
+            StreamCache.clearCache();
+            FileUtils.deleteQuietly(dir);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static void testTable(File dir) throws IOException {
+        TransitionTable table = new TransitionTable();
+        for (int i = 0; i < 3; i++) {
+            table.record("a", "b");
+        }
+        table.record("a", "c");
+        table.record("a", "d");
+        table.record("a", "d");
+        check(table.predict("a", 2).equals(Arrays.asList("b", "d")), "应按切换次数预测");
+        check(table.predict("unknown", 2).isEmpty(), "没有记录的歌曲不应有预测");
+
+        // 后继超过上限时替换次数最少的一个，常听的后继保留
+        for (int i = 0; i < 20; i++) {
+            table.record("a", "x" + i);
+        }
+        List<String> all = table.predict("a", 100);
+        check(all.size() == TransitionTable.MAX_SUCCESSORS, "每首歌最多保留 " + TransitionTable.MAX_SUCCESSORS + " 个后继");
+        check(all.get(0).equals("b") && table.getCount("a", "b") == 3, "次数最多的后继应保留");
+
+        File file = new File(dir, "table-" + TransitionTable.FILE_NAME);
+        table.save(file);
+        check(!table.isDirty(), "保存后不应有未保存的变化");
+        TransitionTable loaded = TransitionTable.load(file);
+        check(loaded.predict("a", 100).equals(all), "读回的后继不一致");
+        check(loaded.getCount("a", "d") == 2 && "x19".equals(loaded.getLastPlayed()), "读回的次数或最近播放不一致");
+        check(TransitionTable.load(new File(dir, "missing.dat")).getSourceCount() == 0, "文件不存在时应返回空表");
+        System.out.println("切换记录表 " + file.length() + " 字节，" + all.size() + " 个后继");
+    }
+
+    /**
+     * 清除缓存只删除歌曲、部分下载和临时文件，切换记录和HTTP响应缓存保留
+     */
+    private static void testClearKeepsOtherStores(File dir) throws IOException {
+        File transitions = new File(dir, TransitionTable.FILE_NAME);
+        new TransitionTable().save(transitions);
+        File response = new File(new File(dir, "http"), "0123.body");
+        Files.createDirectories(response.getParentFile().toPath());
+        Files.write(response.toPath(), new byte[] {1, 2, 3});
+        StreamCache.cacheStream("clear-me", new ByteArrayInputStream(new byte[1024]));
+
+        StreamCache.clearCache();
+        check(StreamCache.getCachedFile("clear-me") == null
+            && dir.listFiles((d, name) -> name.startsWith("music_")).length == 0, "缓存的歌曲应被删除");
+        check(transitions.isFile() && response.isFile(), "清除缓存不应删除切换记录和HTTP响应缓存");
+    }
+
+    private static void testWarmer(File dir) throws Exception {
+        Map<String, byte[]> songs = new ConcurrentHashMap<>();
+        Random random = new Random(59);
+        for (String key : new String[] {"warm-0", "warm-1", "warm-2", "warm-3", "busy"}) {
+            byte[] song = new byte[SONG_BYTES];
+            random.nextBytes(song);
+            songs.put(key, song);
+        }
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        StreamCache.Downloader downloader = (md5, offset) -> {
+            requests.computeIfAbsent(md5, key -> new AtomicInteger()).incrementAndGet();
+            byte[] song = songs.get(md5);
+            return new ByteArrayInputStream(song, (int) offset, song.length - (int) offset);
+        };
+
+        // 历史：0 之后多半播放 1，偶尔播放 2；1 之后播放 3
+        TransitionTable table = new TransitionTable();
+        for (int i = 0; i < 3; i++) {
+            table.record("warm-0", "warm-1");
+        }
+        table.record("warm-0", "warm-2");
+        table.record("warm-1", "warm-3");
+        table.record(null, "warm-9");
+        File tableFile = new File(dir, TransitionTable.FILE_NAME);
+        // 磁盘预算只够一首：预热 1 之后 2 被跳过
+        CacheWarmer warmer = new CacheWarmer(table, tableFile, downloader, 2, BYTES_PER_SECOND, SONG_BYTES);
+
+        long start = System.nanoTime();
+        warmer.songStarted("warm-0");
+        waitUntil(() -> warmer.getWarmedCount() + warmer.getSkippedCount() >= 2, 10000);
+        long warmMillis = (System.nanoTime() - start) / 1_000_000;
+        check(StreamCache.getRecord("warm-1") != null, "最常接着播放的歌曲应被预热");
+        check(StreamCache.getRecord("warm-2") == null && warmer.getSkippedCount() == 1, "超出磁盘预算时应跳过");
+        long minMillis = SONG_BYTES * 1000L / BYTES_PER_SECOND * 8 / 10;
+        System.out.println("预热 " + SONG_BYTES / 1024 + " KB 用时 " + warmMillis + " ms（限速 "
+            + BYTES_PER_SECOND / 1024 + " KB/s）");
+        check(warmMillis >= minMillis, "预热下载速度应受限");
+
+        // 有其他下载时不预热，下载结束后再开始
+        CountDownLatch release = new CountDownLatch(1);
+        Thread busy = new Thread(() -> {
+            try {
+                StreamCache.fetch("busy", (md5, offset) -> new FilterInputStream(downloader.open(md5, offset)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return super.read(b, off, len);
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        busy.start();
+        waitUntil(() -> StreamCache.getActiveDownloads() > 0, 5000);
+        check(StreamCache.getActiveDownloads() > 0, "占用带宽的下载没有开始");
+
+        // 播放预热过的 1：计入命中，释放预算，接着预热 3
+        warmer.songStarted("warm-1");
+        check(warmer.getPlayedCount() == 1 && warmer.getOutstandingBytes() == 0, "播放预热的歌曲应计入命中");
+        Thread.sleep(600);
+        check(!requests.containsKey("warm-3"), "有其他下载时不应预热");
+        release.countDown();
+        busy.join();
+        waitUntil(() -> warmer.getWarmedCount() == 2, 10000);
+        check(StreamCache.getRecord("warm-3") != null, "其他下载结束后应继续预热");
+        check(requests.get("warm-1").get() == 1, "预热过的歌曲播放时不应再下载");
+
+        // 关闭后切换记录保存到文件
+        warmer.shutdown();
+        waitUntil(() -> TransitionTable.load(tableFile).getCount("warm-0", "warm-1") == 4, 5000);
+        TransitionTable saved = TransitionTable.load(tableFile);
+        check(saved.getCount("warm-0", "warm-1") == 4 && "warm-1".equals(saved.getLastPlayed()), "切换记录应保存");
+        check(saved.getCount("warm-9", "warm-0") == 1, "应记录从上次最后播放的歌曲的切换");
+
+        System.out.println(warmer);
+        check(warmer.getHitRatio() == 0.5, "命中率应为播放数与预热数之比");
+    }
+}
@@ -0,0 +1,120 @@
+package com.musicplayer.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 磁盘缓存淘汰测试：超出预算时后台删除最久未使用的文件，固定的歌曲不被淘汰；
+ * 在“常听歌曲 + 一次性试听”的访问序列上比较各淘汰策略的命中率
+ */
+public class StreamCacheEvictionTest {
+    /** 每个测试文件的大小 */
+    private static final int FILE_BYTES = 100 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("stream-cache-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        try {
+            // 预算只够三个文件，访问过的文件保留，最久未使用的被淘汰
+            StreamCache.setBudgetBytes(3L * FILE_BYTES);
+            byte[] data = new byte[FILE_BYTES];
+            for (int i = 0; i < 3; i++) {
+                StreamCache.cacheStream("song" + i, new ByteArrayInputStream(data));
+            }
+            StreamCache.getCachedFile("song0");
+            StreamCache.cacheStream("song3", new ByteArrayInputStream(data));
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getSizeBytes() <= StreamCache.getBudgetBytes(), "缓存超出预算");
+            check(!new File(dir, "music_song1.mp3").exists(), "最久未使用的文件应被删除");
+            check(StreamCache.getCachedFile("song0") != null && StreamCache.getCachedFile("song3") != null,
+                "最近使用的文件不应被删除");
+
+            // 固定的歌曲即使最久未使用也不淘汰
+            StreamCache.setPinned(Collections.singleton("song2"));
+            StreamCache.cacheStream("song4", new ByteArrayInputStream(data));
+            StreamCache.cacheStream("song5", new ByteArrayInputStream(data));
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getCachedFile("song2") != null, "固定的歌曲被淘汰");
+            check(StreamCache.getEntryCount() == 3, "淘汰后条目数不正确");
+
+            // 查找只读内存映射，不等待淘汰线程
+            long start = System.nanoTime();
+            for (int i = 0; i < 100_000; i++) {
+                StreamCache.getCachedFile("song" + (i % 6));
+            }
+            System.out.printf("查找平均 %.2f us，%s%n", (System.nanoTime() - start) / 100_000 / 1000.0,
+                StreamCache.getStats());
+        } finally {
+            StreamCache.clearCache();
+            dir.delete();
+        }
+
+        // 常听歌曲夹杂大量只听一次的歌曲时，TinyLFU准入保护常听歌曲
+        double lru = hitRatio(EvictionPolicy::lru);
+        double lfu = hitRatio(EvictionPolicy::lfu);
+        double tinyLfu = hitRatio(EvictionPolicy::tinyLfu);
+        System.out.printf("命中率 LRU %.1f%%，LFU %.1f%%，TinyLFU %.1f%%%n", lru * 100, lfu * 100, tinyLfu * 100);
+        check(tinyLfu > lru, "TinyLFU 的命中率应高于 LRU");
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 用与 StreamCache 相同的准入和淘汰规则模拟容量为50首的缓存
+     */
+    private static double hitRatio(Supplier<EvictionPolicy> factory) {
+        EvictionPolicy policy = factory.get();
+        Set<String> cached = new HashSet<>();
+        Random random = new Random(42);
+        int capacity = 50;
+        int hits = 0;
+        int requests = 0;
+        int oneOff = 0;
+        for (int i = 0; i < 200_000; i++) {
+            String key;
+            if (random.nextInt(3) == 0) {
+                key = "once-" + oneOff++;
+            } else {
+                // 常听歌曲按Zipf分布选择
+                key = "fav-" + (int) Math.pow(200, random.nextDouble());
+            }
+            requests++;
+            if (cached.contains(key)) {
+                hits++;
+                policy.onAccess(key);
+                continue;
+            }
+            cached.add(key);
+            policy.onInsert(key, 1);
+            while (cached.size() > capacity) {
+                String victim = null;
+                for (Iterator<String> it = policy.victims(); it.hasNext(); ) {
+                    String next = it.next();
+                    if (!next.equals(key)) {
+                        victim = next;
+                        break;
+                    }
+                }
+                if (policy.admit(key, victim)) {
+                    cached.remove(victim);
+                    policy.onRemove(victim);
+                } else {
+                    cached.remove(key);
+                    policy.onRemove(key);
+                }
+            }
+        }
+        return (double) hits / requests;
+    }
+}
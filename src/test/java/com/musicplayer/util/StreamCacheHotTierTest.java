@@ -0,0 +1,127 @@
+package com.musicplayer.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.readAll;
+
+/**
+ * 内存层测试：播放两次以上的条目载入内存，读取时不打开文件（文件移走后仍能读到）；
+ * 预取和下载时检查是否已缓存不计入播放次数；
+ * 播放次数更多的新条目替换最少的条目，条目数和字节数不超过上限；输出内存与文件读取的耗时对比
+ */
+public class StreamCacheHotTierTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 256 * 1024;
+
+    /** 对比耗时时每种方式的读取次数 */
+    private static final int ROUNDS = 300;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("stream-hot-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        String[] keys = {"hot-a", "hot-b", "hot-c", "hot-d"};
+        byte[][] songs = new byte[keys.length][];
+        Random random = new Random(53);
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                songs[i] = new byte[SONG_BYTES];
+                random.nextBytes(songs[i]);
+                StreamCache.cacheStream(keys[i], new ByteArrayInputStream(songs[i]));
+            }
+            StreamCache.setHotTierLimits(2, 3L * SONG_BYTES);
+
+            // a 播放3次，b 2次，c 1次：a、b 载入内存
+            play(keys[0], 3);
+            play(keys[1], 2);
+            play(keys[2], 1);
+            check(StreamCache.isHot(keys[0]) && StreamCache.isHot(keys[1]), "播放两次以上的条目应载入内存");
+            check(!StreamCache.isHot(keys[2]), "只播放一次的条目不应载入内存");
+            check(StreamCache.getHotBytes() == 2L * SONG_BYTES, "内存层占用的字节数不正确");
+
+            // 预取和下载只检查是否已缓存，不算播放：c 不会因此载入内存
+            long hits = StreamCache.getHits();
+            for (int i = 0; i < 5; i++) {
+                check(StreamCache.peekFile(keys[2]) != null, "已缓存的条目查不到");
+                check(StreamCache.fetch(keys[2], (md5, offset) -> {
+                    throw new IOException("已缓存的条目不应下载");
+                }) != null, "已缓存的条目应直接返回");
+            }
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getHits() == hits && !StreamCache.isHot(keys[2]), "只检查是否已缓存不应计入命中");
+
+            // 文件移走后仍能从内存读到完整内容，说明读取不打开文件
+            File fileA = StreamCache.getCachedFile(keys[0]);
+            File moved = new File(dir, "moved.mp3");
+            check(fileA.renameTo(moved), "无法移动缓存文件");
+            check(Arrays.equals(readAndClose(StreamCache.getInputStream(keys[0])), songs[0]), "内存中的内容不正确");
+            InputStream skipped = StreamCache.getInputStream(keys[0]);
+            check(skipped.skip(SONG_BYTES - 10) == SONG_BYTES - 10 && readAndClose(skipped).length == 10, "跳过后读取不正确");
+            check(moved.renameTo(fileA), "无法移回缓存文件");
+
+            // d 播放5次：替换播放次数最少的 b
+            play(keys[3], 5);
+            check(StreamCache.isHot(keys[3]) && !StreamCache.isHot(keys[1]), "播放更多的新条目应替换最少的条目");
+            check(StreamCache.getHotEntryCount() == 2, "条目数不应超过上限");
+
+            // 对比读取耗时：a 在内存中，c 只在文件中，先各读一轮预热
+            time(keys[0]);
+            time(keys[2]);
+            long hotNanos = time(keys[0]);
+            long fileNanos = time(keys[2]);
+            System.out.printf("读取 %d KB %d 次：内存 %.2f ms/次，文件 %.2f ms/次%n", SONG_BYTES / 1024, ROUNDS,
+                hotNanos / 1e6 / ROUNDS, fileNanos / 1e6 / ROUNDS);
+
+            // 缩小字节上限：按播放次数从少到多移出，对比耗时后 a 播放最多
+            StreamCache.setHotTierLimits(2, SONG_BYTES + 1);
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getHotEntryCount() == 1 && StreamCache.isHot(keys[0]), "缩小上限后应只保留播放最多的条目");
+            check(StreamCache.getHotBytes() <= SONG_BYTES + 1, "占用不应超过字节上限");
+
+            // 条目从缓存删除时一并移出内存
+            StreamCache.invalidate(keys[0]);
+            StreamCache.awaitMaintenance();
+            check(StreamCache.getHotEntryCount() == 0 && StreamCache.getHotBytes() == 0, "删除的条目应移出内存");
+
+            System.out.println(StreamCache.getHotTierStats());
+            check(StreamCache.getHotHitRatio() > 0 && StreamCache.getHotServedBytes() > 0, "应统计命中率和读出字节数");
+        } finally {
+            StreamCache.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static void play(String key, int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            readAndClose(StreamCache.getInputStream(key));
+            StreamCache.awaitMaintenance();
+        }
+    }
+
+    private static long time(String key) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            readAndClose(StreamCache.getInputStream(key));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static byte[] readAndClose(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return readAll(stream);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+import static com.musicplayer.TestSupport.readFully;
+
+/**
+ * 分段缓存测试：在未缓存的歌曲中向前跳转时只下载跳转位置的分段，不必等前面的数据；
+ * 中止后分段位图保留在磁盘上，之后只用Range请求补齐缺少的分段；服务器不支持Range时仍能正确读取
+ */
+public class StreamCacheSegmentTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 1024 * 1024;
+
+    /** 服务器每次发送的字节数，每次间隔20ms，约400KB/s */
+    private static final int CHUNK_BYTES = 8 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("stream-segment-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        byte[] song = new byte[SONG_BYTES];
+        new Random(23).nextBytes(song);
+        List<Long> rangeStarts = new CopyOnWriteArrayList<>();
+
+        // 慢速本地服务器：一个入口支持Range请求，另一个忽略Range总是返回整个文件
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ranged/downloadMusic", exchange -> {
+            int start = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                rangeStarts.add((long) start);
+                exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + (song.length - 1) + "/" + song.length);
+                exchange.sendResponseHeaders(206, song.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, song.length);
+            }
+            send(exchange, song, start);
+        });
+        server.createContext("/plain/downloadMusic", exchange -> {
+            exchange.sendResponseHeaders(200, song.length);
+            send(exchange, song, 0);
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        MusicServerAPI ranged = new MusicServerAPI(base + "/ranged");
+        MusicServerAPI plain = new MusicServerAPI(base + "/plain");
+
+        try {
+            ranged.downloadMusic("warmup").close();
+
+            // 读完开头后跳到3/4处：下载立即改从目标分段开始
+            int target = SONG_BYTES * 3 / 4 + 1000;
+            long segmentStart = (long) target / StreamCache.SEGMENT_BYTES * StreamCache.SEGMENT_BYTES;
+            byte[] head = new byte[StreamCache.SEGMENT_BYTES + 4096];
+            byte[] tail = new byte[8192];
+            byte[] more = new byte[StreamCache.SEGMENT_BYTES];
+            long sequentialMillis = (long) target / CHUNK_BYTES * 20;
+            InputStream in = StreamCache.openStream("seek", ranged::downloadMusic);
+            readFully(in, head);
+            long start = System.nanoTime();
+            check(in.skip(target - head.length) == target - head.length, "跳过的字节数不正确");
+            readFully(in, tail);
+            long seekMillis = (System.nanoTime() - start) / 1_000_000;
+            readFully(in, more);
+            in.close();
+            System.out.println("跳到 " + target + " 后读到数据用时 " + seekMillis + " ms（顺序下载到该处约需 "
+                + sequentialMillis + " ms），Range请求起点 " + rangeStarts);
+            check(Arrays.equals(head, Arrays.copyOfRange(song, 0, head.length)), "开头的数据不正确");
+            check(Arrays.equals(tail, Arrays.copyOfRange(song, target, target + tail.length)), "跳转后读到的数据不正确");
+            check(Arrays.equals(more, Arrays.copyOfRange(song, target + tail.length, target + tail.length + more.length)),
+                "跳转后继续读到的数据不正确");
+            check(seekMillis * 2 < sequentialMillis, "跳转后应直接下载目标位置");
+            check(rangeStarts.contains(segmentStart), "应从目标位置所在的分段开始请求");
+
+            // 中止后只保留播放位置附近的分段，位图写在磁盘上
+            waitUntil(() -> StreamCache.getAbortedDownloads() == 1, 5000);
+            long partial = StreamCache.getPartialBytes("seek");
+            System.out.println("中止后保留 " + partial + " 字节");
+            check(StreamCache.getAbortedDownloads() == 1, "无人读取的下载应中止");
+            check(new File(dir, "part_seek.map").isFile(), "分段位图应写在磁盘上");
+            check(partial > 0 && partial < SONG_BYTES / 2, "只应下载播放位置附近的分段: " + partial);
+
+            // 补齐：只下载缺少的分段
+            rangeStarts.clear();
+            long bytesBefore = StreamCache.getDownloadedBytes();
+            File file = StreamCache.fetch("seek", ranged::downloadMusic);
+            long fetched = StreamCache.getDownloadedBytes() - bytesBefore;
+            System.out.println("补齐下载 " + fetched + " 字节，Range请求起点 " + rangeStarts);
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), song), "补齐后的缓存文件不正确");
+            check(fetched == SONG_BYTES - partial, "应只下载缺少的分段");
+            check(!new File(dir, "part_seek.map").exists() && !new File(dir, "part_seek.mp3").exists(),
+                "完成后应删除未完成的文件和位图");
+
+            // 服务器不支持Range时跳过前面的字节，读到的数据仍然正确
+            InputStream fallback = StreamCache.openStream("plain", plain::downloadMusic);
+            readFully(fallback, head);
+            check(fallback.skip(target - head.length) == target - head.length, "跳过的字节数不正确");
+            readFully(fallback, tail);
+            fallback.close();
+            check(Arrays.equals(tail, Arrays.copyOfRange(song, target, target + tail.length)),
+                "不支持Range时跳转后的数据不正确");
+            File plainFile = StreamCache.fetch("plain", plain::downloadMusic);
+            check(Arrays.equals(Files.readAllBytes(plainFile.toPath()), song), "不支持Range时缓存文件不正确");
+            System.out.println(StreamCache.getStats());
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            StreamCache.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static void send(HttpExchange exchange, byte[] song, int start) {
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = start; offset < song.length; offset += CHUNK_BYTES) {
+                out.write(song, offset, Math.min(CHUNK_BYTES, song.length - offset));
+                out.flush();
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端放弃连接
+        }
+    }
+}
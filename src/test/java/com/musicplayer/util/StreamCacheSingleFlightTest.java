@@ -0,0 +1,124 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * 并发下载测试：64个调用者同时请求同一批歌曲，每首歌只发出一次HTTP请求，
+ * 所有调用者得到内容完整的同一个缓存文件，且不留下临时文件
+ */
+public class StreamCacheSingleFlightTest {
+    /** 并发调用者数 */
+    private static final int CALLERS = 64;
+
+    /** 歌曲数 */
+    private static final int SONGS = 4;
+
+    /** 每首歌的大小 */
+    private static final int SONG_BYTES = 512 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("single-flight-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+        File blobDir = Files.createTempDirectory("blob-store-").toFile();
+        System.setProperty("musicplayer.blob.dir", blobDir.getPath());
+
+        // 本地音乐服务器，分块慢速返回，保证各调用者的请求相互重叠
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        Map<String, byte[]> songs = new ConcurrentHashMap<>();
+        Random random = new Random(7);
+        List<String> md5s = new ArrayList<>();
+        for (int i = 0; i < SONGS; i++) {
+            byte[] data = new byte[SONG_BYTES];
+            random.nextBytes(data);
+            MessageDigest digest = Md5Utils.newDigest();
+            digest.update(data);
+            String md5 = Md5Utils.toHex(digest.digest());
+            songs.put(md5, data);
+            requests.put(md5, new AtomicInteger());
+            md5s.add(md5);
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            String md5 = exchange.getRequestURI().getQuery().substring("md5=".length());
+            requests.get(md5).incrementAndGet();
+            byte[] data = songs.get(md5);
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int offset = 0; offset < data.length; offset += 32 * 1024) {
+                    out.write(data, offset, Math.min(32 * 1024, data.length - offset));
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        MusicServerAPI api = new MusicServerAPI(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server");
+
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        CyclicBarrier start = new CyclicBarrier(CALLERS);
+        List<Future<List<File>>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            List<String> order = new ArrayList<>(md5s);
+            Collections.shuffle(order, new Random(i));
+            results.add(callers.submit(() -> {
+                start.await();
+                List<File> files = new ArrayList<>();
+                for (String md5 : order) {
+                    files.add(StreamCache.fetch(md5, api::downloadMusic));
+                }
+                return files;
+            }));
+        }
+        for (Future<List<File>> result : results) {
+            for (File file : result.get()) {
+                String name = file.getName();
+                String md5 = name.substring("music_".length(), name.length() - ".mp3".length());
+                check(Arrays.equals(Files.readAllBytes(file.toPath()), songs.get(md5)), "缓存文件内容不完整: " + name);
+            }
+        }
+        callers.shutdown();
+        server.stop(0);
+
+        System.out.println("每首歌的HTTP请求数: " + requests + "，" + StreamCache.getStats());
+        for (String md5 : md5s) {
+            check(requests.get(md5).get() == 1, "同一首歌发出了多次请求: " + md5);
+        }
+        check(StreamCache.getDownloads() == SONGS, "实际下载次数不正确");
+        String[] leftovers = dir.list((d, name) -> name.startsWith("temp_"));
+        check(leftovers != null && leftovers.length == 0, "留下了临时文件");
+
+        StreamCache.clearCache();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+        FileUtils.deleteQuietly(blobDir);
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+}
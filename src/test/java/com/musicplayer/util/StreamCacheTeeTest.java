@@ -0,0 +1,193 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+import static com.musicplayer.TestSupport.readAll;
+import static com.musicplayer.TestSupport.readFully;
+
+/**
+ * 边下载边播放测试：读取者在下载完成前就拿到最初的数据，两个读取者共用一次下载，
+ * 下载完成后缓存文件与原文件一致；失败或中止的下载保留已写入部分，下次用Range请求从断点继续
+ */
+public class StreamCacheTeeTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 1024 * 1024;
+
+    /** 服务器每次发送的字节数 */
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    /** 播放开始前需要的字节数 */
+    private static final int FIRST_BYTES = 4 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("stream-tee-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        byte[] song = new byte[SONG_BYTES];
+        new Random(11).nextBytes(song);
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger rangeRequests = new AtomicInteger();
+        AtomicLong lastRangeStart = new AtomicLong(-1);
+
+        // 支持Range请求的慢速本地服务器，完整下载约需0.6秒
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            requests.incrementAndGet();
+            int start = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                rangeRequests.incrementAndGet();
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                lastRangeStart.set(start);
+                exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + (song.length - 1) + "/" + song.length);
+                exchange.sendResponseHeaders(206, song.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, song.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int offset = start; offset < song.length; offset += CHUNK_BYTES) {
+                    int length = Math.min(CHUNK_BYTES, song.length - offset);
+                    out.write(song, offset, length);
+                    out.flush();
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 客户端中止下载
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        MusicServerAPI api = new MusicServerAPI(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server");
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+
+        try {
+            // 预热连接和类加载，不计入首字节时间
+            api.downloadMusic("warmup").close();
+            requests.set(0);
+
+            // 第一个读取者收到最初几KB即可开始，第二个读取者加入同一次下载
+            long start = System.nanoTime();
+            InputStream first = StreamCache.openStream("tee", api::downloadMusic);
+            byte[] head = new byte[FIRST_BYTES];
+            readFully(first, head);
+            long firstMillis = (System.nanoTime() - start) / 1_000_000;
+            InputStream second = StreamCache.openStream("tee", api::downloadMusic);
+            Future<byte[]> firstRest = readers.submit(() -> readAll(first));
+            Future<byte[]> secondAll = readers.submit(() -> readAll(second));
+            ByteArrayOutputStream firstAll = new ByteArrayOutputStream();
+            firstAll.write(head);
+            firstAll.write(firstRest.get());
+            long totalMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("首个 " + FIRST_BYTES + " 字节用时 " + firstMillis + " ms，完整下载用时 " + totalMillis + " ms");
+            check(firstMillis * 4 < totalMillis, "读取者应在下载完成前拿到最初的数据");
+            check(Arrays.equals(firstAll.toByteArray(), song), "第一个读取者读到的内容不正确");
+            check(Arrays.equals(secondAll.get(), song), "第二个读取者读到的内容不正确");
+            first.close();
+            second.close();
+            File cached = StreamCache.getCachedFile("tee");
+            check(cached != null && Arrays.equals(Files.readAllBytes(cached.toPath()), song), "缓存文件内容不完整");
+            check(requests.get() == 1, "两个读取者应共用一次下载: " + requests.get());
+
+            // 下载中途失败：已写入的部分保留，再次读取时从断点继续
+            requests.set(0);
+            StreamCache.Downloader failing = (md5, offset) ->
+                new FailingInputStream(api.downloadMusic(md5, offset), SONG_BYTES / 4);
+            try (InputStream broken = StreamCache.openStream("broken", failing)) {
+                readAll(broken);
+                check(false, "下载失败时读取者应收到异常");
+            } catch (IOException expected) {
+                // 预期的失败
+            }
+            File part = new File(dir, "part_broken.mp3");
+            check(StreamCache.getCachedFile("broken") == null, "失败的下载不应进入缓存");
+            check(StreamCache.getPartialBytes("broken") == SONG_BYTES / 4,
+                "失败的下载应保留已写入的部分: " + StreamCache.getPartialBytes("broken"));
+            byte[] resumed;
+            try (InputStream again = StreamCache.openStream("broken", api::downloadMusic)) {
+                resumed = readAll(again);
+            }
+            System.out.println("失败后续传: 保留 " + SONG_BYTES / 4 + " 字节，从 " + lastRangeStart.get() + " 继续");
+            check(requests.get() == 2, "失败后续传的请求数不正确: " + requests.get());
+            check(Arrays.equals(resumed, song), "续传后读到的内容不正确");
+            check(rangeRequests.get() == 1, "续传应使用Range请求");
+            // 读取者读完时下载线程可能还在把文件移入缓存
+            waitUntil(() -> !part.exists(), 5000);
+            check(!part.exists() && !new File(dir, "part_broken.map").exists(), "续传完成后应移除未完成的文件");
+
+            // 播放中途切歌：唯一的读取者关闭后下载中止，下次从断点继续
+            InputStream skipped = StreamCache.openStream("skipped", api::downloadMusic);
+            readFully(skipped, new byte[SONG_BYTES / 4]);
+            skipped.close();
+            waitUntil(() -> StreamCache.getAbortedDownloads() == 1, 5000);
+            long kept = StreamCache.getPartialBytes("skipped");
+            check(StreamCache.getAbortedDownloads() == 1, "无人读取的下载应中止");
+            check(kept >= SONG_BYTES / 4 && kept < SONG_BYTES, "中止的下载应保留已写入的部分: " + kept);
+            File refetched = StreamCache.fetch("skipped", api::downloadMusic);
+            System.out.println("中止后续传: 保留 " + kept + " 字节，从 " + lastRangeStart.get() + " 继续，"
+                + StreamCache.getStats());
+            check(Arrays.equals(Files.readAllBytes(refetched.toPath()), song), "中止后续传的缓存文件不正确");
+            check(lastRangeStart.get() == kept, "续传应只下载缺少的部分");
+            check(StreamCache.getResumedDownloads() == 2, "续传次数不正确");
+        } finally {
+            readers.shutdown();
+            server.stop(0);
+            serverThreads.shutdown();
+            StreamCache.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 读到指定字节数后抛出异常的输入流，模拟网络中断
+     */
+    private static class FailingInputStream extends FilterInputStream {
+        private long remaining;
+
+        FailingInputStream(InputStream in, long failAfter) {
+            super(in);
+            this.remaining = failAfter;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.musicplayer.util;
+
+import com.musicplayer.network.MusicServerAPI;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+
+/**
+ * MD5校验测试：下载时边写边计算摘要，一致的条目登记为已校验，续传时只读回已有的部分；
+ * 服务器返回错误内容时丢弃并重新下载；巡检器并行限速地重新核对缓存文件，删除损坏的文件
+ */
+public class StreamCacheVerifyTest {
+    /** 歌曲大小 */
+    private static final int SONG_BYTES = 256 * 1024;
+
+    /** 巡检器每个线程每秒读取的字节数 */
+    private static final long SCRUB_BYTES_PER_SECOND = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("stream-verify-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+        File blobDir = Files.createTempDirectory("blob-store-").toFile();
+        System.setProperty("musicplayer.blob.dir", blobDir.getPath());
+
+        // 以内容的MD5为标识的歌曲
+        Map<String, byte[]> songs = new HashMap<>();
+        Random random = new Random(31);
+        String[] md5s = new String[4];
+        for (int i = 0; i < md5s.length; i++) {
+            byte[] song = new byte[SONG_BYTES];
+            random.nextBytes(song);
+            md5s[i] = md5(song);
+            songs.put(md5s[i], song);
+        }
+        String corrupted = md5s[1];
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger corruptedRequests = new AtomicInteger();
+
+        // 本地服务器支持Range请求，第一次请求 corrupted 时返回被改动一个字节的内容
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/music.server/downloadMusic", exchange -> {
+            requests.incrementAndGet();
+            String md5 = exchange.getRequestURI().getQuery().substring("md5=".length());
+            byte[] song = songs.get(md5);
+            if (song == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (md5.equals(corrupted) && corruptedRequests.getAndIncrement() == 0) {
+                song = song.clone();
+                song[SONG_BYTES / 2] ^= 1;
+            }
+            int start = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + (song.length - 1) + "/" + song.length);
+                exchange.sendResponseHeaders(206, song.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, song.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(song, start, song.length - start);
+            } catch (IOException e) {
+                // 客户端中止下载
+            }
+        });
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        MusicServerAPI api = new MusicServerAPI(
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/music.server");
+
+        try {
+            // 顺序下载：摘要随写入计算，不读回文件
+            File file = StreamCache.fetch(md5s[0], api::downloadMusic);
+            StreamCache.awaitMaintenance();
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), songs.get(md5s[0])), "缓存文件不正确");
+            check(StreamCache.getRecord(md5s[0]).verified, "内容一致的条目应登记为已校验");
+            check(StreamCache.getRereadBytes() == 0, "顺序下载不应读回文件");
+
+            // 内容错误：丢弃后重新下载一次
+            requests.set(0);
+            file = StreamCache.fetch(corrupted, api::downloadMusic);
+            StreamCache.awaitMaintenance();
+            System.out.println("内容错误时请求 " + requests.get() + " 次，" + StreamCache.getStats());
+            check(requests.get() == 2, "内容错误时应重新下载一次");
+            check(StreamCache.getCorruptFiles() == 1, "应记录一个损坏的文件");
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), songs.get(corrupted)), "重新下载的文件不正确");
+            check(StreamCache.getRecord(corrupted).verified, "重新下载的条目应登记为已校验");
+
+            // 续传：断点之前的部分从磁盘读回计算摘要
+            String resumed = md5s[2];
+            int failAfter = SONG_BYTES / 2;
+            AtomicInteger attempts = new AtomicInteger();
+            file = StreamCache.fetch(resumed, (md5, offset) -> {
+                InputStream in = api.downloadMusic(md5, offset);
+                return attempts.getAndIncrement() == 0 ? new FailingInputStream(in, failAfter) : in;
+            });
+            StreamCache.awaitMaintenance();
+            System.out.println("续传时读回 " + StreamCache.getRereadBytes() + " 字节");
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), songs.get(resumed)), "续传的文件不正确");
+            check(StreamCache.getRecord(resumed).verified, "续传的条目应登记为已校验");
+            check(StreamCache.getRereadBytes() == failAfter, "续传时应只读回断点之前的部分");
+
+            // 写入临时文件的缓存方式同样校验
+            try {
+                StreamCache.cacheStream(md5s[3], new ByteArrayInputStream(songs.get(md5s[0])));
+                check(false, "内容与MD5不一致时应抛出异常");
+            } catch (IOException expected) {
+                // 内容与MD5不一致
+            }
+            check(StreamCache.getRecord(md5s[3]) == null, "内容错误的文件不应加入缓存");
+            check(StreamCache.getCorruptFiles() == 2, "应记录两个损坏的文件");
+            StreamCache.cacheStream(md5s[3], new ByteArrayInputStream(songs.get(md5s[3])));
+
+            // 巡检：截断一个缓存文件，两个线程限速检查
+            File damaged = StreamCache.getCachedFile(md5s[0]);
+            try (RandomAccessFile raf = new RandomAccessFile(damaged, "rw")) {
+                raf.setLength(SONG_BYTES - 1000);
+            }
+            CacheScrubber scrubber = new CacheScrubber(2, SCRUB_BYTES_PER_SECOND);
+            long start = System.nanoTime();
+            int found = scrubber.scrubOnce();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            StreamCache.awaitMaintenance();
+            long minMillis = scrubber.getScannedBytes() * 1000 / (2 * SCRUB_BYTES_PER_SECOND);
+            System.out.println(scrubber + "，用时 " + millis + " ms（限速下至少 " + minMillis + " ms）");
+            check(found == 1 && scrubber.getCorruptFiles() == 1, "应发现一个损坏的文件");
+            check(scrubber.getCheckedFiles() == 4, "应检查所有条目");
+            check(StreamCache.getRecord(md5s[0]) == null && !damaged.exists(), "损坏的文件应被删除");
+            check(StreamCache.getCorruptFiles() == 3, "巡检发现的损坏应计入缓存统计");
+            check(millis * 10 >= minMillis * 8, "巡检应按限速读取");
+            for (int i = 1; i < md5s.length; i++) {
+                check(StreamCache.getRecord(md5s[i]).verified, "完好的条目应保持已校验");
+            }
+            scrubber.shutdown();
+
+            // 删除后下次播放重新下载
+            file = StreamCache.fetch(md5s[0], api::downloadMusic);
+            check(Arrays.equals(Files.readAllBytes(file.toPath()), songs.get(md5s[0])), "重新下载的文件不正确");
+        } finally {
+            server.stop(0);
+            serverThreads.shutdown();
+            StreamCache.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+            FileUtils.deleteQuietly(blobDir);
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    private static String md5(byte[] data) {
+        MessageDigest digest = Md5Utils.newDigest();
+        digest.update(data);
+        return Md5Utils.toHex(digest.digest());
+    }
+
+    /**
+     * 读到指定字节数后抛出异常，模拟连接中断
+     */
+    private static class FailingInputStream extends FilterInputStream {
+        private long remaining;
+
+        FailingInputStream(InputStream in, long failAfter) {
+            super(in);
+            this.remaining = failAfter;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.musicplayer.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.musicplayer.TestSupport.check;
+import static com.musicplayer.TestSupport.waitUntil;
+
+/**
+ * 预取测试：按队列顺序播放在线歌曲时，除第一首外每次切歌都命中缓存；
+ * 队列变化后过期的下载被立即取消，且不会留下缓存文件或临时文件
+ */
+public class StreamPrefetcherTest {
+    /** 模拟的下载速度（字节/秒） */
+    private static final int BYTES_PER_SECOND = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File("sample_songs/list1").listFiles((dir, name) -> name.endsWith(".mp3"));
+        if (files == null || files.length < 2) {
+            System.err.println("测试失败: 缺少示例歌曲 sample_songs/list1");
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        File dir = Files.createTempDirectory("stream-prefetch-").toFile();
+        System.setProperty("musicplayer.cache.dir", dir.getPath());
+
+        // 用示例歌曲模拟在线歌单，每首歌使用唯一的MD5
+        String prefix = "prefetch-test-" + System.nanoTime() + "-";
+        List<String> queue = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            queue.add(prefix + i);
+        }
+        AtomicInteger requests = new AtomicInteger();
+        StreamPrefetcher prefetcher = new StreamPrefetcher((md5, offset) -> {
+            requests.incrementAndGet();
+            int index = Integer.parseInt(md5.substring(prefix.length()));
+            return new ThrottledInputStream(new FileInputStream(files[index % files.length]), BYTES_PER_SECOND);
+        });
+
+        try {
+            // 顺序播放：每首歌开始时预取后两首，播放一段时间后切到下一首
+            int hits = 0;
+            for (int i = 0; i < queue.size(); i++) {
+                if (StreamCache.getCachedFile(queue.get(i)) != null) {
+                    hits++;
+                }
+                List<String> lookahead = new ArrayList<>();
+                for (int j = i + 1; j <= Math.min(i + 2, queue.size() - 1); j++) {
+                    lookahead.add(queue.get(j));
+                }
+                prefetcher.prefetch(lookahead);
+                waitUntil(() -> lookahead.isEmpty() || StreamCache.getCachedFile(lookahead.get(0)) != null, 30000);
+            }
+            System.out.println("切歌 " + (queue.size() - 1) + " 次，命中缓存 " + hits + " 次，" + prefetcher);
+            check(hits == queue.size() - 1, "除第一首外切歌都应命中缓存");
+            check(requests.get() == queue.size() - 1, "每首歌只应下载一次");
+
+            // 队列变化：正在下载的歌曲不再需要时立即取消
+            String stale = prefix + "stale";
+            String fresh = prefix + "fresh";
+            StreamPrefetcher slow = new StreamPrefetcher((md5, offset) -> {
+                InputStream in = new FileInputStream(files[0]);
+                in.skip(offset);
+                return new ThrottledInputStream(in, 64 * 1024);
+            });
+            slow.prefetch(Collections.singletonList(stale));
+            waitUntil(() -> slow.isFetching(stale), 5000);
+            check(slow.isFetching(stale), "预取没有开始");
+            long start = System.nanoTime();
+            slow.prefetch(Collections.singletonList(fresh));
+            waitUntil(() -> slow.isFetching(fresh), 5000);
+            long cancelMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("取消过期下载用时 " + cancelMillis + " ms，" + slow);
+            check(slow.getCancelledCount() == 1, "过期的下载应被取消");
+            check(cancelMillis < 1000, "取消过期下载太慢");
+            check(StreamCache.getCachedFile(stale) == null, "被取消的歌曲不应写入缓存");
+            check(!new File(dir, "temp_" + stale + ".mp3").exists(), "被取消的下载留下了临时文件");
+            slow.shutdown();
+            waitUntil(() -> slow.getCancelledCount() == 2, 5000);
+            check(slow.getCancelledCount() == 2 && StreamCache.getCachedFile(fresh) == null, "关闭后下载应被取消");
+        } finally {
+            prefetcher.shutdown();
+            StreamCache.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+
+        System.out.println("测试通过");
+        System.exit(0);
+    }
+
+    /**
+     * 按固定速度读取的输入流，模拟网络下载
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final int bytesPerSecond;
+
+        ThrottledInputStream(InputStream in, int bytesPerSecond) {
+            super(in);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int chunk = Math.min(len, bytesPerSecond / 100);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.read(b, off, chunk);
+        }
+    }
+}